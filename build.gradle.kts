@@ -17,9 +17,49 @@ java {
     }
 }
 
+// JMH benchmarks live in their own source set so they never run as part of `test`.
+// Test output is included so benchmarks can reuse the allocation helpers (ThreadAllocations, JfrAllocations).
+val jmh: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output + sourceSets.test.get().output
+    runtimeClasspath += sourceSets.main.get().output + sourceSets.test.get().output
+}
+
+// Smoke test for GraalVM native images; see the nativeSmokeTest task.
+val nativeSmoke: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
 dependencies {
     testImplementation("org.junit.jupiter:junit-jupiter:5.10.2")
     testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+}
+
+// Usage: ./gradlew jmh [-PjmhArgs="DecodeBenchmark -p size=1024 -t 4"]
+// Defaults to all benchmarks with the GC profiler, so allocation rates are reported next to timings.
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs JMH benchmarks from src/jmh."
+    classpath = jmh.runtimeClasspath
+    mainClass = "org.openjdk.jmh.Main"
+    jvmArgs("--enable-native-access=ALL-UNNAMED")
+    val extra = providers.gradleProperty("jmhArgs").orNull?.trim()?.split(Regex("\\s+"))?.filter { it.isNotEmpty() }
+    args(extra ?: listOf("-prof", "gc"))
+}
+
+// Usage: ./gradlew corpusBench -PcorpusArgs="/path/to/images --iterations 20 --json"
+tasks.register<JavaExec>("corpusBench") {
+    group = "benchmark"
+    description = "Decodes a directory of real-world images with jwuff and the JDK readers and reports statistics."
+    classpath = jmh.runtimeClasspath
+    mainClass = "com.agulev.jwuff.bench.CorpusBench"
+    jvmArgs("--enable-native-access=ALL-UNNAMED")
+    maxHeapSize = "4g"
+    val extra = providers.gradleProperty("corpusArgs").orNull?.trim()?.split(Regex("\\s+"))?.filter { it.isNotEmpty() }
+    args(extra ?: emptyList())
 }
 
 tasks.test {
@@ -36,6 +76,28 @@ tasks.test {
     passThrough("jwuff.stress")
     passThrough("jwuff.log.decode")
     passThrough("jwuff.debug.magic")
+    passThrough("jwuff.decode.sliceBytes")
+    passThrough("jwuff.decode.stepMillis")
+    passThrough("jwuff.decode.callMode")
+    passThrough("jwuff.decode.offHeapThresholdBytes")
+    passThrough("jwuff.inputStream.poolSize")
+    passThrough("jwuff.inputStream.maxPooledBytes")
+    passThrough("jwuff.async.threads")
+    passThrough("jwuff.async.queueSize")
+    passThrough("jwuff.decoder.poolSize")
+    passThrough("jwuff.decoder.maxPooledWorkbufBytes")
+    passThrough("jwuff.encode.threads")
+    passThrough("jwuff.gc")
+    passThrough("jwuff.gc.decodes")
+    passThrough("jwuff.gc.assert")
+    passThrough("jwuff.metrics")
+    passThrough("jwuff.metrics.jmx")
+    passThrough("jwuff.native.memoryLimitBytes")
+    passThrough("jwuff.native.cacheDir")
+    passThrough("jwuff.native.cache")
+    passThrough("jwuff.native.variant")
+    passThrough("jwuff.native.path")
+    passThrough("jwuff.native.static")
     passThrough("jwuff.perf.path")
     passThrough("jwuff.perf.assertRatio")
     passThrough("jwuff.perf.minRatio")
@@ -77,13 +139,17 @@ val nativeLibFileName = when {
     else -> "libwuffs_imageio.so"
 }
 
-val avx2NativeLibFileName = when {
-    isWindows -> "wuffs_imageio_avx2.dll"
-    isMac -> "libwuffs_imageio_avx2.dylib"
-    else -> "libwuffs_imageio_avx2.so"
+fun variantNativeLibFileName(variant: String) = when {
+    isWindows -> "wuffs_imageio_$variant.dll"
+    isMac -> "libwuffs_imageio_$variant.dylib"
+    else -> "libwuffs_imageio_$variant.so"
 }
 
-val buildAvx2Variant = isX64 && (isWindows || isLinux || (isMac && !isArm64))
+// Must match the variants in src/native/CMakeLists.txt and NativeLibrary (no v3 with MSVC).
+val x86VariantNativeLibFileNames =
+    (if (isWindows) listOf("avx2", "v4") else listOf("avx2", "v3", "v4")).map(::variantNativeLibFileName)
+
+val buildX86Variants = isX64 && (isWindows || isLinux || (isMac && !isArm64))
 
 val nativeSourceDir = layout.projectDirectory.dir("src/native")
 val nativeBuildDir = layout.buildDirectory.dir("native/build")
@@ -128,6 +194,7 @@ gradle.taskGraph.whenReady {
     enableIfSelected("jwuff.perf", "ImageIoReadByteArrayPerformanceTest")
     enableIfSelected("jwuff.mem", "MemoryAndGcTest")
     enableIfSelected("jwuff.stress", "PngMultithreadedStressTest")
+    enableIfSelected("jwuff.gc", "GcStallBenchmarkTest")
 }
 
 tasks.register("verifyWuffsSubmodule") {
@@ -177,7 +244,7 @@ tasks.register<Copy>("copyNative") {
 
     val libsToCopy = buildList {
         add(nativeLibFileName)
-        if (buildAvx2Variant) add(avx2NativeLibFileName)
+        if (buildX86Variants) addAll(x86VariantNativeLibFileNames)
     }
 
     for (lib in libsToCopy) {
@@ -219,4 +286,88 @@ tasks.named<ProcessResources>("processResources") {
         from(file(nativesDirProperty.get()))
     }
     duplicatesStrategy = DuplicatesStrategy.EXCLUDE
+    // NativeLibrary names the cache entry after this hash, so a warm start does not read the library.
+    doLast {
+        destinationDir.resolve("natives").walkTopDown()
+            .filter { it.isFile && it.extension in setOf("so", "dylib", "dll") }
+            .forEach { lib ->
+                val hash = java.security.MessageDigest.getInstance("SHA-256").digest(lib.readBytes())
+                lib.resolveSibling(lib.name + ".sha256").writeText(java.util.HexFormat.of().formatHex(hash) + "\n")
+            }
+    }
+}
+
+// GraalVM native-image smoke test (Linux x86_64). Requires GRAALVM_HOME (or JAVA_HOME) to point at a GraalVM for
+// JDK 25. Usage: ./gradlew nativeSmokeTest [-PnativeImageLink=bundled|static]
+//  - bundled (default): the shared library is embedded as an image resource and extracted on first use, as on a JVM.
+//  - static: libwuffs_imageio_static.a is linked into the executable and its symbols are looked up in the process.
+val nativeImageLink = providers.gradleProperty("nativeImageLink").getOrElse("bundled")
+val nativeSmokeDir = layout.buildDirectory.dir("native-smoke")
+val nativeSmokeExecutable = nativeSmokeDir.map { it.file("jwuff-smoke-$nativeImageLink") }
+
+tasks.register<Exec>("buildNativeStatic") {
+    onlyIf { isLinux && isX64 }
+    dependsOn("configureNative")
+    commandLine(
+        "cmake",
+        "--build", nativeBuildDir.get().asFile.absolutePath,
+        "--config", "Release",
+        "--target", "wuffs_imageio_static",
+    )
+}
+
+tasks.register<Exec>("nativeSmokeImage") {
+    group = "verification"
+    description = "Builds the native-image smoke test executable."
+    onlyIf { isLinux && isX64 }
+    dependsOn(tasks.jar, "nativeSmokeClasses")
+    if (nativeImageLink == "static") dependsOn("buildNativeStatic")
+    if (nativeImageLink != "bundled" && nativeImageLink != "static") {
+        throw GradleException("nativeImageLink must be bundled or static: $nativeImageLink")
+    }
+
+    val graalHome = System.getenv("GRAALVM_HOME") ?: System.getenv("JAVA_HOME") ?: ""
+    val classpath = files(tasks.jar.get().archiveFile, nativeSmoke.output.classesDirs)
+    inputs.files(classpath)
+    outputs.file(nativeSmokeExecutable)
+    doFirst { nativeSmokeDir.get().asFile.mkdirs() }
+    executable = File(graalHome, "bin/native-image").absolutePath
+    args(
+        "-cp", classpath.asPath,
+        "-o", nativeSmokeExecutable.get().asFile.absolutePath,
+        "-Djava.awt.headless=true",
+        "--no-fallback",
+        // A failing CI build is diagnosable from its log only with the full stack trace.
+        "-H:+ReportExceptionStackTraces",
+    )
+    if (nativeImageLink == "static") {
+        val archive = nativeBuildDir.get().asFile.resolve("libwuffs_imageio_static.a").absolutePath
+        args(
+            // The archive is only reached through dlsym, so keep every member and export its symbols.
+            "-H:NativeLinkerOption=-Wl,--whole-archive",
+            "-H:NativeLinkerOption=$archive",
+            "-H:NativeLinkerOption=-Wl,--no-whole-archive",
+            "-H:NativeLinkerOption=-Wl,--export-dynamic",
+            "-H:NativeLinkerOption=-lm",
+            // The shared libraries are not needed in a static image.
+            "-H:ExcludeResources=natives/.*",
+        )
+    }
+    args("com.agulev.jwuff.smoke.NativeImageSmoke")
+}
+
+tasks.register<Exec>("nativeSmokeTest") {
+    group = "verification"
+    description = "Decodes a PNG and a JPEG in a GraalVM native image."
+    onlyIf { isLinux && isX64 }
+    dependsOn("nativeSmokeImage")
+    val images = layout.projectDirectory.dir("src/test/resources/images")
+    doFirst {
+        // Keep the extracted library out of the user's cache.
+        environment("XDG_CACHE_HOME", nativeSmokeDir.get().dir("cache").asFile.absolutePath)
+    }
+    executable = nativeSmokeExecutable.get().asFile.absolutePath
+    // Fail rather than fall back to extraction if the static symbols are missing.
+    if (nativeImageLink == "static") args("-Djwuff.native.static=true")
+    args(images.file("onepx.png").asFile.absolutePath, images.file("red16.jpg").asFile.absolutePath)
 }
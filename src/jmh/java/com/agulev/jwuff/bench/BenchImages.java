@@ -0,0 +1,91 @@
+package com.agulev.jwuff.bench;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic synthetic fixtures for the benchmarks.
+ *
+ * <p>Images are smooth gradients with seeded noise, which compress to realistic ratios rather than the trivially
+ * small streams produced by flat colors. Encoding uses the JDK writers, so fixtures do not depend on jwuff.</p>
+ */
+final class BenchImages {
+    private BenchImages() {}
+
+    /**
+     * Image kinds accepted by {@link #encode(String, int)}: {@code <format>-<colorType>}.
+     */
+    static final String PNG_RGBA = "png-rgba";
+    static final String PNG_RGB = "png-rgb";
+    static final String PNG_GRAY = "png-gray";
+    static final String JPEG_RGB = "jpeg-rgb";
+    static final String JPEG_GRAY = "jpeg-gray";
+
+    static byte[] encode(String kind, int size) {
+        String[] parts = kind.toLowerCase(Locale.ROOT).split("-", 2);
+        if (parts.length != 2) throw new IllegalArgumentException("Expected <format>-<colorType>: " + kind);
+        String format = parts[0];
+        int type = switch (parts[1]) {
+            case "rgba" -> BufferedImage.TYPE_4BYTE_ABGR;
+            case "rgb" -> BufferedImage.TYPE_3BYTE_BGR;
+            case "gray" -> BufferedImage.TYPE_BYTE_GRAY;
+            default -> throw new IllegalArgumentException("Unknown color type: " + parts[1]);
+        };
+        if (format.equals("jpeg") && type == BufferedImage.TYPE_4BYTE_ABGR) {
+            throw new IllegalArgumentException("JPEG has no alpha: " + kind);
+        }
+
+        BufferedImage img = synthesize(size, size, type);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            if (!ImageIO.write(img, format, out)) {
+                throw new IllegalStateException("No ImageIO writer for " + format);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    static String formatOf(String kind) {
+        return kind.substring(0, kind.indexOf('-'));
+    }
+
+    /**
+     * Returns a JDK (non-jwuff) reader for {@code format}.
+     */
+    static ImageReader jdkReader(String format) {
+        Iterator<ImageReader> it = ImageIO.getImageReadersByFormatName(format);
+        while (it.hasNext()) {
+            ImageReader r = it.next();
+            if (!r.getClass().getName().startsWith("com.agulev.jwuff.")) return r;
+            r.dispose();
+        }
+        throw new IllegalStateException("No JDK reader for " + format);
+    }
+
+    private static BufferedImage synthesize(int width, int height, int type) {
+        BufferedImage img = new BufferedImage(width, height, type);
+        SplittableRandom rnd = new SplittableRandom(0x6A77756666L);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int n = rnd.nextInt(16);
+                int r = ((x * 255) / Math.max(1, width - 1) + n) & 0xFF;
+                int g = ((y * 255) / Math.max(1, height - 1) + n) & 0xFF;
+                int b = (((x + y) * 127) / Math.max(1, width + height - 2) + n) & 0xFF;
+                int a = 0x80 + ((x ^ y) & 0x7F);
+                row[x] = (a << 24) | (r << 16) | (g << 8) | b;
+            }
+            img.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return img;
+    }
+}
@@ -0,0 +1,304 @@
+package com.agulev.jwuff.bench;
+
+import com.agulev.jwuff.JfrAllocations;
+import com.agulev.jwuff.JwuffImageIO;
+import com.agulev.jwuff.ThreadAllocations;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Decodes every PNG/JPEG under a directory with jwuff and with the JDK readers and reports per-format statistics.
+ *
+ * <p>Usage: {@code CorpusBench <dir> [--iterations N] [--warmup N] [--max-files N] [--jfr] [--json]}</p>
+ *
+ * <p>For each file and decoder the image is decoded {@code --warmup} times untimed, then {@code --iterations} times
+ * timed. Allocation is measured on one extra decode per file with {@link ThreadAllocations} (or {@link JfrAllocations}
+ * with {@code --jfr}). Files are recognized by magic bytes, not extensions.</p>
+ */
+public final class CorpusBench {
+    private CorpusBench() {}
+
+    private static final String[] DECODERS = {"jwuff", "jdk"};
+
+    public static void main(String[] args) throws Exception {
+        Options opts = Options.parse(args);
+        List<Path> files = listImages(opts.dir, opts.maxFiles);
+        if (files.isEmpty()) {
+            System.err.println("No PNG/JPEG files found under " + opts.dir);
+            System.exit(2);
+        }
+        ImageIO.setUseCache(false);
+
+        // format -> decoder -> stats
+        Map<String, Map<String, Stats>> results = new LinkedHashMap<>();
+        for (Path file : files) {
+            byte[] bytes = Files.readAllBytes(file);
+            String format = formatOf(bytes);
+            if (format == null) continue;
+            Map<String, Stats> byDecoder = results.computeIfAbsent(format, f -> {
+                Map<String, Stats> m = new LinkedHashMap<>();
+                for (String d : DECODERS) m.put(d, new Stats());
+                return m;
+            });
+            for (String decoder : DECODERS) {
+                run(decoder, format, bytes, opts, byDecoder.get(decoder));
+            }
+        }
+
+        if (opts.json) {
+            System.out.println(toJson(results));
+        } else {
+            printTable(results);
+        }
+    }
+
+    private static void run(String decoder, String format, byte[] bytes, Options opts, Stats stats) {
+        stats.files++;
+        stats.encodedBytes += bytes.length;
+        try {
+            BufferedImage first = decode(decoder, format, bytes);
+            long decodedBytes = (long) first.getWidth() * first.getHeight() * 4;
+            for (int i = 1; i < opts.warmup; i++) {
+                decode(decoder, format, bytes);
+            }
+            for (int i = 0; i < opts.iterations; i++) {
+                long t0 = System.nanoTime();
+                decode(decoder, format, bytes);
+                stats.latenciesNs.add(System.nanoTime() - t0);
+                stats.timedEncodedBytes += bytes.length;
+                stats.timedDecodedBytes += decodedBytes;
+            }
+            Runnable op = () -> {
+                try {
+                    decode(decoder, format, bytes);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            };
+            long allocated = opts.jfr
+                    ? JfrAllocations.measureAllocatedBytesForCurrentThread(op)
+                    : ThreadAllocations.measureAllocatedBytesForCurrentThread(op);
+            if (allocated >= 0) {
+                stats.allocatedBytes += allocated;
+                stats.allocationSamples++;
+            }
+        } catch (Exception | LinkageError e) {
+            stats.failures++;
+        }
+    }
+
+    private static BufferedImage decode(String decoder, String format, byte[] bytes) throws IOException {
+        if (decoder.equals("jwuff")) {
+            BufferedImage img = JwuffImageIO.read(bytes);
+            if (img == null) throw new IOException("jwuff returned null");
+            return img;
+        }
+        ImageReader reader = BenchImages.jdkReader(format);
+        try (ImageInputStream iis = JwuffImageIO.createImageInputStream(bytes)) {
+            reader.setInput(iis, false, true);
+            return reader.read(0);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private static List<Path> listImages(Path dir, int maxFiles) throws IOException {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            return walk.filter(Files::isRegularFile)
+                    .filter(CorpusBench::looksLikeImage)
+                    .sorted()
+                    .limit(maxFiles)
+                    .toList();
+        }
+    }
+
+    private static boolean looksLikeImage(Path p) {
+        try (var in = Files.newInputStream(p)) {
+            return formatOf(in.readNBytes(8)) != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static String formatOf(byte[] b) {
+        if (b.length >= 8 && (b[0] & 0xFF) == 0x89 && b[1] == 'P' && b[2] == 'N' && b[3] == 'G') return "png";
+        if (b.length >= 3 && (b[0] & 0xFF) == 0xFF && (b[1] & 0xFF) == 0xD8 && (b[2] & 0xFF) == 0xFF) return "jpeg";
+        return null;
+    }
+
+    private static void printTable(Map<String, Map<String, Stats>> results) {
+        System.out.printf(Locale.ROOT, "%-6s %-7s %7s %8s %6s %10s %10s %12s %12s %14s%n",
+                "format", "decoder", "files", "decodes", "fails", "p50 ms", "p99 ms", "enc MB/s", "dec MB/s", "alloc/decode");
+        for (var format : results.entrySet()) {
+            for (var e : format.getValue().entrySet()) {
+                Stats s = e.getValue();
+                System.out.printf(Locale.ROOT, "%-6s %-7s %7d %8d %6d %10.3f %10.3f %12.1f %12.1f %14s%n",
+                        format.getKey(), e.getKey(), s.files, s.latenciesNs.size(), s.failures,
+                        s.percentileMs(0.50), s.percentileMs(0.99), s.encodedMbPerSec(), s.decodedMbPerSec(),
+                        fmtBytes(s.allocatedPerDecode()));
+            }
+            Stats jwuff = format.getValue().get("jwuff");
+            Stats jdk = format.getValue().get("jdk");
+            System.out.printf(Locale.ROOT, "%-6s speedup (jdk/jwuff): p50 %.2fx, p99 %.2fx, throughput %.2fx%n",
+                    format.getKey(), ratio(jdk.percentileMs(0.50), jwuff.percentileMs(0.50)),
+                    ratio(jdk.percentileMs(0.99), jwuff.percentileMs(0.99)),
+                    ratio(jwuff.decodedMbPerSec(), jdk.decodedMbPerSec()));
+        }
+    }
+
+    private static String toJson(Map<String, Map<String, Stats>> results) {
+        StringBuilder sb = new StringBuilder("{");
+        boolean firstFormat = true;
+        for (var format : results.entrySet()) {
+            if (!firstFormat) sb.append(',');
+            firstFormat = false;
+            sb.append('"').append(format.getKey()).append("\":{");
+            for (var e : format.getValue().entrySet()) {
+                Stats s = e.getValue();
+                sb.append('"').append(e.getKey()).append("\":{")
+                        .append("\"files\":").append(s.files)
+                        .append(",\"decodes\":").append(s.latenciesNs.size())
+                        .append(",\"failures\":").append(s.failures)
+                        .append(",\"p50Ms\":").append(num(s.percentileMs(0.50)))
+                        .append(",\"p99Ms\":").append(num(s.percentileMs(0.99)))
+                        .append(",\"encodedMBps\":").append(num(s.encodedMbPerSec()))
+                        .append(",\"decodedMBps\":").append(num(s.decodedMbPerSec()))
+                        .append(",\"allocatedBytesPerDecode\":").append(s.allocatedPerDecode())
+                        .append("},");
+            }
+            Stats jwuff = format.getValue().get("jwuff");
+            Stats jdk = format.getValue().get("jdk");
+            sb.append("\"speedup\":{")
+                    .append("\"p50\":").append(num(ratio(jdk.percentileMs(0.50), jwuff.percentileMs(0.50))))
+                    .append(",\"p99\":").append(num(ratio(jdk.percentileMs(0.99), jwuff.percentileMs(0.99))))
+                    .append(",\"throughput\":").append(num(ratio(jwuff.decodedMbPerSec(), jdk.decodedMbPerSec())))
+                    .append("}}");
+        }
+        return sb.append('}').toString();
+    }
+
+    private static double ratio(double a, double b) {
+        return b == 0 ? 0 : a / b;
+    }
+
+    private static String num(double v) {
+        return Double.isFinite(v) ? String.format(Locale.ROOT, "%.4f", v) : "null";
+    }
+
+    private static String fmtBytes(long bytes) {
+        if (bytes < 0) return "n/a";
+        if (bytes < 1024) return bytes + " B";
+        if (bytes < 1024L * 1024) return String.format(Locale.ROOT, "%.1f KiB", bytes / 1024.0);
+        return String.format(Locale.ROOT, "%.1f MiB", bytes / (1024.0 * 1024.0));
+    }
+
+    private static final class Stats {
+        int files;
+        int failures;
+        long encodedBytes;
+        long timedEncodedBytes;
+        long timedDecodedBytes;
+        long allocatedBytes;
+        int allocationSamples;
+        final LongList latenciesNs = new LongList();
+
+        double percentileMs(double q) {
+            if (latenciesNs.size() == 0) return 0;
+            long[] sorted = latenciesNs.sorted();
+            int idx = (int) Math.min(sorted.length - 1, Math.ceil(q * sorted.length) - 1);
+            return sorted[Math.max(0, idx)] / 1_000_000.0;
+        }
+
+        double encodedMbPerSec() {
+            return mbPerSec(timedEncodedBytes);
+        }
+
+        double decodedMbPerSec() {
+            return mbPerSec(timedDecodedBytes);
+        }
+
+        long allocatedPerDecode() {
+            return allocationSamples == 0 ? -1 : allocatedBytes / allocationSamples;
+        }
+
+        private double mbPerSec(long bytes) {
+            long ns = latenciesNs.sum();
+            return ns == 0 ? 0 : (bytes / (1024.0 * 1024.0)) / (ns / 1_000_000_000.0);
+        }
+    }
+
+    private static final class LongList {
+        private long[] values = new long[64];
+        private int size;
+
+        void add(long v) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = v;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long sum() {
+            long s = 0;
+            for (int i = 0; i < size; i++) s += values[i];
+            return s;
+        }
+
+        long[] sorted() {
+            long[] copy = Arrays.copyOf(values, size);
+            Arrays.sort(copy);
+            return copy;
+        }
+    }
+
+    private record Options(Path dir, int iterations, int warmup, int maxFiles, boolean jfr, boolean json) {
+        static Options parse(String[] args) {
+            Path dir = null;
+            int iterations = 10;
+            int warmup = 3;
+            int maxFiles = Integer.MAX_VALUE;
+            boolean jfr = false;
+            boolean json = false;
+            List<String> rest = new ArrayList<>(Arrays.asList(args));
+            for (int i = 0; i < rest.size(); i++) {
+                String a = rest.get(i);
+                switch (a) {
+                    case "--iterations" -> iterations = Integer.parseInt(rest.get(++i));
+                    case "--warmup" -> warmup = Integer.parseInt(rest.get(++i));
+                    case "--max-files" -> maxFiles = Integer.parseInt(rest.get(++i));
+                    case "--jfr" -> jfr = true;
+                    case "--json" -> json = true;
+                    default -> {
+                        if (a.startsWith("--") || dir != null) usage("Unexpected argument: " + a);
+                        dir = Path.of(a);
+                    }
+                }
+            }
+            if (dir == null) usage("Missing image directory");
+            if (!Files.isDirectory(dir)) usage("Not a directory: " + dir);
+            if (iterations <= 0 || warmup < 1 || maxFiles <= 0) usage("iterations/max-files must be > 0 and warmup >= 1");
+            return new Options(dir, iterations, warmup, maxFiles, jfr, json);
+        }
+
+        private static void usage(String error) {
+            System.err.println(error);
+            System.err.println("Usage: CorpusBench <dir> [--iterations N] [--warmup N] [--max-files N] [--jfr] [--json]");
+            System.exit(2);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.agulev.jwuff.bench;
+
+import com.agulev.jwuff.JwuffImageIO;
+import com.agulev.jwuff.model.FrameResult;
+import com.agulev.jwuff.model.ProbeResult;
+import com.agulev.jwuff.nativelib.WuffsFFI;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-threaded probe and decode cost across formats, sizes and color types.
+ *
+ * <p>{@code jdkImageIoRead} uses the JDK reader directly so the comparison does not depend on plugin ordering.
+ * Thread scaling is covered by {@link ThreadScalingBenchmark}; native variants by {@link NativeVariantBenchmark}.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-native-access=ALL-UNNAMED")
+public class DecodeBenchmark {
+    @Param({BenchImages.PNG_RGBA, BenchImages.PNG_RGB, BenchImages.PNG_GRAY, BenchImages.JPEG_RGB, BenchImages.JPEG_GRAY})
+    public String image;
+
+    @Param({"256", "1024", "4096"})
+    public int size;
+
+    private byte[] bytes;
+    private byte[] dst;
+    private String format;
+
+    @Setup
+    public void setUp() throws IOException {
+        bytes = BenchImages.encode(image, size);
+        format = BenchImages.formatOf(image);
+        ProbeResult p = WuffsFFI.probe(bytes);
+        dst = new byte[Math.multiplyExact(p.height(), p.strideBytes())];
+        JwuffImageIO.register(true);
+        ImageIO.setUseCache(false);
+    }
+
+    @Benchmark
+    public ProbeResult wuffsProbe() {
+        return WuffsFFI.probe(bytes);
+    }
+
+    @Benchmark
+    public FrameResult wuffsDecodeFrameInto() {
+        return WuffsFFI.decodeFrameInto(bytes, 0, dst);
+    }
+
+    @Benchmark
+    public BufferedImage jwuffRead() throws IOException {
+        return JwuffImageIO.read(bytes);
+    }
+
+    @Benchmark
+    public BufferedImage imageIoReadWithJwuff() throws IOException {
+        try (ImageInputStream iis = JwuffImageIO.createImageInputStream(bytes)) {
+            return ImageIO.read(iis);
+        }
+    }
+
+    @Benchmark
+    public BufferedImage jdkImageIoRead() throws IOException {
+        ImageReader reader = BenchImages.jdkReader(format);
+        try (ImageInputStream iis = JwuffImageIO.createImageInputStream(bytes)) {
+            reader.setInput(iis, false, true);
+            return reader.read(0);
+        } finally {
+            reader.dispose();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.agulev.jwuff.bench;
+
+import com.agulev.jwuff.nativelib.NativeLibrary;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Raw {@code wuffs_decode_frame_into} cost for each packaged native library variant.
+ *
+ * <p>Each variant is loaded side by side from the jar resources, independently of which one
+ * {@link NativeLibrary} selected. Variants that are not packaged for this platform, or that the CPU cannot run, fail
+ * their setup and are reported as errors by JMH without affecting the other variants.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-native-access=ALL-UNNAMED")
+public class NativeVariantBenchmark {
+    @Param({"baseline", "avx2", "v3", "v4"})
+    public String variant;
+
+    @Param({BenchImages.PNG_RGBA, BenchImages.JPEG_RGB})
+    public String image;
+
+    @Param({"1024", "4096"})
+    public int size;
+
+    private Arena arena;
+    private MethodHandle decode;
+    private byte[] bytes;
+    private byte[] dst;
+    private MemorySegment out;
+
+    @Setup
+    public void setUp() throws Throwable {
+        String resource = NativeLibrary.resourcePathForCurrentPlatform(variant);
+        if (resource == null) throw new IllegalStateException("No " + variant + " variant on this platform");
+        // Checked before loading: a variant's own code may not be safe to run on this CPU.
+        if (!NativeLibrary.supportedVariants().contains(variant)) {
+            throw new IllegalStateException("CPU does not support " + variant);
+        }
+
+        arena = Arena.ofShared();
+        SymbolLookup symbols = SymbolLookup.libraryLookup(extract(resource), arena);
+        Linker linker = Linker.nativeLinker();
+        decode = linker.downcallHandle(
+                symbols.find("wuffs_decode_frame_into").orElseThrow(),
+                FunctionDescriptor.of(
+                        ValueLayout.JAVA_INT,
+                        ValueLayout.ADDRESS,
+                        ValueLayout.JAVA_LONG,
+                        ValueLayout.JAVA_INT,
+                        ValueLayout.ADDRESS,
+                        ValueLayout.ADDRESS,
+                        ValueLayout.JAVA_LONG,
+                        ValueLayout.ADDRESS
+                ),
+                Linker.Option.critical(true)
+        );
+
+        bytes = BenchImages.encode(image, size);
+        dst = new byte[Math.multiplyExact(size * 4, size)];
+        out = arena.allocate(16);
+    }
+
+    @TearDown
+    public void tearDown() {
+        arena.close();
+    }
+
+    @Benchmark
+    public int decodeFrameInto() throws Throwable {
+        int code = (int) decode.invoke(
+                MemorySegment.ofArray(bytes),
+                (long) bytes.length,
+                0,
+                MemorySegment.NULL,
+                MemorySegment.ofArray(dst),
+                (long) dst.length,
+                out
+        );
+        if (code != 0) throw new IllegalStateException("decode failed: " + code);
+        return code;
+    }
+
+    private static Path extract(String resource) throws IOException {
+        try (InputStream in = NativeVariantBenchmark.class.getResourceAsStream(resource)) {
+            if (in == null) throw new IllegalStateException("Native variant not packaged: " + resource);
+            Path dir = Files.createTempDirectory("jwuff-bench-natives-");
+            dir.toFile().deleteOnExit();
+            Path lib = dir.resolve(resource.substring(resource.lastIndexOf('/') + 1));
+            Files.copy(in, lib, StandardCopyOption.REPLACE_EXISTING);
+            lib.toFile().deleteOnExit();
+            return lib;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.agulev.jwuff.bench;
+
+import com.agulev.jwuff.JwuffImageIO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decode throughput with 1, 4 and all-core concurrent callers, jwuff vs the JDK readers.
+ *
+ * <p>Use JMH's {@code -t} option to try other thread counts for a single method.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-native-access=ALL-UNNAMED")
+public class ThreadScalingBenchmark {
+    @Param({BenchImages.PNG_RGBA, BenchImages.JPEG_RGB})
+    public String image;
+
+    @Param({"1024"})
+    public int size;
+
+    private byte[] bytes;
+    private String format;
+
+    @Setup
+    public void setUp() {
+        bytes = BenchImages.encode(image, size);
+        format = BenchImages.formatOf(image);
+        ImageIO.setUseCache(false);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public BufferedImage jwuff_1t() throws IOException {
+        return JwuffImageIO.read(bytes);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public BufferedImage jwuff_4t() throws IOException {
+        return JwuffImageIO.read(bytes);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public BufferedImage jwuff_max() throws IOException {
+        return JwuffImageIO.read(bytes);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public BufferedImage jdk_1t() throws IOException {
+        return readJdk();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public BufferedImage jdk_4t() throws IOException {
+        return readJdk();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public BufferedImage jdk_max() throws IOException {
+        return readJdk();
+    }
+
+    private BufferedImage readJdk() throws IOException {
+        ImageReader reader = BenchImages.jdkReader(format);
+        try (ImageInputStream iis = JwuffImageIO.createImageInputStream(bytes)) {
+            reader.setInput(iis, false, true);
+            return reader.read(0);
+        } finally {
+            reader.dispose();
+        }
+    }
+}
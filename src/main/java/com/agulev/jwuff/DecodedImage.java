@@ -0,0 +1,152 @@
+package com.agulev.jwuff;
+
+import com.agulev.jwuff.nativelib.WuffsPixelFormat;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+
+/**
+ * Pixels decoded by {@link JwuffDecoder}: {@code height} rows of {@code stride} bytes in {@link #pixelFormat()}.
+ *
+ * <p>The pixels live in exactly one backing store, chosen by the decode call: a {@code byte[]}, an {@code int[]} of
+ * ARGB values, or a native segment. The accessor matching the backing store returns it without copying; the others
+ * copy.</p>
+ */
+public final class DecodedImage {
+    // BGRA bytes read as little-endian ints are ARGB.
+    static final ValueLayout.OfInt BGRA_AS_INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    private final int width;
+    private final int height;
+    private final int stride;
+    private final int pixelFormat;
+    private final MemorySegment pixels;
+
+    DecodedImage(int width, int height, int stride, int pixelFormat, MemorySegment pixels) {
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+        this.pixelFormat = pixelFormat;
+        this.pixels = pixels;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /**
+     * Returns the row length in bytes.
+     */
+    public int stride() {
+        return stride;
+    }
+
+    /**
+     * Returns the {@link WuffsPixelFormat} of {@link #bytes()} and {@link #segment()}; currently always
+     * {@link WuffsPixelFormat#BGRA_NONPREMUL}.
+     */
+    public int pixelFormat() {
+        return pixelFormat;
+    }
+
+    /**
+     * Returns the pixels in {@link #pixelFormat()} byte order. This is the backing array for byte decodes and a copy
+     * otherwise.
+     */
+    public byte[] bytes() {
+        Object base = pixels.heapBase().orElse(null);
+        if (base instanceof byte[] array && array.length == pixels.byteSize()) {
+            return array;
+        }
+        byte[] copy = new byte[Math.toIntExact(pixels.byteSize())];
+        if (base instanceof int[] argb) {
+            MemorySegment.copy(
+                    pixels, ValueLayout.JAVA_INT, 0L, MemorySegment.ofArray(copy), BGRA_AS_INT, 0L, argb.length);
+        } else {
+            MemorySegment.copy(pixels, 0L, MemorySegment.ofArray(copy), 0L, copy.length);
+        }
+        return copy;
+    }
+
+    /**
+     * Returns one ARGB value per pixel, as {@link BufferedImage#TYPE_INT_ARGB} stores them. This is the backing array
+     * for {@link JwuffDecoder#decodeArgb} and a copy otherwise.
+     */
+    public int[] ints() {
+        if (pixels.heapBase().orElse(null) instanceof int[] array) {
+            return array;
+        }
+        return pixels.toArray(BGRA_AS_INT);
+    }
+
+    /**
+     * Returns the pixels as a memory segment: the native segment for arena decodes, or a view of the heap array.
+     */
+    public MemorySegment segment() {
+        return pixels;
+    }
+
+    /**
+     * Returns true if the pixels live in native memory.
+     */
+    public boolean isNative() {
+        return pixels.isNative();
+    }
+
+    /**
+     * Wraps the pixels in a {@link BufferedImage}. Heap-backed images share their array with the result; native
+     * ones are copied to the heap first.
+     */
+    public BufferedImage toBufferedImage() {
+        if (pixels.heapBase().orElse(null) instanceof int[] argb) {
+            DirectColorModel cm = (DirectColorModel) ColorModel.getRGBdefault();
+            DataBufferInt db = new DataBufferInt(argb, argb.length);
+            SinglePixelPackedSampleModel sm =
+                    new SinglePixelPackedSampleModel(DataBuffer.TYPE_INT, width, height, cm.getMasks());
+            WritableRaster raster = Raster.createWritableRaster(sm, db, null);
+            return new BufferedImage(cm, raster, false, null);
+        }
+
+        byte[] bgra = bytes();
+        DataBufferByte db = new DataBufferByte(bgra, bgra.length);
+        WritableRaster raster = Raster.createInterleavedRaster(
+                db,
+                width,
+                height,
+                stride,
+                4,
+                new int[]{2, 1, 0, 3},
+                null
+        );
+        ComponentColorModel cm = new ComponentColorModel(
+                ColorSpace.getInstance(ColorSpace.CS_sRGB),
+                true,
+                false,
+                Transparency.TRANSLUCENT,
+                DataBuffer.TYPE_BYTE
+        );
+        return new BufferedImage(cm, raster, false, null);
+    }
+
+    @Override
+    public String toString() {
+        return "DecodedImage[" + width + "x" + height + ", stride=" + stride + (isNative() ? ", native]" : "]");
+    }
+}
@@ -0,0 +1,88 @@
+package com.agulev.jwuff;
+
+import com.agulev.jwuff.nativelib.WuffsDecodeFlags;
+
+/**
+ * Decoder settings that map to Wuffs quirks. Pass them to a reader through
+ * {@link com.agulev.jwuff.reader.JwuffImageReadParam}.
+ *
+ * @param ignoreChecksum        skip PNG CRC-32 and zlib Adler-32 verification. Faster, but corrupt input may decode
+ *                              to garbage instead of failing; only use it for trusted, pre-validated assets.
+ * @param quality               {@code WUFFS_BASE__QUIRK_QUALITY}: {@link Quality#LOWER} trades JPEG chroma upsampling
+ *                              quality for speed, {@link Quality#HIGHER} asks for the best available.
+ * @param rejectProgressiveJpeg fail progressive JPEGs with a {@code WuffsException}, e.g. to route them to another
+ *                              decoder.
+ * @param ignoreAncillaryChunks never report PNG ancillary chunks (text, color profiles, ...), even when metadata is
+ *                              requested.
+ * @param convertToSrgb         convert RGB output to sRGB natively, using the PNG's matrix/TRC iCCP profile or its
+ *                              gAMA/cHRM chunks (a gamma lookup table plus a 3x3 primaries matrix). Images that are
+ *                              untagged or tagged sRGB, grayscale output and JPEGs are left untouched.
+ * @param applyOrientation      write pixels in their EXIF-oriented position (JPEG APP1 or PNG eXIf), so no separate
+ *                              rotate/flip pass is needed. Orientations 5-8 produce a {@code height x width} image.
+ */
+public record JwuffDecodeOptions(
+        boolean ignoreChecksum,
+        Quality quality,
+        boolean rejectProgressiveJpeg,
+        boolean ignoreAncillaryChunks,
+        boolean convertToSrgb,
+        boolean applyOrientation
+) {
+    public static final JwuffDecodeOptions DEFAULT =
+            new JwuffDecodeOptions(false, Quality.DEFAULT, false, false, false, false);
+
+    public enum Quality {
+        DEFAULT,
+        LOWER,
+        HIGHER
+    }
+
+    public JwuffDecodeOptions {
+        if (quality == null) throw new IllegalArgumentException("quality == null");
+    }
+
+    public JwuffDecodeOptions withIgnoreChecksum(boolean value) {
+        return new JwuffDecodeOptions(
+                value, quality, rejectProgressiveJpeg, ignoreAncillaryChunks, convertToSrgb, applyOrientation);
+    }
+
+    public JwuffDecodeOptions withQuality(Quality value) {
+        return new JwuffDecodeOptions(
+                ignoreChecksum, value, rejectProgressiveJpeg, ignoreAncillaryChunks, convertToSrgb, applyOrientation);
+    }
+
+    public JwuffDecodeOptions withRejectProgressiveJpeg(boolean value) {
+        return new JwuffDecodeOptions(
+                ignoreChecksum, quality, value, ignoreAncillaryChunks, convertToSrgb, applyOrientation);
+    }
+
+    public JwuffDecodeOptions withIgnoreAncillaryChunks(boolean value) {
+        return new JwuffDecodeOptions(
+                ignoreChecksum, quality, rejectProgressiveJpeg, value, convertToSrgb, applyOrientation);
+    }
+
+    public JwuffDecodeOptions withConvertToSrgb(boolean value) {
+        return new JwuffDecodeOptions(
+                ignoreChecksum, quality, rejectProgressiveJpeg, ignoreAncillaryChunks, value, applyOrientation);
+    }
+
+    public JwuffDecodeOptions withApplyOrientation(boolean value) {
+        return new JwuffDecodeOptions(
+                ignoreChecksum, quality, rejectProgressiveJpeg, ignoreAncillaryChunks, convertToSrgb, value);
+    }
+
+    /**
+     * Returns these options as {@link WuffsDecodeFlags} bits for {@code WuffsFFI.openSession}.
+     */
+    public int toDecodeFlags() {
+        int flags = 0;
+        if (ignoreChecksum) flags |= WuffsDecodeFlags.IGNORE_CHECKSUM;
+        if (rejectProgressiveJpeg) flags |= WuffsDecodeFlags.REJECT_PROGRESSIVE_JPEG;
+        if (ignoreAncillaryChunks) flags |= WuffsDecodeFlags.IGNORE_ANCILLARY_CHUNKS;
+        if (convertToSrgb) flags |= WuffsDecodeFlags.CONVERT_TO_SRGB;
+        if (applyOrientation) flags |= WuffsDecodeFlags.APPLY_ORIENTATION;
+        if (quality == Quality.LOWER) flags |= WuffsDecodeFlags.QUALITY_LOWER;
+        if (quality == Quality.HIGHER) flags |= WuffsDecodeFlags.QUALITY_HIGHER;
+        return flags;
+    }
+}
@@ -0,0 +1,399 @@
+package com.agulev.jwuff;
+
+import com.agulev.jwuff.jfr.DecodeEvent;
+import com.agulev.jwuff.metrics.JwuffMetrics;
+import com.agulev.jwuff.nativelib.DecodeCallMode;
+import com.agulev.jwuff.nativelib.NativeLibrary;
+import com.agulev.jwuff.nativelib.NativeMemorySlab;
+import com.agulev.jwuff.nativelib.ReusableDecodeSession;
+import com.agulev.jwuff.nativelib.WuffsException;
+import com.agulev.jwuff.nativelib.WuffsFFI;
+import com.agulev.jwuff.nativelib.WuffsPixelFormat;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Decodes PNG and JPEG straight to pixels, without ImageIO.
+ *
+ * <p>Where {@link JwuffImageIO#read(byte[])} creates an input stream, reader, raster and color model per image, a
+ * decoder keeps a pool of native sessions whose decoder state and work buffers are reused, and returns a
+ * {@link DecodedImage} over a single pixel allocation. Pixels are 8-bit {@link WuffsPixelFormat#BGRA_NONPREMUL}
+ * (16-bit sources are reduced to 8 bits); {@link JwuffDecodeOptions} apply as for the ImageIO readers.</p>
+ *
+ * <p>Decoders are thread-safe. Each concurrent {@code decode} uses its own session; up to {@code poolSize} idle
+ * sessions are kept (default: {@code jwuff.decoder.poolSize}, or one per available processor). Sessions whose work
+ * buffer grew beyond {@code jwuff.decoder.maxPooledWorkbufBytes} (default 16 MiB) are closed rather than pooled so one
+ * large image does not pin its buffer. A decode runs to completion: there is no abort or progress reporting.</p>
+ *
+ * <p>Heap input and pixels are passed to critical downcalls, except for decodes producing at least
+ * {@code jwuff.decode.offHeapThresholdBytes} pixel bytes: as in the ImageIO readers, those stage input and pixels in
+ * native memory and copy the pixels back, so a long decode does not hold off the GC (see {@link DecodeCallMode}).
+ * Each decode emits a {@code jwuff.Decode} JFR event.</p>
+ *
+ * <p>Input split across several buffers (network reads, a chunked store) can be decoded as is: the chunks are fed
+ * to the decoder in order and only fields that straddle a boundary, plus the header (format detection, EXIF orientation,
+ * color metadata), are copied.</p>
+ *
+ * <p>To cap and attribute one decode's native memory, pass a {@link NativeMemorySlab}: that decode runs on a session
+ * of its own that allocates only from the slab, and is not pooled.</p>
+ *
+ * <p>{@code decodeScaled} decodes into temporary native memory and resamples from there, so only the scaled images
+ * reach the Java heap; one decode can produce several sizes. It does not reduce peak memory: the whole full-size
+ * frame is held in native memory while the scaled images are produced.</p>
+ */
+public final class JwuffDecoder implements AutoCloseable {
+    private static final int DEFAULT_POOL_SIZE =
+            Integer.getInteger("jwuff.decoder.poolSize", Runtime.getRuntime().availableProcessors());
+    private static final long MAX_POOLED_WORKBUF_BYTES =
+            Long.getLong("jwuff.decoder.maxPooledWorkbufBytes", 16L * 1024 * 1024);
+
+    private final ArrayBlockingQueue<ReusableDecodeSession> pool;
+    private volatile boolean closed;
+
+    public JwuffDecoder() {
+        this(DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * @param poolSize the maximum number of idle native sessions kept for reuse.
+     */
+    public JwuffDecoder(int poolSize) {
+        if (poolSize <= 0) throw new IllegalArgumentException("poolSize must be > 0: " + poolSize);
+        this.pool = new ArrayBlockingQueue<>(poolSize);
+    }
+
+    public DecodedImage decode(byte[] input) {
+        return decode(input, JwuffDecodeOptions.DEFAULT);
+    }
+
+    /**
+     * Decodes {@code input} into a new {@code byte[]}; see {@link DecodedImage#bytes()}.
+     */
+    public DecodedImage decode(byte[] input, JwuffDecodeOptions options) {
+        return decode(input, 0, input == null ? 0 : input.length, options);
+    }
+
+    /**
+     * Decodes {@code input[offset, offset + length)} into a new {@code byte[]}. The input is read in place.
+     */
+    public DecodedImage decode(byte[] input, int offset, int length, JwuffDecodeOptions options) {
+        return decode(new MemorySegment[]{slice(input, offset, length)}, options, Output.BYTES, null, null);
+    }
+
+    /**
+     * As {@link #decode(byte[], JwuffDecodeOptions)}, with the decoder state and work buffer allocated from
+     * {@code slab} instead of the native heap. A decode that needs more than the slab's capacity fails with an out of
+     * memory {@link WuffsException}. {@link NativeMemorySlab#reset() Reset} the slab before reusing it.
+     */
+    public DecodedImage decode(byte[] input, JwuffDecodeOptions options, NativeMemorySlab slab) {
+        if (slab == null) throw new IllegalArgumentException("slab == null");
+        MemorySegment[] chunks = {slice(input, 0, input == null ? 0 : input.length)};
+        return decode(chunks, options, Output.BYTES, null, slab);
+    }
+
+    /**
+     * Decodes {@code input} into a new {@code int[]} of ARGB values; see {@link DecodedImage#ints()}. The array is
+     * shared with {@link DecodedImage#toBufferedImage()}, which then needs no copy.
+     */
+    public DecodedImage decodeArgb(byte[] input, JwuffDecodeOptions options) {
+        MemorySegment[] chunks = {slice(input, 0, input == null ? 0 : input.length)};
+        return decode(chunks, options, Output.INTS, null, null);
+    }
+
+    /**
+     * Decodes {@code input}, which may be a heap or native segment, into native memory allocated from {@code arena}.
+     * With native input the decode runs as a regular downcall, so it does not hold off the GC.
+     */
+    public DecodedImage decode(MemorySegment input, JwuffDecodeOptions options, Arena arena) {
+        if (input == null || input.byteSize() == 0) throw new IllegalArgumentException("input is empty");
+        if (arena == null) throw new IllegalArgumentException("arena == null");
+        return decode(new MemorySegment[]{input}, options, Output.NATIVE, arena, null);
+    }
+
+    /**
+     * As {@link #decode(MemorySegment, JwuffDecodeOptions, Arena)}, with the decoder state and work buffer allocated
+     * from {@code slab}; see {@link #decode(byte[], JwuffDecodeOptions, NativeMemorySlab)}.
+     */
+    public DecodedImage decode(MemorySegment input, JwuffDecodeOptions options, Arena arena, NativeMemorySlab slab) {
+        if (input == null || input.byteSize() == 0) throw new IllegalArgumentException("input is empty");
+        if (arena == null) throw new IllegalArgumentException("arena == null");
+        if (slab == null) throw new IllegalArgumentException("slab == null");
+        return decode(new MemorySegment[]{input}, options, Output.NATIVE, arena, slab);
+    }
+
+    /**
+     * Decodes an image stored across {@code chunks}, in order, into a new {@code byte[]}. Each buffer's remaining
+     * bytes are read in place (direct, mapped and heap buffers alike); positions and limits are not changed. Empty
+     * buffers are skipped.
+     */
+    public DecodedImage decode(List<ByteBuffer> chunks, JwuffDecodeOptions options) {
+        if (chunks == null) throw new IllegalArgumentException("chunks == null");
+        MemorySegment[] segments = new MemorySegment[chunks.size()];
+        for (int i = 0; i < segments.length; i++) {
+            ByteBuffer chunk = chunks.get(i);
+            if (chunk == null) throw new IllegalArgumentException("chunk " + i + " is null");
+            segments[i] = MemorySegment.ofBuffer(chunk);
+        }
+        return decode(nonEmpty(segments), options, Output.BYTES, null, null);
+    }
+
+    /**
+     * Decodes an image stored across {@code chunks}, in order, into native memory allocated from {@code arena}.
+     * Empty segments are skipped.
+     */
+    public DecodedImage decode(MemorySegment[] chunks, JwuffDecodeOptions options, Arena arena) {
+        if (chunks == null) throw new IllegalArgumentException("chunks == null");
+        if (arena == null) throw new IllegalArgumentException("arena == null");
+        return decode(nonEmpty(chunks), options, Output.NATIVE, arena, null);
+    }
+
+    public DecodedImage decodeScaled(byte[] input, int targetWidth, int targetHeight, ResizeFilter filter) {
+        return decodeScaled(input, ScaleTarget.exact(targetWidth, targetHeight), filter, JwuffDecodeOptions.DEFAULT);
+    }
+
+    /**
+     * Decodes {@code input} and resamples it to {@code target} with {@code filter}. The full-size pixels stay in
+     * native memory that is freed before returning; the result is a new {@code byte[]}.
+     *
+     * <p>Peak memory is not reduced: the full-size frame ({@code 4 * width * height} bytes) is decoded into native
+     * memory before it is resampled, as for {@link #decode(MemorySegment, JwuffDecodeOptions, Arena)}. Only the Java
+     * heap is spared.</p>
+     */
+    public DecodedImage decodeScaled(
+            byte[] input, ScaleTarget target, ResizeFilter filter, JwuffDecodeOptions options) {
+        if (target == null) throw new IllegalArgumentException("target == null");
+        return decodeScaled(input, List.of(target), filter, options).get(0);
+    }
+
+    /**
+     * Decodes {@code input} once and resamples it to each of {@code targets}, each from the full-size pixels. The
+     * results are in the order of {@code targets}. As with a single target, the full-size frame is held in native
+     * memory until every target is done, so peak memory is not reduced.
+     */
+    public List<DecodedImage> decodeScaled(
+            byte[] input, List<ScaleTarget> targets, ResizeFilter filter, JwuffDecodeOptions options) {
+        return scale(slice(input, 0, input == null ? 0 : input.length), targets, filter, options, null);
+    }
+
+    /**
+     * As {@link #decodeScaled(byte[], List, ResizeFilter, JwuffDecodeOptions)}, from a heap or native segment into
+     * native memory allocated from {@code arena}.
+     */
+    public List<DecodedImage> decodeScaled(
+            MemorySegment input, List<ScaleTarget> targets, ResizeFilter filter, JwuffDecodeOptions options,
+            Arena arena) {
+        if (input == null || input.byteSize() == 0) throw new IllegalArgumentException("input is empty");
+        if (arena == null) throw new IllegalArgumentException("arena == null");
+        return scale(input, targets, filter, options, arena);
+    }
+
+    private DecodedImage decode(
+            MemorySegment[] chunks, JwuffDecodeOptions options, Output output, Arena arena, NativeMemorySlab slab) {
+        if (options == null) throw new IllegalArgumentException("options == null");
+        String format = formatName(chunks[0]);
+        long inputBytes = 0;
+        for (MemorySegment chunk : chunks) inputBytes += chunk.byteSize();
+        DecodeEvent event = new DecodeEvent();
+        event.begin();
+        ReusableDecodeSession session = acquire(slab);
+        try {
+            // A single chunk takes the contiguous path, which needs no carry-over between native calls.
+            if (chunks.length == 1) {
+                session.begin(chunks[0], options.toDecodeFlags());
+            } else {
+                session.begin(chunks, options.toDecodeFlags());
+            }
+            int width = session.width();
+            int height = session.height();
+            int stride = session.strideBytes();
+            long pixelLen = (long) stride * height;
+            DecodeCallMode mode = DecodeCallMode.select(pixelLen);
+
+            long metricsStart = JwuffMetrics.decodeStarted(pixelLen);
+            try {
+                MemorySegment pixels = switch (output) {
+                    case BYTES -> MemorySegment.ofArray(new byte[Math.toIntExact(pixelLen)]);
+                    case INTS -> MemorySegment.ofArray(new int[Math.toIntExact(pixelLen / 4)]);
+                    case NATIVE -> arena.allocate(pixelLen, 16);
+                };
+                if (chunks.length == 1) {
+                    session.decodeInto(chunks[0], pixels, mode);
+                } else {
+                    session.decodeInto(chunks, pixels, mode);
+                }
+                if (output == Output.INTS && ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN) {
+                    swapToArgb((int[]) pixels.heapBase().orElseThrow());
+                }
+                JwuffMetrics.decodeSucceeded(format, inputBytes, pixelLen, metricsStart);
+                commitEvent(event, format, session, inputBytes, pixelLen, 0);
+                return new DecodedImage(width, height, stride, WuffsPixelFormat.BGRA_NONPREMUL, pixels);
+            } finally {
+                JwuffMetrics.decodeEnded(pixelLen);
+            }
+        } catch (WuffsException e) {
+            JwuffMetrics.decodeFailed(format, e.code());
+            commitEvent(event, format, session, inputBytes, 0L, e.code());
+            throw e;
+        } finally {
+            release(session, slab);
+        }
+    }
+
+    private List<DecodedImage> scale(
+            MemorySegment input, List<ScaleTarget> targets, ResizeFilter filter, JwuffDecodeOptions options,
+            Arena outputArena) {
+        if (targets == null || targets.isEmpty()) throw new IllegalArgumentException("no targets");
+        if (filter == null) throw new IllegalArgumentException("filter == null");
+        if (options == null) throw new IllegalArgumentException("options == null");
+        String format = formatName(input);
+        DecodeEvent event = new DecodeEvent();
+        event.begin();
+        ReusableDecodeSession session = acquire(null);
+        try {
+            session.begin(input, options.toDecodeFlags());
+            int width = session.width();
+            int height = session.height();
+            int stride = session.strideBytes();
+            long pixelLen = (long) stride * height;
+            // The full frame is native; the mode decides whether heap input is staged too.
+            DecodeCallMode mode = DecodeCallMode.select(pixelLen);
+
+            long metricsStart = JwuffMetrics.decodeStarted(pixelLen);
+            try (Arena scratch = Arena.ofConfined()) {
+                MemorySegment full = scratch.allocate(pixelLen, 16);
+                session.decodeInto(input, full, mode);
+                List<DecodedImage> images = new ArrayList<>(targets.size());
+                for (ScaleTarget target : targets) {
+                    int w = target.widthFor(width, height);
+                    int h = target.heightFor(width, height);
+                    long len = 4L * w * h;
+                    MemorySegment pixels = outputArena == null
+                            ? MemorySegment.ofArray(new byte[Math.toIntExact(len)])
+                            : outputArena.allocate(len, 16);
+                    WuffsFFI.resizeBgra(full, width, height, stride, pixels, w, h, 4L * w, filter.id);
+                    images.add(new DecodedImage(w, h, 4 * w, WuffsPixelFormat.BGRA_NONPREMUL, pixels));
+                }
+                JwuffMetrics.decodeSucceeded(format, input.byteSize(), pixelLen, metricsStart);
+                commitEvent(event, format, session, input.byteSize(), pixelLen, 0);
+                return images;
+            } finally {
+                JwuffMetrics.decodeEnded(pixelLen);
+            }
+        } catch (WuffsException e) {
+            JwuffMetrics.decodeFailed(format, e.code());
+            commitEvent(event, format, session, input.byteSize(), 0L, e.code());
+            throw e;
+        } finally {
+            release(session, null);
+        }
+    }
+
+    private static void commitEvent(
+            DecodeEvent event, String format, ReusableDecodeSession session, long inputBytes, long outputBytes,
+            int errorCode) {
+        if (!event.shouldCommit()) return;
+        event.format = format;
+        // A session that failed in begin may still report the previous image's dimensions.
+        if (errorCode == 0) {
+            event.width = session.width();
+            event.height = session.height();
+        }
+        event.inputBytes = inputBytes;
+        event.outputBytes = outputBytes;
+        event.nativeVariant = NativeLibrary.loadedVariant();
+        event.workbufBytes = session.workbufBytes();
+        event.offHeap = session.offHeap();
+        event.errorCode = errorCode;
+        event.commit();
+    }
+
+    private ReusableDecodeSession acquire(NativeMemorySlab slab) {
+        if (closed) throw new IllegalStateException("decoder is closed");
+        if (slab != null) return new ReusableDecodeSession(slab);
+        ReusableDecodeSession session = pool.poll();
+        return session != null ? session : new ReusableDecodeSession();
+    }
+
+    private void release(ReusableDecodeSession session, NativeMemorySlab slab) {
+        // Slab sessions decode one image, so they are never pooled.
+        if (slab != null || closed || session.workbufBytes() > MAX_POOLED_WORKBUF_BYTES || !pool.offer(session)) {
+            session.close();
+            return;
+        }
+        // close() may have drained the pool between the check and the offer.
+        if (closed) drain();
+    }
+
+    /**
+     * Returns the number of idle native sessions currently pooled.
+     */
+    public int pooledSessions() {
+        return pool.size();
+    }
+
+    /**
+     * Closes the pooled sessions. Decodes still running finish normally and close their sessions afterwards; new
+     * decodes fail.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        drain();
+    }
+
+    private void drain() {
+        ReusableDecodeSession session;
+        while ((session = pool.poll()) != null) {
+            session.close();
+        }
+    }
+
+    private static MemorySegment slice(byte[] input, int offset, int length) {
+        if (input == null || length <= 0) throw new IllegalArgumentException("input is empty");
+        if (offset < 0 || offset > input.length || (offset + length) > input.length) {
+            throw new IllegalArgumentException("Invalid offset/length for array: offset=" + offset + ", length=" + length);
+        }
+        return MemorySegment.ofArray(input).asSlice(offset, length);
+    }
+
+    private static MemorySegment[] nonEmpty(MemorySegment[] chunks) {
+        int n = 0;
+        for (MemorySegment chunk : chunks) {
+            if (chunk == null) throw new IllegalArgumentException("chunk is null");
+            if (chunk.byteSize() > 0) n++;
+        }
+        if (n == 0) throw new IllegalArgumentException("input is empty");
+        if (n == chunks.length) return chunks.clone();
+        MemorySegment[] result = new MemorySegment[n];
+        n = 0;
+        for (MemorySegment chunk : chunks) {
+            if (chunk.byteSize() > 0) result[n++] = chunk;
+        }
+        return result;
+    }
+
+    private static String formatName(MemorySegment input) {
+        byte first = input.get(ValueLayout.JAVA_BYTE, 0L);
+        return first == (byte) 0x89 ? "png" : first == (byte) 0xFF ? "jpeg" : "unknown";
+    }
+
+    // The native decoder writes BGRA bytes; on big-endian platforms those read as 0xBBGGRRAA ints.
+    private static void swapToArgb(int[] pixels) {
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = Integer.reverseBytes(pixels[i]);
+        }
+    }
+
+    private enum Output {
+        BYTES,
+        INTS,
+        NATIVE
+    }
+}
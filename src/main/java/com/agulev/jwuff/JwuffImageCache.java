@@ -0,0 +1,470 @@
+package com.agulev.jwuff;
+
+import java.awt.image.BufferedImage;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Caches {@link DecodedImage}s so popular images are decoded once.
+ *
+ * <p>Entries are keyed by a 128-bit hash of the encoded bytes, or by a caller key (a URL, a content id, ...) whose
+ * bytes are only fetched on a miss. The cache is bounded by the total pixel bytes of its entries and evicts
+ * approximately the least recently used; an image larger than the whole budget is returned but not cached. Concurrent
+ * requests for a key that is being decoded wait for that decode instead of starting their own, and a failed decode is
+ * not cached. A decode that was running when its key was invalidated is returned to its callers but not cached.</p>
+ *
+ * <p>Hits only read a {@link ConcurrentHashMap} and mark the entry as referenced. Stores and invalidations take a lock
+ * for constant time: entries are kept in insertion order, and eviction uses the CLOCK (second chance) approximation of
+ * LRU, taking the oldest entry unless it was hit since it was last passed over, in which case it moves to the back.</p>
+ *
+ * <p>Cached images are shared between callers and must not be modified. With {@code offHeap}, each entry's pixels
+ * live in their own shared arena, which is closed once the entry has been evicted and every {@link Lease} on it is
+ * closed. An image from {@link #get} is only valid while it is cached: reading it after its eviction fails with an
+ * {@link IllegalStateException}. Callers that hold on to off-heap images take a lease with {@link #acquire}.</p>
+ */
+public final class JwuffImageCache implements AutoCloseable {
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final JwuffDecoder decoder;
+    private final boolean ownsDecoder;
+    private final JwuffDecodeOptions options;
+    private final long maxBytes;
+    private final boolean offHeap;
+    private final ConcurrentHashMap<Object, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Object, Load> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong sizeBytes = new AtomicLong();
+    // Guards every change to entries, the eviction order and Load.invalidated; hits do not take it.
+    private final Object lock = new Object();
+    // Cached entries, oldest first, linked through Entry.prev/next.
+    private Entry head;
+    private Entry tail;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a cache of up to {@code maxBytes} pixel bytes on the heap, with its own {@link JwuffDecoder}.
+     */
+    public JwuffImageCache(long maxBytes) {
+        this(new JwuffDecoder(), true, JwuffDecodeOptions.DEFAULT, maxBytes, false);
+    }
+
+    /**
+     * Creates a cache that decodes with {@code decoder}, which the caller keeps ownership of.
+     *
+     * @param offHeap keep pixels in native memory instead of {@code byte[]}s.
+     */
+    public JwuffImageCache(JwuffDecoder decoder, JwuffDecodeOptions options, long maxBytes, boolean offHeap) {
+        this(decoder, false, options, maxBytes, offHeap);
+    }
+
+    private JwuffImageCache(
+            JwuffDecoder decoder, boolean ownsDecoder, JwuffDecodeOptions options, long maxBytes, boolean offHeap) {
+        if (decoder == null) throw new IllegalArgumentException("decoder == null");
+        if (options == null) throw new IllegalArgumentException("options == null");
+        if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes must be > 0: " + maxBytes);
+        this.decoder = decoder;
+        this.ownsDecoder = ownsDecoder;
+        this.options = options;
+        this.maxBytes = maxBytes;
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Returns the decoded {@code input}, keyed by a hash of its contents.
+     */
+    public DecodedImage get(byte[] input) {
+        if (input == null || input.length == 0) throw new IllegalArgumentException("input is empty");
+        return get(contentKey(input), () -> input);
+    }
+
+    /**
+     * Returns the image cached under {@code key}, decoding the bytes from {@code input} on a miss. {@code input} is
+     * called at most once per miss, by the thread that decodes.
+     */
+    public DecodedImage get(Object key, Supplier<byte[]> input) {
+        return entry(key, input, false).image;
+    }
+
+    /**
+     * As {@link #get(byte[])}, holding the image until the lease is closed even if it is evicted meanwhile.
+     */
+    public Lease acquire(byte[] input) {
+        if (input == null || input.length == 0) throw new IllegalArgumentException("input is empty");
+        return acquire(contentKey(input), () -> input);
+    }
+
+    /**
+     * As {@link #get(Object, Supplier)}, holding the image until the lease is closed even if it is evicted meanwhile.
+     */
+    public Lease acquire(Object key, Supplier<byte[]> input) {
+        return new Lease(entry(key, input, true));
+    }
+
+    /**
+     * As {@link #get(byte[])}, wrapped in a new {@link BufferedImage} that owns a copy of the pixels, so it may be
+     * modified freely.
+     */
+    public BufferedImage read(byte[] input) {
+        try (Lease lease = acquire(input)) {
+            DecodedImage image = lease.image();
+            return new DecodedImage(image.width(), image.height(), image.stride(), image.pixelFormat(),
+                    MemorySegment.ofArray(image.ints())).toBufferedImage();
+        }
+    }
+
+    /**
+     * Returns the cached image for {@code key} without decoding, or {@code null}.
+     */
+    public DecodedImage getIfPresent(Object key) {
+        Entry entry = lookup(Objects.requireNonNull(key, "key"));
+        return entry != null ? entry.image : null;
+    }
+
+    /**
+     * Removes the image cached under {@code key}. A decode of {@code key} that is running meanwhile is not cached.
+     */
+    public void invalidate(Object key) {
+        Objects.requireNonNull(key, "key");
+        Entry removed;
+        synchronized (lock) {
+            Load load = inFlight.get(key);
+            if (load != null) load.invalidated = true;
+            removed = entries.remove(key);
+            if (removed != null) unlink(removed);
+        }
+        if (removed != null) removed.release();
+    }
+
+    public void invalidateAll() {
+        List<Entry> removed = new ArrayList<>();
+        synchronized (lock) {
+            for (Load load : inFlight.values()) load.invalidated = true;
+            for (Entry e = head; e != null; e = e.next) removed.add(e);
+            for (Entry e : removed) {
+                entries.remove(e.key);
+                unlink(e);
+            }
+        }
+        for (Entry e : removed) e.release();
+    }
+
+    /**
+     * Returns the key {@link #get(byte[])} uses for {@code input}.
+     */
+    public static Object keyOf(byte[] input) {
+        return contentKey(input);
+    }
+
+    public long maxBytes() {
+        return maxBytes;
+    }
+
+    /** Returns the pixel bytes currently cached. */
+    public long sizeBytes() {
+        return sizeBytes.get();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    /** Returns how many requests waited for another thread's decode of the same key. */
+    public long coalesced() {
+        return coalesced.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Empties the cache and, if it created its decoder, closes it. Off-heap images under an open {@link Lease} stay
+     * valid until the lease is closed.
+     */
+    @Override
+    public void close() {
+        invalidateAll();
+        if (ownsDecoder) decoder.close();
+    }
+
+    /**
+     * A cached image that is not freed while the lease is open. Closing the lease more than once has no effect.
+     */
+    public static final class Lease implements AutoCloseable {
+        private final Entry entry;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        public DecodedImage image() {
+            if (closed.get()) throw new IllegalStateException("Lease is closed");
+            return entry.image;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) entry.release();
+        }
+    }
+
+    /**
+     * Returns the entry for {@code key}, with a reference taken for the caller if {@code retain} is set.
+     */
+    private Entry entry(Object key, Supplier<byte[]> input, boolean retain) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(input, "input");
+        // Retaining fails only for an entry that a concurrent eviction has just freed; the next pass misses.
+        while (true) {
+            Entry entry = lookup(key);
+            if (entry != null) {
+                if (!retain || entry.retain()) {
+                    hits.increment();
+                    return entry;
+                }
+                continue;
+            }
+
+            Load mine = new Load();
+            Load running = inFlight.putIfAbsent(key, mine);
+            if (running != null) {
+                coalesced.increment();
+                entry = await(running.result);
+                if (!retain || entry.retain()) return entry;
+                continue;
+            }
+            try {
+                // Another thread may have finished this key between the lookup and the putIfAbsent.
+                entry = lookup(key);
+                if (entry == null) {
+                    misses.increment();
+                    entry = decode(key, input.get());
+                    // Taken before the entry is published, so an immediate eviction cannot free it.
+                    if (retain) entry.retain();
+                    store(entry, mine);
+                    mine.result.complete(entry);
+                    return entry;
+                }
+                mine.result.complete(entry);
+            } catch (RuntimeException | Error e) {
+                mine.result.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(key, mine);
+            }
+            if (!retain || entry.retain()) {
+                hits.increment();
+                return entry;
+            }
+        }
+    }
+
+    private Entry lookup(Object key) {
+        Entry entry = entries.get(key);
+        // Checked first so hot entries do not bounce their cache line between readers.
+        if (entry != null && !entry.referenced) entry.referenced = true;
+        return entry;
+    }
+
+    private Entry decode(Object key, byte[] bytes) {
+        if (bytes == null || bytes.length == 0) throw new IllegalArgumentException("input is empty");
+        if (!offHeap) return new Entry(key, decoder.decode(bytes, options), null);
+
+        Arena arena = Arena.ofShared();
+        DecodedImage image;
+        try {
+            image = decoder.decode(MemorySegment.ofArray(bytes), options, arena);
+        } catch (RuntimeException | Error e) {
+            arena.close();
+            throw e;
+        }
+        if (weight(image) <= maxBytes) return new Entry(key, image, arena);
+
+        // Not cached, so nothing would close the arena: hand out a copy that the garbage collector frees.
+        MemorySegment pixels = Arena.ofAuto().allocate(image.segment().byteSize(), 16);
+        pixels.copyFrom(image.segment());
+        arena.close();
+        return new Entry(
+                key, new DecodedImage(image.width(), image.height(), image.stride(), image.pixelFormat(), pixels), null);
+    }
+
+    private void store(Entry entry, Load load) {
+        if (entry.weight > maxBytes) return;
+        List<Entry> dropped = new ArrayList<>();
+        synchronized (lock) {
+            // Invalidated while decoding: the image may predate the invalidation, so it is not cached.
+            if (load.invalidated) return;
+            Entry previous = entries.put(entry.key, entry);
+            if (previous != null) {
+                unlink(previous);
+                dropped.add(previous);
+            }
+            link(entry);
+            evict(entry, dropped);
+        }
+        // Off-heap entries may close their arena here, which need not hold up other stores.
+        for (Entry e : dropped) e.release();
+    }
+
+    // Runs the clock hand over the oldest entries until the cache fits. Each entry passed over had been hit since the
+    // last pass, so eviction is amortized constant time per store.
+    private void evict(Entry keep, List<Entry> dropped) {
+        while (sizeBytes.get() > maxBytes) {
+            Entry oldest = head;
+            unlink(oldest);
+            if (oldest == keep || oldest.referenced) {
+                oldest.referenced = false;
+                link(oldest);
+                continue;
+            }
+            entries.remove(oldest.key);
+            dropped.add(oldest);
+            evictions.increment();
+        }
+    }
+
+    // Appends a newly cached entry to the eviction order and accounts for it. Caller holds the lock.
+    private void link(Entry entry) {
+        entry.prev = tail;
+        entry.next = null;
+        if (tail != null) {
+            tail.next = entry;
+        } else {
+            head = entry;
+        }
+        tail = entry;
+        sizeBytes.addAndGet(entry.weight);
+    }
+
+    // Removes an entry from the eviction order and its accounting. Caller holds the lock.
+    private void unlink(Entry entry) {
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            head = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        } else {
+            tail = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = null;
+        sizeBytes.addAndGet(-entry.weight);
+    }
+
+    private static long weight(DecodedImage image) {
+        return image.segment().byteSize();
+    }
+
+    private static Entry await(CompletableFuture<Entry> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException re) throw re;
+            if (cause instanceof Error err) throw err;
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for a concurrent decode", e);
+        }
+    }
+
+    // A decode in progress; waiters for the same key share its result.
+    private static final class Load {
+        final CompletableFuture<Entry> result = new CompletableFuture<>();
+        // Set by invalidate while the decode runs. Guarded by the cache lock.
+        boolean invalidated;
+    }
+
+    private static final class Entry {
+        final Object key;
+        final DecodedImage image;
+        // The off-heap entry's own arena, or null for heap pixels.
+        final Arena arena;
+        final long weight;
+        // Set by hits, cleared when the clock hand passes over the entry.
+        volatile boolean referenced;
+        // Neighbours in the eviction order. Guarded by the cache lock.
+        Entry prev;
+        Entry next;
+        // One reference while the entry is cached, plus one per open lease; the arena closes at zero.
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        Entry(Object key, DecodedImage image, Arena arena) {
+            this.key = key;
+            this.image = image;
+            this.arena = arena;
+            this.weight = weight(image);
+        }
+
+        boolean retain() {
+            for (int r = refs.get(); r > 0; r = refs.get()) {
+                if (refs.compareAndSet(r, r + 1)) return true;
+            }
+            return false;
+        }
+
+        void release() {
+            if (refs.decrementAndGet() == 0 && arena != null) arena.close();
+        }
+    }
+
+    // Two independently seeded 64-bit multiply-rotate lanes over 8-byte words, plus the length. Not cryptographic:
+    // use caller keys for untrusted input where deliberate collisions matter.
+    private static ContentKey contentKey(byte[] data) {
+        long a = 0x9E3779B97F4A7C15L ^ data.length;
+        long b = 0xC2B2AE3D27D4EB4FL + data.length;
+        int i = 0;
+        for (; i + 8 <= data.length; i += 8) {
+            long v = (long) LONGS.get(data, i);
+            a = Long.rotateLeft(a ^ v * 0x87C37B91114253D5L, 31) * 0x4CF5AD432745937FL;
+            b = Long.rotateLeft(b + v * 0x52DCE729DA3ED245L, 27) * 0x38495AB5C5A2E4B7L + 0x1B873593L;
+        }
+        long tail = 0;
+        for (int shift = 0; i < data.length; i++, shift += 8) {
+            tail |= (data[i] & 0xFFL) << shift;
+        }
+        a = Long.rotateLeft(a ^ tail * 0x87C37B91114253D5L, 31) * 0x4CF5AD432745937FL;
+        b = Long.rotateLeft(b + tail * 0x52DCE729DA3ED245L, 27) * 0x38495AB5C5A2E4B7L;
+        return new ContentKey(fmix(a ^ b >>> 17), fmix(b + a), data.length);
+    }
+
+    private static long fmix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private record ContentKey(long high, long low, int length) {}
+}
@@ -1,22 +1,36 @@
 package com.agulev.jwuff;
 
 import com.agulev.jwuff.io.ByteArrayImageInputStream;
+import com.agulev.jwuff.io.InputStreamImageInputStream;
+import com.agulev.jwuff.nativelib.NativeLibrary;
+import com.agulev.jwuff.reader.AbstractWuffsImageReader;
 import com.agulev.jwuff.spi.ByteArrayImageInputStreamSpi;
+import com.agulev.jwuff.spi.ByteBufferImageInputStreamSpi;
+import com.agulev.jwuff.spi.InputStreamImageInputStreamSpi;
+import com.agulev.jwuff.spi.MemorySegmentImageInputStreamSpi;
 import com.agulev.jwuff.spi.WuffsJpegImageReaderSpi;
 import com.agulev.jwuff.spi.WuffsPngImageReaderSpi;
+import com.agulev.jwuff.spi.WuffsPngImageWriterSpi;
 
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
 import javax.imageio.spi.IIORegistry;
 import javax.imageio.spi.ImageInputStreamSpi;
 import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.spi.ImageReaderWriterSpi;
+import javax.imageio.spi.ImageWriterSpi;
 import javax.imageio.stream.ImageInputStream;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
 
 /**
  * Helper to programmatically register jwuff ImageIO plugins.
@@ -29,43 +43,54 @@ public final class JwuffImageIO {
     private JwuffImageIO() {}
 
     /**
-     * Registers jwuff PNG/JPEG ImageReader SPIs and prefers them over the JDK built-ins when possible.
+     * Registers jwuff PNG/JPEG ImageReader SPIs, the PNG ImageWriter SPI, the no-copy {@code byte[]},
+     * {@code ByteBuffer} and {@code MemorySegment} ImageInputStream SPIs and the in-memory {@code InputStream} one,
+     * and prefers them over the JDK built-ins when possible.
      */
     public static void register() {
         register(true);
     }
 
     /**
-     * Registers jwuff PNG/JPEG ImageReader SPIs.
+     * Registers jwuff PNG/JPEG ImageReader SPIs and the PNG ImageWriter SPI.
      *
-     * @param preferJwuff if true, orders jwuff readers before common built-in JDK readers.
+     * @param preferJwuff if true, orders jwuff readers, writers and the {@code byte[]} and {@code InputStream}
+     *                    ImageInputStream SPIs before common built-in JDK ones.
      */
     public static void register(boolean preferJwuff) {
         IIORegistry registry = IIORegistry.getDefaultInstance();
 
         ByteArrayImageInputStreamSpi bytesIis = new ByteArrayImageInputStreamSpi();
+        InputStreamImageInputStreamSpi streamIis = new InputStreamImageInputStreamSpi();
         WuffsPngImageReaderSpi png = new WuffsPngImageReaderSpi();
         WuffsJpegImageReaderSpi jpeg = new WuffsJpegImageReaderSpi();
+        WuffsPngImageWriterSpi pngWriter = new WuffsPngImageWriterSpi();
 
         registry.registerServiceProvider(bytesIis);
+        registry.registerServiceProvider(new ByteBufferImageInputStreamSpi());
+        registry.registerServiceProvider(new MemorySegmentImageInputStreamSpi());
+        registry.registerServiceProvider(streamIis);
         registry.registerServiceProvider(png);
         registry.registerServiceProvider(jpeg);
+        registry.registerServiceProvider(pngWriter);
 
         if (preferJwuff) {
-            preferByteArrayImageInputStream(registry, bytesIis);
+            preferImageInputStream(registry, bytesIis);
+            preferImageInputStream(registry, streamIis);
             preferOverKnownBuiltins(registry, png, jpeg);
+            preferOverBuiltinPngWriter(registry, pngWriter);
         }
     }
 
-    private static void preferByteArrayImageInputStream(IIORegistry registry, ImageInputStreamSpi bytesIis) {
+    private static void preferImageInputStream(IIORegistry registry, ImageInputStreamSpi preferred) {
         List<ImageInputStreamSpi> all = new ArrayList<>();
         registry.getServiceProviders(ImageInputStreamSpi.class, false).forEachRemaining(all::add);
 
         for (ImageInputStreamSpi spi : all) {
-            if (spi == bytesIis) continue;
+            if (spi == preferred) continue;
             Class<?> inputClass = spi.getInputClass();
-            if (inputClass == byte[].class) {
-                registry.setOrdering(ImageInputStreamSpi.class, bytesIis, spi);
+            if (inputClass == preferred.getInputClass()) {
+                registry.setOrdering(ImageInputStreamSpi.class, preferred, spi);
             }
         }
     }
@@ -81,6 +106,18 @@ public final class JwuffImageIO {
         return new ByteArrayImageInputStream(bytes);
     }
 
+    /**
+     * Wraps {@code in} in an {@link ImageInputStream} that buffers it in a pooled array as it is read, without a
+     * temporary file. jwuff readers read it to its end before decoding.
+     *
+     * <p>{@code lengthHint} (for example an HTTP {@code Content-Length}, or 0 if unknown) sizes the buffer up front.
+     * {@code in} is not closed; closing the returned stream returns its buffer to the pool.</p>
+     */
+    public static ImageInputStream createImageInputStream(InputStream in, long lengthHint) throws IOException {
+        if (in == null) throw new IllegalArgumentException("in == null");
+        return new InputStreamImageInputStream(in, lengthHint);
+    }
+
     /**
      * Decodes {@code bytes} using jwuff's ImageReaders (PNG/JPEG) without copying the input bytes.
      *
@@ -88,6 +125,10 @@ public final class JwuffImageIO {
      */
     public static BufferedImage read(byte[] bytes) throws IOException {
         if (bytes == null || bytes.length == 0) throw new IllegalArgumentException("bytes is empty");
+        return read(bytes, null);
+    }
+
+    private static BufferedImage read(byte[] bytes, Consumer<ImageReader> onReader) throws IOException {
 
         try (ImageInputStream iis = createImageInputStream(bytes)) {
             ImageReaderSpi spi;
@@ -107,6 +148,7 @@ public final class JwuffImageIO {
 
             ImageReader reader = spi.createReaderInstance();
             try {
+                if (onReader != null) onReader.accept(reader);
                 iis.seek(0);
                 reader.setInput(iis, false, true);
                 return reader.read(0);
@@ -116,6 +158,70 @@ public final class JwuffImageIO {
         }
     }
 
+    /**
+     * Decodes {@code bytes} like {@link #read(byte[])} on jwuff's native-decode executor.
+     *
+     * <p>The default executor is a bounded pool of daemon platform threads sized to the available processors, so
+     * virtual-thread callers do not pin their carriers for the length of the native call. Cancelling the returned
+     * future aborts a jwuff decode between slices, or skips it if it has not started. When the executor's queue
+     * ({@code jwuff.async.queueSize}) is full, the future completes exceptionally with a
+     * {@link RejectedExecutionException}.</p>
+     */
+    public static CompletableFuture<BufferedImage> readAsync(byte[] bytes) {
+        return readAsync(bytes, NativeDecodeExecutor.get());
+    }
+
+    /**
+     * Decodes {@code bytes} like {@link #read(byte[])} on {@code executor}.
+     */
+    public static CompletableFuture<BufferedImage> readAsync(byte[] bytes, Executor executor) {
+        if (bytes == null || bytes.length == 0) throw new IllegalArgumentException("bytes is empty");
+        if (executor == null) throw new IllegalArgumentException("executor == null");
+
+        CompletableFuture<BufferedImage> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                if (result.isDone()) return;
+                try {
+                    // Checked between slices from the start of the decode, so a cancel that lands while the reader
+                    // is being set up is not lost.
+                    result.complete(read(bytes, reader -> {
+                        if (reader instanceof AbstractWuffsImageReader r) r.setCancellation(result::isCancelled);
+                    }));
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of decodes waiting for a thread on the default {@link #readAsync(byte[])} executor.
+     *
+     * <p>Decodes submitted with an explicit executor are not counted.</p>
+     */
+    public static int asyncQueueDepth() {
+        return NativeDecodeExecutor.get().getQueue().size();
+    }
+
+    /**
+     * Returns the number of decodes currently running on the default {@link #readAsync(byte[])} executor.
+     */
+    public static int asyncActiveCount() {
+        return NativeDecodeExecutor.get().getActiveCount();
+    }
+
+    /**
+     * Returns the native library variant in use ({@code baseline}, {@code avx2}, {@code v3} or {@code v4}), loading
+     * the library if needed. Override the automatic choice with {@code -Djwuff.native.variant=...}.
+     */
+    public static String nativeVariant() {
+        return NativeLibrary.loadedVariant();
+    }
+
     private static void preferOverKnownBuiltins(IIORegistry registry, ImageReaderSpi png, ImageReaderSpi jpeg) {
         List<ImageReaderSpi> all = new ArrayList<>();
         registry.getServiceProviders(ImageReaderSpi.class, false).forEachRemaining(all::add);
@@ -135,7 +241,20 @@ public final class JwuffImageIO {
         }
     }
 
-    private static boolean providesFormat(ImageReaderSpi spi, String fmt) {
+    private static void preferOverBuiltinPngWriter(IIORegistry registry, ImageWriterSpi pngWriter) {
+        List<ImageWriterSpi> all = new ArrayList<>();
+        registry.getServiceProviders(ImageWriterSpi.class, false).forEachRemaining(all::add);
+
+        for (ImageWriterSpi spi : all) {
+            String name = spi.getClass().getName();
+            if (name.startsWith("com.agulev.jwuff.")) continue;
+            if (name.toLowerCase(Locale.ROOT).contains("png") && providesFormat(spi, "png")) {
+                registry.setOrdering(ImageWriterSpi.class, pngWriter, spi);
+            }
+        }
+    }
+
+    private static boolean providesFormat(ImageReaderWriterSpi spi, String fmt) {
         String[] names = spi.getFormatNames();
         if (names == null) return false;
         for (String n : names) {
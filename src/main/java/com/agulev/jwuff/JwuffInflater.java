@@ -0,0 +1,416 @@
+package com.agulev.jwuff;
+
+import com.agulev.jwuff.nativelib.InflateSession;
+import com.agulev.jwuff.nativelib.WuffsException;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Decompresses raw deflate, zlib and gzip streams with the Wuffs decoders.
+ *
+ * <p>The static {@code inflate} methods decompress a whole stream in one call, reusing pooled native decoders (up to
+ * one idle decoder per format and available processor). An instance is a streaming decompressor with the shape of
+ * {@link java.util.zip.Inflater}: {@link #setInput} then {@link #inflate} until {@link #finished()}, supplying more
+ * input whenever {@link #needsInput()}. Input and output may be {@code byte[]}, {@link ByteBuffer} or
+ * {@link MemorySegment}; heap memory is passed to native code in place.</p>
+ *
+ * <p>Instances are not thread-safe and hold native memory until {@link #close()}; there is no finalizer or cleaner.
+ * gzip support covers a single member: decoding stops at the end of the first member. Corrupt input and checksum
+ * mismatches throw {@link WuffsException}.</p>
+ */
+public final class JwuffInflater implements AutoCloseable {
+    public enum Format {
+        /** Raw deflate (RFC 1951), as {@code new Inflater(true)}. */
+        DEFLATE(InflateSession.FORMAT_DEFLATE),
+        /** zlib (RFC 1950), as {@code new Inflater()}. */
+        ZLIB(InflateSession.FORMAT_ZLIB),
+        /** gzip (RFC 1952), as {@link java.util.zip.GZIPInputStream}. */
+        GZIP(InflateSession.FORMAT_GZIP);
+
+        final int id;
+
+        Format(int id) {
+            this.id = id;
+        }
+    }
+
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+    // Largest gzip ISIZE allocated up front (beyond four times the input); bigger outputs grow as they are produced.
+    private static final long MAX_TRUSTED_ISIZE = 4L * 1024 * 1024;
+    private static final MemorySegment NO_INPUT = MemorySegment.ofArray(new byte[0]);
+
+    @SuppressWarnings("unchecked")
+    private static final ArrayBlockingQueue<InflateSession>[] POOLS = new ArrayBlockingQueue[Format.values().length];
+
+    static {
+        for (int i = 0; i < POOLS.length; i++) {
+            POOLS[i] = new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    private final Format format;
+    private final InflateSession session;
+    private MemorySegment input = NO_INPUT;
+    private long inputPosition;
+    private ByteBuffer inputBuffer;
+    private long bytesRead;
+    private long bytesWritten;
+    private boolean finished;
+    private boolean stalled = true;
+    private boolean closed;
+
+    public JwuffInflater(Format format) {
+        this(format, false);
+    }
+
+    /**
+     * @param ignoreChecksum skip the Adler-32 (zlib) or CRC-32 (gzip) check, which is most of the remaining cost
+     *                       once the data itself is decoded.
+     */
+    public JwuffInflater(Format format, boolean ignoreChecksum) {
+        this.format = Objects.requireNonNull(format, "format");
+        this.session = new InflateSession(format.id, ignoreChecksum ? InflateSession.FLAG_IGNORE_CHECKSUM : 0);
+    }
+
+    /**
+     * Returns whether the native library was built with the decoder for {@code format}.
+     */
+    public static boolean isSupported(Format format) {
+        return InflateSession.isSupported(format.id);
+    }
+
+    public static byte[] inflate(byte[] input, Format format) {
+        return inflate(input, 0, input.length, format);
+    }
+
+    /**
+     * Decompresses the complete stream in {@code input[offset, offset + length)} into a new array. The output starts
+     * at the gzip size trailer, or a multiple of the input length, and grows as needed.
+     *
+     * @throws WuffsException if the stream is corrupt or truncated
+     */
+    public static byte[] inflate(byte[] input, int offset, int length, Format format) {
+        Objects.checkFromIndexSize(offset, length, input.length);
+        MemorySegment src = MemorySegment.ofArray(input).asSlice(offset, length);
+        InflateSession session = borrow(format);
+        try {
+            byte[] out = new byte[initialCapacity(input, offset, length, format)];
+            int written = 0;
+            while (true) {
+                boolean done = session.step(src, true, MemorySegment.ofArray(out).asSlice(written));
+                src = src.asSlice(session.consumed());
+                written += (int) session.produced();
+                if (done) {
+                    release(format, session);
+                    return written == out.length ? out : Arrays.copyOf(out, written);
+                }
+                if (out.length == MAX_ARRAY_LENGTH) {
+                    throw new IllegalStateException("inflated data exceeds the maximum array size");
+                }
+                out = Arrays.copyOf(out, (int) Math.min(MAX_ARRAY_LENGTH, out.length * 2L));
+            }
+        } catch (RuntimeException e) {
+            session.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Decompresses the complete stream in {@code input} into {@code output}. Either may be a heap or native segment;
+     * with both native the call does not hold off the GC.
+     *
+     * @return the number of bytes written to {@code output}
+     * @throws IllegalArgumentException if the decompressed data does not fit in {@code output}
+     * @throws WuffsException if the stream is corrupt or truncated
+     */
+    public static long inflate(MemorySegment input, MemorySegment output, Format format) {
+        InflateSession session = borrow(format);
+        try {
+            if (!session.step(input, true, output)) {
+                throw new IllegalArgumentException("output too small: " + output.byteSize() + " bytes");
+            }
+            long produced = session.produced();
+            release(format, session);
+            return produced;
+        } catch (RuntimeException e) {
+            session.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Decompresses the complete stream in {@code input}'s remaining bytes into {@code output}, advancing both
+     * positions past the bytes consumed and written. Neither position moves if the call fails.
+     *
+     * @return the number of bytes written to {@code output}
+     * @throws IllegalArgumentException if the decompressed data does not fit in {@code output}
+     * @throws WuffsException if the stream is corrupt or truncated
+     */
+    public static int inflate(ByteBuffer input, ByteBuffer output, Format format) {
+        if (output.isReadOnly()) throw new ReadOnlyBufferException();
+        InflateSession session = borrow(format);
+        try {
+            if (!session.step(MemorySegment.ofBuffer(input), true, MemorySegment.ofBuffer(output))) {
+                throw new IllegalArgumentException("output too small: " + output.remaining() + " bytes");
+            }
+            int consumed = (int) session.consumed();
+            int produced = (int) session.produced();
+            release(format, session);
+            input.position(input.position() + consumed);
+            output.position(output.position() + produced);
+            return produced;
+        } catch (RuntimeException e) {
+            session.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a stream of the data decompressed from {@code in}. A stream that ends early fails with an
+     * {@link EOFException}; closing the returned stream closes {@code in}.
+     */
+    public static InputStream newInputStream(InputStream in, Format format) {
+        return new InflatingInputStream(Objects.requireNonNull(in, "in"), new JwuffInflater(format));
+    }
+
+    public void setInput(byte[] input) {
+        setInput(input, 0, input.length);
+    }
+
+    /**
+     * Sets the next input, replacing any that was not consumed. The array is read in place and must not change until
+     * it has been consumed.
+     */
+    public void setInput(byte[] input, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, input.length);
+        setInput(MemorySegment.ofArray(input).asSlice(offset, length), null);
+    }
+
+    /**
+     * Sets the next input to {@code input}'s remaining bytes. Its position advances as they are consumed.
+     */
+    public void setInput(ByteBuffer input) {
+        setInput(MemorySegment.ofBuffer(input), input);
+    }
+
+    public void setInput(MemorySegment input) {
+        setInput(Objects.requireNonNull(input, "input"), null);
+    }
+
+    private void setInput(MemorySegment segment, ByteBuffer buffer) {
+        ensureOpen();
+        this.input = segment;
+        this.inputPosition = 0;
+        this.inputBuffer = buffer;
+    }
+
+    public int inflate(byte[] output) {
+        return inflate(output, 0, output.length);
+    }
+
+    /**
+     * Decompresses into {@code output[offset, offset + length)}.
+     *
+     * @return the number of bytes written; 0 once {@link #finished()} or when {@link #needsInput()}
+     */
+    public int inflate(byte[] output, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, output.length);
+        return (int) inflate(MemorySegment.ofArray(output).asSlice(offset, length));
+    }
+
+    /**
+     * Decompresses into {@code output}'s remaining bytes and advances its position past them.
+     */
+    public int inflate(ByteBuffer output) {
+        if (output.isReadOnly()) throw new ReadOnlyBufferException();
+        int produced = (int) inflate(MemorySegment.ofBuffer(output));
+        output.position(output.position() + produced);
+        return produced;
+    }
+
+    public long inflate(MemorySegment output) {
+        ensureOpen();
+        if (finished) return 0;
+        boolean done = session.step(input.asSlice(inputPosition), false, output);
+        long consumed = session.consumed();
+        long produced = session.produced();
+        inputPosition += consumed;
+        if (inputBuffer != null) inputBuffer.position(inputBuffer.position() + (int) consumed);
+        bytesRead += consumed;
+        bytesWritten += produced;
+        finished = done;
+        stalled = session.needsInput();
+        return produced;
+    }
+
+    /**
+     * Returns whether the stream has not ended and the decoder cannot continue without more input. With all input
+     * consumed, output the decoder still holds back (because the last output buffer was full) comes first.
+     */
+    public boolean needsInput() {
+        return !finished && inputPosition == input.byteSize() && stalled;
+    }
+
+    public boolean finished() {
+        return finished;
+    }
+
+    /**
+     * Returns the number of input bytes not yet consumed; after {@link #finished()}, those following the stream.
+     */
+    public int getRemaining() {
+        return (int) Math.min(Integer.MAX_VALUE, input.byteSize() - inputPosition);
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public Format format() {
+        return format;
+    }
+
+    /**
+     * Discards the input and stream state so a new stream can be decompressed with the same native decoder.
+     */
+    public void reset() {
+        ensureOpen();
+        session.reset();
+        input = NO_INPUT;
+        inputPosition = 0;
+        inputBuffer = null;
+        bytesRead = 0;
+        bytesWritten = 0;
+        finished = false;
+        stalled = true;
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        input = NO_INPUT;
+        inputBuffer = null;
+        session.close();
+    }
+
+    private void ensureOpen() {
+        if (closed) throw new IllegalStateException("inflater is closed");
+    }
+
+    static int initialCapacity(byte[] input, int offset, int length, Format format) {
+        long guess = Math.max(64L, length * 4L);
+        if (format == Format.GZIP && length >= 18) {
+            // ISIZE: the uncompressed length mod 2^32. Trusted only within deflate's maximum ratio of about 1032:1,
+            // and only up to a few MiB, so a forged trailer cannot make a small input allocate a large array.
+            int at = offset + length - 4;
+            long size = (input[at] & 0xFFL) | (input[at + 1] & 0xFFL) << 8 | (input[at + 2] & 0xFFL) << 16
+                    | (input[at + 3] & 0xFFL) << 24;
+            if (size > 0 && size <= length * 1032L) guess = Math.min(size, Math.max(guess, MAX_TRUSTED_ISIZE));
+        }
+        return (int) Math.min(MAX_ARRAY_LENGTH, guess);
+    }
+
+    private static InflateSession borrow(Format format) {
+        InflateSession session = POOLS[format.ordinal()].poll();
+        if (session == null) return new InflateSession(format.id, 0);
+        session.reset();
+        return session;
+    }
+
+    private static void release(Format format, InflateSession session) {
+        if (!POOLS[format.ordinal()].offer(session)) session.close();
+    }
+
+    private static final class InflatingInputStream extends FilterInputStream {
+        private final JwuffInflater inflater;
+        private final byte[] buffer = new byte[64 * 1024];
+        private final byte[] single = new byte[1];
+        private boolean closed;
+
+        InflatingInputStream(InputStream in, JwuffInflater inflater) {
+            super(in);
+            this.inflater = inflater;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            if (closed) throw new IOException("stream closed");
+            if (len == 0) return 0;
+            try {
+                while (!inflater.finished()) {
+                    if (inflater.needsInput()) {
+                        int n = in.read(buffer);
+                        if (n < 0) throw new EOFException("unexpected end of " + inflater.format() + " stream");
+                        inflater.setInput(buffer, 0, n);
+                    }
+                    int produced = inflater.inflate(b, off, len);
+                    if (produced > 0) return produced;
+                }
+                return -1;
+            } catch (WuffsException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Not into buffer: it may still hold unconsumed input.
+            byte[] scratch = new byte[(int) Math.min(8192, Math.max(n, 1))];
+            long skipped = 0;
+            while (skipped < n) {
+                int r = read(scratch, 0, (int) Math.min(scratch.length, n - skipped));
+                if (r < 0) break;
+                skipped += r;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (closed) throw new IOException("stream closed");
+            return inflater.finished() ? 0 : 1;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            throw new IOException("mark/reset not supported");
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            inflater.close();
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.agulev.jwuff;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Default executor for {@link JwuffImageIO#readAsync(byte[])}.
+ *
+ * <p>Native decodes pin the calling thread for their whole duration; running them on virtual threads pins the
+ * carrier. This pool uses daemon platform threads, one per available processor by default
+ * ({@code jwuff.async.threads}), so virtual-thread callers can offload decodes and keep their carriers free.</p>
+ *
+ * <p>At most {@code jwuff.async.queueSize} decodes (default 1024) wait for a thread; further submissions are rejected
+ * so a burst of uploads cannot queue without limit.</p>
+ */
+final class NativeDecodeExecutor {
+    private NativeDecodeExecutor() {}
+
+    private static final class Holder {
+        private static final ThreadPoolExecutor EXECUTOR = create();
+    }
+
+    static ThreadPoolExecutor get() {
+        return Holder.EXECUTOR;
+    }
+
+    private static ThreadPoolExecutor create() {
+        int threads = Integer.getInteger("jwuff.async.threads", Runtime.getRuntime().availableProcessors());
+        if (threads <= 0) {
+            throw new IllegalArgumentException("jwuff.async.threads must be > 0: " + threads);
+        }
+        int queueSize = Integer.getInteger("jwuff.async.queueSize", 1024);
+        if (queueSize <= 0) {
+            throw new IllegalArgumentException("jwuff.async.queueSize must be > 0: " + queueSize);
+        }
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, "jwuff-decode-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                30L,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                factory
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -0,0 +1,21 @@
+package com.agulev.jwuff;
+
+/**
+ * Resampling filters for {@link JwuffDecoder#decodeScaled}. All of them filter premultiplied pixels, so transparent
+ * pixels do not bleed color, and widen with the scale factor when downscaling so every source pixel contributes.
+ */
+public enum ResizeFilter {
+    /** Area average when downscaling, nearest neighbor when upscaling. The fastest; blocky when enlarging. */
+    BOX(0),
+    /** Triangle (tent) filter: bilinear interpolation when upscaling. */
+    BILINEAR(1),
+    /** Three-lobe Lanczos: the sharpest, with slight ringing at hard edges. */
+    LANCZOS3(2);
+
+    // Matches WUFFS_IMAGEIO_RESIZE_* in wuffs_imageio_abi.h.
+    final int id;
+
+    ResizeFilter(int id) {
+        this.id = id;
+    }
+}
@@ -0,0 +1,52 @@
+package com.agulev.jwuff;
+
+/**
+ * An output size for {@link JwuffDecoder#decodeScaled}: either exactly {@code width x height}, or the largest size
+ * that fits within {@code width x height} with the image's aspect ratio.
+ *
+ * @param width  the exact or maximum width
+ * @param height the exact or maximum height
+ * @param fit    preserve the aspect ratio and never enlarge the image
+ */
+public record ScaleTarget(int width, int height, boolean fit) {
+    public ScaleTarget {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("width and height must be > 0: " + width + "x" + height);
+        }
+    }
+
+    public static ScaleTarget exact(int width, int height) {
+        return new ScaleTarget(width, height, false);
+    }
+
+    public static ScaleTarget fit(int maxWidth, int maxHeight) {
+        return new ScaleTarget(maxWidth, maxHeight, true);
+    }
+
+    /**
+     * Fits within a {@code maxSize} square, e.g. {@code fit(256)} for a thumbnail whose longer side is at most 256.
+     */
+    public static ScaleTarget fit(int maxSize) {
+        return new ScaleTarget(maxSize, maxSize, true);
+    }
+
+    /**
+     * Returns the output width for a {@code sourceWidth x sourceHeight} image.
+     */
+    int widthFor(int sourceWidth, int sourceHeight) {
+        if (!fit) return width;
+        return (int) Math.max(1, Math.round(sourceWidth * scaleFor(sourceWidth, sourceHeight)));
+    }
+
+    /**
+     * Returns the output height for a {@code sourceWidth x sourceHeight} image.
+     */
+    int heightFor(int sourceWidth, int sourceHeight) {
+        if (!fit) return height;
+        return (int) Math.max(1, Math.round(sourceHeight * scaleFor(sourceWidth, sourceHeight)));
+    }
+
+    private double scaleFor(int sourceWidth, int sourceHeight) {
+        return Math.min(1.0, Math.min((double) width / sourceWidth, (double) height / sourceHeight));
+    }
+}
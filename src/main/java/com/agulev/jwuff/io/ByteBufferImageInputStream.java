@@ -0,0 +1,28 @@
+package com.agulev.jwuff.io;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * A seekable {@link javax.imageio.stream.ImageInputStream} over the remaining bytes of a {@link ByteBuffer}
+ * (from its position to its limit) without copying.
+ *
+ * <p>Direct and mapped buffers are passed to the native decoder in place; heap buffers are read like a
+ * {@code byte[]}. The buffer's position and limit are not changed.</p>
+ */
+public final class ByteBufferImageInputStream extends MemorySegmentImageInputStream {
+    private final ByteBuffer buffer;
+
+    public ByteBufferImageInputStream(ByteBuffer buffer) {
+        super(MemorySegment.ofBuffer(Objects.requireNonNull(buffer, "buffer")));
+        this.buffer = buffer;
+    }
+
+    /**
+     * Returns the buffer this stream reads (no copy).
+     */
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+}
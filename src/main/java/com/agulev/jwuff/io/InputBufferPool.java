@@ -0,0 +1,37 @@
+package com.agulev.jwuff.io;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Recycles the arrays {@link InputStreamImageInputStream} reads into, so a steady stream of uploads does not allocate a
+ * fresh (and, for large images, humongous) array per image.
+ *
+ * <p>Up to {@code jwuff.inputStream.poolSize} arrays are kept (default: one per available processor). Arrays larger
+ * than {@code jwuff.inputStream.maxPooledBytes} (default 16 MiB) are left to the GC so one large upload does not pin
+ * its buffer.</p>
+ */
+final class InputBufferPool {
+    static final int MIN_BYTES = 64 * 1024;
+    private static final int POOL_SIZE =
+            Math.max(1, Integer.getInteger("jwuff.inputStream.poolSize", Runtime.getRuntime().availableProcessors()));
+    private static final long MAX_POOLED_BYTES = Long.getLong("jwuff.inputStream.maxPooledBytes", 16L * 1024 * 1024);
+    private static final ArrayBlockingQueue<byte[]> POOL = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private InputBufferPool() {}
+
+    /**
+     * Returns an array of at least {@code minBytes}, pooled if one is large enough.
+     */
+    static byte[] acquire(int minBytes) {
+        byte[] pooled = POOL.poll();
+        if (pooled != null) {
+            if (pooled.length >= minBytes) return pooled;
+            release(pooled);
+        }
+        return new byte[Math.max(minBytes, MIN_BYTES)];
+    }
+
+    static void release(byte[] array) {
+        if (array.length <= MAX_POOLED_BYTES) POOL.offer(array);
+    }
+}
@@ -0,0 +1,150 @@
+package com.agulev.jwuff.io;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.foreign.MemorySegment;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A seekable {@link javax.imageio.stream.ImageInputStream} that buffers an {@link InputStream} in a pooled heap array
+ * as it is read, like ImageIO's {@code MemoryCacheImageInputStream} but in one contiguous array that jwuff readers
+ * decode in place.
+ *
+ * <p>This replaces ImageIO's {@code FileCacheImageInputStream}, which spills the stream to a temporary file. The source
+ * is read only when a read goes past the buffered bytes, so probing a header reads little more than the header and a
+ * stream that never ends blocks only callers that read to its end. {@link #segment()} reads the rest of the stream, as
+ * jwuff readers do before decoding. A length hint, such as a {@code Content-Length}, sizes the array up front; the
+ * stream may be shorter or longer than hinted. Reading past 2 GiB fails with an {@link IOException}.</p>
+ *
+ * <p>The source stream is not closed. Closing this stream returns the array to the pool, so readers must not be used
+ * on it afterwards.</p>
+ */
+public final class InputStreamImageInputStream extends ImageInputStreamImpl {
+    // As for ArrayList and friends, some VMs reserve header words in arrays.
+    private static final int MAX_ARRAY_BYTES = Integer.MAX_VALUE - 8;
+
+    private final InputStream in;
+    private byte[] array;
+    private int length;
+    private boolean eof;
+    private boolean closeCalled;
+
+    public InputStreamImageInputStream(InputStream in) {
+        this(in, 0);
+    }
+
+    /**
+     * @param lengthHint the expected number of bytes in {@code in}, or 0 if unknown.
+     */
+    public InputStreamImageInputStream(InputStream in, long lengthHint) {
+        if (lengthHint < 0) throw new IllegalArgumentException("lengthHint < 0: " + lengthHint);
+        this.in = Objects.requireNonNull(in, "in");
+        this.array = InputBufferPool.acquire((int) Math.min(lengthHint, MAX_ARRAY_BYTES));
+    }
+
+    /**
+     * Reads the rest of the source stream and returns the buffered bytes (no copy). The segment is valid until this
+     * stream is closed.
+     */
+    public MemorySegment segment() throws IOException {
+        checkClosed();
+        fill(Long.MAX_VALUE);
+        return MemorySegment.ofArray(array).asSlice(0, length);
+    }
+
+    /**
+     * Returns whether {@link #close()} has been called.
+     */
+    public boolean isClosed() {
+        return closeCalled;
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        fill(streamPos + 1);
+        if (streamPos >= length) return -1;
+        return array[(int) streamPos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        Objects.checkFromIndexSize(off, len, b.length);
+        bitOffset = 0;
+        if (len == 0) return 0;
+
+        // Like InputStream.read, returns what is buffered rather than waiting for all len bytes.
+        fill(streamPos + 1);
+        long remaining = length - streamPos;
+        if (remaining <= 0) return -1;
+        int n = (int) Math.min(remaining, len);
+        System.arraycopy(array, (int) streamPos, b, off, n);
+        streamPos += n;
+        return n;
+    }
+
+    /**
+     * Returns the stream length once the source has been read to its end, else -1.
+     */
+    @Override
+    public long length() {
+        return eof ? length : -1L;
+    }
+
+    @Override
+    public boolean isCached() {
+        return true;
+    }
+
+    @Override
+    public boolean isCachedMemory() {
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Idempotent, as for ByteArrayImageInputStream.
+        if (closeCalled) return;
+        closeCalled = true;
+        try {
+            super.close();
+        } finally {
+            byte[] a = array;
+            array = null;
+            InputBufferPool.release(a);
+        }
+    }
+
+    /**
+     * Reads from the source until {@code end} bytes are buffered or it ends. Each source read takes whatever the
+     * source has ready, up to the free space in the array.
+     */
+    private void fill(long end) throws IOException {
+        while (length < end && !eof) {
+            if (length == array.length) {
+                // Full: probe for the end before growing, so an exact hint never grows the array.
+                int b = in.read();
+                if (b < 0) {
+                    eof = true;
+                    break;
+                }
+                if (length == MAX_ARRAY_BYTES) throw new IOException("InputStream larger than 2 GiB");
+                byte[] grown = Arrays.copyOf(array, (int) Math.min(2L * array.length, MAX_ARRAY_BYTES));
+                InputBufferPool.release(array);
+                array = grown;
+                array[length++] = (byte) b;
+                continue;
+            }
+            int n = in.read(array, length, array.length - length);
+            if (n < 0) {
+                eof = true;
+            } else {
+                length += n;
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.agulev.jwuff.io;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Objects;
+
+/**
+ * A seekable {@link javax.imageio.stream.ImageInputStream} over a {@link MemorySegment} without copying.
+ *
+ * <p>jwuff readers hand the segment straight to the native decoder, so image bytes that already live in native memory
+ * (network buffers, memory-mapped files) are decoded without ever being copied onto the heap. The segment must stay
+ * alive, and be accessible to the reading thread, until the stream is no longer used.</p>
+ */
+public class MemorySegmentImageInputStream extends ImageInputStreamImpl {
+    private final MemorySegment segment;
+    private boolean closeCalled;
+
+    public MemorySegmentImageInputStream(MemorySegment segment) {
+        this.segment = Objects.requireNonNull(segment, "segment");
+    }
+
+    /**
+     * Returns the backing segment (no copy).
+     */
+    public final MemorySegment segment() {
+        return segment;
+    }
+
+    /**
+     * Returns whether {@link #close()} has been called.
+     */
+    public final boolean isClosed() {
+        return closeCalled;
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (streamPos >= segment.byteSize()) {
+            return -1;
+        }
+        return segment.get(ValueLayout.JAVA_BYTE, streamPos++) & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        Objects.checkFromIndexSize(off, len, b.length);
+        bitOffset = 0;
+        if (len == 0) return 0;
+
+        long remaining = segment.byteSize() - streamPos;
+        if (remaining <= 0) return -1;
+        int n = (int) Math.min(remaining, len);
+        MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, streamPos, b, off, n);
+        streamPos += n;
+        return n;
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        checkClosed();
+        if (pos < flushedPos) {
+            throw new IndexOutOfBoundsException("pos < flushedPos");
+        }
+        if (pos < 0 || pos > segment.byteSize()) {
+            throw new IndexOutOfBoundsException("pos out of range: " + pos);
+        }
+        streamPos = pos;
+        bitOffset = 0;
+    }
+
+    @Override
+    public long length() {
+        return segment.byteSize();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Idempotent, as for ByteArrayImageInputStream.
+        if (closeCalled) return;
+        closeCalled = true;
+        try {
+            super.close();
+        } catch (IOException e) {
+            if (!"closed".equalsIgnoreCase(e.getMessage())) {
+                throw e;
+            }
+        }
+    }
+}
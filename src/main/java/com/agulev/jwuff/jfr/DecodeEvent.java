@@ -0,0 +1,73 @@
+package com.agulev.jwuff.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Emitted for each image decode, with the native phase breakdown.
+ *
+ * <p>Wuffs converts rows to the destination pixel format while decoding, so the swizzle is part of
+ * {@link #pixelDecodeDuration} rather than a separate phase.</p>
+ */
+@Name("jwuff.Decode")
+@Label("jwuff Decode")
+@Category("jwuff")
+@Description("Decode of one image frame by a jwuff reader or JwuffDecoder")
+@StackTrace(false)
+public final class DecodeEvent extends jdk.jfr.Event {
+    @Label("Format")
+    public String format;
+
+    @Label("Width")
+    public int width;
+
+    @Label("Height")
+    public int height;
+
+    @Label("Input Bytes")
+    @DataAmount
+    public long inputBytes;
+
+    @Label("Output Bytes")
+    @DataAmount
+    public long outputBytes;
+
+    @Label("Native Variant")
+    public String nativeVariant;
+
+    @Label("Work Buffer")
+    @DataAmount
+    public long workbufBytes;
+
+    @Label("Error Code")
+    @Description("WuffsException code, or 0 on success")
+    public int errorCode;
+
+    @Label("Native Steps")
+    public int steps;
+
+    @Label("Off-Heap Staging")
+    public boolean offHeap;
+
+    @Label("Aborted")
+    public boolean aborted;
+
+    @Label("Config Parse")
+    @Timespan(Timespan.NANOSECONDS)
+    public long configParseDuration;
+
+    @Label("Pixel Decode")
+    @Description("Native pixel decode, including the swizzle to the destination format")
+    @Timespan(Timespan.NANOSECONDS)
+    public long pixelDecodeDuration;
+
+    @Label("Image Wrap")
+    @Description("Java-side BufferedImage construction around the decoded pixels")
+    @Timespan(Timespan.NANOSECONDS)
+    public long wrapDuration;
+}
@@ -0,0 +1,32 @@
+package com.agulev.jwuff.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Emitted once when the jwuff native library is extracted and loaded. The event duration covers CPU feature
+ * detection, extraction (or cache verification) and loading.
+ */
+@Name("jwuff.NativeLoad")
+@Label("jwuff Native Load")
+@Category("jwuff")
+@Description("Extraction and loading of the jwuff native library")
+@StackTrace(false)
+public final class NativeLoadEvent extends jdk.jfr.Event {
+    @Label("Platform")
+    public String platform;
+
+    @Label("Variant")
+    @Description("Native library variant that was loaded: baseline, avx2, v3 or v4")
+    public String variant;
+
+    @Label("Path")
+    public String path;
+
+    @Label("Cached")
+    @Description("Whether an existing copy in the native cache directory was reused")
+    public boolean cached;
+}
@@ -0,0 +1,38 @@
+package com.agulev.jwuff.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Emitted for each native header probe (format detection and image config parse).
+ */
+@Name("jwuff.Probe")
+@Label("jwuff Probe")
+@Category("jwuff")
+@Description("Native probe of an encoded image's header")
+@StackTrace(false)
+public final class ProbeEvent extends jdk.jfr.Event {
+    @Label("Format")
+    public String format;
+
+    @Label("Width")
+    public int width;
+
+    @Label("Height")
+    public int height;
+
+    @Label("Input Bytes")
+    @DataAmount
+    public long inputBytes;
+
+    @Label("Native Variant")
+    public String nativeVariant;
+
+    @Label("Error Code")
+    @Description("WuffsException code, or 0 on success")
+    public int errorCode;
+}
@@ -1,21 +1,77 @@
 package com.agulev.jwuff.metadata;
 
+import com.agulev.jwuff.model.ColorInfo;
+import com.agulev.jwuff.model.DescriptiveMetadata;
 import org.w3c.dom.Node;
 
 import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataFormat;
 import javax.imageio.metadata.IIOMetadataNode;
 
+/**
+ * Read-only image metadata in the standard {@code javax_imageio_1.0} format and jwuff's native
+ * {@value #NATIVE_FORMAT} format. Trees are built on each {@link #getAsTree(String)} call.
+ *
+ * <p>The native tree has one {@code Image} node ({@code width}, {@code height}, {@code numChannels},
+ * {@code bitsPerSample}) followed, when present, by {@code Gamma}, {@code Chromaticities}, {@code SRGB},
+ * {@code ICCProfile}, {@code TextEntry} ({@code keyword}, {@code value}), {@code EXIF}, {@code XMP} and
+ * {@code PhysicalDimensions} nodes. {@code ICCProfile} and {@code EXIF} carry their bytes as the node's
+ * {@code userObject}. {@link JwuffImageMetadataFormat} describes the tree.</p>
+ */
 public final class BasicImageMetadata extends IIOMetadata {
     public static final String STANDARD_FORMAT = "javax_imageio_1.0";
+    public static final String NATIVE_FORMAT = "com_agulev_jwuff_image_1.0";
 
     private final int width;
     private final int height;
     private final int numChannels;
+    private final int bitsPerSample;
+    private final ColorInfo color;
+    private final byte[] iccProfile;
+    private final DescriptiveMetadata descriptive;
 
     public BasicImageMetadata(int width, int height, int numChannels) {
+        this(width, height, numChannels, 8);
+    }
+
+    public BasicImageMetadata(int width, int height, int numChannels, int bitsPerSample) {
+        this(width, height, numChannels, bitsPerSample, ColorInfo.NONE, null);
+    }
+
+    /**
+     * @param iccProfile the embedded ICC profile, exposed as the {@code userObject} of the {@code jwuff/ICCProfile}
+     *                   node; may be null
+     */
+    public BasicImageMetadata(int width, int height, int numChannels, int bitsPerSample, ColorInfo color,
+                              byte[] iccProfile) {
+        this(width, height, numChannels, bitsPerSample, color, iccProfile, DescriptiveMetadata.EMPTY);
+    }
+
+    /**
+     * @param descriptive text, EXIF, XMP and pixel density; {@link DescriptiveMetadata#EMPTY} if not collected
+     */
+    public BasicImageMetadata(int width, int height, int numChannels, int bitsPerSample, ColorInfo color,
+                              byte[] iccProfile, DescriptiveMetadata descriptive) {
+        super(true, NATIVE_FORMAT, JwuffImageMetadataFormat.class.getName(), null, null);
         this.width = width;
         this.height = height;
         this.numChannels = numChannels;
+        this.bitsPerSample = bitsPerSample;
+        this.color = color != null ? color : ColorInfo.NONE;
+        this.iccProfile = iccProfile;
+        this.descriptive = descriptive != null ? descriptive : DescriptiveMetadata.EMPTY;
+    }
+
+    /**
+     * Returns {@link JwuffImageMetadataFormat} for the native format, without the reflective lookup
+     * {@link IIOMetadata} would otherwise do.
+     */
+    @Override
+    public IIOMetadataFormat getMetadataFormat(String formatName) {
+        if (NATIVE_FORMAT.equals(formatName)) {
+            return JwuffImageMetadataFormat.getInstance();
+        }
+        return super.getMetadataFormat(formatName);
     }
 
     @Override
@@ -25,6 +81,9 @@ public final class BasicImageMetadata extends IIOMetadata {
 
     @Override
     public Node getAsTree(String formatName) {
+        if (NATIVE_FORMAT.equals(formatName)) {
+            return nativeTree();
+        }
         if (!STANDARD_FORMAT.equals(formatName)) {
             throw new IllegalArgumentException("Unsupported metadata format: " + formatName);
         }
@@ -32,21 +91,45 @@ public final class BasicImageMetadata extends IIOMetadata {
         IIOMetadataNode root = new IIOMetadataNode(STANDARD_FORMAT);
 
         IIOMetadataNode chroma = new IIOMetadataNode("Chroma");
-        chroma.appendChild(node("ColorSpaceType", "name", "RGB"));
+        chroma.appendChild(node("ColorSpaceType", "name", numChannels <= 2 ? "GRAY" : "RGB"));
         chroma.appendChild(node("NumChannels", "value", Integer.toString(numChannels)));
+        if (color.hasGamma()) {
+            chroma.appendChild(node("Gamma", "value", Float.toString((float) color.gamma())));
+        }
         root.appendChild(chroma);
 
+        IIOMetadataNode data = new IIOMetadataNode("Data");
+        data.appendChild(node("SampleFormat", "value", "UnsignedIntegral"));
+        data.appendChild(node("BitsPerSample", "value", bitsPerSampleList()));
+        root.appendChild(data);
+
         IIOMetadataNode dimension = new IIOMetadataNode("Dimension");
+        DescriptiveMetadata.PhysicalDimensions phys = descriptive.physicalDimensions();
+        if (phys != null && phys.pixelsPerUnitX() > 0 && phys.pixelsPerUnitY() > 0) {
+            dimension.appendChild(node("PixelAspectRatio", "value",
+                    Float.toString((float) phys.pixelsPerUnitY() / phys.pixelsPerUnitX())));
+        }
         dimension.appendChild(node("ImageOrientation", "value", "Normal"));
-        dimension.appendChild(node("HorizontalPixelSize", "value", "1.0"));
-        dimension.appendChild(node("VerticalPixelSize", "value", "1.0"));
+        if (phys != null && phys.meters() && phys.pixelsPerUnitX() > 0 && phys.pixelsPerUnitY() > 0) {
+            dimension.appendChild(node("HorizontalPixelSize", "value",
+                    Float.toString(1000.0f / phys.pixelsPerUnitX())));
+            dimension.appendChild(node("VerticalPixelSize", "value",
+                    Float.toString(1000.0f / phys.pixelsPerUnitY())));
+        } else {
+            dimension.appendChild(node("HorizontalPixelSize", "value", "1.0"));
+            dimension.appendChild(node("VerticalPixelSize", "value", "1.0"));
+        }
         dimension.appendChild(node("HorizontalPixelOffset", "value", "0.0"));
         dimension.appendChild(node("VerticalPixelOffset", "value", "0.0"));
         root.appendChild(dimension);
 
-        IIOMetadataNode document = new IIOMetadataNode("Document");
-        document.appendChild(node("ImageCreationTime", "value", "1970-01-01T00:00:00Z"));
-        root.appendChild(document);
+        if (!descriptive.text().isEmpty()) {
+            IIOMetadataNode text = new IIOMetadataNode("Text");
+            for (DescriptiveMetadata.TextEntry entry : descriptive.text()) {
+                text.appendChild(textEntry(entry));
+            }
+            root.appendChild(text);
+        }
 
         IIOMetadataNode transparency = new IIOMetadataNode("Transparency");
         transparency.appendChild(node("Alpha", "value", numChannels == 4 ? "nonpremultiplied" : "none"));
@@ -55,11 +138,73 @@ public final class BasicImageMetadata extends IIOMetadata {
         IIOMetadataNode jwuff = new IIOMetadataNode("jwuff");
         jwuff.appendChild(node("Width", "value", Integer.toString(width)));
         jwuff.appendChild(node("Height", "value", Integer.toString(height)));
+        appendColorNodes(jwuff);
         root.appendChild(jwuff);
 
         return root;
     }
 
+    private IIOMetadataNode nativeTree() {
+        IIOMetadataNode root = new IIOMetadataNode(NATIVE_FORMAT);
+
+        IIOMetadataNode image = new IIOMetadataNode("Image");
+        image.setAttribute("width", Integer.toString(width));
+        image.setAttribute("height", Integer.toString(height));
+        image.setAttribute("numChannels", Integer.toString(numChannels));
+        image.setAttribute("bitsPerSample", Integer.toString(bitsPerSample));
+        root.appendChild(image);
+
+        if (color.hasGamma()) {
+            root.appendChild(node("Gamma", "value", Double.toString(color.gamma())));
+        }
+        appendColorNodes(root);
+
+        for (DescriptiveMetadata.TextEntry entry : descriptive.text()) {
+            root.appendChild(textEntry(entry));
+        }
+        if (descriptive.exif() != null) {
+            IIOMetadataNode exif = node("EXIF", "length", Integer.toString(descriptive.exif().length));
+            exif.setUserObject(descriptive.exif());
+            root.appendChild(exif);
+        }
+        if (descriptive.xmp() != null) {
+            root.appendChild(node("XMP", "value", descriptive.xmp()));
+        }
+        DescriptiveMetadata.PhysicalDimensions phys = descriptive.physicalDimensions();
+        if (phys != null) {
+            IIOMetadataNode dims = new IIOMetadataNode("PhysicalDimensions");
+            dims.setAttribute("pixelsPerUnitX", Long.toString(phys.pixelsPerUnitX()));
+            dims.setAttribute("pixelsPerUnitY", Long.toString(phys.pixelsPerUnitY()));
+            dims.setAttribute("unit", phys.meters() ? "meter" : "unknown");
+            root.appendChild(dims);
+        }
+        return root;
+    }
+
+    private void appendColorNodes(IIOMetadataNode parent) {
+        ColorInfo.Chromaticities c = color.chromaticities();
+        if (c != null) {
+            IIOMetadataNode chromaticities = new IIOMetadataNode("Chromaticities");
+            chromaticities.setAttribute("whitePointX", Double.toString(c.whiteX()));
+            chromaticities.setAttribute("whitePointY", Double.toString(c.whiteY()));
+            chromaticities.setAttribute("redX", Double.toString(c.redX()));
+            chromaticities.setAttribute("redY", Double.toString(c.redY()));
+            chromaticities.setAttribute("greenX", Double.toString(c.greenX()));
+            chromaticities.setAttribute("greenY", Double.toString(c.greenY()));
+            chromaticities.setAttribute("blueX", Double.toString(c.blueX()));
+            chromaticities.setAttribute("blueY", Double.toString(c.blueY()));
+            parent.appendChild(chromaticities);
+        }
+        if (color.isSrgb()) {
+            parent.appendChild(node("SRGB", "renderingIntent", Integer.toString(color.srgbRenderingIntent())));
+        }
+        if (color.hasIccProfile()) {
+            IIOMetadataNode icc = node("ICCProfile", "length", Integer.toString(color.iccProfileLength()));
+            icc.setUserObject(iccProfile);
+            parent.appendChild(icc);
+        }
+    }
+
     @Override
     public void mergeTree(String formatName, Node root) {
         throw new IllegalStateException("read-only");
@@ -70,10 +215,25 @@ public final class BasicImageMetadata extends IIOMetadata {
         throw new IllegalStateException("read-only");
     }
 
+    private String bitsPerSampleList() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < numChannels; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(bitsPerSample);
+        }
+        return sb.toString();
+    }
+
+    private static IIOMetadataNode textEntry(DescriptiveMetadata.TextEntry entry) {
+        IIOMetadataNode n = new IIOMetadataNode("TextEntry");
+        n.setAttribute("keyword", entry.keyword());
+        n.setAttribute("value", entry.value());
+        return n;
+    }
+
     private static IIOMetadataNode node(String name, String attr, String value) {
         IIOMetadataNode n = new IIOMetadataNode(name);
         n.setAttribute(attr, value);
         return n;
     }
 }
-
@@ -0,0 +1,71 @@
+package com.agulev.jwuff.metadata;
+
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.metadata.IIOMetadataFormat;
+import javax.imageio.metadata.IIOMetadataFormatImpl;
+import java.util.List;
+
+/**
+ * Describes the native {@value BasicImageMetadata#NATIVE_FORMAT} tree built by {@link BasicImageMetadata}.
+ *
+ * <p>{@code TextEntry} nodes repeat, one per text chunk or comment; every other child of the root appears at most
+ * once.</p>
+ */
+public final class JwuffImageMetadataFormat extends IIOMetadataFormatImpl {
+    private static final JwuffImageMetadataFormat INSTANCE = new JwuffImageMetadataFormat();
+
+    private JwuffImageMetadataFormat() {
+        super(BasicImageMetadata.NATIVE_FORMAT, CHILD_POLICY_SOME);
+        String root = BasicImageMetadata.NATIVE_FORMAT;
+
+        addElement("Image", root, CHILD_POLICY_EMPTY);
+        for (String name : new String[]{"width", "height", "numChannels", "bitsPerSample"}) {
+            addAttribute("Image", name, DATATYPE_INTEGER, true, null, "1", null, true, false);
+        }
+
+        addElement("Gamma", root, CHILD_POLICY_EMPTY);
+        addAttribute("Gamma", "value", DATATYPE_DOUBLE, true, null);
+
+        addElement("Chromaticities", root, CHILD_POLICY_EMPTY);
+        for (String name : new String[]{"whitePointX", "whitePointY", "redX", "redY", "greenX", "greenY", "blueX",
+                "blueY"}) {
+            addAttribute("Chromaticities", name, DATATYPE_DOUBLE, true, null);
+        }
+
+        addElement("SRGB", root, CHILD_POLICY_EMPTY);
+        addAttribute("SRGB", "renderingIntent", DATATYPE_INTEGER, true, null, "0", "3", true, true);
+
+        addElement("ICCProfile", root, CHILD_POLICY_EMPTY);
+        addAttribute("ICCProfile", "length", DATATYPE_INTEGER, true, null, "0", null, true, false);
+        addObjectValue("ICCProfile", byte.class, 0, Integer.MAX_VALUE);
+
+        addElement("TextEntry", root, CHILD_POLICY_EMPTY);
+        addAttribute("TextEntry", "keyword", DATATYPE_STRING, true, null);
+        addAttribute("TextEntry", "value", DATATYPE_STRING, true, null);
+
+        addElement("EXIF", root, CHILD_POLICY_EMPTY);
+        addAttribute("EXIF", "length", DATATYPE_INTEGER, true, null, "0", null, true, false);
+        addObjectValue("EXIF", byte.class, 0, Integer.MAX_VALUE);
+
+        addElement("XMP", root, CHILD_POLICY_EMPTY);
+        addAttribute("XMP", "value", DATATYPE_STRING, true, null);
+
+        addElement("PhysicalDimensions", root, CHILD_POLICY_EMPTY);
+        addAttribute("PhysicalDimensions", "pixelsPerUnitX", DATATYPE_INTEGER, true, null, "0", null, true, false);
+        addAttribute("PhysicalDimensions", "pixelsPerUnitY", DATATYPE_INTEGER, true, null, "0", null, true, false);
+        addAttribute("PhysicalDimensions", "unit", DATATYPE_STRING, true, "unknown", List.of("meter", "unknown"));
+    }
+
+    /**
+     * Returns the shared instance, as {@link javax.imageio.metadata.IIOMetadata#getMetadataFormat} expects of a
+     * format class.
+     */
+    public static IIOMetadataFormat getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public boolean canNodeAppear(String elementName, ImageTypeSpecifier imageType) {
+        return true;
+    }
+}
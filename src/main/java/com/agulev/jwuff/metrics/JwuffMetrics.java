@@ -0,0 +1,316 @@
+package com.agulev.jwuff.metrics;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Process-wide decode metrics for jwuff readers.
+ *
+ * <p>Counters are {@link LongAdder}s and latencies go into {@link LatencyHistogram}s, so recording from many decode
+ * threads does not contend on shared cache lines. The only shared CAS per decode maintains the in-flight pixel byte
+ * total used for the peak. Disable recording with {@code -Djwuff.metrics=false}.</p>
+ *
+ * <p>Read the numbers with {@link #snapshot()}, or publish them over JMX with {@link #registerMBean()}
+ * ({@code -Djwuff.metrics.jmx=true} registers on first use).</p>
+ */
+public final class JwuffMetrics {
+    public static final String OBJECT_NAME = "com.agulev.jwuff:type=Metrics";
+
+    private static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("jwuff.metrics"));
+
+    private static final ConcurrentHashMap<String, FormatMetrics> FORMATS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Integer, LongAdder> FAILURES_BY_CODE = new ConcurrentHashMap<>();
+    private static final LongAdder PROBE_CACHE_HITS = new LongAdder();
+    private static final LongAdder PROBE_CACHE_MISSES = new LongAdder();
+    private static final LongAdder IN_FLIGHT_DECODES = new LongAdder();
+    private static final AtomicLong IN_FLIGHT_PIXEL_BYTES = new AtomicLong();
+    private static final AtomicLong PEAK_PIXEL_BYTES = new AtomicLong();
+
+    private static ObjectName registered;
+
+    static {
+        if (ENABLED && Boolean.getBoolean("jwuff.metrics.jmx")) {
+            registerMBean();
+        }
+    }
+
+    private JwuffMetrics() {}
+
+    public static boolean enabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Records the start of a decode that will hold {@code pixelBytes} of output. Called by jwuff readers.
+     *
+     * @return a start timestamp to pass to {@link #decodeSucceeded} and {@link #decodeEnded}.
+     */
+    public static long decodeStarted(long pixelBytes) {
+        if (!ENABLED) return 0L;
+        IN_FLIGHT_DECODES.increment();
+        long current = IN_FLIGHT_PIXEL_BYTES.addAndGet(pixelBytes);
+        long peak = PEAK_PIXEL_BYTES.get();
+        while (current > peak && !PEAK_PIXEL_BYTES.compareAndSet(peak, current)) {
+            peak = PEAK_PIXEL_BYTES.get();
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Records a completed decode. Called by jwuff readers.
+     */
+    public static void decodeSucceeded(String format, long inputBytes, long outputBytes, long startNanos) {
+        if (!ENABLED) return;
+        FormatMetrics m = format(format);
+        m.decodes.increment();
+        m.inputBytes.add(inputBytes);
+        m.outputBytes.add(outputBytes);
+        m.latency.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records a failed decode with its {@code WuffsException} code. Called by jwuff readers.
+     */
+    public static void decodeFailed(String format, int errorCode) {
+        if (!ENABLED) return;
+        format(format).failures.increment();
+        FAILURES_BY_CODE.computeIfAbsent(errorCode, c -> new LongAdder()).increment();
+    }
+
+    /**
+     * Records the end (success, failure or abort) of a decode started with {@link #decodeStarted}. Called by jwuff
+     * readers.
+     */
+    public static void decodeEnded(long pixelBytes) {
+        if (!ENABLED) return;
+        IN_FLIGHT_DECODES.decrement();
+        IN_FLIGHT_PIXEL_BYTES.addAndGet(-pixelBytes);
+    }
+
+    /**
+     * Records whether a reader answered a probe from its cached header info. Called by jwuff readers.
+     */
+    public static void probe(boolean cacheHit) {
+        if (!ENABLED) return;
+        (cacheHit ? PROBE_CACHE_HITS : PROBE_CACHE_MISSES).increment();
+    }
+
+    /**
+     * Returns a point-in-time copy of all metrics.
+     */
+    public static Snapshot snapshot() {
+        Map<String, FormatSnapshot> formats = new TreeMap<>();
+        FORMATS.forEach((name, m) -> formats.put(name, new FormatSnapshot(
+                m.decodes.sum(),
+                m.failures.sum(),
+                m.inputBytes.sum(),
+                m.outputBytes.sum(),
+                m.latency.counts()
+        )));
+        Map<Integer, Long> failures = new TreeMap<>();
+        FAILURES_BY_CODE.forEach((code, n) -> failures.put(code, n.sum()));
+        return new Snapshot(
+                formats,
+                failures,
+                PROBE_CACHE_HITS.sum(),
+                PROBE_CACHE_MISSES.sum(),
+                IN_FLIGHT_DECODES.sum(),
+                IN_FLIGHT_PIXEL_BYTES.get(),
+                PEAK_PIXEL_BYTES.get()
+        );
+    }
+
+    /**
+     * Resets all counters and histograms. In-flight gauges are left alone; the peak restarts from the current value.
+     */
+    public static void reset() {
+        FORMATS.values().forEach(FormatMetrics::reset);
+        FAILURES_BY_CODE.clear();
+        PROBE_CACHE_HITS.reset();
+        PROBE_CACHE_MISSES.reset();
+        PEAK_PIXEL_BYTES.set(IN_FLIGHT_PIXEL_BYTES.get());
+    }
+
+    /**
+     * Registers the {@link JwuffMetricsMXBean} with the platform MBean server under {@value #OBJECT_NAME}.
+     * Idempotent.
+     */
+    public static synchronized ObjectName registerMBean() {
+        if (registered != null) return registered;
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                server.registerMBean(new MXBeanImpl(), name);
+            } catch (InstanceAlreadyExistsException ignored) {
+                // Registered by another classloader's copy of jwuff; keep theirs.
+            }
+            registered = name;
+            return name;
+        } catch (JMException e) {
+            throw new IllegalStateException("Failed to register " + OBJECT_NAME, e);
+        }
+    }
+
+    public static synchronized void unregisterMBean() {
+        if (registered == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered);
+        } catch (InstanceNotFoundException ignored) {
+        } catch (JMException e) {
+            throw new IllegalStateException("Failed to unregister " + OBJECT_NAME, e);
+        } finally {
+            registered = null;
+        }
+    }
+
+    private static FormatMetrics format(String format) {
+        FormatMetrics m = FORMATS.get(format);
+        if (m != null) return m;
+        return FORMATS.computeIfAbsent(format, f -> new FormatMetrics());
+    }
+
+    public record Snapshot(
+            Map<String, FormatSnapshot> formats,
+            Map<Integer, Long> failuresByCode,
+            long probeCacheHits,
+            long probeCacheMisses,
+            long inFlightDecodes,
+            long inFlightPixelBytes,
+            long peakPixelBytes
+    ) {
+        public long decodeCount() {
+            long total = 0;
+            for (FormatSnapshot f : formats.values()) total += f.decodes();
+            return total;
+        }
+    }
+
+    /**
+     * Per-format totals. {@code latencyBuckets} uses the {@link LatencyHistogram} bucket layout.
+     */
+    public record FormatSnapshot(
+            long decodes,
+            long failures,
+            long inputBytes,
+            long outputBytes,
+            long[] latencyBuckets
+    ) {
+        public double latencyMillis(double quantile) {
+            return LatencyHistogram.quantileNanos(latencyBuckets, quantile) / 1_000_000.0;
+        }
+    }
+
+    private static final class FormatMetrics {
+        final LongAdder decodes = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder inputBytes = new LongAdder();
+        final LongAdder outputBytes = new LongAdder();
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        void reset() {
+            decodes.reset();
+            failures.reset();
+            inputBytes.reset();
+            outputBytes.reset();
+            latency.reset();
+        }
+    }
+
+    private static final class MXBeanImpl implements JwuffMetricsMXBean {
+        @Override
+        public long getDecodeCount() {
+            return snapshot().decodeCount();
+        }
+
+        @Override
+        public Map<String, Long> getDecodesByFormat() {
+            return byFormat(FormatSnapshot::decodes);
+        }
+
+        @Override
+        public Map<String, Long> getFailuresByFormat() {
+            return byFormat(FormatSnapshot::failures);
+        }
+
+        @Override
+        public Map<String, Long> getInputBytesByFormat() {
+            return byFormat(FormatSnapshot::inputBytes);
+        }
+
+        @Override
+        public Map<String, Long> getOutputBytesByFormat() {
+            return byFormat(FormatSnapshot::outputBytes);
+        }
+
+        @Override
+        public Map<String, Double> getLatencyP50MillisByFormat() {
+            return byFormatDouble(f -> f.latencyMillis(0.50));
+        }
+
+        @Override
+        public Map<String, Double> getLatencyP99MillisByFormat() {
+            return byFormatDouble(f -> f.latencyMillis(0.99));
+        }
+
+        @Override
+        public Map<String, Long> getFailuresByCode() {
+            Map<String, Long> out = new TreeMap<>();
+            snapshot().failuresByCode().forEach((code, n) -> out.put(Integer.toString(code), n));
+            return out;
+        }
+
+        @Override
+        public long getProbeCacheHits() {
+            return PROBE_CACHE_HITS.sum();
+        }
+
+        @Override
+        public long getProbeCacheMisses() {
+            return PROBE_CACHE_MISSES.sum();
+        }
+
+        @Override
+        public long getInFlightDecodes() {
+            return IN_FLIGHT_DECODES.sum();
+        }
+
+        @Override
+        public long getInFlightPixelBytes() {
+            return IN_FLIGHT_PIXEL_BYTES.get();
+        }
+
+        @Override
+        public long getPeakPixelBytes() {
+            return PEAK_PIXEL_BYTES.get();
+        }
+
+        @Override
+        public void reset() {
+            JwuffMetrics.reset();
+        }
+
+        private static Map<String, Long> byFormat(Function<FormatSnapshot, Long> f) {
+            Map<String, Long> out = new TreeMap<>();
+            snapshot().formats().forEach((name, s) -> out.put(name, f.apply(s)));
+            return out;
+        }
+
+        private static Map<String, Double> byFormatDouble(ToDoubleFunction<FormatSnapshot> f) {
+            Map<String, Double> out = new TreeMap<>();
+            snapshot().formats().forEach((name, s) -> out.put(name, f.applyAsDouble(s)));
+            return out;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.agulev.jwuff.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link JwuffMetrics}, registered as {@value JwuffMetrics#OBJECT_NAME}.
+ */
+public interface JwuffMetricsMXBean {
+    long getDecodeCount();
+
+    Map<String, Long> getDecodesByFormat();
+
+    Map<String, Long> getFailuresByFormat();
+
+    Map<String, Long> getInputBytesByFormat();
+
+    Map<String, Long> getOutputBytesByFormat();
+
+    Map<String, Double> getLatencyP50MillisByFormat();
+
+    Map<String, Double> getLatencyP99MillisByFormat();
+
+    /**
+     * Failures keyed by {@code WuffsException} code.
+     */
+    Map<String, Long> getFailuresByCode();
+
+    long getProbeCacheHits();
+
+    long getProbeCacheMisses();
+
+    long getInFlightDecodes();
+
+    long getInFlightPixelBytes();
+
+    long getPeakPixelBytes();
+
+    void reset();
+}
@@ -0,0 +1,71 @@
+package com.agulev.jwuff.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram with power-of-two nanosecond buckets.
+ *
+ * <p>Bucket {@code i} counts samples in {@code [2^(i-1), 2^i)} ns (bucket 0 holds zero). Each bucket is a
+ * {@link LongAdder}, so concurrent recorders update striped cells instead of contending on one counter. Percentiles
+ * are reported as the upper bound of the bucket that contains them, i.e. within a factor of two.</p>
+ */
+public final class LatencyHistogram {
+    static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        buckets[bucketOf(nanos)].increment();
+    }
+
+    /**
+     * Returns a point-in-time copy of the bucket counts.
+     */
+    public long[] counts() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    void reset() {
+        for (LongAdder b : buckets) {
+            b.reset();
+        }
+    }
+
+    /**
+     * Returns the upper bound in nanoseconds of the bucket containing quantile {@code q}, or 0 if {@code counts} is
+     * empty.
+     */
+    public static long quantileNanos(long[] counts, double q) {
+        long total = 0;
+        for (long c : counts) total += c;
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(q * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return upperBoundNanos(i);
+        }
+        return upperBoundNanos(counts.length - 1);
+    }
+
+    static int bucketOf(long nanos) {
+        if (nanos <= 0) return 0;
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+    }
+
+    static long upperBoundNanos(int bucket) {
+        if (bucket == 0) return 0;
+        if (bucket >= 63) return Long.MAX_VALUE;
+        return (1L << bucket) - 1;
+    }
+}
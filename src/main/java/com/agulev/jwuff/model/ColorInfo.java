@@ -0,0 +1,52 @@
+package com.agulev.jwuff.model;
+
+/**
+ * Color metadata found in the image (PNG gAMA, cHRM, sRGB and iCCP chunks).
+ *
+ * @param gamma               gAMA value (e.g. {@code 0.45455}), or 0 if absent.
+ * @param chromaticities      cHRM white point and primaries, or null if absent.
+ * @param srgbRenderingIntent sRGB rendering intent (0-3), or -1 if absent.
+ * @param iccProfileLength    decompressed size of the embedded ICC profile, or 0 if none. Read the profile with
+ *                            {@link com.agulev.jwuff.nativelib.WuffsFFI#iccProfile(byte[], int, int)}.
+ */
+public record ColorInfo(
+        double gamma,
+        Chromaticities chromaticities,
+        int srgbRenderingIntent,
+        int iccProfileLength
+) {
+    public static final ColorInfo NONE = new ColorInfo(0.0, null, -1, 0);
+
+    public record Chromaticities(
+            double whiteX,
+            double whiteY,
+            double redX,
+            double redY,
+            double greenX,
+            double greenY,
+            double blueX,
+            double blueY
+    ) {}
+
+    public boolean hasGamma() {
+        return gamma > 0.0;
+    }
+
+    public boolean hasIccProfile() {
+        return iccProfileLength > 0;
+    }
+
+    /**
+     * Returns true if the image is explicitly tagged sRGB.
+     */
+    public boolean isSrgb() {
+        return srgbRenderingIntent >= 0;
+    }
+
+    /**
+     * Returns true if no color metadata was found.
+     */
+    public boolean isEmpty() {
+        return !hasGamma() && chromaticities == null && !isSrgb() && !hasIccProfile();
+    }
+}
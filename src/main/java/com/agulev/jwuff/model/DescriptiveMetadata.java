@@ -0,0 +1,33 @@
+package com.agulev.jwuff.model;
+
+import java.util.List;
+
+/**
+ * Descriptive metadata found in the image: PNG tEXt/zTXt/iTXt, eXIf and pHYs chunks, or JPEG APP1 EXIF/XMP, JFIF
+ * density and COM segments.
+ *
+ * @param text               keyword/value pairs in file order; JPEG comments use the keyword {@code Comment}.
+ * @param exif               the TIFF-structured EXIF block (starting with {@code II} or {@code MM}), or null.
+ * @param xmp                the XMP packet, or null.
+ * @param physicalDimensions pixel density, or null if absent.
+ */
+public record DescriptiveMetadata(
+        List<TextEntry> text,
+        byte[] exif,
+        String xmp,
+        PhysicalDimensions physicalDimensions
+) {
+    public static final DescriptiveMetadata EMPTY = new DescriptiveMetadata(List.of(), null, null, null);
+
+    public DescriptiveMetadata {
+        text = List.copyOf(text);
+    }
+
+    public record TextEntry(String keyword, String value) {}
+
+    /**
+     * Pixels per unit along each axis. When {@code meters} is false the unit is unknown and only the ratio (the pixel
+     * aspect ratio) is meaningful.
+     */
+    public record PhysicalDimensions(long pixelsPerUnitX, long pixelsPerUnitY, boolean meters) {}
+}
@@ -0,0 +1,12 @@
+package com.agulev.jwuff.model;
+
+/**
+ * Raw deflate data for a band of PNG rows: {@code data[0, length)}, plus the Adler-32 of the band's
+ * {@code filteredLength} filtered bytes, which callers combine into the zlib trailer.
+ */
+public record EncodedPngBand(
+        byte[] data,
+        int length,
+        int adler32,
+        long filteredLength
+) {}
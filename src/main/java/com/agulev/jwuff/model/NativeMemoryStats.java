@@ -0,0 +1,14 @@
+package com.agulev.jwuff.model;
+
+/**
+ * Native heap memory allocated by the jwuff library itself (decoders, work buffers, sessions). Memory taken from a
+ * caller-supplied slab is not included. {@code limitBytes == 0} means unlimited.
+ */
+public record NativeMemoryStats(
+        long currentBytes,
+        long peakBytes,
+        long allocCount,
+        long freeCount,
+        long failedCount,
+        long limitBytes
+) {}
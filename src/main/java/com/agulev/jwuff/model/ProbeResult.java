@@ -1,9 +1,27 @@
 package com.agulev.jwuff.model;
 
+/**
+ * Image dimensions and format. {@code bytesPerPixel} and {@code strideBytes} describe the default 8-bit BGRA output;
+ * {@code bitDepth} is the source's bits per channel (8 or 16) and {@code pixelFormat} the
+ * {@link com.agulev.jwuff.nativelib.WuffsPixelFormat} that preserves it. {@code color} is never null.
+ * {@code orientation} is the EXIF Orientation (1-8, 1 if absent); {@code width} and {@code height} are as stored, so
+ * orientations 5-8 swap them when applied (see {@code JwuffDecodeOptions#applyOrientation()}).
+ */
 public record ProbeResult(
         int width,
         int height,
         int frameCount,
         int bytesPerPixel,
-        int strideBytes
-) {}
+        int strideBytes,
+        int bitDepth,
+        int pixelFormat,
+        ColorInfo color,
+        int orientation
+) {
+    /**
+     * Returns true if applying {@link #orientation()} swaps width and height.
+     */
+    public boolean orientationSwapsDimensions() {
+        return orientation >= 5;
+    }
+}
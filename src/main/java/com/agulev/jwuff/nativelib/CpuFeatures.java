@@ -0,0 +1,139 @@
+package com.agulev.jwuff.nativelib;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * x86-64 CPU feature detection that does not need the jwuff native library, so only the selected variant is ever
+ * loaded.
+ *
+ * <p>Features are reported with their lower-case Linux {@code /proc/cpuinfo} names ({@code avx2}, {@code fma},
+ * {@code bmi2}, ...). On Linux they come from {@code /proc/cpuinfo}, which only lists AVX features the kernel has
+ * enabled; on macOS from the {@code machdep.cpu.*} sysctls; on Windows from {@code IsProcessorFeaturePresent}. An
+ * empty set means "unknown" and selects the baseline library.</p>
+ */
+final class CpuFeatures {
+    // winnt.h
+    private static final int PF_AVX2_INSTRUCTIONS_AVAILABLE = 40;
+    private static final int PF_AVX512F_INSTRUCTIONS_AVAILABLE = 41;
+
+    private static final Set<String> AVX2 = Set.of("avx2", "fma");
+    private static final Set<String> X86_64_V3 = Set.of("avx2", "fma", "bmi1", "bmi2", "f16c", "lzcnt", "movbe");
+    private static final Set<String> AVX512 = Set.of("avx512f", "avx512bw", "avx512cd", "avx512dq", "avx512vl");
+
+    private CpuFeatures() {}
+
+    /**
+     * Returns whether a CPU with {@code features} can run the native library {@code variant}.
+     */
+    static boolean supports(Set<String> features, String variant) {
+        return switch (variant) {
+            case "baseline" -> true;
+            case "avx2" -> features.containsAll(AVX2);
+            case "v3" -> features.containsAll(X86_64_V3);
+            case "v4" -> features.containsAll(X86_64_V3) && features.containsAll(AVX512);
+            default -> false;
+        };
+    }
+
+    static Set<String> detect(String os) {
+        try {
+            return switch (os) {
+                case "linux" -> linux();
+                case "macos" -> macos();
+                case "win32" -> windows();
+                default -> Set.of();
+            };
+        } catch (Throwable t) {
+            return Set.of();
+        }
+    }
+
+    private static Set<String> linux() throws IOException {
+        Set<String> features = new HashSet<>();
+        List<String> lines = Files.readAllLines(Path.of("/proc/cpuinfo"));
+        for (String line : lines) {
+            if (!line.startsWith("flags")) continue;
+            int colon = line.indexOf(':');
+            if (colon < 0) continue;
+            for (String flag : line.substring(colon + 1).trim().split("\\s+")) {
+                features.add(flag.toLowerCase(Locale.ROOT));
+            }
+            break;
+        }
+        // Linux reports LZCNT as part of AMD's "abm".
+        if (features.contains("abm")) features.add("lzcnt");
+        return features;
+    }
+
+    private static Set<String> macos() throws Throwable {
+        Linker linker = Linker.nativeLinker();
+        MemorySegment symbol = linker.defaultLookup().find("sysctlbyname").orElse(null);
+        if (symbol == null) return Set.of();
+        MethodHandle sysctlbyname = linker.downcallHandle(symbol, FunctionDescriptor.of(
+                ValueLayout.JAVA_INT,
+                ValueLayout.ADDRESS,
+                ValueLayout.ADDRESS,
+                ValueLayout.ADDRESS,
+                ValueLayout.ADDRESS,
+                ValueLayout.JAVA_LONG
+        ));
+        Set<String> features = new HashSet<>();
+        for (String name : new String[]{"machdep.cpu.features", "machdep.cpu.leaf7_features", "machdep.cpu.extfeatures"}) {
+            String value = sysctlString(sysctlbyname, name);
+            if (value == null) continue;
+            for (String flag : value.trim().split("\\s+")) {
+                features.add(flag.toLowerCase(Locale.ROOT).replace('.', '_'));
+            }
+        }
+        // sysctl reports AVX as "AVX1.0".
+        if (features.contains("avx1_0")) features.add("avx");
+        return features;
+    }
+
+    private static String sysctlString(MethodHandle sysctlbyname, String name) throws Throwable {
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment cName = arena.allocateFrom(name);
+            MemorySegment len = arena.allocate(ValueLayout.JAVA_LONG);
+            int rc = (int) sysctlbyname.invokeExact(cName, MemorySegment.NULL, len, MemorySegment.NULL, 0L);
+            long size = len.get(ValueLayout.JAVA_LONG, 0L);
+            if (rc != 0 || size <= 0) return null;
+            MemorySegment buf = arena.allocate(size);
+            rc = (int) sysctlbyname.invokeExact(cName, buf, len, MemorySegment.NULL, 0L);
+            if (rc != 0) return null;
+            return buf.getString(0L);
+        }
+    }
+
+    private static Set<String> windows() throws Throwable {
+        Set<String> features = new HashSet<>();
+        try (Arena arena = Arena.ofConfined()) {
+            SymbolLookup kernel32 = SymbolLookup.libraryLookup("kernel32", arena);
+            MemorySegment symbol = kernel32.find("IsProcessorFeaturePresent").orElse(null);
+            if (symbol == null) return Set.of();
+            MethodHandle present = Linker.nativeLinker().downcallHandle(
+                    symbol, FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT));
+            // Windows only reports AVX2 and AVX512F. Every AVX2 CPU also implements the rest of x86-64-v3, and every
+            // AVX512F CPU except Xeon Phi the rest of x86-64-v4.
+            if ((int) present.invokeExact(PF_AVX2_INSTRUCTIONS_AVAILABLE) != 0) {
+                features.addAll(X86_64_V3);
+                if ((int) present.invokeExact(PF_AVX512F_INSTRUCTIONS_AVAILABLE) != 0) {
+                    features.addAll(AVX512);
+                }
+            }
+        }
+        return features;
+    }
+}
@@ -0,0 +1,43 @@
+package com.agulev.jwuff.nativelib;
+
+import java.util.Locale;
+
+/**
+ * How pixel and input buffers are handed to the native decoder.
+ *
+ * <p>{@link #CRITICAL} passes heap arrays straight to critical downcalls, which is the fastest path but keeps the
+ * arrays pinned (and may hold off the GC) while native code runs. {@link #OFF_HEAP} copies the input into native
+ * memory, decodes into a native pixel buffer via regular downcalls and copies the pixels back at the end, so a long
+ * decode never stalls other threads' allocations.</p>
+ *
+ * <p>By default the mode is chosen by output size: decodes producing at least
+ * {@code jwuff.decode.offHeapThresholdBytes} (default 64 MiB) pixel bytes use {@link #OFF_HEAP}. Set
+ * {@code jwuff.decode.callMode} to {@code critical} or {@code offheap} to force one mode.</p>
+ */
+public enum DecodeCallMode {
+    CRITICAL,
+    OFF_HEAP;
+
+    private static final long DEFAULT_OFF_HEAP_THRESHOLD_BYTES = 64L * 1024 * 1024;
+    private static final DecodeCallMode FORCED = parseForced(System.getProperty("jwuff.decode.callMode"));
+    private static final long OFF_HEAP_THRESHOLD_BYTES =
+            Long.getLong("jwuff.decode.offHeapThresholdBytes", DEFAULT_OFF_HEAP_THRESHOLD_BYTES);
+
+    /**
+     * Returns the configured mode for a decode that writes {@code pixelBytes} bytes of output.
+     */
+    public static DecodeCallMode select(long pixelBytes) {
+        if (FORCED != null) return FORCED;
+        return pixelBytes >= OFF_HEAP_THRESHOLD_BYTES ? OFF_HEAP : CRITICAL;
+    }
+
+    private static DecodeCallMode parseForced(String value) {
+        if (value == null) return null;
+        return switch (value.trim().toLowerCase(Locale.ROOT)) {
+            case "", "auto" -> null;
+            case "critical" -> CRITICAL;
+            case "offheap", "off_heap", "off-heap" -> OFF_HEAP;
+            default -> throw new IllegalArgumentException("Unknown jwuff.decode.callMode: " + value);
+        };
+    }
+}
@@ -0,0 +1,100 @@
+package com.agulev.jwuff.nativelib;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * A native Wuffs decompressor (raw deflate, zlib or gzip) driven one step at a time. Each step consumes input and
+ * produces output until the input runs out, the output is full or the stream ends; input it did not consume must be
+ * passed again on the next step.
+ *
+ * <p>Instances are not thread-safe but may move between threads. Input and destination segments may be heap or
+ * native.</p>
+ */
+public final class InflateSession implements AutoCloseable {
+    public static final int FORMAT_DEFLATE = 0;
+    public static final int FORMAT_ZLIB = 1;
+    public static final int FORMAT_GZIP = 2;
+
+    /** Skips Adler-32 (zlib) or CRC-32 (gzip) verification. */
+    public static final int FLAG_IGNORE_CHECKSUM = 0x1;
+
+    private static volatile int formats = -1;
+
+    private final Arena arena = Arena.ofShared();
+    private final MemorySegment out = arena.allocate(WuffsTypes.INFLATE_RESULT_LAYOUT);
+    private final MemorySegment inflater;
+    private boolean closed;
+
+    public InflateSession(int format, int flags) {
+        if (!isSupported(format)) {
+            arena.close();
+            throw new IllegalArgumentException("decompression format not compiled in: " + format);
+        }
+        try {
+            inflater = WuffsFFI.openInflater(format, flags, arena.allocate(ValueLayout.ADDRESS));
+        } catch (RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns whether the native library was built with the decoder for {@code format}.
+     */
+    public static boolean isSupported(int format) {
+        int mask = formats;
+        if (mask < 0) {
+            mask = WuffsFFI.inflateFormats();
+            formats = mask;
+        }
+        return format >= 0 && format < 31 && (mask & (1 << format)) != 0;
+    }
+
+    /**
+     * Decompresses from {@code src} into {@code dst}. With {@code srcFinal}, running out of input before the end of
+     * the stream fails with a truncated-input {@link WuffsException} rather than suspending.
+     *
+     * @return {@code true} once the end of the stream has been reached
+     */
+    public boolean step(MemorySegment src, boolean srcFinal, MemorySegment dst) {
+        if (closed) throw new IllegalStateException("inflater is closed");
+        return WuffsFFI.stepInflater(inflater, src, srcFinal, dst, out) == 0;
+    }
+
+    /** Bytes of input consumed by the last {@link #step}. */
+    public long consumed() {
+        return (long) WuffsTypes.INFLATE_CONSUMED.get(out, 0L);
+    }
+
+    /** Bytes written to the destination by the last {@link #step}. */
+    public long produced() {
+        return (long) WuffsTypes.INFLATE_PRODUCED.get(out, 0L);
+    }
+
+    /** Whether the last {@link #step} stopped because it ran out of input. */
+    public boolean needsInput() {
+        return (int) WuffsTypes.INFLATE_NEED_INPUT.get(out, 0L) != 0;
+    }
+
+    /**
+     * Restarts the decoder for a new stream, keeping its state and work buffer allocated.
+     */
+    public void reset() {
+        if (closed) throw new IllegalStateException("inflater is closed");
+        WuffsFFI.resetInflater(inflater);
+        out.fill((byte) 0);
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            WuffsFFI.closeInflater(inflater);
+        } finally {
+            arena.close();
+        }
+    }
+}
@@ -1,86 +1,417 @@
 package com.agulev.jwuff.nativelib;
 
+import com.agulev.jwuff.jfr.NativeLoadEvent;
+
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.foreign.Arena;
 import java.lang.foreign.FunctionDescriptor;
 import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
 import java.lang.foreign.SymbolLookup;
 import java.lang.foreign.ValueLayout;
 import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Optional;
+import java.util.Set;
 
 public final class NativeLibrary {
-    private static final AtomicBoolean LOADED = new AtomicBoolean(false);
+    // Number of SHA-256 bytes used in the cache directory name.
+    private static final int HASH_PREFIX_BYTES = 16;
+    // Optional x86_64 variants, best first. Must match src/native/CMakeLists.txt, which builds no v3 with MSVC.
+    private static final List<String> X86_64_VARIANTS = List.of("v4", "v3", "avx2");
+    private static final List<String> WIN32_X86_64_VARIANTS = List.of("v4", "avx2");
+    // Set to "runtime" inside a GraalVM native image.
+    private static final boolean NATIVE_IMAGE = System.getProperty("org.graalvm.nativeimage.imagecode") != null;
+    // Any exported function; used to tell whether the library is linked into the process.
+    private static final String PROBE_SYMBOL = "wuffs_probe_image";
+
+    private static volatile SymbolLookup symbols;
     private static volatile Path loadedPath;
+    private static volatile String loadedVariant;
 
     private NativeLibrary() {}
 
+    /**
+     * Selects the library variant for this CPU (or the one forced with {@code -Djwuff.native.variant}), extracts it
+     * into the native cache (see {@link #cacheDirectory()}) unless an identical copy is already there, and loads it.
+     * Only the selected variant is extracted and loaded.
+     *
+     * <p>The library is opened with {@link SymbolLookup#libraryLookup(Path, Arena)} rather than
+     * {@code System.load}, so copies of jwuff in several classloaders can share the same cached file.</p>
+     *
+     * <p>Two settings skip the extraction: {@code -Djwuff.native.path=<file>} loads a library shipped next to the
+     * application, and {@code -Djwuff.native.static} uses a library linked into the executable (variant
+     * {@code static}). The latter is {@code auto} by default, which means it is used when running as a GraalVM
+     * native image that exports the jwuff symbols, and {@code true} requires it.</p>
+     */
     public static void load() {
-        if (LOADED.get()) return;
-        Platform platform = detectPlatform();
-        if (!platform.supported) {
-            String label = platform.platformId != null ? platform.platformId : (platform.os + " " + platform.arch);
-            throw new UnsupportedOperationException("Unsupported platform for jwuff: " + label);
-        }
-        if (LOADED.compareAndSet(false, true)) {
-            Path selected = extractAndSelect(platform);
-            System.load(selected.toAbsolutePath().toString());
-            loadedPath = selected;
+        if (symbols != null) return;
+        synchronized (NativeLibrary.class) {
+            if (symbols != null) return;
+            NativeLoadEvent event = new NativeLoadEvent();
+            event.begin();
+            Platform platform = detectPlatform();
+            String path = System.getProperty("jwuff.native.path");
+            SymbolLookup linked = path == null || path.isBlank() ? linkedSymbols(platform) : null;
+            Selected selected;
+            if (path != null && !path.isBlank()) {
+                selected = new Selected(Path.of(path).toAbsolutePath(), "external", false);
+            } else if (linked != null) {
+                selected = new Selected(null, "static", false);
+            } else if (!platform.supported) {
+                String label = platform.platformId != null ? platform.platformId : (platform.os + " " + platform.arch);
+                throw new UnsupportedOperationException("Unsupported platform for jwuff: " + label);
+            } else {
+                selected = extractAndSelect(platform);
+            }
+            SymbolLookup lookup = linked != null ? linked : SymbolLookup.libraryLookup(selected.path, Arena.global());
+            loadedVariant = selected.variant;
+            loadedPath = selected.path;
+            symbols = lookup;
+            if (event.shouldCommit()) {
+                event.platform = platform.platformId;
+                event.variant = selected.variant;
+                event.path = selected.path == null ? null : selected.path.toString();
+                event.cached = selected.reused;
+                event.commit();
+            }
         }
     }
 
+    /**
+     * Returns the lookup for the library's symbols, loading it if needed.
+     */
+    public static SymbolLookup symbols() {
+        load();
+        return symbols;
+    }
+
     public static String resourcePathForCurrentPlatform() {
         Platform platform = detectPlatform();
         if (!platform.supported) return null;
-        return "/natives/" + platform.platformId + "/" + platform.baseLibraryFileName;
+        return resourcePath(platform, "baseline");
+    }
+
+    /**
+     * Returns the classpath resource of a library variant for this platform, or null if the platform is unsupported
+     * or has no such variant.
+     */
+    public static String resourcePathForCurrentPlatform(String variant) {
+        Platform platform = detectPlatform();
+        if (!platform.supported) return null;
+        if (!variant.equals("baseline") && !platform.variants.contains(variant)) return null;
+        return resourcePath(platform, variant);
+    }
+
+    private static String resourcePath(Platform platform, String variant) {
+        return "/natives/" + platform.platformId + "/" + platform.libraryFileName(variant);
     }
 
+    /**
+     * Returns the loaded library file, loading it if needed, or null when the library is linked into the executable.
+     */
     public static Path loadedLibraryPath() {
         load();
         return loadedPath;
     }
 
-    private static Path extractAndSelect(Platform platform) {
-        if (platform.avx2LibraryFileName == null) {
-            return extractToTemp(platform.platformId, platform.baseLibraryFileName);
+    /**
+     * Returns the loaded native library variant ({@code baseline}, {@code avx2}, {@code v3} or {@code v4}; or
+     * {@code external} and {@code static}, see {@link #load()}), loading it if needed.
+     */
+    public static String loadedVariant() {
+        load();
+        return loadedVariant;
+    }
+
+    /**
+     * Returns the variants packaged for this platform that this CPU can run, best first. Always ends with
+     * {@code baseline}. Does not load the library.
+     */
+    public static List<String> supportedVariants() {
+        Platform platform = detectPlatform();
+        if (!platform.supported) return List.of();
+        Set<String> features = CpuFeatures.detect(platform.os);
+        List<String> out = new ArrayList<>();
+        for (String variant : platform.variants) {
+            if (CpuFeatures.supports(features, variant)
+                    && NativeLibrary.class.getResource(resourcePath(platform, variant)) != null) {
+                out.add(variant);
+            }
+        }
+        out.add("baseline");
+        return List.copyOf(out);
+    }
+
+    /**
+     * Returns the directory native libraries are extracted to: {@code -Djwuff.native.cacheDir} if set, otherwise a
+     * per-user cache directory ({@code $XDG_CACHE_HOME/jwuff}, {@code ~/Library/Caches/jwuff} or
+     * {@code %LOCALAPPDATA%\jwuff\cache}).
+     */
+    public static Path cacheDirectory() {
+        String configured = System.getProperty("jwuff.native.cacheDir");
+        if (configured != null && !configured.isBlank()) return Path.of(configured);
+
+        String osName = System.getProperty("os.name", "").toLowerCase(Locale.ROOT);
+        String home = System.getProperty("user.home", "");
+        if (osName.contains("win")) {
+            String localAppData = System.getenv("LOCALAPPDATA");
+            if (localAppData != null && !localAppData.isBlank()) return Path.of(localAppData, "jwuff", "cache");
+            return Path.of(home, "AppData", "Local", "jwuff", "cache");
         }
+        if (osName.contains("mac")) {
+            return Path.of(home, "Library", "Caches", "jwuff");
+        }
+        String xdg = System.getenv("XDG_CACHE_HOME");
+        if (xdg != null && !xdg.isBlank()) return Path.of(xdg, "jwuff");
+        return Path.of(home, ".cache", "jwuff");
+    }
 
-        Path baseline = extractToTemp(platform.platformId, platform.baseLibraryFileName);
-        System.load(baseline.toAbsolutePath().toString());
+    /**
+     * Returns a lookup over the symbols exported by the executable and the libraries it has loaded, if
+     * {@code jwuff.native.static} allows it and that includes jwuff's; otherwise null.
+     */
+    private static SymbolLookup linkedSymbols(Platform platform) {
+        String mode = System.getProperty("jwuff.native.static", "auto").trim().toLowerCase(Locale.ROOT);
+        boolean required = mode.equals("true");
+        if (!required && !(mode.equals("auto") && NATIVE_IMAGE)) return null;
+
+        SymbolLookup lookup = processSymbols(platform);
+        if (lookup != null && lookup.find(PROBE_SYMBOL).isPresent()) return lookup;
+        if (required) {
+            throw new IllegalStateException("jwuff.native.static=true but " + PROBE_SYMBOL
+                    + " is not exported by the executable (link libwuffs_imageio_static.a with --export-dynamic)");
+        }
+        return null;
+    }
+
+    // dlsym(RTLD_DEFAULT, name). Statically linked images have no library file for SymbolLookup.libraryLookup to open.
+    private static SymbolLookup processSymbols(Platform platform) {
+        if (platform.os.equals("win32")) return null;
+        Linker linker = Linker.nativeLinker();
+        MemorySegment dlsym = linker.defaultLookup().find("dlsym").orElse(null);
+        if (dlsym == null) return null;
+        MethodHandle mh = linker.downcallHandle(
+                dlsym, FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS));
+        MemorySegment rtldDefault = MemorySegment.ofAddress(platform.os.equals("macos") ? -2L : 0L);
+        return name -> {
+            try (Arena arena = Arena.ofConfined()) {
+                MemorySegment address = (MemorySegment) mh.invokeExact(rtldDefault, arena.allocateFrom(name));
+                return address.equals(MemorySegment.NULL) ? Optional.empty() : Optional.of(address);
+            } catch (Throwable t) {
+                if (t instanceof RuntimeException re) throw re;
+                throw new RuntimeException(t);
+            }
+        };
+    }
 
-        if (!cpuSupportsAvx2ViaBaseline()) {
-            return baseline;
+    private static Selected extractAndSelect(Platform platform) {
+        Set<String> features = CpuFeatures.detect(platform.os);
+        String forced = System.getProperty("jwuff.native.variant", "auto").trim().toLowerCase(Locale.ROOT);
+        if (!forced.isEmpty() && !forced.equals("auto")) {
+            if (!forced.equals("baseline") && !platform.variants.contains(forced)) {
+                throw new IllegalStateException(
+                        "Unknown jwuff.native.variant for " + platform.platformId + ": " + forced);
+            }
+            // An empty feature set means detection failed; trust the override then.
+            if (!features.isEmpty() && !CpuFeatures.supports(features, forced)) {
+                throw new UnsupportedOperationException("CPU does not support jwuff native variant: " + forced);
+            }
+            return extract(platform.platformId, platform.libraryFileName(forced), forced, true);
         }
 
-        return extractToTemp(platform.platformId, platform.avx2LibraryFileName);
+        for (String variant : platform.variants) {
+            if (!CpuFeatures.supports(features, variant)) continue;
+            Selected selected = extract(platform.platformId, platform.libraryFileName(variant), variant, false);
+            if (selected != null) return selected;
+        }
+        return extract(platform.platformId, platform.libraryFileName("baseline"), "baseline", true);
     }
 
-    private static boolean cpuSupportsAvx2ViaBaseline() {
+    /**
+     * Extracts {@code /natives/<platformId>/<libraryFileName>} into the cache, or returns null if the resource is
+     * missing and not {@code required}.
+     */
+    private static Selected extract(String platformId, String libraryFileName, String variant, boolean required) {
+        String resourcePath = "/natives/" + platformId + "/" + libraryFileName;
+        if (NativeLibrary.class.getResource(resourcePath) == null) {
+            if (!required) return null;
+            throw new IllegalStateException("Missing native library resource: " + resourcePath);
+        }
+
+        if (!"false".equalsIgnoreCase(System.getProperty("jwuff.native.cache"))) {
+            try {
+                return extractToCache(platformId, libraryFileName, resourcePath, variant);
+            } catch (IOException | RuntimeException ignored) {
+                // Unwritable cache directory: fall back to a private temp copy.
+            }
+        }
+        return new Selected(extractToTemp(libraryFileName, readResource(resourcePath)), variant, false);
+    }
+
+    /**
+     * Stores the library under {@code <cache>/<platformId>/<sha256 prefix>/<file>}. The hash comes from the
+     * {@code .sha256} file the build writes next to each library, so a warm start does not read the library at all.
+     * An existing file is reused if {@link #trusted} accepts it; otherwise the library is written to a temp file in
+     * the same directory and atomically renamed into place, so concurrent processes never observe a partial file.
+     */
+    private static Selected extractToCache(
+            String platformId, String libraryFileName, String resourcePath, String variant) throws IOException {
+        byte[] bytes = null;
+        byte[] hash = publishedHash(resourcePath);
+        if (hash == null) {
+            bytes = readResource(resourcePath);
+            hash = sha256(bytes);
+        }
+        String key = HexFormat.of().formatHex(hash, 0, HASH_PREFIX_BYTES);
+        Path dir = cacheDirectory().resolve(platformId).resolve(key);
+        Path target = dir.resolve(libraryFileName);
+        if (trusted(target, hash)) {
+            return new Selected(target, variant, true);
+        }
+
+        if (bytes == null) {
+            bytes = readResource(resourcePath);
+            if (!MessageDigest.isEqual(hash, sha256(bytes))) {
+                throw new IllegalStateException("Stale " + resourcePath + ".sha256");
+            }
+        }
+        createPrivateDirectories(dir);
+        Path tmp = Files.createTempFile(dir, libraryFileName, ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                out.write(bytes);
+            }
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                // Windows refuses to replace a DLL another process has loaded; that copy is fine if it matches.
+                if (!trusted(target, hash)) throw e;
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        // A cache directory other users can write to is no safer than loading from it unchecked.
+        if (!trusted(target, hash)) throw new IOException("Native cache is writable by other users: " + dir);
+        return new Selected(target, variant, false);
+    }
+
+    /**
+     * Returns whether {@code file} can be loaded as the library with {@code hash}. Where the file system has POSIX
+     * permissions, a file is trusted without reading it if it, its directories and the cache directory are owned by
+     * this user and writable by no one else: the directory name is the content hash and files only appear there by
+     * atomic rename, and no other user can replace the file between this check and the load. Elsewhere the cache
+     * lives in the per-user profile and the file is hashed through one open handle.
+     */
+    private static boolean trusted(Path file, byte[] hash) {
         try {
-            var symbol = SymbolLookup.loaderLookup().find("wuffs_cpu_supports_avx2").orElse(null);
-            if (symbol == null) return false;
-            MethodHandle mh = Linker.nativeLinker().downcallHandle(symbol, FunctionDescriptor.of(ValueLayout.JAVA_INT));
-            int res = (int) mh.invokeExact();
-            return res != 0;
-        } catch (Throwable t) {
+            if (!Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)) return false;
+            UserPrincipal user;
+            try {
+                user = file.getFileSystem().getUserPrincipalLookupService()
+                        .lookupPrincipalByName(System.getProperty("user.name"));
+            } catch (UnsupportedOperationException e) {
+                return hashMatches(file, hash);
+            }
+            Path cache = cacheDirectory().toAbsolutePath();
+            for (Path p = file.toAbsolutePath(); p != null && p.startsWith(cache); p = p.getParent()) {
+                PosixFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(p, PosixFileAttributes.class);
+                } catch (UnsupportedOperationException e) {
+                    return hashMatches(file, hash);
+                }
+                Set<PosixFilePermission> perms = attrs.permissions();
+                if (!attrs.owner().equals(user) || perms.contains(PosixFilePermission.GROUP_WRITE)
+                        || perms.contains(PosixFilePermission.OTHERS_WRITE)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
             return false;
         }
     }
 
-    private static Path extractToTemp(String platformId, String libraryFileName) {
-        String resourcePath = "/natives/" + platformId + "/" + libraryFileName;
-        try (InputStream in = NativeLibrary.class.getResourceAsStream(resourcePath)) {
-            if (in == null) {
-                throw new IllegalStateException("Missing native library resource: " + resourcePath);
+    private static boolean hashMatches(Path file, byte[] hash) throws IOException {
+        MessageDigest digest = newSha256();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            while (channel.read(buffer) >= 0) {
+                digest.update(buffer.flip());
+                buffer.clear();
             }
+        }
+        return MessageDigest.isEqual(hash, digest.digest());
+    }
+
+    // Creates the missing directories readable and writable by this user only, where POSIX permissions exist.
+    private static void createPrivateDirectories(Path dir) throws IOException {
+        try {
+            Files.createDirectories(
+                    dir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        } catch (UnsupportedOperationException e) {
+            Files.createDirectories(dir);
+        }
+    }
+
+    // The SHA-256 the build published next to the library, or null if there is none.
+    private static byte[] publishedHash(String resourcePath) {
+        try (InputStream in = NativeLibrary.class.getResourceAsStream(resourcePath + ".sha256")) {
+            if (in == null) return null;
+            String hex = new String(in.readAllBytes(), StandardCharsets.US_ASCII).trim();
+            return hex.length() == 64 ? HexFormat.of().parseHex(hex) : null;
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static byte[] readResource(String resourcePath) {
+        try (InputStream in = NativeLibrary.class.getResourceAsStream(resourcePath)) {
+            if (in == null) throw new IllegalStateException("Missing native library resource: " + resourcePath);
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read native library resource: " + resourcePath, e);
+        }
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        return newSha256().digest(bytes);
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Path extractToTemp(String libraryFileName, byte[] bytes) {
+        try {
             Path dir = Files.createTempDirectory("jwuff-natives-");
             dir.toFile().deleteOnExit();
             Path out = dir.resolve(libraryFileName);
-            Files.copy(in, out, StandardCopyOption.REPLACE_EXISTING);
+            Files.write(out, bytes);
             out.toFile().deleteOnExit();
             return out;
         } catch (IOException e) {
@@ -104,7 +435,7 @@ public final class NativeLibrary {
             os = "linux";
             ext = "so";
         } else {
-            return new Platform(osName, archName, false, null, null, null);
+            return new Platform(osName, archName, false, null, null, List.of());
         }
 
         String arch;
@@ -113,7 +444,7 @@ public final class NativeLibrary {
         } else if (archName.equals("x86_64") || archName.equals("amd64") || archName.equals("x64")) {
             arch = "x86_64";
         } else {
-            return new Platform(os, archName, false, null, null, null);
+            return new Platform(os, archName, false, null, null, List.of());
         }
 
         boolean supported =
@@ -122,7 +453,7 @@ public final class NativeLibrary {
                 (os.equals("win32") && arch.equals("x86_64"));
 
         if (!supported) {
-            return new Platform(os, arch, false, null, null, null);
+            return new Platform(os, arch, false, null, null, List.of());
         }
 
         String platformId = switch (os) {
@@ -131,19 +462,24 @@ public final class NativeLibrary {
             case "win32" -> "x86_64-win32";
             default -> null;
         };
-        String baseLibName = os.equals("win32") ? "wuffs_imageio.dll" : ("libwuffs_imageio." + ext);
-        String avx2LibName = null;
-        if (arch.equals("x86_64") && (os.equals("macos") || os.equals("linux") || os.equals("win32"))) {
-            avx2LibName = os.equals("win32") ? "wuffs_imageio_avx2.dll" : ("libwuffs_imageio_avx2." + ext);
-        }
-        return new Platform(os, arch, true, platformId, baseLibName, avx2LibName);
+        List<String> variants = !arch.equals("x86_64") ? List.of()
+                : os.equals("win32") ? WIN32_X86_64_VARIANTS
+                : X86_64_VARIANTS;
+        return new Platform(os, arch, true, platformId, ext, variants);
     }
 
+    private record Selected(Path path, String variant, boolean reused) {}
+
     private record Platform(
             String os,
             String arch,
             boolean supported,
             String platformId,
-            String baseLibraryFileName,
-            String avx2LibraryFileName) {}
+            String ext,
+            List<String> variants) {
+        String libraryFileName(String variant) {
+            String name = variant.equals("baseline") ? "wuffs_imageio" : "wuffs_imageio_" + variant;
+            return os.equals("win32") ? name + ".dll" : "lib" + name + "." + ext;
+        }
+    }
 }
@@ -0,0 +1,76 @@
+package com.agulev.jwuff.nativelib;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Caller-owned native memory that a decode session allocates from instead of the native heap.
+ *
+ * <p>The session bump-allocates its decoder, work buffer and bookkeeping from the slab and never frees
+ * individually; the memory is released when the owning {@link Arena} closes. A decode that needs more than
+ * {@link #capacity()} fails with an out of memory {@link WuffsException}, which caps native memory per request, and
+ * {@link #used()} attributes it. A slab serves one session at a time; call {@link #reset()} before reusing it.</p>
+ */
+public final class NativeMemorySlab {
+    // Matches WUFFS_IMAGEIO_ALLOC_ALIGN in wuffs_imageio_abi.c.
+    private static final long ALIGNMENT = 16;
+
+    private final MemorySegment header;
+    private final MemorySegment memory;
+
+    private NativeMemorySlab(MemorySegment header, MemorySegment memory) {
+        this.header = header;
+        this.memory = memory;
+        WuffsTypes.SLAB_BASE.set(header, 0L, memory);
+        WuffsTypes.SLAB_CAPACITY.set(header, 0L, memory.byteSize());
+    }
+
+    /**
+     * Allocates a slab of {@code capacity} bytes from {@code arena}.
+     */
+    public static NativeMemorySlab allocate(Arena arena, long capacity) {
+        if (arena == null) throw new IllegalArgumentException("arena == null");
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be > 0");
+        return new NativeMemorySlab(arena.allocate(WuffsTypes.SLAB_LAYOUT), arena.allocate(capacity, ALIGNMENT));
+    }
+
+    /**
+     * Wraps preallocated native memory. {@code memory} must stay alive while sessions use the slab.
+     */
+    public static NativeMemorySlab of(Arena arena, MemorySegment memory) {
+        if (arena == null) throw new IllegalArgumentException("arena == null");
+        if (memory == null || !memory.isNative()) throw new IllegalArgumentException("memory must be a native segment");
+        return new NativeMemorySlab(arena.allocate(WuffsTypes.SLAB_LAYOUT), memory);
+    }
+
+    public long capacity() {
+        return memory.byteSize();
+    }
+
+    public long used() {
+        return (long) WuffsTypes.SLAB_USED.get(header, 0L);
+    }
+
+    public long peak() {
+        return (long) WuffsTypes.SLAB_PEAK.get(header, 0L);
+    }
+
+    public long allocCount() {
+        return (long) WuffsTypes.SLAB_ALLOC_COUNT.get(header, 0L);
+    }
+
+    public long failedCount() {
+        return (long) WuffsTypes.SLAB_FAILED_COUNT.get(header, 0L);
+    }
+
+    /**
+     * Makes the whole slab available again. Only call this once no session is using it.
+     */
+    public void reset() {
+        WuffsTypes.SLAB_USED.set(header, 0L, 0L);
+    }
+
+    MemorySegment header() {
+        return header;
+    }
+}
@@ -0,0 +1,327 @@
+package com.agulev.jwuff.nativelib;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * A native decode session that is restarted for each image instead of being reopened, so the decoder state and work
+ * buffer stay allocated between images. Decodes run with the whole input visible, to 8-bit
+ * {@link WuffsPixelFormat#BGRA_NONPREMUL}.
+ *
+ * <p>Instances are not thread-safe but may move between threads; {@link com.agulev.jwuff.JwuffDecoder} pools them and
+ * hands each to one thread at a time. Input and destination segments may be heap or native.</p>
+ *
+ * <p>Input may also be a sequence of chunks ({@link #begin(MemorySegment[], int)}), which are fed to the decoder in
+ * order without being joined; only bytes that straddle a chunk boundary are copied, into a small native buffer.</p>
+ *
+ * <p>With {@link DecodeCallMode#OFF_HEAP}, heap input and pixels are staged in native memory for the decode and the
+ * pixels copied back, so the decode runs as regular downcalls that do not hold off the GC.</p>
+ *
+ * <p>A session created with a {@link NativeMemorySlab} makes all its native allocations from the slab. The slab never
+ * frees, so such a session decodes a single image: a second {@code begin} fails.</p>
+ */
+public final class ReusableDecodeSession implements AutoCloseable {
+    /**
+     * How much of a chunked input is copied, at least, to let the session detect the format.
+     */
+    private static final int CHUNKED_PREFIX_BYTES = 64 * 1024;
+    /**
+     * The most header bytes copied for a chunked input. The copy extends to the first JPEG scan or PNG IDAT, so EXIF
+     * orientation and color metadata behind large segments are found; metadata beyond this is ignored.
+     */
+    private static final int MAX_CHUNKED_HEADER_BYTES = 16 * 1024 * 1024;
+
+    private final Arena arena = Arena.ofShared();
+    private final MemorySegment out = arena.allocate(WuffsTypes.STEP_RESULT_LAYOUT);
+    private final MemorySegment params = arena.allocate(WuffsTypes.DECODE_PARAMS_LAYOUT);
+    private final MemorySegment slot = arena.allocate(ValueLayout.ADDRESS);
+    private final NativeMemorySlab slab;
+    private MemorySegment session;
+    private int chunkIndex;
+    private long chunkOffset;
+    private boolean closed;
+    private boolean offHeap;
+
+    public ReusableDecodeSession() {
+        this(null);
+    }
+
+    /**
+     * @param slab the memory to allocate from, or null for the accounted native heap.
+     */
+    public ReusableDecodeSession(NativeMemorySlab slab) {
+        this.slab = slab;
+    }
+
+    /**
+     * Starts decoding {@code input} with {@link WuffsDecodeFlags} and parses its image configuration, after which
+     * {@link #width()}, {@link #height()} and {@link #strideBytes()} describe the output (oriented, if requested).
+     */
+    public void begin(MemorySegment input, int flags) {
+        if (closed) throw new IllegalStateException("session is closed");
+        if (input == null || input.byteSize() == 0) throw new IllegalArgumentException("input is empty");
+        checkRestartable();
+        offHeap = false;
+
+        WuffsTypes.PARAMS_PIXEL_FORMAT.set(params, 0L, 0);
+        WuffsTypes.PARAMS_FLAGS.set(params, 0L, flags);
+        if (session == null) {
+            session = WuffsFFI.openReusableSession(input, params, slab, slot);
+        } else {
+            WuffsFFI.resetSession(session, input, params);
+        }
+        // No destination: the step stops once the dimensions are known.
+        WuffsFFI.stepSession(session, input, input.byteSize(), MemorySegment.NULL, out);
+    }
+
+    /**
+     * Decodes the image started with {@link #begin} into {@code dst}, which must hold at least
+     * {@code strideBytes() * height()} bytes. {@code input} must be the segment passed to {@code begin}. Heap segments
+     * are passed to a critical downcall.
+     */
+    public void decodeInto(MemorySegment input, MemorySegment dst) {
+        decodeInto(input, dst, DecodeCallMode.CRITICAL);
+    }
+
+    /**
+     * As {@link #decodeInto(MemorySegment, MemorySegment)}; with {@link DecodeCallMode#OFF_HEAP}, heap {@code input}
+     * and {@code dst} are staged in native memory.
+     */
+    public void decodeInto(MemorySegment input, MemorySegment dst, DecodeCallMode mode) {
+        if (session == null || closed) throw new IllegalStateException("no image started");
+        offHeap = mode == DecodeCallMode.OFF_HEAP;
+        if (!offHeap) {
+            step(input, dst);
+            return;
+        }
+        try (Arena staging = Arena.ofConfined()) {
+            MemorySegment nativeInput = input.isNative() ? input : staging.allocate(input.byteSize()).copyFrom(input);
+            MemorySegment nativeDst = dst.isNative() ? dst : staging.allocate(dst.byteSize(), 16);
+            step(nativeInput, nativeDst);
+            if (nativeDst != dst) dst.copyFrom(nativeDst);
+        }
+    }
+
+    private void step(MemorySegment input, MemorySegment dst) {
+        int code = WuffsFFI.stepSession(session, input, input.byteSize(), dst, out);
+        if (code != 0) {
+            // Cannot happen with the whole input visible; a truncated image fails instead.
+            throw new IllegalStateException("decode suspended with all input available");
+        }
+    }
+
+    /**
+     * As {@link #begin(MemorySegment, int)}, for input split across non-empty {@code chunks}.
+     */
+    public void begin(MemorySegment[] chunks, int flags) {
+        if (closed) throw new IllegalStateException("session is closed");
+        if (chunks == null || chunks.length == 0) throw new IllegalArgumentException("input is empty");
+        checkRestartable();
+        offHeap = false;
+
+        MemorySegment prefix = prefix(chunks);
+        WuffsTypes.PARAMS_PIXEL_FORMAT.set(params, 0L, 0);
+        WuffsTypes.PARAMS_FLAGS.set(params, 0L, flags);
+        if (session == null) {
+            session = WuffsFFI.openReusableSession(prefix, params, slab, slot);
+        } else {
+            WuffsFFI.resetSession(session, prefix, params);
+        }
+        chunkIndex = 0;
+        chunkOffset = 0;
+        feed(chunks, MemorySegment.NULL, null);
+    }
+
+    /**
+     * As {@link #decodeInto(MemorySegment, MemorySegment)}; {@code chunks} must be the array passed to
+     * {@link #begin(MemorySegment[], int)}.
+     */
+    public void decodeInto(MemorySegment[] chunks, MemorySegment dst) {
+        decodeInto(chunks, dst, DecodeCallMode.CRITICAL);
+    }
+
+    /**
+     * As {@link #decodeInto(MemorySegment[], MemorySegment)}; with {@link DecodeCallMode#OFF_HEAP}, each heap chunk is
+     * copied in turn into one native buffer before it is fed, and a heap {@code dst} is staged in native memory.
+     */
+    public void decodeInto(MemorySegment[] chunks, MemorySegment dst, DecodeCallMode mode) {
+        if (session == null || closed) throw new IllegalStateException("no image started");
+        offHeap = mode == DecodeCallMode.OFF_HEAP;
+        if (!offHeap) {
+            feed(chunks, dst, null);
+            return;
+        }
+        try (Arena staging = Arena.ofConfined()) {
+            long largestHeapChunk = 0;
+            for (MemorySegment chunk : chunks) {
+                if (!chunk.isNative()) largestHeapChunk = Math.max(largestHeapChunk, chunk.byteSize());
+            }
+            MemorySegment chunkBuffer = largestHeapChunk == 0 ? null : staging.allocate(largestHeapChunk);
+            MemorySegment nativeDst = dst.isNative() ? dst : staging.allocate(dst.byteSize(), 16);
+            feed(chunks, nativeDst, chunkBuffer);
+            if (nativeDst != dst) dst.copyFrom(nativeDst);
+        }
+    }
+
+    /**
+     * Returns true if the last {@code decodeInto} ran as regular downcalls over native memory
+     * ({@link DecodeCallMode#OFF_HEAP}).
+     */
+    public boolean offHeap() {
+        return offHeap;
+    }
+
+    // Native slab sessions cannot be reset: their allocations are only released with the slab.
+    private void checkRestartable() {
+        if (slab != null && session != null) throw new IllegalStateException("a slab session decodes one image");
+    }
+
+    // With a chunkBuffer, heap chunks are copied into it and fed from there.
+    private void feed(MemorySegment[] chunks, MemorySegment dst, MemorySegment chunkBuffer) {
+        while (chunkIndex < chunks.length) {
+            boolean last = chunkIndex == chunks.length - 1;
+            MemorySegment chunk = chunks[chunkIndex];
+            if (chunkBuffer != null && !chunk.isNative()) {
+                chunk = chunkBuffer.asSlice(0, chunk.byteSize()).copyFrom(chunk);
+            }
+            int code = WuffsFFI.feedSession(session, chunk, chunkOffset, last, dst, out);
+            if (code == 0) {
+                chunkOffset = (long) WuffsTypes.STEP_CHUNK_USED.get(out, 0L);
+                return;
+            }
+            chunkIndex++;
+            chunkOffset = 0;
+        }
+        // Cannot happen: the last chunk is fed as final, so a truncated image fails instead.
+        throw new IllegalStateException("decode suspended with all input available");
+    }
+
+    /**
+     * Returns the start of the input that the session reads its header from: the first chunk if it holds the whole
+     * header, otherwise a copy of it.
+     */
+    private static MemorySegment prefix(MemorySegment[] chunks) {
+        if (chunks.length == 1) return chunks[0];
+        long total = 0;
+        for (MemorySegment chunk : chunks) total += chunk.byteSize();
+        long length = Math.min(total, Math.max(CHUNKED_PREFIX_BYTES, headerLength(new ChunkReader(chunks))));
+        if (chunks[0].byteSize() >= length) return chunks[0];
+        MemorySegment prefix = MemorySegment.ofArray(new byte[(int) length]);
+        long at = 0;
+        for (int i = 0; at < prefix.byteSize(); i++) {
+            long n = Math.min(chunks[i].byteSize(), prefix.byteSize() - at);
+            MemorySegment.copy(chunks[i], 0, prefix, at, n);
+            at += n;
+        }
+        return prefix;
+    }
+
+    /**
+     * Returns the offset of the first JPEG SOS or PNG IDAT, capped at {@link #MAX_CHUNKED_HEADER_BYTES}, or 0 for
+     * other formats and headers that run past the input. The walk mirrors the native one that finds the orientation.
+     */
+    private static long headerLength(ChunkReader in) {
+        if (in.u8(0) == 0x89 && in.u8(1) == 'P' && in.u8(2) == 'N' && in.u8(3) == 'G') {
+            long pos = 8;
+            while (pos < MAX_CHUNKED_HEADER_BYTES) {
+                long length = in.u32(pos);
+                if (length < 0) return 0;
+                if (in.u8(pos + 4) == 'I' && in.u8(pos + 5) == 'D' && in.u8(pos + 6) == 'A' && in.u8(pos + 7) == 'T') {
+                    return pos;
+                }
+                pos += 12 + length;
+            }
+            return MAX_CHUNKED_HEADER_BYTES;
+        }
+        if (in.u8(0) == 0xFF && in.u8(1) == 0xD8) {
+            long pos = 2;
+            while (pos < MAX_CHUNKED_HEADER_BYTES) {
+                if (in.u8(pos) != 0xFF) return 0;
+                int marker = in.u8(pos + 1);
+                if (marker == 0xFF) {
+                    pos++; // Fill byte.
+                } else if (marker == 0xD8 || marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                    pos += 2;
+                } else if (marker == 0xDA || marker == 0xD9) {
+                    return pos;
+                } else {
+                    int hi = in.u8(pos + 2);
+                    int lo = in.u8(pos + 3);
+                    if (marker < 0 || hi < 0 || lo < 0) return 0;
+                    pos += 2 + (hi << 8 | lo);
+                }
+            }
+            return MAX_CHUNKED_HEADER_BYTES;
+        }
+        return 0;
+    }
+
+    public int width() {
+        return (int) WuffsTypes.STEP_WIDTH.get(out, 0L);
+    }
+
+    public int height() {
+        return (int) WuffsTypes.STEP_HEIGHT.get(out, 0L);
+    }
+
+    public int strideBytes() {
+        return (int) WuffsTypes.STEP_STRIDE_BYTES.get(out, 0L);
+    }
+
+    /**
+     * Returns the work buffer size the current image needs. The session keeps the largest one it has allocated.
+     */
+    public long workbufBytes() {
+        return (long) WuffsTypes.STEP_WORKBUF_LEN.get(out, 0L);
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            if (session != null) WuffsFFI.closeSession(session);
+        } finally {
+            session = null;
+            arena.close();
+        }
+    }
+
+    /**
+     * Reads bytes of the concatenated chunks, mostly front to back.
+     */
+    private static final class ChunkReader {
+        private final MemorySegment[] chunks;
+        private int index;
+        private long start;
+
+        ChunkReader(MemorySegment[] chunks) {
+            this.chunks = chunks;
+        }
+
+        /** Returns the byte at {@code pos}, or -1 past the end. */
+        int u8(long pos) {
+            if (pos < start) {
+                index = 0;
+                start = 0;
+            }
+            while (index < chunks.length && pos >= start + chunks[index].byteSize()) {
+                start += chunks[index].byteSize();
+                index++;
+            }
+            return index < chunks.length ? chunks[index].get(ValueLayout.JAVA_BYTE, pos - start) & 0xFF : -1;
+        }
+
+        /** Returns the big-endian 32-bit value at {@code pos}, or -1 past the end. */
+        long u32(long pos) {
+            long v = 0;
+            for (int i = 0; i < 4; i++) {
+                int b = u8(pos + i);
+                if (b < 0) return -1;
+                v = v << 8 | b;
+            }
+            return v;
+        }
+    }
+}
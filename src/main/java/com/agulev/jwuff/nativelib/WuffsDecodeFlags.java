@@ -0,0 +1,18 @@
+package com.agulev.jwuff.nativelib;
+
+/**
+ * Bits for {@code wuffs_decode_params.flags}; must match {@code WUFFS_IMAGEIO_FLAG_*} in {@code wuffs_imageio_abi.h}.
+ */
+public final class WuffsDecodeFlags {
+    public static final int IGNORE_CHECKSUM = 0x1;
+    public static final int REJECT_PROGRESSIVE_JPEG = 0x2;
+    public static final int IGNORE_ANCILLARY_CHUNKS = 0x4;
+    public static final int QUALITY_LOWER = 0x8;
+    public static final int QUALITY_HIGHER = 0x10;
+    public static final int CONVERT_TO_SRGB = 0x20;
+    public static final int APPLY_ORIENTATION = 0x40;
+    /** Fills {@link WuffsDecodeSession#configNanos()} and {@link WuffsDecodeSession#decodeNanos()}. */
+    public static final int COLLECT_TIMINGS = 0x80;
+
+    private WuffsDecodeFlags() {}
+}
@@ -0,0 +1,172 @@
+package com.agulev.jwuff.nativelib;
+
+import com.agulev.jwuff.model.FrameResult;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+
+/**
+ * A resumable native decode of a single frame.
+ *
+ * <p>Each {@link #step(int)} exposes a longer prefix of the input to the decoder, which consumes as much as it can
+ * and returns. Callers can check for cancellation and report progress between steps instead of blocking in one long
+ * native call.</p>
+ */
+public final class WuffsDecodeSession implements AutoCloseable {
+    private final Arena arena;
+    private final MemorySegment out;
+    private final MemorySegment input;
+    private final MemorySegment dst;
+    // The caller's pixel array (byte[] or short[]), viewed as a heap segment.
+    private final MemorySegment dstArray;
+    private MemorySegment session;
+    private long consumed;
+    private int steps;
+    private long configNanos;
+    private long decodeNanos;
+    private long workbufBytes;
+    private int passesDone;
+    private int passesTotal;
+    private FrameResult frame;
+
+    WuffsDecodeSession(MemorySegment session, Arena arena, MemorySegment input, MemorySegment dst, MemorySegment dstArray) {
+        this.session = session;
+        this.arena = arena;
+        this.out = arena.allocate(WuffsTypes.STEP_RESULT_LAYOUT);
+        this.input = input;
+        this.dst = dst;
+        this.dstArray = dstArray;
+    }
+
+    /**
+     * Advances the decode with the first {@code available} input bytes visible.
+     *
+     * @return true once the frame is fully decoded.
+     */
+    public boolean step(int available) {
+        if (frame != null) return true;
+        if (session == null) throw new IllegalStateException("session is closed");
+        if (available < consumed || available > input.byteSize()) {
+            throw new IllegalArgumentException("available out of range: " + available);
+        }
+
+        int code = WuffsFFI.stepSession(session, input, available, dst, out);
+        steps++;
+        consumed = (long) WuffsTypes.STEP_CONSUMED.get(out, 0L);
+        configNanos = (long) WuffsTypes.STEP_CONFIG_NS.get(out, 0L);
+        decodeNanos = (long) WuffsTypes.STEP_DECODE_NS.get(out, 0L);
+        workbufBytes = (long) WuffsTypes.STEP_WORKBUF_LEN.get(out, 0L);
+        passesDone = (int) WuffsTypes.STEP_PASSES_DONE.get(out, 0L);
+        passesTotal = (int) WuffsTypes.STEP_PASSES_TOTAL.get(out, 0L);
+        if (code != 0) {
+            return false;
+        }
+
+        int width = (int) WuffsTypes.STEP_WIDTH.get(out, 0L);
+        int height = (int) WuffsTypes.STEP_HEIGHT.get(out, 0L);
+        int strideBytes = (int) WuffsTypes.STEP_STRIDE_BYTES.get(out, 0L);
+        int bytesWritten = (int) WuffsTypes.STEP_BYTES_WRITTEN.get(out, 0L);
+        if (dst.isNative()) {
+            // Off-heap staging: copy the finished pixels back. This is a bulk copy that stays GC-safe.
+            MemorySegment.copy(dst, 0L, dstArray, 0L, bytesWritten);
+        }
+        frame = new FrameResult(width, height, strideBytes, bytesWritten);
+        return true;
+    }
+
+    /**
+     * Returns the number of input bytes the decoder has consumed so far.
+     */
+    public long consumed() {
+        return consumed;
+    }
+
+    /**
+     * Returns the number of native steps run so far.
+     */
+    public int steps() {
+        return steps;
+    }
+
+    /**
+     * Returns the native time spent parsing the image and frame configuration, or 0 unless the session was opened
+     * with {@link WuffsDecodeFlags#COLLECT_TIMINGS}.
+     */
+    public long configNanos() {
+        return configNanos;
+    }
+
+    /**
+     * Returns the native time spent decoding pixels. Wuffs converts each row to the destination pixel format as it
+     * is decoded, so this includes the swizzle. Like {@link #configNanos()}, 0 without
+     * {@link WuffsDecodeFlags#COLLECT_TIMINGS}.
+     */
+    public long decodeNanos() {
+        return decodeNanos;
+    }
+
+    /**
+     * Returns the size of the native work buffer, known once the image configuration has been parsed.
+     */
+    public long workbufBytes() {
+        return workbufBytes;
+    }
+
+    /**
+     * Returns how many progressive passes (Adam7 passes of an interlaced PNG) are complete in the destination.
+     */
+    public int passesDone() {
+        return passesDone;
+    }
+
+    /**
+     * Returns the number of progressive passes, or 0 if the image is not decoded progressively or its pixels are
+     * only final once the frame is done (orientation, sRGB conversion).
+     */
+    public int passesTotal() {
+        return passesTotal;
+    }
+
+    /**
+     * Makes the pixels decoded so far visible in the caller's array. Only off-heap sessions need the copy; the
+     * finished frame is copied back automatically.
+     */
+    public void syncPixels() {
+        if (session == null) throw new IllegalStateException("session is closed");
+        if (dst.isNative() && frame == null) {
+            MemorySegment.copy(dst, 0L, dstArray, 0L, Math.min(dst.byteSize(), dstArray.byteSize()));
+        }
+    }
+
+    /**
+     * Returns the total input length.
+     */
+    public int length() {
+        return (int) input.byteSize();
+    }
+
+    /**
+     * Returns true if this session stages input and pixels in native memory (see {@link DecodeCallMode#OFF_HEAP}).
+     */
+    public boolean offHeap() {
+        return dst.isNative();
+    }
+
+    /**
+     * Returns the decoded frame info, or null if the decode has not completed.
+     */
+    public FrameResult frame() {
+        return frame;
+    }
+
+    @Override
+    public void close() {
+        if (session == null) return;
+        try {
+            WuffsFFI.closeSession(session);
+        } finally {
+            session = null;
+            arena.close();
+        }
+    }
+}
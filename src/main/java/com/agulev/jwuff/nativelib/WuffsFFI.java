@@ -1,6 +1,10 @@
 package com.agulev.jwuff.nativelib;
 
+import com.agulev.jwuff.model.ColorInfo;
+import com.agulev.jwuff.model.DescriptiveMetadata;
+import com.agulev.jwuff.model.EncodedPngBand;
 import com.agulev.jwuff.model.FrameResult;
+import com.agulev.jwuff.model.NativeMemoryStats;
 import com.agulev.jwuff.model.ProbeResult;
 
 import java.lang.foreign.Arena;
@@ -10,14 +14,95 @@ import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
 import java.lang.foreign.SymbolLookup;
 import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 public final class WuffsFFI {
-    private static final Arena ARENA = Arena.ofShared();
+    // wuffs_color_info.flags bits.
+    private static final int COLOR_HAS_GAMA = 0x1;
+    private static final int COLOR_HAS_CHRM = 0x2;
+    private static final int COLOR_HAS_SRGB = 0x4;
+    private static final int COLOR_HAS_ICCP = 0x8;
+    // wuffs_read_metadata record types (WUFFS_IMAGEIO_RECORD_*).
+    private static final int RECORD_TEXT_KEY = 0x4B56504B;
+    private static final int RECORD_TEXT_VALUE = 0x4B565056;
+    private static final int RECORD_EXIF = 0x45584946;
+    private static final int RECORD_XMP = 0x584D5020;
+    private static final int RECORD_PHYS = 0x50485944;
+    private static final int METADATA_INITIAL_BYTES = 64 * 1024;
     private static final Linker LINKER = Linker.nativeLinker();
+    private static final FunctionDescriptor SESSION_OPEN_DESCRIPTOR = FunctionDescriptor.of(
+            ValueLayout.JAVA_INT,
+            ValueLayout.ADDRESS,
+            ValueLayout.JAVA_LONG,
+            ValueLayout.ADDRESS,
+            ValueLayout.ADDRESS,
+            ValueLayout.ADDRESS
+    );
+    private static final FunctionDescriptor RESIZE_BGRA_DESCRIPTOR = FunctionDescriptor.of(
+            ValueLayout.JAVA_INT,
+            ValueLayout.ADDRESS,
+            ValueLayout.JAVA_INT,
+            ValueLayout.JAVA_INT,
+            ValueLayout.JAVA_LONG,
+            ValueLayout.ADDRESS,
+            ValueLayout.JAVA_INT,
+            ValueLayout.JAVA_INT,
+            ValueLayout.JAVA_LONG,
+            ValueLayout.JAVA_INT
+    );
+
+    private static final FunctionDescriptor SESSION_STEP_DESCRIPTOR = FunctionDescriptor.of(
+            ValueLayout.JAVA_INT,
+            ValueLayout.ADDRESS,
+            ValueLayout.ADDRESS,
+            ValueLayout.JAVA_LONG,
+            ValueLayout.JAVA_LONG,
+            ValueLayout.ADDRESS,
+            ValueLayout.JAVA_LONG,
+            ValueLayout.ADDRESS
+    );
+
+    private static final FunctionDescriptor SESSION_FEED_DESCRIPTOR = FunctionDescriptor.of(
+            ValueLayout.JAVA_INT,
+            ValueLayout.ADDRESS,
+            ValueLayout.ADDRESS,
+            ValueLayout.JAVA_LONG,
+            ValueLayout.JAVA_LONG,
+            ValueLayout.JAVA_INT,
+            ValueLayout.ADDRESS,
+            ValueLayout.JAVA_LONG,
+            ValueLayout.ADDRESS
+    );
     private static volatile SymbolLookup lookup;
     private static volatile MethodHandle probeHandle;
     private static volatile MethodHandle decodeHandle;
     private static volatile MethodHandle errorMessageHandle;
+    private static volatile MethodHandle sessionOpenHandle;
+    private static volatile MethodHandle sessionStepHandle;
+    private static volatile MethodHandle sessionCloseHandle;
+    private static volatile MethodHandle sessionResetHandle;
+    private static volatile MethodHandle sessionOpenPlainHandle;
+    private static volatile MethodHandle sessionStepPlainHandle;
+    private static volatile MethodHandle sessionFeedHandle;
+    private static volatile MethodHandle sessionFeedPlainHandle;
+    private static volatile MethodHandle memoryStatsHandle;
+    private static volatile MethodHandle memoryResetPeakHandle;
+    private static volatile MethodHandle memorySetLimitHandle;
+    private static volatile MethodHandle readIccProfileHandle;
+    private static volatile MethodHandle readMetadataHandle;
+    private static volatile MethodHandle pngEncodeBoundHandle;
+    private static volatile MethodHandle pngEncodeRowsPlainHandle;
+    private static volatile MethodHandle inflateFormatsHandle;
+    private static volatile MethodHandle inflaterOpenHandle;
+    private static volatile MethodHandle inflaterResetHandle;
+    private static volatile MethodHandle inflaterStepHandle;
+    private static volatile MethodHandle inflaterStepPlainHandle;
+    private static volatile MethodHandle inflaterCloseHandle;
+    private static volatile MethodHandle resizeBgraPlainHandle;
 
     private WuffsFFI() {}
 
@@ -28,8 +113,11 @@ public final class WuffsFFI {
         synchronized (WuffsFFI.class) {
             current = lookup;
             if (current != null) return current;
-            NativeLibrary.load();
-            lookup = SymbolLookup.libraryLookup(NativeLibrary.loadedLibraryPath(), ARENA);
+            lookup = NativeLibrary.symbols();
+            Long limit = Long.getLong("jwuff.native.memoryLimitBytes");
+            if (limit != null) {
+                setNativeMemoryLimit(limit);
+            }
             return lookup;
         }
     }
@@ -49,14 +137,32 @@ public final class WuffsFFI {
         if (offset < 0 || length < 0 || offset > data.length || (offset + length) > data.length) {
             throw new IllegalArgumentException("Invalid offset/length for array: offset=" + offset + ", length=" + length);
         }
+        return probe(MemorySegment.ofArray(data).asSlice(offset, length));
+    }
+
+    /**
+     * Probes the image in {@code data}, which may be a heap or native segment.
+     */
+    public static ProbeResult probe(MemorySegment data) {
+        return probe(data, 0);
+    }
+
+    /**
+     * Probes the image in {@code data}, taking {@link WuffsDecodeFlags}. With
+     * {@link WuffsDecodeFlags#IGNORE_ANCILLARY_CHUNKS} the color chunks are skipped and the result's color is
+     * {@link ColorInfo#NONE}.
+     */
+    public static ProbeResult probe(MemorySegment data, int flags) {
+        if (data == null || data.byteSize() == 0) {
+            throw new IllegalArgumentException("data is empty");
+        }
 
         MethodHandle mh = probeMethodHandle();
         try (Arena arena = Arena.ofConfined()) {
             MemorySegment out = arena.allocate(WuffsTypes.PROBE_RESULT_LAYOUT);
-            MemorySegment input = MemorySegment.ofArray(data).asSlice(offset, length);
-            int code = (int) mh.invoke(input, (long) length, out);
+            int code = (int) mh.invoke(data, data.byteSize(), flags, out);
             if (code != 0) {
-                throw new WuffsException(code, "wuffs_probe_image failed: " + errorMessage(code) + " (" + code + ")");
+                throw new WuffsException(code, "wuffs_probe_image_with_flags failed: " + errorMessage(code) + " (" + code + ")");
             }
 
             int width = (int) WuffsTypes.PROBE_WIDTH.get(out, 0L);
@@ -64,13 +170,175 @@ public final class WuffsFFI {
             int frameCount = (int) WuffsTypes.PROBE_FRAME_COUNT.get(out, 0L);
             int bytesPerPixel = (int) WuffsTypes.PROBE_BYTES_PER_PIXEL.get(out, 0L);
             int strideBytes = (int) WuffsTypes.PROBE_STRIDE_BYTES.get(out, 0L);
-            return new ProbeResult(width, height, frameCount, bytesPerPixel, strideBytes);
+            int bitDepth = (int) WuffsTypes.PROBE_BIT_DEPTH.get(out, 0L);
+            int pixelFormat = (int) WuffsTypes.PROBE_PIXEL_FORMAT.get(out, 0L);
+            int orientation = (int) WuffsTypes.PROBE_ORIENTATION.get(out, 0L);
+            return new ProbeResult(width, height, frameCount, bytesPerPixel, strideBytes, bitDepth, pixelFormat,
+                    colorInfo(out), orientation);
+        } catch (Throwable t) {
+            if (t instanceof RuntimeException re) throw re;
+            throw new RuntimeException(t);
+        }
+    }
+
+    private static ColorInfo colorInfo(MemorySegment probeOut) {
+        int flags = (int) WuffsTypes.PROBE_COLOR_FLAGS.get(probeOut, 0L);
+        if (flags == 0) return ColorInfo.NONE;
+
+        double gamma = (flags & COLOR_HAS_GAMA) != 0 ? scaled(WuffsTypes.PROBE_COLOR_GAMMA, probeOut) : 0.0;
+        ColorInfo.Chromaticities chromaticities = null;
+        if ((flags & COLOR_HAS_CHRM) != 0) {
+            chromaticities = new ColorInfo.Chromaticities(
+                    scaled(WuffsTypes.PROBE_COLOR_WHITE_X, probeOut),
+                    scaled(WuffsTypes.PROBE_COLOR_WHITE_Y, probeOut),
+                    scaled(WuffsTypes.PROBE_COLOR_RED_X, probeOut),
+                    scaled(WuffsTypes.PROBE_COLOR_RED_Y, probeOut),
+                    scaled(WuffsTypes.PROBE_COLOR_GREEN_X, probeOut),
+                    scaled(WuffsTypes.PROBE_COLOR_GREEN_Y, probeOut),
+                    scaled(WuffsTypes.PROBE_COLOR_BLUE_X, probeOut),
+                    scaled(WuffsTypes.PROBE_COLOR_BLUE_Y, probeOut)
+            );
+        }
+        int srgbIntent = (flags & COLOR_HAS_SRGB) != 0 ? (int) WuffsTypes.PROBE_COLOR_SRGB_INTENT.get(probeOut, 0L) : -1;
+        int iccLength = (flags & COLOR_HAS_ICCP) != 0 ? (int) WuffsTypes.PROBE_COLOR_ICC_LEN.get(probeOut, 0L) : 0;
+        return new ColorInfo(gamma, chromaticities, srgbIntent, iccLength);
+    }
+
+    // gAMA and cHRM values are stored scaled by 100000.
+    private static double scaled(java.lang.invoke.VarHandle field, MemorySegment probeOut) {
+        return Integer.toUnsignedLong((int) field.get(probeOut, 0L)) / 100000.0;
+    }
+
+    /**
+     * Returns the decompressed ICC profile embedded in {@code data[offset, offset + length)}, or null if there is
+     * none. Use {@link java.awt.color.ICC_Profile#getInstance(byte[])} to interpret it.
+     */
+    public static byte[] iccProfile(byte[] data, int offset, int length) {
+        if (data == null || length <= 0) {
+            throw new IllegalArgumentException("data is empty");
+        }
+        if (offset < 0 || offset > data.length || (offset + length) > data.length) {
+            throw new IllegalArgumentException("Invalid offset/length for array: offset=" + offset + ", length=" + length);
+        }
+        return iccProfile(MemorySegment.ofArray(data).asSlice(offset, length));
+    }
+
+    /**
+     * As {@link #iccProfile(byte[], int, int)}, for a heap or native segment.
+     */
+    public static byte[] iccProfile(MemorySegment data) {
+        if (data == null || data.byteSize() == 0) {
+            throw new IllegalArgumentException("data is empty");
+        }
+
+        MethodHandle mh = readIccProfileMethodHandle();
+        try (Arena arena = Arena.ofConfined()) {
+            long length = data.byteSize();
+            MemorySegment outLen = arena.allocate(ValueLayout.JAVA_LONG);
+            int code = (int) mh.invoke(data, length, MemorySegment.NULL, 0L, outLen);
+            if (code != 0) {
+                throw new WuffsException(code, "wuffs_read_icc_profile failed: " + errorMessage(code) + " (" + code + ")");
+            }
+            long size = outLen.get(ValueLayout.JAVA_LONG, 0L);
+            if (size == 0) return null;
+
+            byte[] profile = new byte[Math.toIntExact(size)];
+            code = (int) mh.invoke(data, length, MemorySegment.ofArray(profile), (long) profile.length, outLen);
+            if (code != 0) {
+                throw new WuffsException(code, "wuffs_read_icc_profile failed: " + errorMessage(code) + " (" + code + ")");
+            }
+            return profile;
+        } catch (Throwable t) {
+            if (t instanceof RuntimeException re) throw re;
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * Collects the descriptive metadata (text, EXIF, XMP, pixel density) of the PNG or JPEG in
+     * {@code data[offset, offset + length)}. This walks the whole file, so readers call it only when metadata is
+     * requested.
+     */
+    public static DescriptiveMetadata readMetadata(byte[] data, int offset, int length) {
+        if (data == null || length <= 0) {
+            throw new IllegalArgumentException("data is empty");
+        }
+        if (offset < 0 || offset > data.length || (offset + length) > data.length) {
+            throw new IllegalArgumentException("Invalid offset/length for array: offset=" + offset + ", length=" + length);
+        }
+        return readMetadata(MemorySegment.ofArray(data).asSlice(offset, length));
+    }
+
+    /**
+     * As {@link #readMetadata(byte[], int, int)}, for a heap or native segment.
+     */
+    public static DescriptiveMetadata readMetadata(MemorySegment data) {
+        if (data == null || data.byteSize() == 0) {
+            throw new IllegalArgumentException("data is empty");
+        }
+
+        MethodHandle mh = readMetadataMethodHandle();
+        try (Arena arena = Arena.ofConfined()) {
+            long length = data.byteSize();
+            MemorySegment outLen = arena.allocate(ValueLayout.JAVA_LONG);
+            // Metadata is usually small; retry once with the exact size when it is not.
+            byte[] records = new byte[(int) Math.min(length, METADATA_INITIAL_BYTES)];
+            while (true) {
+                int code = (int) mh.invoke(data, length, MemorySegment.ofArray(records), (long) records.length, outLen);
+                if (code != 0) {
+                    throw new WuffsException(code, "wuffs_read_metadata failed: " + errorMessage(code) + " (" + code + ")");
+                }
+                long size = outLen.get(ValueLayout.JAVA_LONG, 0L);
+                if (size <= records.length) {
+                    return parseMetadataRecords(records, (int) size);
+                }
+                records = new byte[Math.toIntExact(size)];
+            }
         } catch (Throwable t) {
             if (t instanceof RuntimeException re) throw re;
             throw new RuntimeException(t);
         }
     }
 
+    private static DescriptiveMetadata parseMetadataRecords(byte[] records, int size) {
+        ByteBuffer buf = ByteBuffer.wrap(records, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+        List<DescriptiveMetadata.TextEntry> text = new ArrayList<>();
+        String keyword = null;
+        byte[] exif = null;
+        String xmp = null;
+        DescriptiveMetadata.PhysicalDimensions phys = null;
+        while (buf.remaining() >= 8) {
+            int type = buf.getInt();
+            byte[] value = new byte[buf.getInt()];
+            buf.get(value);
+            switch (type) {
+                case RECORD_TEXT_KEY -> keyword = new String(value, StandardCharsets.UTF_8);
+                case RECORD_TEXT_VALUE -> {
+                    if (keyword == null) break;
+                    String v = new String(value, StandardCharsets.UTF_8);
+                    // PNG stores XMP in an iTXt chunk with this keyword.
+                    if (keyword.equals("XML:com.adobe.xmp") && xmp == null) {
+                        xmp = v;
+                    } else {
+                        text.add(new DescriptiveMetadata.TextEntry(keyword, v));
+                    }
+                    keyword = null;
+                }
+                case RECORD_EXIF -> exif = exif != null ? exif : value;
+                case RECORD_XMP -> xmp = xmp != null ? xmp : new String(value, StandardCharsets.UTF_8);
+                case RECORD_PHYS -> {
+                    if (value.length != 9) break;
+                    ByteBuffer b = ByteBuffer.wrap(value);
+                    phys = new DescriptiveMetadata.PhysicalDimensions(
+                            Integer.toUnsignedLong(b.getInt()), Integer.toUnsignedLong(b.getInt()), b.get() == 1);
+                }
+                default -> {
+                }
+            }
+        }
+        return new DescriptiveMetadata(text, exif, xmp, phys);
+    }
+
     public static String errorMessage(int code) {
         MethodHandle mh = errorMessageMethodHandle();
         try {
@@ -121,6 +389,466 @@ public final class WuffsFFI {
         }
     }
 
+    /**
+     * Opens a resumable decode of frame 0 of {@code data[offset, offset + length)} into {@code dstPixels}, using the
+     * {@link DecodeCallMode} configured for the output size.
+     *
+     * <p>The returned session is confined to the calling thread and must be closed.</p>
+     */
+    public static WuffsDecodeSession openSession(byte[] data, int offset, int length, byte[] dstPixels) {
+        return openSession(data, offset, length, dstPixels, DecodeCallMode.select(dstPixels == null ? 0 : dstPixels.length));
+    }
+
+    /**
+     * Opens a resumable decode like {@link #openSession(byte[], int, int, byte[])} with {@link WuffsDecodeFlags}.
+     */
+    public static WuffsDecodeSession openSession(byte[] data, int offset, int length, byte[] dstPixels, int flags) {
+        DecodeCallMode mode = DecodeCallMode.select(dstPixels == null ? 0 : dstPixels.length);
+        return openSession(data, offset, length, dstPixels, mode, null, flags);
+    }
+
+    /**
+     * Opens a resumable decode like {@link #openSession(byte[], int, int, byte[])} with an explicit call mode.
+     */
+    public static WuffsDecodeSession openSession(byte[] data, int offset, int length, byte[] dstPixels, DecodeCallMode mode) {
+        return openSession(data, offset, length, dstPixels, mode, null);
+    }
+
+    /**
+     * Opens a resumable decode like {@link #openSession(byte[], int, int, byte[], DecodeCallMode)} whose native
+     * allocations come from {@code slab} instead of the native heap. A {@code null} slab uses the accounted heap.
+     */
+    public static WuffsDecodeSession openSession(
+            byte[] data, int offset, int length, byte[] dstPixels, DecodeCallMode mode, NativeMemorySlab slab) {
+        return openSession(data, offset, length, dstPixels, mode, slab, 0);
+    }
+
+    /**
+     * Opens a resumable decode with an explicit call mode, optional slab and {@link WuffsDecodeFlags}.
+     */
+    public static WuffsDecodeSession openSession(
+            byte[] data, int offset, int length, byte[] dstPixels, DecodeCallMode mode, NativeMemorySlab slab, int flags) {
+        if (dstPixels == null || dstPixels.length == 0) throw new IllegalArgumentException("dstPixels is empty");
+        return open(data, offset, length, MemorySegment.ofArray(dstPixels), mode, slab, 0, flags);
+    }
+
+    /**
+     * Opens a resumable decode into 16-bit samples, in {@link WuffsPixelFormat#RGBA_NONPREMUL_4X16LE} or
+     * {@link WuffsPixelFormat#Y_16LE} (see {@link ProbeResult#pixelFormat()}), using the {@link DecodeCallMode}
+     * configured for the output size.
+     */
+    public static WuffsDecodeSession openSession(
+            byte[] data, int offset, int length, short[] dstPixels, int pixelFormat, int flags) {
+        DecodeCallMode mode = DecodeCallMode.select(dstPixels == null ? 0 : 2L * dstPixels.length);
+        return openSession(data, offset, length, dstPixels, mode, null, pixelFormat, flags);
+    }
+
+    /**
+     * Opens a resumable 16-bit decode with an explicit call mode, optional slab and {@link WuffsDecodeFlags}.
+     */
+    public static WuffsDecodeSession openSession(
+            byte[] data, int offset, int length, short[] dstPixels, DecodeCallMode mode, NativeMemorySlab slab,
+            int pixelFormat, int flags) {
+        if (dstPixels == null || dstPixels.length == 0) throw new IllegalArgumentException("dstPixels is empty");
+        if (pixelFormat != WuffsPixelFormat.RGBA_NONPREMUL_4X16LE && pixelFormat != WuffsPixelFormat.Y_16LE) {
+            throw new IllegalArgumentException("Not a 16-bit pixel format: 0x" + Integer.toHexString(pixelFormat));
+        }
+        return open(data, offset, length, MemorySegment.ofArray(dstPixels), mode, slab, pixelFormat, flags);
+    }
+
+    /**
+     * Opens a resumable decode of frame 0 of {@code data} into {@code dstPixels}, like
+     * {@link #openSession(byte[], int, int, byte[], int)}. A native {@code data} segment is read in place, also in
+     * {@link DecodeCallMode#OFF_HEAP} mode, and must stay alive and accessible to the calling thread until the
+     * session is closed.
+     */
+    public static WuffsDecodeSession openSession(MemorySegment data, byte[] dstPixels, int flags) {
+        if (dstPixels == null || dstPixels.length == 0) throw new IllegalArgumentException("dstPixels is empty");
+        DecodeCallMode mode = DecodeCallMode.select(dstPixels.length);
+        return open(data, MemorySegment.ofArray(dstPixels), mode, null, 0, flags);
+    }
+
+    /**
+     * Opens a resumable 16-bit decode of {@code data}, like {@link #openSession(MemorySegment, byte[], int)}.
+     */
+    public static WuffsDecodeSession openSession(MemorySegment data, short[] dstPixels, int pixelFormat, int flags) {
+        if (dstPixels == null || dstPixels.length == 0) throw new IllegalArgumentException("dstPixels is empty");
+        if (pixelFormat != WuffsPixelFormat.RGBA_NONPREMUL_4X16LE && pixelFormat != WuffsPixelFormat.Y_16LE) {
+            throw new IllegalArgumentException("Not a 16-bit pixel format: 0x" + Integer.toHexString(pixelFormat));
+        }
+        DecodeCallMode mode = DecodeCallMode.select(2L * dstPixels.length);
+        return open(data, MemorySegment.ofArray(dstPixels), mode, null, pixelFormat, flags);
+    }
+
+    private static WuffsDecodeSession open(
+            byte[] data, int offset, int length, MemorySegment dstArray, DecodeCallMode mode, NativeMemorySlab slab,
+            int pixelFormat, int flags) {
+        if (data == null || length <= 0) throw new IllegalArgumentException("data is empty");
+        if (offset < 0 || length < 0 || offset > data.length || (offset + length) > data.length) {
+            throw new IllegalArgumentException("Invalid offset/length for array: offset=" + offset + ", length=" + length);
+        }
+        return open(MemorySegment.ofArray(data).asSlice(offset, length), dstArray, mode, slab, pixelFormat, flags);
+    }
+
+    private static WuffsDecodeSession open(
+            MemorySegment data, MemorySegment dstArray, DecodeCallMode mode, NativeMemorySlab slab, int pixelFormat,
+            int flags) {
+        if (data == null || data.byteSize() == 0) throw new IllegalArgumentException("data is empty");
+        // Sessions step with int input offsets.
+        if (data.byteSize() > Integer.MAX_VALUE) throw new IllegalArgumentException("data is larger than 2 GiB");
+        if (mode == null) throw new IllegalArgumentException("mode == null");
+
+        long length = data.byteSize();
+        Arena arena = Arena.ofConfined();
+        try {
+            MemorySegment input = data;
+            MemorySegment dst = dstArray;
+            if (mode == DecodeCallMode.OFF_HEAP) {
+                // Native input is already off-heap; only heap input needs staging.
+                if (!data.isNative()) {
+                    input = arena.allocate(length);
+                    input.copyFrom(data);
+                }
+                dst = arena.allocate(dstArray.byteSize(), 16);
+            }
+
+            MethodHandle mh = mode == DecodeCallMode.OFF_HEAP ? sessionOpenPlainMethodHandle() : sessionOpenMethodHandle();
+            MemorySegment slot = arena.allocate(ValueLayout.ADDRESS);
+            MemorySegment slabHeader = slab == null ? MemorySegment.NULL : slab.header();
+            MemorySegment params = MemorySegment.NULL;
+            if (flags != 0 || pixelFormat != 0) {
+                params = arena.allocate(WuffsTypes.DECODE_PARAMS_LAYOUT);
+                WuffsTypes.PARAMS_PIXEL_FORMAT.set(params, 0L, pixelFormat);
+                WuffsTypes.PARAMS_FLAGS.set(params, 0L, flags);
+            }
+            int code = (int) mh.invoke(input, length, params, slabHeader, slot);
+            if (code != 0) {
+                throw new WuffsException(code, "wuffs_session_open_in failed: " + errorMessage(code) + " (" + code + ")");
+            }
+            MemorySegment session = slot.get(ValueLayout.ADDRESS, 0L);
+            return new WuffsDecodeSession(session, arena, input, dst, dstArray);
+        } catch (Throwable t) {
+            arena.close();
+            if (t instanceof RuntimeException re) throw re;
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * Opens a session on {@code input} for {@link ReusableDecodeSession}, storing the handle in {@code slot}.
+     */
+    static MemorySegment openReusableSession(
+            MemorySegment input, MemorySegment params, NativeMemorySlab slab, MemorySegment slot) {
+        MethodHandle mh = input.isNative() ? sessionOpenPlainMethodHandle() : sessionOpenMethodHandle();
+        MemorySegment slabHeader = slab == null ? MemorySegment.NULL : slab.header();
+        try {
+            int code = (int) mh.invoke(input, input.byteSize(), params, slabHeader, slot);
+            if (code != 0) {
+                throw new WuffsException(code, "wuffs_session_open_in failed: " + errorMessage(code) + " (" + code + ")");
+            }
+            return slot.get(ValueLayout.ADDRESS, 0L);
+        } catch (Throwable t) {
+            if (t instanceof RuntimeException re) throw re;
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * Restarts {@code session} on new input, keeping its decoder and work buffer allocations.
+     */
+    static void resetSession(MemorySegment session, MemorySegment input, MemorySegment params) {
+        MethodHandle mh = sessionResetMethodHandle();
+        try {
+            int code = (int) mh.invoke(session, input, input.byteSize(), params);
+            if (code != 0) {
+                throw new WuffsException(code, "wuffs_session_reset failed: " + errorMessage(code) + " (" + code + ")");
+            }
+        } catch (Throwable t) {
+            if (t instanceof RuntimeException re) throw re;
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * Runs one session step. Heap segments require a critical downcall; native segments use a regular one so the
+     * GC is not held off while the step runs.
+     */
+    static int stepSession(MemorySegment session, MemorySegment input, long available, MemorySegment dst, MemorySegment out) {
+        boolean offHeap = input.isNative() && dst.isNative();
+        MethodHandle mh = offHeap ? sessionStepPlainMethodHandle() : sessionStepMethodHandle();
+        try {
+            int code = (int) mh.invoke(session, input, input.byteSize(), available, dst, dst.byteSize(), out);
+            if (code < 0) {
+                throw new WuffsException(code, "wuffs_session_step failed: " + errorMessage(code) + " (" + code + ")");
+            }
+            return code;
+        } catch (Throwable t) {
+            if (t instanceof RuntimeException re) throw re;
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * Feeds {@code chunk} from {@code offset} to the session, which joins bytes straddling the previous chunk in a
+     * small carry buffer. Returns 0 when the step finished before the end of the chunk (the result's
+     * {@code chunk_used} tells where to resume) and 1 when the whole chunk was used. As for
+     * {@link #stepSession}, heap segments require a critical downcall.
+     */
+    static int feedSession(MemorySegment session, MemorySegment chunk, long offset, boolean last,
+                           MemorySegment dst, MemorySegment out) {
+        boolean offHeap = chunk.isNative() && dst.isNative();
+        MethodHandle mh = offHeap ? sessionFeedPlainMethodHandle() : sessionFeedMethodHandle();
+        try {
+            int code = (int) mh.invoke(session, chunk, chunk.byteSize(), offset, last ? 1 : 0, dst, dst.byteSize(), out);
+            if (code < 0) {
+                throw new WuffsException(code, "wuffs_session_feed failed: " + errorMessage(code) + " (" + code + ")");
+            }
+            return code;
+        } catch (Throwable t) {
+            if (t instanceof RuntimeException re) throw re;
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * Returns the library's native heap accounting.
+     */
+    public static NativeMemoryStats nativeMemoryStats() {
+        MethodHandle mh = memoryStatsMethodHandle();
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment out = arena.allocate(WuffsTypes.MEMORY_STATS_LAYOUT);
+            mh.invoke(out);
+            return new NativeMemoryStats(
+                    (long) WuffsTypes.MEMORY_CURRENT_BYTES.get(out, 0L),
+                    (long) WuffsTypes.MEMORY_PEAK_BYTES.get(out, 0L),
+                    (long) WuffsTypes.MEMORY_ALLOC_COUNT.get(out, 0L),
+                    (long) WuffsTypes.MEMORY_FREE_COUNT.get(out, 0L),
+                    (long) WuffsTypes.MEMORY_FAILED_COUNT.get(out, 0L),
+                    (long) WuffsTypes.MEMORY_LIMIT_BYTES.get(out, 0L)
+            );
+        } catch (Throwable t) {
+            if (t instanceof RuntimeException re) throw re;
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * Restarts native peak tracking from the current usage.
+     */
+    public static void resetNativeMemoryPeak() {
+        MethodHandle mh = memoryResetPeakMethodHandle();
+        try {
+            mh.invoke();
+        } catch (Throwable t) {
+            if (t instanceof RuntimeException re) throw re;
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * Caps the library's native heap usage; allocations beyond it fail with an out of memory {@link WuffsException}.
+     * {@code 0} removes the cap. Also settable with {@code -Djwuff.native.memoryLimitBytes}.
+     */
+    public static void setNativeMemoryLimit(long limitBytes) {
+        if (limitBytes < 0) throw new IllegalArgumentException("limitBytes must be >= 0");
+        MethodHandle mh = memorySetLimitMethodHandle();
+        try {
+            mh.invoke(limitBytes);
+        } catch (Throwable t) {
+            if (t instanceof RuntimeException re) throw re;
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * Returns an output capacity that always suffices for {@link #encodePngRows} on {@code rows} rows.
+     */
+    public static long pngEncodeBound(int width, int rows, int colorType) {
+        MethodHandle mh = pngEncodeBoundMethodHandle();
+        try {
+            return (long) mh.invoke(width, rows, colorType);
+        } catch (Throwable t) {
+            if (t instanceof RuntimeException re) throw re;
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * Filters and deflates {@code rows} rows of {@code src} (heap or native, starting at the first row) into raw
+     * deflate data; see {@code wuffs_png_encode_rows}. Bands encoded with {@code last == false} end byte-aligned, so
+     * consecutive bands concatenate into one stream and may be encoded concurrently.
+     *
+     * <p>Deflating a band takes milliseconds, too long to pin a heap array for, so heap rows are first copied to a
+     * native buffer and the encoder writes to native memory as well.</p>
+     *
+     * @param prevRow     the source row above the band, or {@link MemorySegment#NULL} for the first band.
+     * @param srcLayout   a {@link WuffsPngEncodeSource} layout.
+     * @param colorType   a {@link WuffsPngEncodeSource} PNG color type.
+     * @param level       deflate level, 0-9.
+     * @param filter      PNG filter type 0-4 for every row, or -1 to choose per row.
+     */
+    public static EncodedPngBand encodePngRows(
+            MemorySegment src,
+            MemorySegment prevRow,
+            int rows,
+            boolean last,
+            int srcLayout,
+            int width,
+            int srcStride,
+            int colorType,
+            int level,
+            int filter
+    ) {
+        long rowBytes = (long) width * WuffsPngEncodeSource.bytesPerPixel(srcLayout);
+        long bandBytes = rows > 0 ? (rows - 1L) * srcStride + rowBytes : 0L;
+        long bound = pngEncodeBound(width, rows, colorType);
+        MethodHandle mh = pngEncodeRowsPlainMethodHandle();
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment rowsIn = src.isNative() ? src : arena.allocate(bandBytes).copyFrom(src.asSlice(0, bandBytes));
+            MemorySegment prevIn = prevRow.isNative()
+                    ? prevRow
+                    : arena.allocate(rowBytes).copyFrom(prevRow.asSlice(0, rowBytes));
+            MemorySegment dst = arena.allocate(bound);
+            MemorySegment params = arena.allocate(WuffsTypes.PNG_ENCODE_PARAMS_LAYOUT);
+            WuffsTypes.ENCODE_SRC_LAYOUT.set(params, 0L, srcLayout);
+            WuffsTypes.ENCODE_WIDTH.set(params, 0L, width);
+            WuffsTypes.ENCODE_SRC_STRIDE.set(params, 0L, srcStride);
+            WuffsTypes.ENCODE_COLOR_TYPE.set(params, 0L, colorType);
+            WuffsTypes.ENCODE_LEVEL.set(params, 0L, level);
+            WuffsTypes.ENCODE_FILTER.set(params, 0L, filter);
+            MemorySegment out = arena.allocate(WuffsTypes.PNG_ENCODE_RESULT_LAYOUT);
+
+            int code = (int) mh.invoke(
+                    rowsIn, prevIn, rows, last ? 1 : 0, params, dst, bound, out);
+            if (code != 0) {
+                throw new WuffsException(code, "wuffs_png_encode_rows failed: " + errorMessage(code) + " (" + code + ")");
+            }
+            int written = (int) (long) WuffsTypes.ENCODE_BYTES_WRITTEN.get(out, 0L);
+            return new EncodedPngBand(
+                    dst.asSlice(0, written).toArray(ValueLayout.JAVA_BYTE),
+                    written,
+                    (int) WuffsTypes.ENCODE_ADLER32.get(out, 0L),
+                    (long) WuffsTypes.ENCODE_FILTERED_LEN.get(out, 0L)
+            );
+        } catch (Throwable t) {
+            if (t instanceof RuntimeException re) throw re;
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * Returns the compiled-in {@link InflateSession} formats as a bit mask of {@code 1 << format}.
+     */
+    static int inflateFormats() {
+        MethodHandle mh = inflateFormatsMethodHandle();
+        try {
+            return (int) mh.invoke();
+        } catch (Throwable t) {
+            if (t instanceof RuntimeException re) throw re;
+            throw new RuntimeException(t);
+        }
+    }
+
+    static MemorySegment openInflater(int format, int flags, MemorySegment slot) {
+        MethodHandle mh = inflaterOpenMethodHandle();
+        try {
+            int code = (int) mh.invoke(format, flags, slot);
+            if (code != 0) {
+                throw new WuffsException(code, "wuffs_inflater_open failed: " + errorMessage(code) + " (" + code + ")");
+            }
+            return slot.get(ValueLayout.ADDRESS, 0L);
+        } catch (Throwable t) {
+            if (t instanceof RuntimeException re) throw re;
+            throw new RuntimeException(t);
+        }
+    }
+
+    static void resetInflater(MemorySegment inflater) {
+        MethodHandle mh = inflaterResetMethodHandle();
+        try {
+            int code = (int) mh.invoke(inflater);
+            if (code != 0) {
+                throw new WuffsException(code, "wuffs_inflater_reset failed: " + errorMessage(code) + " (" + code + ")");
+            }
+        } catch (Throwable t) {
+            if (t instanceof RuntimeException re) throw re;
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * Runs one inflater step. As for {@link #stepSession}, heap segments require a critical downcall.
+     */
+    static int stepInflater(MemorySegment inflater, MemorySegment src, boolean srcFinal, MemorySegment dst, MemorySegment out) {
+        boolean offHeap = src.isNative() && dst.isNative();
+        MethodHandle mh = offHeap ? inflaterStepPlainMethodHandle() : inflaterStepMethodHandle();
+        try {
+            int code = (int) mh.invoke(inflater, src, src.byteSize(), srcFinal ? 1 : 0, dst, dst.byteSize(), out);
+            if (code < 0) {
+                throw new WuffsException(code, "wuffs_inflater_step failed: " + errorMessage(code) + " (" + code + ")");
+            }
+            return code;
+        } catch (Throwable t) {
+            if (t instanceof RuntimeException re) throw re;
+            throw new RuntimeException(t);
+        }
+    }
+
+    static void closeInflater(MemorySegment inflater) {
+        MethodHandle mh = inflaterCloseMethodHandle();
+        try {
+            mh.invoke(inflater);
+        } catch (Throwable t) {
+            if (t instanceof RuntimeException re) throw re;
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * Resamples 8-bit non-premultiplied BGRA pixels from {@code src} into {@code dst}; see {@code wuffs_resize_bgra}.
+     * Either segment may be heap or native. The resampler runs on native memory so it never holds off the GC: heap
+     * pixels are copied to native scratch memory first, and heap output is copied back.
+     *
+     * @param filter a {@code WUFFS_IMAGEIO_RESIZE_*} filter.
+     */
+    public static void resizeBgra(
+            MemorySegment src, int srcWidth, int srcHeight, long srcStride,
+            MemorySegment dst, int dstWidth, int dstHeight, long dstStride,
+            int filter
+    ) {
+        long srcBytes = srcStride * (srcHeight - 1) + 4L * srcWidth;
+        long dstBytes = dstStride * (dstHeight - 1) + 4L * dstWidth;
+        if (src.byteSize() < srcBytes || dst.byteSize() < dstBytes) {
+            throw new IllegalArgumentException("segment too small for its dimensions");
+        }
+        MethodHandle mh = resizeBgraPlainMethodHandle();
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment srcIn = src.isNative() ? src : arena.allocate(srcBytes, 16).copyFrom(src.asSlice(0, srcBytes));
+            MemorySegment dstOut = dst.isNative() ? dst : arena.allocate(dstBytes, 16);
+            int code = (int) mh.invoke(
+                    srcIn, srcWidth, srcHeight, srcStride, dstOut, dstWidth, dstHeight, dstStride, filter);
+            if (code != 0) {
+                throw new WuffsException(code, "wuffs_resize_bgra failed: " + errorMessage(code) + " (" + code + ")");
+            }
+            if (dstOut != dst) {
+                MemorySegment.copy(dstOut, 0L, dst, 0L, dstBytes);
+            }
+        } catch (Throwable t) {
+            if (t instanceof RuntimeException re) throw re;
+            throw new RuntimeException(t);
+        }
+    }
+
+    static void closeSession(MemorySegment session) {
+        MethodHandle mh = sessionCloseMethodHandle();
+        try {
+            mh.invoke(session);
+        } catch (Throwable t) {
+            if (t instanceof RuntimeException re) throw re;
+            throw new RuntimeException(t);
+        }
+    }
+
     private static MethodHandle probeMethodHandle() {
         MethodHandle current = probeHandle;
         if (current != null) return current;
@@ -128,10 +856,11 @@ public final class WuffsFFI {
         synchronized (WuffsFFI.class) {
             current = probeHandle;
             if (current != null) return current;
-            var symbol = symbols().find("wuffs_probe_image").orElseThrow();
+            var symbol = symbols().find("wuffs_probe_image_with_flags").orElseThrow();
             probeHandle = linker().downcallHandle(
                     symbol,
-                    FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG, ValueLayout.ADDRESS),
+                    FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG,
+                            ValueLayout.JAVA_INT, ValueLayout.ADDRESS),
                     Linker.Option.critical(true)
             );
             return probeHandle;
@@ -179,4 +908,388 @@ public final class WuffsFFI {
             return errorMessageHandle;
         }
     }
+
+    private static MethodHandle sessionOpenMethodHandle() {
+        MethodHandle current = sessionOpenHandle;
+        if (current != null) return current;
+
+        synchronized (WuffsFFI.class) {
+            current = sessionOpenHandle;
+            if (current != null) return current;
+            var symbol = symbols().find("wuffs_session_open_in").orElseThrow();
+            sessionOpenHandle = linker().downcallHandle(symbol, SESSION_OPEN_DESCRIPTOR, Linker.Option.critical(true));
+            return sessionOpenHandle;
+        }
+    }
+
+    private static MethodHandle sessionStepMethodHandle() {
+        MethodHandle current = sessionStepHandle;
+        if (current != null) return current;
+
+        synchronized (WuffsFFI.class) {
+            current = sessionStepHandle;
+            if (current != null) return current;
+            var symbol = symbols().find("wuffs_session_step").orElseThrow();
+            sessionStepHandle = linker().downcallHandle(symbol, SESSION_STEP_DESCRIPTOR, Linker.Option.critical(true));
+            return sessionStepHandle;
+        }
+    }
+
+    private static MethodHandle sessionFeedMethodHandle() {
+        MethodHandle current = sessionFeedHandle;
+        if (current != null) return current;
+
+        synchronized (WuffsFFI.class) {
+            current = sessionFeedHandle;
+            if (current != null) return current;
+            var symbol = symbols().find("wuffs_session_feed").orElseThrow();
+            sessionFeedHandle = linker().downcallHandle(symbol, SESSION_FEED_DESCRIPTOR, Linker.Option.critical(true));
+            return sessionFeedHandle;
+        }
+    }
+
+    private static MethodHandle sessionFeedPlainMethodHandle() {
+        MethodHandle current = sessionFeedPlainHandle;
+        if (current != null) return current;
+
+        synchronized (WuffsFFI.class) {
+            current = sessionFeedPlainHandle;
+            if (current != null) return current;
+            var symbol = symbols().find("wuffs_session_feed").orElseThrow();
+            sessionFeedPlainHandle = linker().downcallHandle(symbol, SESSION_FEED_DESCRIPTOR);
+            return sessionFeedPlainHandle;
+        }
+    }
+
+    private static MethodHandle sessionOpenPlainMethodHandle() {
+        MethodHandle current = sessionOpenPlainHandle;
+        if (current != null) return current;
+
+        synchronized (WuffsFFI.class) {
+            current = sessionOpenPlainHandle;
+            if (current != null) return current;
+            var symbol = symbols().find("wuffs_session_open_in").orElseThrow();
+            sessionOpenPlainHandle = linker().downcallHandle(symbol, SESSION_OPEN_DESCRIPTOR);
+            return sessionOpenPlainHandle;
+        }
+    }
+
+    private static MethodHandle sessionStepPlainMethodHandle() {
+        MethodHandle current = sessionStepPlainHandle;
+        if (current != null) return current;
+
+        synchronized (WuffsFFI.class) {
+            current = sessionStepPlainHandle;
+            if (current != null) return current;
+            var symbol = symbols().find("wuffs_session_step").orElseThrow();
+            sessionStepPlainHandle = linker().downcallHandle(symbol, SESSION_STEP_DESCRIPTOR);
+            return sessionStepPlainHandle;
+        }
+    }
+
+    private static MethodHandle sessionCloseMethodHandle() {
+        MethodHandle current = sessionCloseHandle;
+        if (current != null) return current;
+
+        synchronized (WuffsFFI.class) {
+            current = sessionCloseHandle;
+            if (current != null) return current;
+            var symbol = symbols().find("wuffs_session_close").orElseThrow();
+            sessionCloseHandle = linker().downcallHandle(
+                    symbol,
+                    FunctionDescriptor.ofVoid(ValueLayout.ADDRESS)
+            );
+            return sessionCloseHandle;
+        }
+    }
+
+    private static MethodHandle sessionResetMethodHandle() {
+        MethodHandle current = sessionResetHandle;
+        if (current != null) return current;
+
+        synchronized (WuffsFFI.class) {
+            current = sessionResetHandle;
+            if (current != null) return current;
+            var symbol = symbols().find("wuffs_session_reset").orElseThrow();
+            sessionResetHandle = linker().downcallHandle(
+                    symbol,
+                    FunctionDescriptor.of(
+                            ValueLayout.JAVA_INT,
+                            ValueLayout.ADDRESS,
+                            ValueLayout.ADDRESS,
+                            ValueLayout.JAVA_LONG,
+                            ValueLayout.ADDRESS
+                    ),
+                    Linker.Option.critical(true)
+            );
+            return sessionResetHandle;
+        }
+    }
+
+    private static MethodHandle memoryStatsMethodHandle() {
+        MethodHandle current = memoryStatsHandle;
+        if (current != null) return current;
+
+        synchronized (WuffsFFI.class) {
+            current = memoryStatsHandle;
+            if (current != null) return current;
+            var symbol = symbols().find("wuffs_memory_get_stats").orElseThrow();
+            memoryStatsHandle = linker().downcallHandle(symbol, FunctionDescriptor.ofVoid(ValueLayout.ADDRESS));
+            return memoryStatsHandle;
+        }
+    }
+
+    private static MethodHandle memoryResetPeakMethodHandle() {
+        MethodHandle current = memoryResetPeakHandle;
+        if (current != null) return current;
+
+        synchronized (WuffsFFI.class) {
+            current = memoryResetPeakHandle;
+            if (current != null) return current;
+            var symbol = symbols().find("wuffs_memory_reset_peak").orElseThrow();
+            memoryResetPeakHandle = linker().downcallHandle(symbol, FunctionDescriptor.ofVoid());
+            return memoryResetPeakHandle;
+        }
+    }
+
+    private static MethodHandle memorySetLimitMethodHandle() {
+        MethodHandle current = memorySetLimitHandle;
+        if (current != null) return current;
+
+        synchronized (WuffsFFI.class) {
+            current = memorySetLimitHandle;
+            if (current != null) return current;
+            var symbol = symbols().find("wuffs_memory_set_limit").orElseThrow();
+            memorySetLimitHandle = linker().downcallHandle(symbol, FunctionDescriptor.ofVoid(ValueLayout.JAVA_LONG));
+            return memorySetLimitHandle;
+        }
+    }
+
+    private static MethodHandle readIccProfileMethodHandle() {
+        MethodHandle current = readIccProfileHandle;
+        if (current != null) return current;
+
+        synchronized (WuffsFFI.class) {
+            current = readIccProfileHandle;
+            if (current != null) return current;
+            var symbol = symbols().find("wuffs_read_icc_profile").orElseThrow();
+            readIccProfileHandle = linker().downcallHandle(
+                    symbol,
+                    FunctionDescriptor.of(
+                            ValueLayout.JAVA_INT,
+                            ValueLayout.ADDRESS,
+                            ValueLayout.JAVA_LONG,
+                            ValueLayout.ADDRESS,
+                            ValueLayout.JAVA_LONG,
+                            ValueLayout.ADDRESS
+                    ),
+                    Linker.Option.critical(true)
+            );
+            return readIccProfileHandle;
+        }
+    }
+
+    private static MethodHandle readMetadataMethodHandle() {
+        MethodHandle current = readMetadataHandle;
+        if (current != null) return current;
+
+        synchronized (WuffsFFI.class) {
+            current = readMetadataHandle;
+            if (current != null) return current;
+            var symbol = symbols().find("wuffs_read_metadata").orElseThrow();
+            readMetadataHandle = linker().downcallHandle(
+                    symbol,
+                    FunctionDescriptor.of(
+                            ValueLayout.JAVA_INT,
+                            ValueLayout.ADDRESS,
+                            ValueLayout.JAVA_LONG,
+                            ValueLayout.ADDRESS,
+                            ValueLayout.JAVA_LONG,
+                            ValueLayout.ADDRESS
+                    ),
+                    Linker.Option.critical(true)
+            );
+            return readMetadataHandle;
+        }
+    }
+
+    private static MethodHandle pngEncodeBoundMethodHandle() {
+        MethodHandle current = pngEncodeBoundHandle;
+        if (current != null) return current;
+
+        synchronized (WuffsFFI.class) {
+            current = pngEncodeBoundHandle;
+            if (current != null) return current;
+            var symbol = symbols().find("wuffs_png_encode_bound").orElseThrow();
+            pngEncodeBoundHandle = linker().downcallHandle(
+                    symbol,
+                    FunctionDescriptor.of(
+                            ValueLayout.JAVA_LONG,
+                            ValueLayout.JAVA_INT,
+                            ValueLayout.JAVA_INT,
+                            ValueLayout.JAVA_INT
+                    )
+            );
+            return pngEncodeBoundHandle;
+        }
+    }
+
+    private static MethodHandle pngEncodeRowsPlainMethodHandle() {
+        MethodHandle current = pngEncodeRowsPlainHandle;
+        if (current != null) return current;
+
+        synchronized (WuffsFFI.class) {
+            current = pngEncodeRowsPlainHandle;
+            if (current != null) return current;
+            var symbol = symbols().find("wuffs_png_encode_rows").orElseThrow();
+            pngEncodeRowsPlainHandle = linker().downcallHandle(
+                    symbol,
+                    FunctionDescriptor.of(
+                            ValueLayout.JAVA_INT,
+                            ValueLayout.ADDRESS,
+                            ValueLayout.ADDRESS,
+                            ValueLayout.JAVA_INT,
+                            ValueLayout.JAVA_INT,
+                            ValueLayout.ADDRESS,
+                            ValueLayout.ADDRESS,
+                            ValueLayout.JAVA_LONG,
+                            ValueLayout.ADDRESS
+                    )
+            );
+            return pngEncodeRowsPlainHandle;
+        }
+    }
+
+    private static MethodHandle inflateFormatsMethodHandle() {
+        MethodHandle current = inflateFormatsHandle;
+        if (current != null) return current;
+
+        synchronized (WuffsFFI.class) {
+            current = inflateFormatsHandle;
+            if (current != null) return current;
+            var symbol = symbols().find("wuffs_inflate_formats").orElseThrow();
+            inflateFormatsHandle = linker().downcallHandle(
+                    symbol,
+                    FunctionDescriptor.of(ValueLayout.JAVA_INT)
+            );
+            return inflateFormatsHandle;
+        }
+    }
+
+    private static MethodHandle inflaterOpenMethodHandle() {
+        MethodHandle current = inflaterOpenHandle;
+        if (current != null) return current;
+
+        synchronized (WuffsFFI.class) {
+            current = inflaterOpenHandle;
+            if (current != null) return current;
+            var symbol = symbols().find("wuffs_inflater_open").orElseThrow();
+            inflaterOpenHandle = linker().downcallHandle(
+                    symbol,
+                    FunctionDescriptor.of(
+                            ValueLayout.JAVA_INT,
+                            ValueLayout.JAVA_INT,
+                            ValueLayout.JAVA_INT,
+                            ValueLayout.ADDRESS
+                    )
+            );
+            return inflaterOpenHandle;
+        }
+    }
+
+    private static MethodHandle inflaterResetMethodHandle() {
+        MethodHandle current = inflaterResetHandle;
+        if (current != null) return current;
+
+        synchronized (WuffsFFI.class) {
+            current = inflaterResetHandle;
+            if (current != null) return current;
+            var symbol = symbols().find("wuffs_inflater_reset").orElseThrow();
+            inflaterResetHandle = linker().downcallHandle(
+                    symbol,
+                    FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS)
+            );
+            return inflaterResetHandle;
+        }
+    }
+
+    private static MethodHandle inflaterStepMethodHandle() {
+        MethodHandle current = inflaterStepHandle;
+        if (current != null) return current;
+
+        synchronized (WuffsFFI.class) {
+            current = inflaterStepHandle;
+            if (current != null) return current;
+            var symbol = symbols().find("wuffs_inflater_step").orElseThrow();
+            inflaterStepHandle = linker().downcallHandle(
+                    symbol,
+                    FunctionDescriptor.of(
+                            ValueLayout.JAVA_INT,
+                            ValueLayout.ADDRESS,
+                            ValueLayout.ADDRESS,
+                            ValueLayout.JAVA_LONG,
+                            ValueLayout.JAVA_INT,
+                            ValueLayout.ADDRESS,
+                            ValueLayout.JAVA_LONG,
+                            ValueLayout.ADDRESS
+                    ),
+                    Linker.Option.critical(true)
+            );
+            return inflaterStepHandle;
+        }
+    }
+
+    private static MethodHandle inflaterStepPlainMethodHandle() {
+        MethodHandle current = inflaterStepPlainHandle;
+        if (current != null) return current;
+
+        synchronized (WuffsFFI.class) {
+            current = inflaterStepPlainHandle;
+            if (current != null) return current;
+            var symbol = symbols().find("wuffs_inflater_step").orElseThrow();
+            inflaterStepPlainHandle = linker().downcallHandle(
+                    symbol,
+                    FunctionDescriptor.of(
+                            ValueLayout.JAVA_INT,
+                            ValueLayout.ADDRESS,
+                            ValueLayout.ADDRESS,
+                            ValueLayout.JAVA_LONG,
+                            ValueLayout.JAVA_INT,
+                            ValueLayout.ADDRESS,
+                            ValueLayout.JAVA_LONG,
+                            ValueLayout.ADDRESS
+                    )
+            );
+            return inflaterStepPlainHandle;
+        }
+    }
+
+    private static MethodHandle inflaterCloseMethodHandle() {
+        MethodHandle current = inflaterCloseHandle;
+        if (current != null) return current;
+
+        synchronized (WuffsFFI.class) {
+            current = inflaterCloseHandle;
+            if (current != null) return current;
+            var symbol = symbols().find("wuffs_inflater_close").orElseThrow();
+            inflaterCloseHandle = linker().downcallHandle(
+                    symbol,
+                    FunctionDescriptor.ofVoid(ValueLayout.ADDRESS)
+            );
+            return inflaterCloseHandle;
+        }
+    }
+
+    private static MethodHandle resizeBgraPlainMethodHandle() {
+        MethodHandle current = resizeBgraPlainHandle;
+        if (current != null) return current;
+
+        synchronized (WuffsFFI.class) {
+            current = resizeBgraPlainHandle;
+            if (current != null) return current;
+            var symbol = symbols().find("wuffs_resize_bgra").orElseThrow();
+            resizeBgraPlainHandle = linker().downcallHandle(symbol, RESIZE_BGRA_DESCRIPTOR);
+            return resizeBgraPlainHandle;
+        }
+    }
 }
@@ -0,0 +1,31 @@
+package com.agulev.jwuff.nativelib;
+
+/**
+ * Wuffs pixel formats accepted as {@code wuffs_decode_params.pixel_format}; values match
+ * {@code WUFFS_BASE__PIXEL_FORMAT__*}. The 16-bit formats are little-endian, so they can be decoded straight into a
+ * {@code short[]} on the (little-endian) platforms jwuff supports.
+ */
+public final class WuffsPixelFormat {
+    /** 8 bits per channel, B, G, R, A byte order. The default. */
+    public static final int BGRA_NONPREMUL = 0x81008888;
+    /** 16 bits per channel, R, G, B, A sample order. */
+    public static final int RGBA_NONPREMUL_4X16LE = 0xA100BBBB;
+    /** One 16-bit gray sample. */
+    public static final int Y_16LE = 0x2000000B;
+
+    private WuffsPixelFormat() {}
+
+    /**
+     * Returns the bytes per pixel of {@code pixelFormat}.
+     *
+     * @throws IllegalArgumentException if the format is not one of the constants above.
+     */
+    public static int bytesPerPixel(int pixelFormat) {
+        return switch (pixelFormat) {
+            case BGRA_NONPREMUL -> 4;
+            case RGBA_NONPREMUL_4X16LE -> 8;
+            case Y_16LE -> 2;
+            default -> throw new IllegalArgumentException("Unsupported pixel format: 0x" + Integer.toHexString(pixelFormat));
+        };
+    }
+}
@@ -0,0 +1,36 @@
+package com.agulev.jwuff.nativelib;
+
+/**
+ * Source pixel layouts accepted by {@link WuffsFFI#encodePngRows}; values match
+ * {@code WUFFS_IMAGEIO_ENCODE_SRC_*}. Layouts name the byte order in memory, so a {@code TYPE_INT_ARGB} or
+ * {@code TYPE_INT_RGB} raster is {@link #BGRA} on the (little-endian) platforms jwuff supports.
+ */
+public final class WuffsPngEncodeSource {
+    public static final int BGRA = 0;
+    public static final int RGBA = 1;
+    public static final int ABGR = 2;
+    public static final int BGR = 3;
+    public static final int RGB = 4;
+    public static final int GRAY = 5;
+
+    /** PNG color types written by the encoder. */
+    public static final int COLOR_TYPE_GRAY = 0;
+    public static final int COLOR_TYPE_RGB = 2;
+    public static final int COLOR_TYPE_RGBA = 6;
+
+    private WuffsPngEncodeSource() {}
+
+    /**
+     * Returns the bytes per pixel of {@code layout}.
+     *
+     * @throws IllegalArgumentException if the layout is not one of the constants above.
+     */
+    public static int bytesPerPixel(int layout) {
+        return switch (layout) {
+            case BGRA, RGBA, ABGR -> 4;
+            case BGR, RGB -> 3;
+            case GRAY -> 1;
+            default -> throw new IllegalArgumentException("Unsupported source layout: " + layout);
+        };
+    }
+}
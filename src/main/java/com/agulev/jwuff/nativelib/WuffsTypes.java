@@ -3,13 +3,33 @@ package com.agulev.jwuff.nativelib;
 public final class WuffsTypes {
     private WuffsTypes() {}
 
+    public static final java.lang.foreign.MemoryLayout COLOR_INFO_LAYOUT =
+            java.lang.foreign.MemoryLayout.structLayout(
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("flags"),
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("gamma"),
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("white_x"),
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("white_y"),
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("red_x"),
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("red_y"),
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("green_x"),
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("green_y"),
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("blue_x"),
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("blue_y"),
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("srgb_intent"),
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("icc_len")
+            );
+
     public static final java.lang.foreign.MemoryLayout PROBE_RESULT_LAYOUT =
             java.lang.foreign.MemoryLayout.structLayout(
                     java.lang.foreign.ValueLayout.JAVA_INT.withName("width"),
                     java.lang.foreign.ValueLayout.JAVA_INT.withName("height"),
                     java.lang.foreign.ValueLayout.JAVA_INT.withName("frame_count"),
                     java.lang.foreign.ValueLayout.JAVA_INT.withName("bytes_per_pixel"),
-                    java.lang.foreign.ValueLayout.JAVA_INT.withName("stride_bytes")
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("stride_bytes"),
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("bit_depth"),
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("pixel_format"),
+                    COLOR_INFO_LAYOUT.withName("color"),
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("orientation")
             );
 
     public static final java.lang.invoke.VarHandle PROBE_WIDTH =
@@ -22,6 +42,71 @@ public final class WuffsTypes {
             PROBE_RESULT_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("bytes_per_pixel"));
     public static final java.lang.invoke.VarHandle PROBE_STRIDE_BYTES =
             PROBE_RESULT_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("stride_bytes"));
+    public static final java.lang.invoke.VarHandle PROBE_BIT_DEPTH =
+            PROBE_RESULT_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("bit_depth"));
+    public static final java.lang.invoke.VarHandle PROBE_PIXEL_FORMAT =
+            PROBE_RESULT_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("pixel_format"));
+    public static final java.lang.invoke.VarHandle PROBE_ORIENTATION =
+            PROBE_RESULT_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("orientation"));
+    public static final java.lang.invoke.VarHandle PROBE_COLOR_FLAGS =
+            PROBE_RESULT_LAYOUT.varHandle(
+                    java.lang.foreign.MemoryLayout.PathElement.groupElement("color"),
+                    java.lang.foreign.MemoryLayout.PathElement.groupElement("flags"));
+    public static final java.lang.invoke.VarHandle PROBE_COLOR_GAMMA =
+            PROBE_RESULT_LAYOUT.varHandle(
+                    java.lang.foreign.MemoryLayout.PathElement.groupElement("color"),
+                    java.lang.foreign.MemoryLayout.PathElement.groupElement("gamma"));
+    public static final java.lang.invoke.VarHandle PROBE_COLOR_WHITE_X =
+            PROBE_RESULT_LAYOUT.varHandle(
+                    java.lang.foreign.MemoryLayout.PathElement.groupElement("color"),
+                    java.lang.foreign.MemoryLayout.PathElement.groupElement("white_x"));
+    public static final java.lang.invoke.VarHandle PROBE_COLOR_WHITE_Y =
+            PROBE_RESULT_LAYOUT.varHandle(
+                    java.lang.foreign.MemoryLayout.PathElement.groupElement("color"),
+                    java.lang.foreign.MemoryLayout.PathElement.groupElement("white_y"));
+    public static final java.lang.invoke.VarHandle PROBE_COLOR_RED_X =
+            PROBE_RESULT_LAYOUT.varHandle(
+                    java.lang.foreign.MemoryLayout.PathElement.groupElement("color"),
+                    java.lang.foreign.MemoryLayout.PathElement.groupElement("red_x"));
+    public static final java.lang.invoke.VarHandle PROBE_COLOR_RED_Y =
+            PROBE_RESULT_LAYOUT.varHandle(
+                    java.lang.foreign.MemoryLayout.PathElement.groupElement("color"),
+                    java.lang.foreign.MemoryLayout.PathElement.groupElement("red_y"));
+    public static final java.lang.invoke.VarHandle PROBE_COLOR_GREEN_X =
+            PROBE_RESULT_LAYOUT.varHandle(
+                    java.lang.foreign.MemoryLayout.PathElement.groupElement("color"),
+                    java.lang.foreign.MemoryLayout.PathElement.groupElement("green_x"));
+    public static final java.lang.invoke.VarHandle PROBE_COLOR_GREEN_Y =
+            PROBE_RESULT_LAYOUT.varHandle(
+                    java.lang.foreign.MemoryLayout.PathElement.groupElement("color"),
+                    java.lang.foreign.MemoryLayout.PathElement.groupElement("green_y"));
+    public static final java.lang.invoke.VarHandle PROBE_COLOR_BLUE_X =
+            PROBE_RESULT_LAYOUT.varHandle(
+                    java.lang.foreign.MemoryLayout.PathElement.groupElement("color"),
+                    java.lang.foreign.MemoryLayout.PathElement.groupElement("blue_x"));
+    public static final java.lang.invoke.VarHandle PROBE_COLOR_BLUE_Y =
+            PROBE_RESULT_LAYOUT.varHandle(
+                    java.lang.foreign.MemoryLayout.PathElement.groupElement("color"),
+                    java.lang.foreign.MemoryLayout.PathElement.groupElement("blue_y"));
+    public static final java.lang.invoke.VarHandle PROBE_COLOR_SRGB_INTENT =
+            PROBE_RESULT_LAYOUT.varHandle(
+                    java.lang.foreign.MemoryLayout.PathElement.groupElement("color"),
+                    java.lang.foreign.MemoryLayout.PathElement.groupElement("srgb_intent"));
+    public static final java.lang.invoke.VarHandle PROBE_COLOR_ICC_LEN =
+            PROBE_RESULT_LAYOUT.varHandle(
+                    java.lang.foreign.MemoryLayout.PathElement.groupElement("color"),
+                    java.lang.foreign.MemoryLayout.PathElement.groupElement("icc_len"));
+
+    public static final java.lang.foreign.MemoryLayout DECODE_PARAMS_LAYOUT =
+            java.lang.foreign.MemoryLayout.structLayout(
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("pixel_format"),
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("flags")
+            );
+
+    public static final java.lang.invoke.VarHandle PARAMS_PIXEL_FORMAT =
+            DECODE_PARAMS_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("pixel_format"));
+    public static final java.lang.invoke.VarHandle PARAMS_FLAGS =
+            DECODE_PARAMS_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("flags"));
 
     public static final java.lang.foreign.MemoryLayout FRAME_RESULT_LAYOUT =
             java.lang.foreign.MemoryLayout.structLayout(
@@ -39,4 +124,150 @@ public final class WuffsTypes {
             FRAME_RESULT_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("stride_bytes"));
     public static final java.lang.invoke.VarHandle FRAME_BYTES_WRITTEN =
             FRAME_RESULT_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("bytes_written"));
+
+    public static final java.lang.foreign.MemoryLayout STEP_RESULT_LAYOUT =
+            java.lang.foreign.MemoryLayout.structLayout(
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("width"),
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("height"),
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("stride_bytes"),
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("bytes_written"),
+                    java.lang.foreign.ValueLayout.JAVA_LONG.withName("consumed"),
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("done"),
+                    java.lang.foreign.MemoryLayout.paddingLayout(4),
+                    java.lang.foreign.ValueLayout.JAVA_LONG.withName("config_ns"),
+                    java.lang.foreign.ValueLayout.JAVA_LONG.withName("decode_ns"),
+                    java.lang.foreign.ValueLayout.JAVA_LONG.withName("workbuf_len"),
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("passes_done"),
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("passes_total"),
+                    java.lang.foreign.ValueLayout.JAVA_LONG.withName("chunk_used")
+            );
+
+    public static final java.lang.invoke.VarHandle STEP_WIDTH =
+            STEP_RESULT_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("width"));
+    public static final java.lang.invoke.VarHandle STEP_HEIGHT =
+            STEP_RESULT_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("height"));
+    public static final java.lang.invoke.VarHandle STEP_STRIDE_BYTES =
+            STEP_RESULT_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("stride_bytes"));
+    public static final java.lang.invoke.VarHandle STEP_BYTES_WRITTEN =
+            STEP_RESULT_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("bytes_written"));
+    public static final java.lang.invoke.VarHandle STEP_CONSUMED =
+            STEP_RESULT_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("consumed"));
+    public static final java.lang.invoke.VarHandle STEP_DONE =
+            STEP_RESULT_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("done"));
+    public static final java.lang.invoke.VarHandle STEP_CONFIG_NS =
+            STEP_RESULT_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("config_ns"));
+    public static final java.lang.invoke.VarHandle STEP_DECODE_NS =
+            STEP_RESULT_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("decode_ns"));
+    public static final java.lang.invoke.VarHandle STEP_WORKBUF_LEN =
+            STEP_RESULT_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("workbuf_len"));
+    public static final java.lang.invoke.VarHandle STEP_PASSES_DONE =
+            STEP_RESULT_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("passes_done"));
+    public static final java.lang.invoke.VarHandle STEP_PASSES_TOTAL =
+            STEP_RESULT_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("passes_total"));
+    public static final java.lang.invoke.VarHandle STEP_CHUNK_USED =
+            STEP_RESULT_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("chunk_used"));
+
+    public static final java.lang.foreign.MemoryLayout MEMORY_STATS_LAYOUT =
+            java.lang.foreign.MemoryLayout.structLayout(
+                    java.lang.foreign.ValueLayout.JAVA_LONG.withName("current_bytes"),
+                    java.lang.foreign.ValueLayout.JAVA_LONG.withName("peak_bytes"),
+                    java.lang.foreign.ValueLayout.JAVA_LONG.withName("alloc_count"),
+                    java.lang.foreign.ValueLayout.JAVA_LONG.withName("free_count"),
+                    java.lang.foreign.ValueLayout.JAVA_LONG.withName("failed_count"),
+                    java.lang.foreign.ValueLayout.JAVA_LONG.withName("limit_bytes")
+            );
+
+    public static final java.lang.invoke.VarHandle MEMORY_CURRENT_BYTES =
+            MEMORY_STATS_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("current_bytes"));
+    public static final java.lang.invoke.VarHandle MEMORY_PEAK_BYTES =
+            MEMORY_STATS_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("peak_bytes"));
+    public static final java.lang.invoke.VarHandle MEMORY_ALLOC_COUNT =
+            MEMORY_STATS_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("alloc_count"));
+    public static final java.lang.invoke.VarHandle MEMORY_FREE_COUNT =
+            MEMORY_STATS_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("free_count"));
+    public static final java.lang.invoke.VarHandle MEMORY_FAILED_COUNT =
+            MEMORY_STATS_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("failed_count"));
+    public static final java.lang.invoke.VarHandle MEMORY_LIMIT_BYTES =
+            MEMORY_STATS_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("limit_bytes"));
+
+    public static final java.lang.foreign.MemoryLayout SLAB_LAYOUT =
+            java.lang.foreign.MemoryLayout.structLayout(
+                    java.lang.foreign.ValueLayout.ADDRESS.withName("base"),
+                    java.lang.foreign.ValueLayout.JAVA_LONG.withName("capacity"),
+                    java.lang.foreign.ValueLayout.JAVA_LONG.withName("used"),
+                    java.lang.foreign.ValueLayout.JAVA_LONG.withName("peak"),
+                    java.lang.foreign.ValueLayout.JAVA_LONG.withName("alloc_count"),
+                    java.lang.foreign.ValueLayout.JAVA_LONG.withName("free_count"),
+                    java.lang.foreign.ValueLayout.JAVA_LONG.withName("failed_count")
+            );
+
+    public static final java.lang.invoke.VarHandle SLAB_BASE =
+            SLAB_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("base"));
+    public static final java.lang.invoke.VarHandle SLAB_CAPACITY =
+            SLAB_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("capacity"));
+    public static final java.lang.invoke.VarHandle SLAB_USED =
+            SLAB_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("used"));
+    public static final java.lang.invoke.VarHandle SLAB_PEAK =
+            SLAB_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("peak"));
+    public static final java.lang.invoke.VarHandle SLAB_ALLOC_COUNT =
+            SLAB_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("alloc_count"));
+    public static final java.lang.invoke.VarHandle SLAB_FREE_COUNT =
+            SLAB_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("free_count"));
+    public static final java.lang.invoke.VarHandle SLAB_FAILED_COUNT =
+            SLAB_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("failed_count"));
+
+    public static final java.lang.foreign.MemoryLayout PNG_ENCODE_PARAMS_LAYOUT =
+            java.lang.foreign.MemoryLayout.structLayout(
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("src_layout"),
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("width"),
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("src_stride"),
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("color_type"),
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("level"),
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("filter")
+            );
+
+    public static final java.lang.invoke.VarHandle ENCODE_SRC_LAYOUT =
+            PNG_ENCODE_PARAMS_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("src_layout"));
+    public static final java.lang.invoke.VarHandle ENCODE_WIDTH =
+            PNG_ENCODE_PARAMS_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("width"));
+    public static final java.lang.invoke.VarHandle ENCODE_SRC_STRIDE =
+            PNG_ENCODE_PARAMS_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("src_stride"));
+    public static final java.lang.invoke.VarHandle ENCODE_COLOR_TYPE =
+            PNG_ENCODE_PARAMS_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("color_type"));
+    public static final java.lang.invoke.VarHandle ENCODE_LEVEL =
+            PNG_ENCODE_PARAMS_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("level"));
+    public static final java.lang.invoke.VarHandle ENCODE_FILTER =
+            PNG_ENCODE_PARAMS_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("filter"));
+
+    public static final java.lang.foreign.MemoryLayout PNG_ENCODE_RESULT_LAYOUT =
+            java.lang.foreign.MemoryLayout.structLayout(
+                    java.lang.foreign.ValueLayout.JAVA_LONG.withName("bytes_written"),
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("adler32"),
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("reserved"),
+                    java.lang.foreign.ValueLayout.JAVA_LONG.withName("filtered_len")
+            );
+
+    public static final java.lang.invoke.VarHandle ENCODE_BYTES_WRITTEN =
+            PNG_ENCODE_RESULT_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("bytes_written"));
+    public static final java.lang.invoke.VarHandle ENCODE_ADLER32 =
+            PNG_ENCODE_RESULT_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("adler32"));
+    public static final java.lang.invoke.VarHandle ENCODE_FILTERED_LEN =
+            PNG_ENCODE_RESULT_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("filtered_len"));
+
+    public static final java.lang.foreign.MemoryLayout INFLATE_RESULT_LAYOUT =
+            java.lang.foreign.MemoryLayout.structLayout(
+                    java.lang.foreign.ValueLayout.JAVA_LONG.withName("consumed"),
+                    java.lang.foreign.ValueLayout.JAVA_LONG.withName("produced"),
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("done"),
+                    java.lang.foreign.ValueLayout.JAVA_INT.withName("need_input")
+            );
+
+    public static final java.lang.invoke.VarHandle INFLATE_CONSUMED =
+            INFLATE_RESULT_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("consumed"));
+    public static final java.lang.invoke.VarHandle INFLATE_PRODUCED =
+            INFLATE_RESULT_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("produced"));
+    public static final java.lang.invoke.VarHandle INFLATE_DONE =
+            INFLATE_RESULT_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("done"));
+    public static final java.lang.invoke.VarHandle INFLATE_NEED_INPUT =
+            INFLATE_RESULT_LAYOUT.varHandle(java.lang.foreign.MemoryLayout.PathElement.groupElement("need_input"));
 }
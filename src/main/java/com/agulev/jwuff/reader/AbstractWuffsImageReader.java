@@ -13,49 +13,124 @@ import java.awt.image.BufferedImage;
 import java.awt.image.ComponentColorModel;
 import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferUShort;
 import java.awt.image.Raster;
 import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.lang.foreign.MemorySegment;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.Locale;
+import java.util.function.BooleanSupplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.agulev.jwuff.JwuffDecodeOptions;
 import com.agulev.jwuff.io.ByteArrayImageInputStream;
+import com.agulev.jwuff.io.InputStreamImageInputStream;
+import com.agulev.jwuff.io.MemorySegmentImageInputStream;
+import com.agulev.jwuff.jfr.DecodeEvent;
+import com.agulev.jwuff.jfr.ProbeEvent;
 import com.agulev.jwuff.model.ProbeResult;
 import com.agulev.jwuff.metadata.BasicImageMetadata;
+import com.agulev.jwuff.model.DescriptiveMetadata;
+import com.agulev.jwuff.metrics.JwuffMetrics;
+import com.agulev.jwuff.nativelib.NativeLibrary;
+import com.agulev.jwuff.nativelib.WuffsDecodeFlags;
+import com.agulev.jwuff.nativelib.WuffsDecodeSession;
 import com.agulev.jwuff.nativelib.WuffsFFI;
+import com.agulev.jwuff.nativelib.WuffsPixelFormat;
 import com.agulev.jwuff.nativelib.WuffsException;
 
 public abstract class AbstractWuffsImageReader extends ImageReader {
     private static final Logger LOG = Logger.getLogger(AbstractWuffsImageReader.class.getName());
     private static final boolean LOG_DECODE = Boolean.getBoolean("jwuff.log.decode");
+    // The most input exposed per native step. Highly compressed input can take far longer per byte than average, so
+    // the slice also shrinks until a step takes about DECODE_STEP_NANOS, which bounds how late an abort is seen.
+    private static final int DECODE_SLICE_BYTES =
+            Math.max(4096, Integer.getInteger("jwuff.decode.sliceBytes", 64 * 1024));
+    private static final int MIN_DECODE_SLICE_BYTES = 4096;
+    private static final long DECODE_STEP_NANOS =
+            Math.max(1L, Long.getLong("jwuff.decode.stepMillis", 10L)) * 1_000_000L;
+    // Adam7 passes: {xStart, yStart, xStep, yStep}.
+    private static final int[][] ADAM7 = {
+            {0, 0, 8, 8}, {4, 0, 8, 8}, {0, 4, 4, 8}, {2, 0, 4, 4}, {0, 2, 2, 4}, {1, 0, 2, 2}, {0, 1, 1, 2}
+    };
     private ProbeResult probe;
+    private String formatName;
     private InputData inputData;
+    private IIOMetadata imageMetadata;
+    private volatile BooleanSupplier cancellation;
+    private JwuffDecodeOptions decodeOptions = JwuffDecodeOptions.DEFAULT;
 
     protected AbstractWuffsImageReader(ImageReaderSpi originatingProvider) {
         super(originatingProvider);
     }
 
+    /**
+     * Sets a condition that is checked with {@link #abort()} requests between decode slices. Unlike an abort request,
+     * which {@code read} clears when it starts, the condition stays in force, so a caller can cancel a decode that has
+     * not started yet. Pass null to remove it.
+     */
+    public void setCancellation(BooleanSupplier cancelled) {
+        this.cancellation = cancelled;
+    }
+
+    /**
+     * Sets the options used by {@code read} calls whose param is not a {@link JwuffImageReadParam}, such as
+     * {@code ImageIO.read}, and by {@link #getDefaultReadParam()}. With {@code applyOrientation}, {@link #getWidth} and
+     * {@link #getHeight} report the oriented size those reads produce.
+     */
+    public void setDecodeOptions(JwuffDecodeOptions decodeOptions) {
+        if (decodeOptions == null) throw new IllegalArgumentException("decodeOptions == null");
+        this.decodeOptions = decodeOptions;
+    }
+
+    public JwuffDecodeOptions getDecodeOptions() {
+        return decodeOptions;
+    }
+
     @Override
     public int getNumImages(boolean allowSearch) {
         return probe().frameCount();
     }
 
+    /**
+     * Returns the 16-bit type first for 16-bit sources; passing {@code TYPE_4BYTE_ABGR} as the param's destination
+     * type decodes those to 8 bits per channel instead.
+     */
     @Override
     public Iterator<ImageTypeSpecifier> getImageTypes(int imageIndex) throws IOException {
-        return Collections.singleton(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_4BYTE_ABGR)).iterator();
+        ImageTypeSpecifier eightBit = ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_4BYTE_ABGR);
+        ProbeResult p;
+        try {
+            p = probe();
+        } catch (WuffsException e) {
+            throw new IIOException(e.getMessage(), e);
+        }
+        if (p.bitDepth() <= 8) {
+            return Collections.singleton(eightBit).iterator();
+        }
+        ImageTypeSpecifier sixteenBit = p.pixelFormat() == WuffsPixelFormat.Y_16LE
+                ? ImageTypeSpecifier.createGrayscale(16, DataBuffer.TYPE_USHORT, false)
+                : ImageTypeSpecifier.createInterleaved(
+                        ColorSpace.getInstance(ColorSpace.CS_sRGB), new int[]{0, 1, 2, 3}, DataBuffer.TYPE_USHORT, true, false);
+        return List.of(sixteenBit, eightBit).iterator();
     }
 
+    /**
+     * Returns the stored width, or the stored height for orientations 5-8 when the reader's decode options apply
+     * orientation, matching what {@code read} returns with those options.
+     */
     @Override
     public int getWidth(int imageIndex) throws IOException {
         try {
-            return probe().width();
+            ProbeResult p = probe();
+            return swapsDimensions(decodeOptions.toDecodeFlags(), p) ? p.height() : p.width();
         } catch (WuffsException e) {
             throw new IIOException(e.getMessage(), e);
         }
@@ -64,7 +139,8 @@ public abstract class AbstractWuffsImageReader extends ImageReader {
     @Override
     public int getHeight(int imageIndex) throws IOException {
         try {
-            return probe().height();
+            ProbeResult p = probe();
+            return swapsDimensions(decodeOptions.toDecodeFlags(), p) ? p.width() : p.height();
         } catch (WuffsException e) {
             throw new IIOException(e.getMessage(), e);
         }
@@ -76,16 +152,51 @@ public abstract class AbstractWuffsImageReader extends ImageReader {
     }
 
     @Override
-    public IIOMetadata getImageMetadata(int imageIndex) {
+    public IIOMetadata getImageMetadata(int imageIndex) throws IOException {
         if (imageIndex != 0) {
             throw new IndexOutOfBoundsException("imageIndex must be 0");
         }
+        IIOMetadata cached = imageMetadata;
+        if (cached != null) return cached;
+        ProbeResult p;
         try {
-            ProbeResult p = probe();
-            return new BasicImageMetadata(p.width(), p.height(), 4);
-        } catch (RuntimeException e) {
-            return null;
+            p = probe();
+        } catch (WuffsException e) {
+            throw new IIOException(e.getMessage(), e);
         }
+        int channels = p.pixelFormat() == WuffsPixelFormat.Y_16LE ? 1 : 4;
+        // The ICC profile and descriptive metadata need another pass over the file, so they are collected here
+        // on first request and not at all when the input was set with ignoreMetadata. Malformed metadata leaves
+        // them out rather than failing: the image itself decoded far enough to probe.
+        byte[] icc = null;
+        DescriptiveMetadata descriptive = DescriptiveMetadata.EMPTY;
+        if (!isIgnoringMetadata()) {
+            InputData in = inputData();
+            if (p.color().hasIccProfile()) {
+                try {
+                    icc = WuffsFFI.iccProfile(in.segment);
+                } catch (WuffsException e) {
+                    icc = null;
+                }
+            }
+            try {
+                descriptive = WuffsFFI.readMetadata(in.segment);
+            } catch (WuffsException e) {
+                descriptive = DescriptiveMetadata.EMPTY;
+            }
+        }
+        IIOMetadata metadata =
+                new BasicImageMetadata(p.width(), p.height(), channels, p.bitDepth(), p.color(), icc, descriptive);
+        this.imageMetadata = metadata;
+        return metadata;
+    }
+
+    /**
+     * Returns a {@link JwuffImageReadParam} so callers can set {@link com.agulev.jwuff.JwuffDecodeOptions}.
+     */
+    @Override
+    public ImageReadParam getDefaultReadParam() {
+        return new JwuffImageReadParam(decodeOptions);
     }
 
     @Override
@@ -98,38 +209,206 @@ public abstract class AbstractWuffsImageReader extends ImageReader {
         try {
             p = probe();
         } catch (WuffsException e) {
+            JwuffMetrics.decodeFailed(formatName(), e.code());
             throw new IIOException(e.getMessage(), e);
         }
-        int width = p.width();
-        int height = p.height();
-        int rowBytes = Math.multiplyExact(width, 4);
+        JwuffDecodeOptions options = param instanceof JwuffImageReadParam jp ? jp.getDecodeOptions() : decodeOptions;
+        int flags = options.toDecodeFlags();
+        boolean swap = swapsDimensions(flags, p);
+        int width = swap ? p.height() : p.width();
+        int height = swap ? p.width() : p.height();
+        int pixelFormat = p.bitDepth() > 8 && !wantsEightBit(param) ? p.pixelFormat() : WuffsPixelFormat.BGRA_NONPREMUL;
+        int rowBytes = Math.multiplyExact(width, WuffsPixelFormat.bytesPerPixel(pixelFormat));
         int pixelLen = Math.multiplyExact(rowBytes, height);
 
-        byte[] pixels = new byte[pixelLen];
+        long metricsStart = JwuffMetrics.decodeStarted(pixelLen);
         try {
-            InputData in = inputData();
-            WuffsFFI.decodeFrameInto(in.data, in.offset, in.length, imageIndex, pixels);
+            return decode(imageIndex, width, height, pixelFormat, rowBytes, pixelLen, flags, metricsStart);
+        } finally {
+            JwuffMetrics.decodeEnded(pixelLen);
+        }
+    }
+
+    private BufferedImage decode(
+            int imageIndex, int width, int height, int pixelFormat, int rowBytes, int pixelLen, int flags,
+            long metricsStart)
+            throws IIOException {
+        DecodeEvent event = new DecodeEvent();
+        event.begin();
+        clearAbortRequest();
+        processImageStarted(imageIndex);
+
+        InputData in = inputData();
+        Object pixels = pixelFormat == WuffsPixelFormat.BGRA_NONPREMUL ? new byte[pixelLen] : new short[pixelLen / 2];
+        // With update listeners the image is wrapped up front (sharing the pixel array) so passes can be published.
+        BufferedImage preview = updateListeners != null && !updateListeners.isEmpty()
+                ? toBufferedImage(width, height, pixelFormat, rowBytes, pixels)
+                : null;
+        boolean completed;
+        try {
+            // The native step timings are only read back into the JFR event.
+            int sessionFlags = event.isEnabled() ? flags | WuffsDecodeFlags.COLLECT_TIMINGS : flags;
+            completed = decodeInSlices(in, pixels, pixelFormat, sessionFlags, event, preview);
         } catch (WuffsException e) {
+            JwuffMetrics.decodeFailed(formatName(), e.code());
+            if (event.shouldCommit()) {
+                fillDecodeEvent(event, width, height, in.length, 0L);
+                event.errorCode = e.code();
+                event.commit();
+            }
             throw new IIOException(e.getMessage(), e);
         }
+        if (!completed) {
+            // Matches the JDK readers: the partially decoded image is returned, holding the rows decoded so far.
+            processReadAborted();
+            if (event.shouldCommit()) {
+                fillDecodeEvent(event, width, height, in.length, 0L);
+                event.aborted = true;
+                event.commit();
+            }
+            return preview != null ? preview : toBufferedImage(width, height, pixelFormat, rowBytes, pixels);
+        }
 
         if (LOG_DECODE) {
-            String format = "unknown";
+            String msg = "jwuff used to decode " + formatName() + " image w:" + width + " h:" + height;
+            LOG.log(Level.INFO, msg);
+        }
+        long wrapStart = event.isEnabled() ? System.nanoTime() : 0L;
+        BufferedImage image = preview != null ? preview : toBufferedImage(width, height, pixelFormat, rowBytes, pixels);
+        if (event.isEnabled()) {
+            event.wrapDuration = System.nanoTime() - wrapStart;
+        }
+        JwuffMetrics.decodeSucceeded(formatName(), in.length, pixelLen, metricsStart);
+        processImageComplete();
+        if (event.shouldCommit()) {
+            fillDecodeEvent(event, width, height, in.length, pixelLen);
+            event.commit();
+        }
+        return image;
+    }
+
+    /**
+     * Drives the native decode in input slices, checking {@link #abortRequested()} and reporting progress between
+     * slices. Slices halve while steps run over {@code jwuff.decode.stepMillis} and grow back once they are quick.
+     * With a {@code preview} image, each completed progressive pass is published to the update listeners.
+     *
+     * @return false if the decode was aborted before completion.
+     */
+    private boolean decodeInSlices(
+            InputData in, Object pixels, int pixelFormat, int flags, DecodeEvent event, BufferedImage preview) {
+        try (WuffsDecodeSession session = pixels instanceof short[] samples
+                ? WuffsFFI.openSession(in.segment, samples, pixelFormat, flags)
+                : WuffsFFI.openSession(in.segment, (byte[]) pixels, flags)) {
             try {
-                ImageReaderSpi spi = getOriginatingProvider();
-                if (spi != null && spi.getFormatNames() != null && spi.getFormatNames().length > 0) {
-                    format = spi.getFormatNames()[0].toLowerCase(Locale.ROOT);
-                } else {
-                    String simple = getClass().getSimpleName().toLowerCase(Locale.ROOT);
-                    if (simple.contains("png")) format = "png";
-                    if (simple.contains("jpeg") || simple.contains("jpg")) format = "jpeg";
+                int available = 0;
+                int slice = DECODE_SLICE_BYTES;
+                int passesReported = 0;
+                while (true) {
+                    if (abortRequested() || cancelled()) {
+                        // Off-heap sessions only copy pixels back when done; keep the rows decoded so far.
+                        session.syncPixels();
+                        return false;
+                    }
+                    available = (int) Math.min((long) in.length, (long) available + slice);
+                    long stepStart = System.nanoTime();
+                    boolean done = session.step(available);
+                    long stepNanos = System.nanoTime() - stepStart;
+                    if (stepNanos > DECODE_STEP_NANOS) {
+                        slice = Math.max(MIN_DECODE_SLICE_BYTES, slice / 2);
+                    } else if (stepNanos < DECODE_STEP_NANOS / 2) {
+                        slice = Math.min(DECODE_SLICE_BYTES, slice * 2);
+                    }
+                    if (preview != null && session.passesDone() > passesReported) {
+                        passesReported = publishPasses(session, preview, passesReported);
+                    }
+                    if (done) {
+                        if (preview != null && session.passesTotal() == 0) publishWholeImage(preview);
+                        return true;
+                    }
+                    processImageProgress(100.0f * session.consumed() / in.length);
+                }
+            } finally {
+                if (event.isEnabled()) {
+                    event.steps = session.steps();
+                    event.offHeap = session.offHeap();
+                    event.workbufBytes = session.workbufBytes();
+                    event.configParseDuration = session.configNanos();
+                    event.pixelDecodeDuration = session.decodeNanos();
                 }
-            } catch (RuntimeException ignored) {
             }
-            String msg = "jwuff used to decode " + format + " image w:" + width + " h:" + height;
-            LOG.log(Level.INFO, msg);
         }
-        return toBufferedImageBgraNonPremul(width, height, rowBytes, pixels);
+    }
+
+    private boolean cancelled() {
+        BooleanSupplier c = cancellation;
+        return c != null && c.getAsBoolean();
+    }
+
+    /**
+     * Fires {@code processPassStarted}/{@code processImageUpdate}/{@code processPassComplete} for the Adam7 passes
+     * completed since {@code reported}, as the JDK PNG reader does for interlaced images. Passes that contain no
+     * pixels (small images) are skipped.
+     *
+     * @return the number of passes now reported.
+     */
+    private int publishPasses(WuffsDecodeSession session, BufferedImage image, int reported) {
+        int done = Math.min(session.passesDone(), ADAM7.length);
+        session.syncPixels();
+        int[] bands = allBands(image);
+        for (int pass = reported; pass < done; pass++) {
+            int[] a = ADAM7[pass];
+            int columns = (image.getWidth() - a[0] + a[2] - 1) / a[2];
+            int rows = (image.getHeight() - a[1] + a[3] - 1) / a[3];
+            if (columns <= 0 || rows <= 0) continue;
+            processPassStarted(image, pass, 0, ADAM7.length - 1, a[0], a[1], a[2], a[3], bands);
+            processImageUpdate(image, a[0], a[1], (columns - 1) * a[2] + 1, (rows - 1) * a[3] + 1, a[2], a[3], bands);
+            processPassComplete(image);
+        }
+        return done;
+    }
+
+    /**
+     * Reports a non-progressive image (or one whose pixels are only final at the end) as a single pass.
+     */
+    private void publishWholeImage(BufferedImage image) {
+        int[] bands = allBands(image);
+        processPassStarted(image, 0, 0, 0, 0, 0, 1, 1, bands);
+        processImageUpdate(image, 0, 0, image.getWidth(), image.getHeight(), 1, 1, bands);
+        processPassComplete(image);
+    }
+
+    private static int[] allBands(BufferedImage image) {
+        int[] bands = new int[image.getSampleModel().getNumBands()];
+        for (int b = 0; b < bands.length; b++) bands[b] = b;
+        return bands;
+    }
+
+    private void fillDecodeEvent(DecodeEvent event, int width, int height, long inputBytes, long outputBytes) {
+        event.format = formatName();
+        event.width = width;
+        event.height = height;
+        event.inputBytes = inputBytes;
+        event.outputBytes = outputBytes;
+        event.nativeVariant = NativeLibrary.loadedVariant();
+    }
+
+    private String formatName() {
+        String cached = formatName;
+        if (cached != null) return cached;
+        String format = "unknown";
+        try {
+            ImageReaderSpi spi = getOriginatingProvider();
+            if (spi != null && spi.getFormatNames() != null && spi.getFormatNames().length > 0) {
+                format = spi.getFormatNames()[0].toLowerCase(Locale.ROOT);
+            } else {
+                String simple = getClass().getSimpleName().toLowerCase(Locale.ROOT);
+                if (simple.contains("png")) format = "png";
+                if (simple.contains("jpeg") || simple.contains("jpg")) format = "jpeg";
+            }
+        } catch (RuntimeException ignored) {
+        }
+        formatName = format;
+        return format;
     }
 
     @Override
@@ -137,6 +416,7 @@ public abstract class AbstractWuffsImageReader extends ImageReader {
         super.setInput(input, seekForwardOnly, ignoreMetadata);
         this.probe = null;
         this.inputData = null;
+        this.imageMetadata = null;
     }
 
     @Override
@@ -144,32 +424,91 @@ public abstract class AbstractWuffsImageReader extends ImageReader {
         super.setLocale(locale);
     }
 
+    @Override
+    public void reset() {
+        super.reset();
+        decodeOptions = JwuffDecodeOptions.DEFAULT;
+    }
+
     protected final ProbeResult probe() {
         ProbeResult cached = probe;
-        if (cached != null) return cached;
+        if (cached != null) {
+            JwuffMetrics.probe(true);
+            return cached;
+        }
+        JwuffMetrics.probe(false);
 
         InputData in = inputData();
-        ProbeResult result = WuffsFFI.probe(in.data, in.offset, in.length);
+        ProbeEvent event = new ProbeEvent();
+        event.begin();
+        ProbeResult result;
+        try {
+            // Color chunks only feed getImageMetadata, which skips them when metadata is ignored.
+            result = WuffsFFI.probe(in.segment, isIgnoringMetadata() ? WuffsDecodeFlags.IGNORE_ANCILLARY_CHUNKS : 0);
+        } catch (WuffsException e) {
+            if (event.shouldCommit()) {
+                event.format = formatName();
+                event.inputBytes = in.length;
+                event.nativeVariant = NativeLibrary.loadedVariant();
+                event.errorCode = e.code();
+                event.commit();
+            }
+            throw e;
+        }
+        if (event.shouldCommit()) {
+            event.format = formatName();
+            event.width = result.width();
+            event.height = result.height();
+            event.inputBytes = in.length;
+            event.nativeVariant = NativeLibrary.loadedVariant();
+            event.commit();
+        }
         this.probe = result;
         return result;
     }
 
     private InputData inputData() {
+        Object in = getInput();
+        // A pooled InputStreamImageInputStream recycles its array on close, so the cached segment may be reused.
+        if ((in instanceof MemorySegmentImageInputStream msis && msis.isClosed())
+                || (in instanceof InputStreamImageInputStream isis && isis.isClosed())) {
+            throw new IllegalStateException("Input stream is closed");
+        }
         InputData cached = inputData;
         if (cached != null) return cached;
 
-        Object in = getInput();
         if (!(in instanceof ImageInputStream stream)) {
             throw new IllegalStateException("Expected ImageInputStream input");
         }
 
+        // In-memory streams are decoded in place; anything else is read into a heap array first.
         if (stream instanceof ByteArrayImageInputStream bais) {
-            inputData = new InputData(bais.array(), bais.arrayOffset(), bais.arrayLength());
+            MemorySegment bytes = MemorySegment.ofArray(bais.array()).asSlice(bais.arrayOffset(), bais.arrayLength());
+            inputData = new InputData(bytes, bais.arrayLength());
+            return inputData;
+        }
+        if (stream instanceof InputStreamImageInputStream isis) {
+            // Reads the rest of the source; the buffer is then decoded in place.
+            MemorySegment segment;
+            try {
+                segment = isis.segment();
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to read ImageInputStream", e);
+            }
+            inputData = new InputData(segment, (int) segment.byteSize());
+            return inputData;
+        }
+        if (stream instanceof MemorySegmentImageInputStream msis) {
+            MemorySegment segment = msis.segment();
+            if (segment.byteSize() > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Input larger than 2 GiB: " + segment.byteSize());
+            }
+            inputData = new InputData(segment, (int) segment.byteSize());
             return inputData;
         }
 
         byte[] bytes = readAllBytes(stream);
-        inputData = new InputData(bytes, 0, bytes.length);
+        inputData = new InputData(MemorySegment.ofArray(bytes), bytes.length);
         return inputData;
     }
 
@@ -230,6 +569,68 @@ public abstract class AbstractWuffsImageReader extends ImageReader {
         }
     }
 
+    // The native stage writes oriented pixels, so transposing orientations need a height x width destination.
+    private static boolean swapsDimensions(int flags, ProbeResult p) {
+        return (flags & WuffsDecodeFlags.APPLY_ORIENTATION) != 0 && p.orientationSwapsDimensions();
+    }
+
+    private static boolean wantsEightBit(ImageReadParam param) {
+        ImageTypeSpecifier type = param == null ? null : param.getDestinationType();
+        return type != null && type.getSampleModel().getDataType() == DataBuffer.TYPE_BYTE;
+    }
+
+    private static BufferedImage toBufferedImage(int width, int height, int pixelFormat, int strideBytes, Object pixels) {
+        return switch (pixelFormat) {
+            case WuffsPixelFormat.RGBA_NONPREMUL_4X16LE -> toBufferedImageRgba16(width, height, strideBytes, (short[]) pixels);
+            case WuffsPixelFormat.Y_16LE -> toBufferedImageGray16(width, height, strideBytes, (short[]) pixels);
+            default -> toBufferedImageBgraNonPremul(width, height, strideBytes, (byte[]) pixels);
+        };
+    }
+
+    private static BufferedImage toBufferedImageRgba16(int width, int height, int strideBytes, short[] samples) {
+        DataBufferUShort db = new DataBufferUShort(samples, samples.length);
+        WritableRaster raster = Raster.createInterleavedRaster(
+                db,
+                width,
+                height,
+                strideBytes / 2,
+                4,
+                new int[]{0, 1, 2, 3},
+                null
+        );
+
+        ComponentColorModel cm = new ComponentColorModel(
+                ColorSpace.getInstance(ColorSpace.CS_sRGB),
+                true,
+                false,
+                Transparency.TRANSLUCENT,
+                DataBuffer.TYPE_USHORT
+        );
+        return new BufferedImage(cm, raster, false, null);
+    }
+
+    private static BufferedImage toBufferedImageGray16(int width, int height, int strideBytes, short[] samples) {
+        DataBufferUShort db = new DataBufferUShort(samples, samples.length);
+        WritableRaster raster = Raster.createInterleavedRaster(
+                db,
+                width,
+                height,
+                strideBytes / 2,
+                1,
+                new int[]{0},
+                null
+        );
+
+        ComponentColorModel cm = new ComponentColorModel(
+                ColorSpace.getInstance(ColorSpace.CS_GRAY),
+                false,
+                false,
+                Transparency.OPAQUE,
+                DataBuffer.TYPE_USHORT
+        );
+        return new BufferedImage(cm, raster, false, null);
+    }
+
     private static BufferedImage toBufferedImageBgraNonPremul(int width, int height, int strideBytes, byte[] pixels) {
         DataBufferByte db = new DataBufferByte(pixels, pixels.length);
         int[] bandOffsets = new int[]{2, 1, 0, 3};
@@ -253,5 +654,6 @@ public abstract class AbstractWuffsImageReader extends ImageReader {
         return new BufferedImage(cm, raster, false, null);
     }
 
-    private record InputData(byte[] data, int offset, int length) {}
+    // The encoded image: a heap slice or a caller's native segment.
+    private record InputData(MemorySegment segment, int length) {}
 }
@@ -0,0 +1,30 @@
+package com.agulev.jwuff.reader;
+
+import com.agulev.jwuff.JwuffDecodeOptions;
+
+import javax.imageio.ImageReadParam;
+
+/**
+ * {@link ImageReadParam} carrying {@link JwuffDecodeOptions} for jwuff readers. Returned by
+ * {@code getDefaultReadParam()} on jwuff readers; other readers ignore the extra options.
+ *
+ * <p>Source regions, subsampling and destination settings are not supported yet and are ignored.</p>
+ */
+public class JwuffImageReadParam extends ImageReadParam {
+    private JwuffDecodeOptions decodeOptions = JwuffDecodeOptions.DEFAULT;
+
+    public JwuffImageReadParam() {}
+
+    public JwuffImageReadParam(JwuffDecodeOptions decodeOptions) {
+        setDecodeOptions(decodeOptions);
+    }
+
+    public JwuffDecodeOptions getDecodeOptions() {
+        return decodeOptions;
+    }
+
+    public void setDecodeOptions(JwuffDecodeOptions decodeOptions) {
+        if (decodeOptions == null) throw new IllegalArgumentException("decodeOptions == null");
+        this.decodeOptions = decodeOptions;
+    }
+}
@@ -0,0 +1,32 @@
+package com.agulev.jwuff.spi;
+
+import com.agulev.jwuff.io.ByteBufferImageInputStream;
+
+import javax.imageio.spi.ImageInputStreamSpi;
+import javax.imageio.stream.ImageInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Produces a no-copy {@link ImageInputStream} for {@link ByteBuffer} inputs.
+ */
+public final class ByteBufferImageInputStreamSpi extends ImageInputStreamSpi {
+    public ByteBufferImageInputStreamSpi() {
+        super("com.agulev", "1.0", ByteBuffer.class);
+    }
+
+    @Override
+    public String getDescription(Locale locale) {
+        return "jwuff ByteBuffer ImageInputStream (no-copy)";
+    }
+
+    @Override
+    public ImageInputStream createInputStreamInstance(Object input, boolean useCache, File cacheDir) throws IOException {
+        if (!(input instanceof ByteBuffer buffer)) {
+            throw new IllegalArgumentException("Expected ByteBuffer input");
+        }
+        return new ByteBufferImageInputStream(buffer);
+    }
+}
@@ -0,0 +1,38 @@
+package com.agulev.jwuff.spi;
+
+import com.agulev.jwuff.io.InputStreamImageInputStream;
+
+import javax.imageio.spi.ImageInputStreamSpi;
+import javax.imageio.stream.ImageInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+/**
+ * Produces an in-memory {@link ImageInputStream} for {@link InputStream} inputs, instead of the JDK's
+ * {@code FileCacheImageInputStream}, which spills the stream to a temporary file when ImageIO's cache is enabled.
+ *
+ * <p>Not listed in {@code META-INF/services}: ImageIO only uses it once {@link com.agulev.jwuff.JwuffImageIO#register()}
+ * has installed it, and otherwise keeps its own caching behavior. Once installed, the stream is buffered in memory
+ * whatever the cache arguments say, as it would be with {@code ImageIO.setUseCache(false)}.
+ * {@link InputStream#available()} is used as the length hint, which for files is the remaining size.</p>
+ */
+public final class InputStreamImageInputStreamSpi extends ImageInputStreamSpi {
+    public InputStreamImageInputStreamSpi() {
+        super("com.agulev", "1.0", InputStream.class);
+    }
+
+    @Override
+    public String getDescription(Locale locale) {
+        return "jwuff InputStream ImageInputStream (pooled in-memory buffer)";
+    }
+
+    @Override
+    public ImageInputStream createInputStreamInstance(Object input, boolean useCache, File cacheDir) throws IOException {
+        if (!(input instanceof InputStream in)) {
+            throw new IllegalArgumentException("Expected InputStream input");
+        }
+        return new InputStreamImageInputStream(in, Math.max(0, in.available()));
+    }
+}
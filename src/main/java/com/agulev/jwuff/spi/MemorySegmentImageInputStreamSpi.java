@@ -0,0 +1,32 @@
+package com.agulev.jwuff.spi;
+
+import com.agulev.jwuff.io.MemorySegmentImageInputStream;
+
+import javax.imageio.spi.ImageInputStreamSpi;
+import javax.imageio.stream.ImageInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.util.Locale;
+
+/**
+ * Produces a no-copy {@link ImageInputStream} for {@link MemorySegment} inputs.
+ */
+public final class MemorySegmentImageInputStreamSpi extends ImageInputStreamSpi {
+    public MemorySegmentImageInputStreamSpi() {
+        super("com.agulev", "1.0", MemorySegment.class);
+    }
+
+    @Override
+    public String getDescription(Locale locale) {
+        return "jwuff MemorySegment ImageInputStream (no-copy)";
+    }
+
+    @Override
+    public ImageInputStream createInputStreamInstance(Object input, boolean useCache, File cacheDir) throws IOException {
+        if (!(input instanceof MemorySegment segment)) {
+            throw new IllegalArgumentException("Expected MemorySegment input");
+        }
+        return new MemorySegmentImageInputStream(segment);
+    }
+}
@@ -0,0 +1,60 @@
+package com.agulev.jwuff.spi;
+
+import com.agulev.jwuff.writer.WuffsPngImageWriter;
+
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.ColorModel;
+import java.awt.image.IndexColorModel;
+import java.util.Locale;
+
+public final class WuffsPngImageWriterSpi extends ImageWriterSpi {
+    public WuffsPngImageWriterSpi() {
+        super(
+                "jwuff",
+                "0.1.0",
+                new String[]{"PNG", "png"},
+                new String[]{"png"},
+                new String[]{"image/png"},
+                WuffsPngImageWriter.class.getName(),
+                new Class<?>[]{ImageOutputStream.class},
+                new String[]{WuffsPngImageReaderSpi.class.getName()},
+                false,
+                null,
+                null,
+                null,
+                null,
+                false,
+                null,
+                null,
+                null,
+                null
+        );
+    }
+
+    /**
+     * Accepts images with at most 8 bits per sample; deeper ones are left to writers that keep their precision, and
+     * palette images (including {@code TYPE_BYTE_BINARY}) to writers that emit a PLTE chunk.
+     */
+    @Override
+    public boolean canEncodeImage(ImageTypeSpecifier type) {
+        ColorModel cm = type.getColorModel();
+        if (cm instanceof IndexColorModel) return false;
+        for (int bits : cm.getComponentSize()) {
+            if (bits > 8) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public ImageWriter createWriterInstance(Object extension) {
+        return new WuffsPngImageWriter(this);
+    }
+
+    @Override
+    public String getDescription(Locale locale) {
+        return "Wuffs-based ImageIO PNG writer (FFM)";
+    }
+}
@@ -0,0 +1,101 @@
+package com.agulev.jwuff.writer;
+
+import javax.imageio.ImageWriteParam;
+import java.util.Locale;
+
+/**
+ * {@link ImageWriteParam} for {@link WuffsPngImageWriter}.
+ *
+ * <p>The deflate level comes from {@link #setDeflateLevel(int)} if set, else from the standard compression quality
+ * in {@link #MODE_EXPLICIT} ({@code level = round(9 * (1 - quality))}, as in the JDK PNG writer), else
+ * {@link #DEFAULT_DEFLATE_LEVEL}. Source regions and subsampling are supported; progressive (interlaced) output and
+ * tiling are not.</p>
+ */
+public class JwuffPngWriteParam extends ImageWriteParam {
+    /** Deflate level used when none is requested: lazy matching with short hash chains. */
+    public static final int DEFAULT_DEFLATE_LEVEL = 4;
+
+    /** Chooses the PNG filter per row by the minimum sum of absolute differences; none at level 0. */
+    public static final int FILTER_ADAPTIVE = -1;
+    public static final int FILTER_NONE = 0;
+    public static final int FILTER_SUB = 1;
+    public static final int FILTER_UP = 2;
+    public static final int FILTER_AVERAGE = 3;
+    public static final int FILTER_PAETH = 4;
+
+    static final int DEFAULT_ENCODE_THREADS =
+            Integer.getInteger("jwuff.encode.threads", Runtime.getRuntime().availableProcessors());
+
+    private int deflateLevel = -1;
+    private int filter = FILTER_ADAPTIVE;
+    private int encodeThreads = DEFAULT_ENCODE_THREADS;
+
+    public JwuffPngWriteParam() {
+        this(Locale.getDefault());
+    }
+
+    public JwuffPngWriteParam(Locale locale) {
+        super(locale);
+        this.canWriteCompressed = true;
+        this.compressionTypes = new String[]{"Deflate"};
+        this.compressionType = compressionTypes[0];
+        this.compressionMode = MODE_DEFAULT;
+        this.compressionQuality = 1.0f - DEFAULT_DEFLATE_LEVEL / 9.0f;
+    }
+
+    /**
+     * Returns the deflate level, 0 (stored) to 9, that the writer will use.
+     */
+    public int getEffectiveDeflateLevel() {
+        if (deflateLevel >= 0) return deflateLevel;
+        if (getCompressionMode() == MODE_EXPLICIT) {
+            return Math.round(9.0f * (1.0f - getCompressionQuality()));
+        }
+        return DEFAULT_DEFLATE_LEVEL;
+    }
+
+    /**
+     * Returns the level set with {@link #setDeflateLevel(int)}, or -1 if unset.
+     */
+    public int getDeflateLevel() {
+        return deflateLevel;
+    }
+
+    /**
+     * Sets the deflate level: 0 stores, 1-3 use greedy matching and 4-9 lazy matching with increasingly long hash
+     * chains. -1 clears the setting.
+     */
+    public void setDeflateLevel(int deflateLevel) {
+        if (deflateLevel < -1 || deflateLevel > 9) {
+            throw new IllegalArgumentException("deflateLevel must be in [-1, 9]: " + deflateLevel);
+        }
+        this.deflateLevel = deflateLevel;
+    }
+
+    public int getFilter() {
+        return filter;
+    }
+
+    /**
+     * Sets the PNG filter applied to every row, or {@link #FILTER_ADAPTIVE} to choose one per row.
+     */
+    public void setFilter(int filter) {
+        if (filter < FILTER_ADAPTIVE || filter > FILTER_PAETH) {
+            throw new IllegalArgumentException("filter must be in [-1, 4]: " + filter);
+        }
+        this.filter = filter;
+    }
+
+    public int getEncodeThreads() {
+        return encodeThreads;
+    }
+
+    /**
+     * Sets how many row bands are compressed concurrently (default: {@code jwuff.encode.threads}, or one per
+     * available processor). 1 encodes on the calling thread.
+     */
+    public void setEncodeThreads(int encodeThreads) {
+        if (encodeThreads <= 0) throw new IllegalArgumentException("encodeThreads must be > 0: " + encodeThreads);
+        this.encodeThreads = encodeThreads;
+    }
+}
@@ -0,0 +1,528 @@
+package com.agulev.jwuff.writer;
+
+import com.agulev.jwuff.model.EncodedPngBand;
+import com.agulev.jwuff.nativelib.WuffsException;
+import com.agulev.jwuff.nativelib.WuffsFFI;
+import com.agulev.jwuff.nativelib.WuffsPngEncodeSource;
+
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.event.IIOWriteProgressListener;
+import javax.imageio.event.IIOWriteWarningListener;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.RenderedImage;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+
+/**
+ * 8-bit PNG {@link ImageWriter} backed by jwuff's native encoder.
+ *
+ * <p>Byte-interleaved sRGB/gray rasters ({@code TYPE_4BYTE_ABGR}, {@code TYPE_3BYTE_BGR}, {@code TYPE_BYTE_GRAY},
+ * RGBA/BGRA/RGB orders) and {@code TYPE_INT_ARGB}/{@code TYPE_INT_RGB} are read in place, including source regions;
+ * with horizontal subsampling their pixels are gathered into a packed copy. Other images go through
+ * {@link BufferedImage#getRGB}. Rows are filtered and deflated in bands of about 1 MiB that are compressed concurrently
+ * (see {@link JwuffPngWriteParam#setEncodeThreads(int)}) and written in order as one IDAT chunk each. Abort requests
+ * and progress are handled between bands.</p>
+ *
+ * <p>jwuff writes IHDR, IDAT and IEND only. When stream or image metadata is supplied, the image is written by the next
+ * registered PNG writer (normally the JDK's), which also provides {@link #getDefaultImageMetadata} and
+ * {@link #convertImageMetadata}, so chunks such as iCCP, gAMA, pHYs and tEXt are kept.</p>
+ */
+public final class WuffsPngImageWriter extends ImageWriter {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    // Target filtered bytes per band: large enough to amortize the per-band block overhead.
+    private static final int BAND_BYTES = 1 << 20;
+    private static final int ADLER_BASE = 65521;
+
+    private ImageWriter fallback;
+    private volatile ImageWriter delegate;
+
+    public WuffsPngImageWriter(ImageWriterSpi originatingProvider) {
+        super(originatingProvider);
+    }
+
+    @Override
+    public ImageWriteParam getDefaultWriteParam() {
+        return new JwuffPngWriteParam(getLocale());
+    }
+
+    @Override
+    public IIOMetadata getDefaultStreamMetadata(ImageWriteParam param) {
+        return null;
+    }
+
+    @Override
+    public IIOMetadata getDefaultImageMetadata(ImageTypeSpecifier imageType, ImageWriteParam param) {
+        ImageWriter w = fallback();
+        return w == null ? null : w.getDefaultImageMetadata(imageType, fallbackParam(w, param));
+    }
+
+    @Override
+    public IIOMetadata convertStreamMetadata(IIOMetadata inData, ImageWriteParam param) {
+        return null;
+    }
+
+    @Override
+    public IIOMetadata convertImageMetadata(IIOMetadata inData, ImageTypeSpecifier imageType, ImageWriteParam param) {
+        ImageWriter w = fallback();
+        return w == null ? null : w.convertImageMetadata(inData, imageType, fallbackParam(w, param));
+    }
+
+    @Override
+    public void write(IIOMetadata streamMetadata, IIOImage image, ImageWriteParam param) throws IOException {
+        if (!(getOutput() instanceof ImageOutputStream out)) throw new IllegalStateException("Output has not been set!");
+        if (image == null) throw new IllegalArgumentException("image == null");
+        if (image.hasRaster()) throw new UnsupportedOperationException("Cannot write rasters");
+        if (streamMetadata != null || image.getMetadata() != null) {
+            ImageWriter w = fallback();
+            if (w != null) {
+                writeWithFallback(w, out, streamMetadata, image, param);
+                return;
+            }
+        }
+
+        int level = JwuffPngWriteParam.DEFAULT_DEFLATE_LEVEL;
+        int filter = JwuffPngWriteParam.FILTER_ADAPTIVE;
+        int threads = JwuffPngWriteParam.DEFAULT_ENCODE_THREADS;
+        if (param instanceof JwuffPngWriteParam p) {
+            level = p.getEffectiveDeflateLevel();
+            filter = p.getFilter();
+            threads = p.getEncodeThreads();
+        } else if (param != null && param.getCompressionMode() == ImageWriteParam.MODE_EXPLICIT) {
+            level = Math.round(9.0f * (1.0f - param.getCompressionQuality()));
+        }
+
+        clearAbortRequest();
+        processImageStarted(0);
+        Source src = source(image.getRenderedImage(), param);
+        int channels = src.colorType == WuffsPngEncodeSource.COLOR_TYPE_GRAY ? 1
+                : src.colorType == WuffsPngEncodeSource.COLOR_TYPE_RGB ? 3 : 4;
+        long filteredRow = (long) src.width * channels + 1;
+        int bandRows = (int) Math.max(1L, Math.min(src.height, BAND_BYTES / filteredRow));
+        int bands = (src.height + bandRows - 1) / bandRows;
+
+        out.write(SIGNATURE);
+        byte[] ihdr = new byte[13];
+        putInt(ihdr, 0, src.width);
+        putInt(ihdr, 4, src.height);
+        ihdr[8] = 8;
+        ihdr[9] = (byte) src.colorType;
+        writeChunk(out, "IHDR", null, ihdr, ihdr.length, null);
+
+        int inFlight = Math.max(1, Math.min(threads, bands));
+        ArrayDeque<CompletableFuture<EncodedPngBand>> pending = new ArrayDeque<>();
+        int next = 0;
+        long adler = 1L;
+        try {
+            for (int band = 0; band < bands; band++) {
+                EncodedPngBand encoded;
+                if (inFlight == 1) {
+                    encoded = encodeBand(src, band, bandRows, bands, level, filter);
+                } else {
+                    while (next < bands && pending.size() < inFlight) {
+                        int b = next++;
+                        int lvl = level;
+                        int flt = filter;
+                        pending.add(CompletableFuture.supplyAsync(
+                                () -> encodeBand(src, b, bandRows, bands, lvl, flt), ForkJoinPool.commonPool()));
+                    }
+                    encoded = join(pending.poll());
+                }
+
+                adler = adler32Combine(adler, encoded.adler32() & 0xFFFFFFFFL, encoded.filteredLength());
+                byte[] header = band == 0 ? new byte[]{0x78, zlibFlags(level)} : null;
+                byte[] trailer = null;
+                if (band == bands - 1) {
+                    trailer = new byte[4];
+                    putInt(trailer, 0, (int) adler);
+                }
+                writeChunk(out, "IDAT", header, encoded.data(), encoded.length(), trailer);
+
+                if (band < bands - 1 && abortRequested()) {
+                    processWriteAborted();
+                    return;
+                }
+                processImageProgress(100.0f * (band + 1) / bands);
+            }
+        } catch (WuffsException e) {
+            throw new IIOException(e.getMessage(), e);
+        } finally {
+            for (CompletableFuture<EncodedPngBand> f : pending) f.cancel(false);
+        }
+        writeChunk(out, "IEND", null, null, 0, null);
+        out.flush();
+        processImageComplete();
+    }
+
+    @Override
+    public void abort() {
+        super.abort();
+        ImageWriter w = delegate;
+        if (w != null) w.abort();
+    }
+
+    @Override
+    public void dispose() {
+        if (fallback != null) {
+            fallback.dispose();
+            fallback = null;
+        }
+        super.dispose();
+    }
+
+    /**
+     * Returns the first registered PNG writer that is not jwuff's, creating it on first use, or null if there is none.
+     */
+    private ImageWriter fallback() {
+        if (fallback == null) {
+            Iterator<ImageWriter> it = ImageIO.getImageWritersByFormatName("png");
+            while (it.hasNext()) {
+                ImageWriter w = it.next();
+                if (!(w instanceof WuffsPngImageWriter)) {
+                    fallback = w;
+                    break;
+                }
+            }
+        }
+        return fallback;
+    }
+
+    /**
+     * Writes {@code image} with the metadata-aware {@code w}, relaying its progress and warnings to this writer's
+     * listeners and {@link #abort()} requests to it.
+     */
+    private void writeWithFallback(
+            ImageWriter w, ImageOutputStream out, IIOMetadata streamMetadata, IIOImage image, ImageWriteParam param)
+            throws IOException {
+        Relay relay = new Relay();
+        w.addIIOWriteProgressListener(relay);
+        w.addIIOWriteWarningListener(relay);
+        delegate = w;
+        try {
+            w.setOutput(out);
+            w.write(streamMetadata, image, fallbackParam(w, param));
+        } finally {
+            delegate = null;
+            w.removeIIOWriteProgressListener(relay);
+            w.removeIIOWriteWarningListener(relay);
+            w.setOutput(null);
+        }
+    }
+
+    /**
+     * Copies the settings of {@code param} that both writers understand into a param for {@code w}. Interlacing comes
+     * from the image metadata, as jwuff params have no progressive mode.
+     */
+    private static ImageWriteParam fallbackParam(ImageWriter w, ImageWriteParam param) {
+        if (param == null) return null;
+        ImageWriteParam p = w.getDefaultWriteParam();
+        p.setSourceRegion(param.getSourceRegion());
+        p.setSourceSubsampling(param.getSourceXSubsampling(), param.getSourceYSubsampling(),
+                param.getSubsamplingXOffset(), param.getSubsamplingYOffset());
+        p.setSourceBands(param.getSourceBands());
+        p.setDestinationOffset(param.getDestinationOffset());
+        if (p.canWriteProgressive()) p.setProgressiveMode(ImageWriteParam.MODE_COPY_FROM_METADATA);
+        if (p.canWriteCompressed()) {
+            int level = -1;
+            if (param instanceof JwuffPngWriteParam jp) {
+                level = jp.getEffectiveDeflateLevel();
+            } else if (param.canWriteCompressed() && param.getCompressionMode() == ImageWriteParam.MODE_EXPLICIT) {
+                level = Math.round(9.0f * (1.0f - param.getCompressionQuality()));
+            }
+            if (level >= 0) {
+                p.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                p.setCompressionQuality(1.0f - level / 9.0f);
+            }
+        }
+        return p;
+    }
+
+    private static EncodedPngBand encodeBand(Source src, int band, int bandRows, int bands, int level, int filter) {
+        int startRow = band * bandRows;
+        int rows = Math.min(bandRows, src.height - startRow);
+        MemorySegment rowsSegment = src.pixels.asSlice((long) startRow * src.stride);
+        MemorySegment prevRow = startRow == 0 ? MemorySegment.NULL : src.pixels.asSlice((long) (startRow - 1) * src.stride);
+        return WuffsFFI.encodePngRows(
+                rowsSegment, prevRow, rows, band == bands - 1,
+                src.layout, src.width, src.stride, src.colorType, level, filter);
+    }
+
+    private static EncodedPngBand join(CompletableFuture<EncodedPngBand> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw e;
+        }
+    }
+
+    /**
+     * Describes the pixels to encode: the image's own buffer when its layout is supported natively (a packed copy of
+     * it under horizontal subsampling), otherwise an ARGB copy.
+     */
+    private static Source source(RenderedImage rendered, ImageWriteParam param) {
+        BufferedImage image = toBufferedImage(rendered);
+        Rectangle region = new Rectangle(0, 0, image.getWidth(), image.getHeight());
+        int periodX = 1;
+        int periodY = 1;
+        if (param != null) {
+            if (param.getSourceRegion() != null) region = region.intersection(param.getSourceRegion());
+            periodX = param.getSourceXSubsampling();
+            periodY = param.getSourceYSubsampling();
+            region.x += param.getSubsamplingXOffset();
+            region.width -= param.getSubsamplingXOffset();
+            region.y += param.getSubsamplingYOffset();
+            region.height -= param.getSubsamplingYOffset();
+        }
+        if (region.width <= 0 || region.height <= 0) throw new IllegalArgumentException("Empty source region");
+        int width = (region.width + periodX - 1) / periodX;
+        int height = (region.height + periodY - 1) / periodY;
+
+        Source direct = direct(image);
+        if (direct != null) return crop(direct, region, periodX, periodY, width, height);
+
+        int[] argb = new int[Math.multiplyExact(width, height)];
+        int[] row = periodX == 1 ? null : new int[region.width];
+        for (int y = 0; y < height; y++) {
+            int srcY = region.y + y * periodY;
+            if (row == null) {
+                image.getRGB(region.x, srcY, width, 1, argb, y * width, width);
+            } else {
+                image.getRGB(region.x, srcY, region.width, 1, row, 0, region.width);
+                for (int x = 0; x < width; x++) argb[y * width + x] = row[x * periodX];
+            }
+        }
+        if (ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN) {
+            for (int i = 0; i < argb.length; i++) argb[i] = Integer.reverseBytes(argb[i]);
+        }
+        int colorType = image.getColorModel().hasAlpha()
+                ? WuffsPngEncodeSource.COLOR_TYPE_RGBA
+                : WuffsPngEncodeSource.COLOR_TYPE_RGB;
+        return new Source(MemorySegment.ofArray(argb), WuffsPngEncodeSource.BGRA, width * 4, colorType, width, height);
+    }
+
+    /**
+     * Narrows a whole-image {@code source} to {@code region}: vertical subsampling only widens the stride, while
+     * horizontal subsampling gathers every {@code periodX}th pixel of the kept rows into a packed array.
+     */
+    private static Source crop(Source source, Rectangle region, int periodX, int periodY, int width, int height) {
+        int bpp = WuffsPngEncodeSource.bytesPerPixel(source.layout);
+        long origin = (long) region.y * source.stride + (long) region.x * bpp;
+        if (periodX == 1) {
+            int stride = Math.multiplyExact(source.stride, periodY);
+            return new Source(source.pixels.asSlice(origin), source.layout, stride, source.colorType, width, height);
+        }
+        int rowBytes = width * bpp;
+        byte[] packed = new byte[Math.multiplyExact(rowBytes, height)];
+        byte[] row = new byte[((width - 1) * periodX + 1) * bpp];
+        for (int y = 0; y < height; y++) {
+            long rowStart = origin + (long) y * periodY * source.stride;
+            MemorySegment.copy(source.pixels, ValueLayout.JAVA_BYTE, rowStart, row, 0, row.length);
+            for (int x = 0; x < width; x++) {
+                System.arraycopy(row, x * periodX * bpp, packed, y * rowBytes + x * bpp, bpp);
+            }
+        }
+        return new Source(MemorySegment.ofArray(packed), source.layout, rowBytes, source.colorType, width, height);
+    }
+
+    /**
+     * Returns a {@link Source} over the image's data buffer, or null if its layout needs conversion.
+     */
+    private static Source direct(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        ColorModel cm = image.getColorModel();
+        if (cm.isAlphaPremultiplied() || raster.getDataBuffer().getNumBanks() != 1) return null;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int x0 = -raster.getSampleModelTranslateX();
+        int y0 = -raster.getSampleModelTranslateY();
+
+        if (raster.getDataBuffer() instanceof DataBufferInt db
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel sm
+                && cm instanceof DirectColorModel dcm
+                && dcm.getColorSpace().isCS_sRGB()
+                && ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN
+                && dcm.getRedMask() == 0x00FF0000 && dcm.getGreenMask() == 0x0000FF00 && dcm.getBlueMask() == 0x000000FF
+                && (!dcm.hasAlpha() || dcm.getAlphaMask() == 0xFF000000)) {
+            long offset = (long) db.getOffset() + sm.getOffset(x0, y0);
+            MemorySegment pixels = MemorySegment.ofArray(db.getData()).asSlice(offset * 4);
+            int colorType = dcm.hasAlpha() ? WuffsPngEncodeSource.COLOR_TYPE_RGBA : WuffsPngEncodeSource.COLOR_TYPE_RGB;
+            return new Source(pixels, WuffsPngEncodeSource.BGRA, sm.getScanlineStride() * 4, colorType, width, height);
+        }
+
+        if (raster.getDataBuffer() instanceof DataBufferByte db
+                && raster.getSampleModel() instanceof PixelInterleavedSampleModel sm
+                && cm instanceof ComponentColorModel
+                && Arrays.stream(cm.getComponentSize()).allMatch(bits -> bits == 8)) {
+            int[] offsets = sm.getBandOffsets();
+            int layout = -1;
+            int colorType = -1;
+            if (offsets.length == 1 && sm.getPixelStride() == 1
+                    && cm.getColorSpace() == ColorSpace.getInstance(ColorSpace.CS_GRAY)) {
+                layout = WuffsPngEncodeSource.GRAY;
+                colorType = WuffsPngEncodeSource.COLOR_TYPE_GRAY;
+            } else if (cm.getColorSpace().isCS_sRGB() && offsets.length == 4 && sm.getPixelStride() == 4) {
+                layout = bandOrder(offsets, WuffsPngEncodeSource.RGBA, WuffsPngEncodeSource.BGRA, WuffsPngEncodeSource.ABGR);
+                colorType = WuffsPngEncodeSource.COLOR_TYPE_RGBA;
+            } else if (cm.getColorSpace().isCS_sRGB() && offsets.length == 3 && sm.getPixelStride() == 3) {
+                layout = bandOrder(offsets, WuffsPngEncodeSource.RGB, WuffsPngEncodeSource.BGR, -1);
+                colorType = WuffsPngEncodeSource.COLOR_TYPE_RGB;
+            }
+            if (layout < 0) return null;
+            int minOffset = Arrays.stream(offsets).min().orElse(0);
+            long offset = (long) db.getOffset() + sm.getOffset(x0, y0, 0) - offsets[0] + minOffset;
+            MemorySegment pixels = MemorySegment.ofArray(db.getData()).asSlice(offset);
+            return new Source(pixels, layout, sm.getScanlineStride(), colorType, width, height);
+        }
+        return null;
+    }
+
+    /**
+     * Maps R, G, B(, A) band offsets to a byte order: {0,1,2,3} is RGBA, {2,1,0,3} BGRA and {3,2,1,0} ABGR.
+     */
+    private static int bandOrder(int[] offsets, int rgba, int bgra, int abgr) {
+        boolean alpha = offsets.length == 4;
+        if (offsets[0] == 0 && offsets[1] == 1 && offsets[2] == 2 && (!alpha || offsets[3] == 3)) return rgba;
+        if (offsets[0] == 2 && offsets[1] == 1 && offsets[2] == 0 && (!alpha || offsets[3] == 3)) return bgra;
+        if (alpha && offsets[0] == 3 && offsets[1] == 2 && offsets[2] == 1 && offsets[3] == 0) return abgr;
+        return -1;
+    }
+
+    private static BufferedImage toBufferedImage(RenderedImage rendered) {
+        if (rendered instanceof BufferedImage image) return image;
+        ColorModel cm = rendered.getColorModel();
+        WritableRaster raster = cm.createCompatibleWritableRaster(rendered.getWidth(), rendered.getHeight())
+                .createWritableTranslatedChild(rendered.getMinX(), rendered.getMinY());
+        rendered.copyData(raster);
+        return new BufferedImage(cm, raster.createWritableTranslatedChild(0, 0), cm.isAlphaPremultiplied(), null);
+    }
+
+    private static byte zlibFlags(int level) {
+        // FLEVEL as zlib reports it; the flag byte makes the 16-bit header a multiple of 31.
+        return switch (level) {
+            case 0, 1 -> (byte) 0x01;
+            case 2, 3, 4, 5 -> (byte) 0x5E;
+            case 6 -> (byte) 0x9C;
+            default -> (byte) 0xDA;
+        };
+    }
+
+    /**
+     * Returns the Adler-32 of two concatenated byte runs from their checksums, as zlib's {@code adler32_combine}.
+     */
+    static long adler32Combine(long adler1, long adler2, long len2) {
+        long rem = len2 % ADLER_BASE;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (rem * sum1) % ADLER_BASE;
+        sum1 += (adler2 & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + ADLER_BASE - rem;
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum2 >= (ADLER_BASE << 1)) sum2 -= (ADLER_BASE << 1);
+        if (sum2 >= ADLER_BASE) sum2 -= ADLER_BASE;
+        return sum1 | (sum2 << 16);
+    }
+
+    private static void writeChunk(ImageOutputStream out, String type, byte[] head, byte[] body, int bodyLen, byte[] tail)
+            throws IOException {
+        int headLen = head == null ? 0 : head.length;
+        int tailLen = tail == null ? 0 : tail.length;
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        byte[] length = new byte[4];
+        putInt(length, 0, headLen + bodyLen + tailLen);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        out.write(length);
+        out.write(typeBytes);
+        if (head != null) {
+            crc.update(head);
+            out.write(head);
+        }
+        if (bodyLen > 0) {
+            crc.update(body, 0, bodyLen);
+            out.write(body, 0, bodyLen);
+        }
+        if (tail != null) {
+            crc.update(tail);
+            out.write(tail);
+        }
+        byte[] crcBytes = new byte[4];
+        putInt(crcBytes, 0, (int) crc.getValue());
+        out.write(crcBytes);
+    }
+
+    private static void putInt(byte[] b, int at, int v) {
+        b[at] = (byte) (v >>> 24);
+        b[at + 1] = (byte) (v >>> 16);
+        b[at + 2] = (byte) (v >>> 8);
+        b[at + 3] = (byte) v;
+    }
+
+    /**
+     * Forwards the fallback writer's events as this writer's own.
+     */
+    private final class Relay implements IIOWriteProgressListener, IIOWriteWarningListener {
+        @Override
+        public void imageStarted(ImageWriter source, int imageIndex) {
+            processImageStarted(imageIndex);
+        }
+
+        @Override
+        public void imageProgress(ImageWriter source, float percentageDone) {
+            processImageProgress(percentageDone);
+        }
+
+        @Override
+        public void imageComplete(ImageWriter source) {
+            processImageComplete();
+        }
+
+        @Override
+        public void writeAborted(ImageWriter source) {
+            processWriteAborted();
+        }
+
+        @Override
+        public void warningOccurred(ImageWriter source, int imageIndex, String warning) {
+            processWarningOccurred(imageIndex, warning);
+        }
+
+        @Override
+        public void thumbnailStarted(ImageWriter source, int imageIndex, int thumbnailIndex) {}
+
+        @Override
+        public void thumbnailProgress(ImageWriter source, float percentageDone) {}
+
+        @Override
+        public void thumbnailComplete(ImageWriter source) {}
+    }
+
+    private record Source(MemorySegment pixels, int layout, int stride, int colorType, int width, int height) {}
+}
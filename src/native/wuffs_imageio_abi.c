@@ -1,10 +1,25 @@
+// clock_gettime(CLOCK_MONOTONIC) is POSIX, not C11.
+#if !defined(_WIN32) && !defined(__APPLE__) && !defined(_POSIX_C_SOURCE)
+  #define _POSIX_C_SOURCE 200809L
+#endif
+
 #include "wuffs_imageio_abi.h"
 
-// Compile Wuffs as its own translation unit (see CMakeLists.txt) and include
+// Wuffs is compiled as its own translation unit (wuffs_imageio_wuffs.c); include
 // this file here for declarations only.
 #include "third_party/wuffs/release/c/wuffs-unsupported-snapshot.c"
 
+#include <math.h>
 #include <stdlib.h>
+#include <string.h>
+#include <time.h>
+
+#if defined(_WIN32)
+  #define WIN32_LEAN_AND_MEAN
+  #include <windows.h>
+#elif defined(__APPLE__)
+  #include <mach/mach_time.h>
+#endif
 
 #if defined(__x86_64__) || defined(_M_X64) || defined(__i386__) || defined(_M_IX86)
   #if defined(_MSC_VER)
@@ -20,10 +35,49 @@ enum {
   WUFFS_IMAGEIO_ERR_UNSUPPORTED_FORMAT = -2,
   WUFFS_IMAGEIO_ERR_WUFFS = -3,
   WUFFS_IMAGEIO_ERR_NOT_IMPLEMENTED = -4,
+  WUFFS_IMAGEIO_ERR_OUT_OF_MEMORY = -5,
+  // Not an error: a session step consumed all exposed input and needs more.
+  WUFFS_IMAGEIO_SUSPENDED = 1,
 };
 
 static _Thread_local const char* wuffs_imageio_last_error;
 
+// A monotonic clock: step timings must not jump with wall-clock adjustments.
+#if defined(_WIN32)
+static uint64_t wuffs_imageio_now_ns(void) {
+  static LARGE_INTEGER frequency;
+  LARGE_INTEGER counter;
+  if (frequency.QuadPart == 0) {
+    QueryPerformanceFrequency(&frequency);
+  }
+  QueryPerformanceCounter(&counter);
+  uint64_t ticks = (uint64_t)counter.QuadPart;
+  uint64_t hz = (uint64_t)frequency.QuadPart;
+  return ((ticks / hz) * 1000000000u) + (((ticks % hz) * 1000000000u) / hz);
+}
+#elif defined(__APPLE__)
+static uint64_t wuffs_imageio_now_ns(void) {
+  static mach_timebase_info_data_t timebase;
+  if (timebase.denom == 0) {
+    mach_timebase_info(&timebase);
+  }
+  return (mach_absolute_time() * timebase.numer) / timebase.denom;
+}
+#else
+static uint64_t wuffs_imageio_now_ns(void) {
+  struct timespec ts;
+  if (clock_gettime(CLOCK_MONOTONIC, &ts) != 0) {
+    return 0;
+  }
+  return ((uint64_t)ts.tv_sec * 1000000000u) + (uint64_t)ts.tv_nsec;
+}
+#endif
+
+static uint64_t wuffs_imageio_elapsed_ns(uint64_t since) {
+  uint64_t now = wuffs_imageio_now_ns();
+  return (now > since) ? (now - since) : 0;
+}
+
 static void wuffs_imageio_set_error(const char* msg) {
   wuffs_imageio_last_error = msg;
 }
@@ -37,261 +91,3466 @@ static int wuffs_imageio_fail_wuffs(wuffs_base__status status) {
   return WUFFS_IMAGEIO_ERR_WUFFS;
 }
 
-WUFFS_IMAGEIO_API int wuffs_probe_image(const uint8_t* data, size_t len, wuffs_probe_result* out) {
-  wuffs_imageio_set_error(NULL);
-  if (!data || !out) {
-    wuffs_imageio_set_error("invalid argument");
-    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+// ---- Native memory accounting ----
+//
+// Every allocation made on behalf of a decode goes through wuffs_imageio_alloc.
+// Without a slab, memory comes from malloc with a small size header and is
+// counted in process-wide stats (optionally capped). With a caller-supplied
+// slab, allocations are bump-allocated from it and frees are no-ops; the owner
+// reclaims the slab as a whole.
+
+#if defined(_MSC_VER) && !defined(__clang__)
+  #include <intrin.h>
+  #define WUFFS_IMAGEIO_ATOMIC_LOAD(p) ((uint64_t)_InterlockedOr64((volatile long long*)(p), 0))
+  #define WUFFS_IMAGEIO_ATOMIC_STORE(p, v) ((void)_InterlockedExchange64((volatile long long*)(p), (long long)(v)))
+  #define WUFFS_IMAGEIO_ATOMIC_ADD(p, v) \
+    ((uint64_t)_InterlockedExchangeAdd64((volatile long long*)(p), (long long)(v)) + (uint64_t)(v))
+  #define WUFFS_IMAGEIO_ATOMIC_SUB(p, v) \
+    ((uint64_t)_InterlockedExchangeAdd64((volatile long long*)(p), -(long long)(v)) - (uint64_t)(v))
+  #define WUFFS_IMAGEIO_ATOMIC_CAS(p, expected, desired)                                          \
+    ((uint64_t)_InterlockedCompareExchange64((volatile long long*)(p), (long long)(desired), \
+                                             (long long)(expected)) == (uint64_t)(expected))
+#else
+  #define WUFFS_IMAGEIO_ATOMIC_LOAD(p) __atomic_load_n((p), __ATOMIC_RELAXED)
+  #define WUFFS_IMAGEIO_ATOMIC_STORE(p, v) __atomic_store_n((p), (v), __ATOMIC_RELAXED)
+  #define WUFFS_IMAGEIO_ATOMIC_ADD(p, v) __atomic_add_fetch((p), (v), __ATOMIC_RELAXED)
+  #define WUFFS_IMAGEIO_ATOMIC_SUB(p, v) __atomic_sub_fetch((p), (v), __ATOMIC_RELAXED)
+  #define WUFFS_IMAGEIO_ATOMIC_CAS(p, expected, desired) \
+    __atomic_compare_exchange_n((p), &(uint64_t){(expected)}, (desired), 0, __ATOMIC_RELAXED, __ATOMIC_RELAXED)
+#endif
+
+// Keeps the returned pointers 16-byte aligned, like malloc on 64-bit targets.
+#define WUFFS_IMAGEIO_ALLOC_ALIGN 16u
+#define WUFFS_IMAGEIO_ALLOC_HEADER 16u
+
+static uint64_t wuffs_imageio_mem_current;
+static uint64_t wuffs_imageio_mem_peak;
+static uint64_t wuffs_imageio_mem_allocs;
+static uint64_t wuffs_imageio_mem_frees;
+static uint64_t wuffs_imageio_mem_failed;
+static uint64_t wuffs_imageio_mem_limit;
+
+static void wuffs_imageio_update_peak(uint64_t* peak, uint64_t current) {
+  uint64_t seen = WUFFS_IMAGEIO_ATOMIC_LOAD(peak);
+  while ((current > seen) && !WUFFS_IMAGEIO_ATOMIC_CAS(peak, seen, current)) {
+    seen = WUFFS_IMAGEIO_ATOMIC_LOAD(peak);
   }
-  if (len == 0) {
-    wuffs_imageio_set_error("invalid argument");
-    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+}
+
+// Returns uninitialized memory, or NULL (with the error message set) if the
+// allocation fails or would exceed the configured limit or slab capacity.
+static void* wuffs_imageio_alloc(wuffs_memory_slab* slab, size_t size) {
+  if (size == 0) {
+    size = 1;
+  }
+  if (slab) {
+    uint64_t start = (slab->used + (WUFFS_IMAGEIO_ALLOC_ALIGN - 1)) & ~(uint64_t)(WUFFS_IMAGEIO_ALLOC_ALIGN - 1);
+    if (!slab->base || (start > slab->capacity) || ((uint64_t)size > (slab->capacity - start))) {
+      slab->failed_count++;
+      wuffs_imageio_set_error("native memory slab exhausted");
+      return NULL;
+    }
+    slab->used = start + (uint64_t)size;
+    if (slab->used > slab->peak) {
+      slab->peak = slab->used;
+    }
+    slab->alloc_count++;
+    return slab->base + start;
   }
 
-  wuffs_base__slice_u8 prefix = wuffs_base__make_slice_u8((uint8_t*)data, len);
-  int32_t fourcc = wuffs_base__magic_number_guess_fourcc(prefix, true);
+  if (size > (SIZE_MAX - WUFFS_IMAGEIO_ALLOC_HEADER)) {
+    WUFFS_IMAGEIO_ATOMIC_ADD(&wuffs_imageio_mem_failed, 1);
+    wuffs_imageio_set_error("out of memory");
+    return NULL;
+  }
+  uint64_t current = WUFFS_IMAGEIO_ATOMIC_ADD(&wuffs_imageio_mem_current, (uint64_t)size);
+  uint64_t limit = WUFFS_IMAGEIO_ATOMIC_LOAD(&wuffs_imageio_mem_limit);
+  if ((limit != 0) && (current > limit)) {
+    WUFFS_IMAGEIO_ATOMIC_SUB(&wuffs_imageio_mem_current, (uint64_t)size);
+    WUFFS_IMAGEIO_ATOMIC_ADD(&wuffs_imageio_mem_failed, 1);
+    wuffs_imageio_set_error("native memory limit exceeded");
+    return NULL;
+  }
+  uint8_t* block = (uint8_t*)malloc(size + WUFFS_IMAGEIO_ALLOC_HEADER);
+  if (!block) {
+    WUFFS_IMAGEIO_ATOMIC_SUB(&wuffs_imageio_mem_current, (uint64_t)size);
+    WUFFS_IMAGEIO_ATOMIC_ADD(&wuffs_imageio_mem_failed, 1);
+    wuffs_imageio_set_error("out of memory");
+    return NULL;
+  }
+  memcpy(block, &size, sizeof(size));
+  WUFFS_IMAGEIO_ATOMIC_ADD(&wuffs_imageio_mem_allocs, 1);
+  wuffs_imageio_update_peak(&wuffs_imageio_mem_peak, current);
+  return block + WUFFS_IMAGEIO_ALLOC_HEADER;
+}
 
-  wuffs_base__image_decoder* decoder = NULL;
+static void wuffs_imageio_free(wuffs_memory_slab* slab, void* ptr) {
+  if (!ptr) {
+    return;
+  }
+  if (slab) {
+    slab->free_count++;
+    return;
+  }
+  uint8_t* block = (uint8_t*)ptr - WUFFS_IMAGEIO_ALLOC_HEADER;
+  size_t size = 0;
+  memcpy(&size, block, sizeof(size));
+  free(block);
+  WUFFS_IMAGEIO_ATOMIC_SUB(&wuffs_imageio_mem_current, (uint64_t)size);
+  WUFFS_IMAGEIO_ATOMIC_ADD(&wuffs_imageio_mem_frees, 1);
+}
+
+// Allocates and initializes a decoder for `fourcc`. On success `*out_mem` is
+// the allocation to pass to wuffs_imageio_free.
+static size_t wuffs_imageio_decoder_size(int32_t fourcc) {
+  switch (fourcc) {
+    case WUFFS_BASE__FOURCC__JPEG:
+      return sizeof__wuffs_jpeg__decoder();
+    case WUFFS_BASE__FOURCC__PNG:
+      return sizeof__wuffs_png__decoder();
+    default:
+      return 0;
+  }
+}
 
+// Initializes (or re-initializes) a decoder for `fourcc` in `mem`, which holds
+// at least wuffs_imageio_decoder_size(fourcc) bytes.
+static int wuffs_imageio_init_decoder(int32_t fourcc, void* mem, wuffs_base__image_decoder** out_decoder) {
+  wuffs_base__status status = wuffs_base__make_status(NULL);
+  wuffs_base__image_decoder* decoder = NULL;
   switch (fourcc) {
     case WUFFS_BASE__FOURCC__JPEG:
-      decoder = wuffs_jpeg__decoder__alloc_as__wuffs_base__image_decoder();
+      status = wuffs_jpeg__decoder__initialize(
+          (wuffs_jpeg__decoder*)mem, sizeof__wuffs_jpeg__decoder(), WUFFS_VERSION, WUFFS_INITIALIZE__DEFAULT_OPTIONS);
+      decoder = wuffs_jpeg__decoder__upcast_as__wuffs_base__image_decoder((wuffs_jpeg__decoder*)mem);
       break;
     case WUFFS_BASE__FOURCC__PNG:
-      decoder = wuffs_png__decoder__alloc_as__wuffs_base__image_decoder();
+      status = wuffs_png__decoder__initialize(
+          (wuffs_png__decoder*)mem, sizeof__wuffs_png__decoder(), WUFFS_VERSION, WUFFS_INITIALIZE__DEFAULT_OPTIONS);
+      decoder = wuffs_png__decoder__upcast_as__wuffs_base__image_decoder((wuffs_png__decoder*)mem);
       break;
     default:
       wuffs_imageio_set_error("unsupported format");
       return WUFFS_IMAGEIO_ERR_UNSUPPORTED_FORMAT;
   }
-
-  if (!decoder) {
-    wuffs_imageio_set_error("out of memory");
-    return WUFFS_IMAGEIO_ERR_WUFFS;
-  }
-
-  wuffs_base__image_config image_config = wuffs_base__null_image_config();
-  wuffs_base__io_buffer src =
-      wuffs_base__ptr_u8__reader((uint8_t*)data, len, true);
-  wuffs_base__status status =
-      wuffs_base__image_decoder__decode_image_config(decoder, &image_config, &src);
   if (!wuffs_base__status__is_ok(&status)) {
-    free(decoder);
     return wuffs_imageio_fail_wuffs(status);
   }
+  *out_decoder = decoder;
+  return WUFFS_IMAGEIO_OK;
+}
 
-  uint32_t w = wuffs_base__pixel_config__width(&image_config.pixcfg);
-  uint32_t h = wuffs_base__pixel_config__height(&image_config.pixcfg);
-  if ((w == 0) || (h == 0)) {
-    free(decoder);
-    return wuffs_imageio_fail_wuffs(wuffs_base__make_status(wuffs_base__error__bad_argument));
+static int wuffs_imageio_new_decoder(
+    int32_t fourcc, wuffs_memory_slab* slab,
+    wuffs_base__image_decoder** out_decoder, void** out_mem) {
+  size_t size = wuffs_imageio_decoder_size(fourcc);
+  if (size == 0) {
+    wuffs_imageio_set_error("unsupported format");
+    return WUFFS_IMAGEIO_ERR_UNSUPPORTED_FORMAT;
   }
-
-  out->width = w;
-  out->height = h;
-  out->frame_count = 1;
-  out->bytes_per_pixel = 4;
-  out->stride_bytes = w * 4;
-  free(decoder);
+  void* mem = wuffs_imageio_alloc(slab, size);
+  if (!mem) {
+    return WUFFS_IMAGEIO_ERR_OUT_OF_MEMORY;
+  }
+  int rc = wuffs_imageio_init_decoder(fourcc, mem, out_decoder);
+  if (rc != WUFFS_IMAGEIO_OK) {
+    wuffs_imageio_free(slab, mem);
+    return rc;
+  }
+  *out_mem = mem;
   return WUFFS_IMAGEIO_OK;
 }
 
-WUFFS_IMAGEIO_API int wuffs_decode_frame_into(
-    const uint8_t* data, size_t len,
-    uint32_t frame_index,
-    const wuffs_decode_params* params,
-    uint8_t* dst_pixels, size_t dst_len,
-    wuffs_frame_result* out) {
-  wuffs_imageio_set_error(NULL);
-  if (!data || !dst_pixels || !out) {
-    wuffs_imageio_set_error("invalid argument");
-    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+// Maps WUFFS_IMAGEIO_FLAG_* to decoder quirks. Quirks a decoder does not
+// implement (e.g. quality for PNG) are skipped rather than treated as errors.
+static void wuffs_imageio_apply_quirks(wuffs_base__image_decoder* decoder, int32_t fourcc, uint32_t flags) {
+  if (flags & WUFFS_IMAGEIO_FLAG_IGNORE_CHECKSUM) {
+    wuffs_base__image_decoder__set_quirk(decoder, WUFFS_BASE__QUIRK_IGNORE_CHECKSUM, 1);
   }
-  if (len == 0) {
-    wuffs_imageio_set_error("invalid argument");
-    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+  if (flags & WUFFS_IMAGEIO_FLAG_QUALITY_LOWER) {
+    wuffs_base__image_decoder__set_quirk(
+        decoder, WUFFS_BASE__QUIRK_QUALITY, WUFFS_BASE__QUIRK_QUALITY__VALUE__LOWER_QUALITY);
+  } else if (flags & WUFFS_IMAGEIO_FLAG_QUALITY_HIGHER) {
+    wuffs_base__image_decoder__set_quirk(
+        decoder, WUFFS_BASE__QUIRK_QUALITY, WUFFS_BASE__QUIRK_QUALITY__VALUE__HIGHER_QUALITY);
   }
-  if (frame_index != 0) {
-    wuffs_imageio_set_error("not implemented");
-    return WUFFS_IMAGEIO_ERR_NOT_IMPLEMENTED;
+  if ((flags & WUFFS_IMAGEIO_FLAG_REJECT_PROGRESSIVE_JPEG) && (fourcc == WUFFS_BASE__FOURCC__JPEG)) {
+    wuffs_base__image_decoder__set_quirk(decoder, WUFFS_JPEG__QUIRK_REJECT_PROGRESSIVE_JPEGS, 1);
   }
+}
 
-  wuffs_base__slice_u8 prefix = wuffs_base__make_slice_u8((uint8_t*)data, len);
-  int32_t fourcc = wuffs_base__magic_number_guess_fourcc(prefix, true);
+// Returns 1 when `status` is a short read on a not-yet-closed source, i.e. the
+// caller should expose more input and step again.
+static int wuffs_imageio_needs_more_input(wuffs_base__status status, const wuffs_base__io_buffer* src) {
+  return (status.repr == wuffs_base__suspension__short_read) && !src->meta.closed;
+}
 
-  wuffs_base__image_decoder* decoder = NULL;
-  switch (fourcc) {
-    case WUFFS_BASE__FOURCC__JPEG:
-      decoder = wuffs_jpeg__decoder__alloc_as__wuffs_base__image_decoder();
-      break;
-    case WUFFS_BASE__FOURCC__PNG:
-      decoder = wuffs_png__decoder__alloc_as__wuffs_base__image_decoder();
-      break;
-    default:
-      wuffs_imageio_set_error("unsupported format");
-      return WUFFS_IMAGEIO_ERR_UNSUPPORTED_FORMAT;
+// ---- Container walking ----
+//
+// Wuffs does not report everything we need (JPEG APP segments, PNG pHYs, EXIF
+// orientation), so those are found by walking the file structure directly.
+
+// Walks JPEG marker segments up to the first SOS. On success stores the
+// marker and payload of the segment at `*pos`, advances `*pos` past it and
+// returns 1; returns 0 at SOS, EOI or malformed input.
+static int wuffs_imageio_jpeg_next_segment(
+    const uint8_t* data, size_t len, size_t* pos,
+    uint8_t* out_marker, const uint8_t** out_payload, size_t* out_n) {
+  size_t i = *pos;
+  while ((i + 2) <= len) {
+    if (data[i] != 0xFF) {
+      return 0;
+    }
+    uint8_t marker = data[i + 1];
+    if (marker == 0xFF) {
+      i++;  // Fill byte.
+      continue;
+    }
+    if ((marker == 0xD8) || (marker == 0x01) || ((marker >= 0xD0) && (marker <= 0xD7))) {
+      i += 2;  // SOI, TEM and RSTn stand alone.
+      continue;
+    }
+    if ((marker == 0xDA) || (marker == 0xD9) || ((i + 4) > len)) {
+      return 0;
+    }
+    size_t seg = ((size_t)data[i + 2] << 8) | (size_t)data[i + 3];
+    if ((seg < 2) || (seg > (len - i - 2))) {
+      return 0;
+    }
+    *out_marker = marker;
+    *out_payload = data + i + 4;
+    *out_n = seg - 2;
+    *pos = i + 2 + seg;
+    return 1;
   }
+  return 0;
+}
 
-  if (!decoder) {
-    wuffs_imageio_set_error("out of memory");
-    return WUFFS_IMAGEIO_ERR_WUFFS;
+static const uint8_t wuffs_imageio_exif_prefix[6] = {'E', 'x', 'i', 'f', 0, 0};
+static const char wuffs_imageio_xmp_prefix[] = "http://ns.adobe.com/xap/1.0/";
+
+// Finds the first chunk of `type` before the first IDAT of a PNG.
+static int wuffs_imageio_png_find_chunk(
+    const uint8_t* data, size_t len, const char* type,
+    const uint8_t** out_payload, size_t* out_n) {
+  size_t i = 8;
+  while ((i + 8) <= len) {
+    size_t n = ((size_t)data[i] << 24) | ((size_t)data[i + 1] << 16) | ((size_t)data[i + 2] << 8) | data[i + 3];
+    const uint8_t* chunk_type = data + i + 4;
+    if ((memcmp(chunk_type, "IDAT", 4) == 0) || (n > (len - i - 8))) {
+      return 0;
+    }
+    if (memcmp(chunk_type, type, 4) == 0) {
+      *out_payload = data + i + 8;
+      *out_n = n;
+      return 1;
+    }
+    if ((len - i - 8 - n) < 4) {
+      return 0;
+    }
+    i += 12 + n;
   }
+  return 0;
+}
 
-  uint32_t dst_pixfmt = WUFFS_BASE__PIXEL_FORMAT__BGRA_NONPREMUL;
-  if (params && params->pixel_format) {
-    dst_pixfmt = params->pixel_format;
+// Returns the Orientation (tag 0x0112) from IFD0 of a TIFF-structured EXIF
+// block, or 1 if it is absent or out of range.
+static uint32_t wuffs_imageio_exif_orientation(const uint8_t* p, size_t n) {
+  if (n < 8) {
+    return 1;
   }
-  if (dst_pixfmt != WUFFS_BASE__PIXEL_FORMAT__BGRA_NONPREMUL) {
-    free(decoder);
-    wuffs_imageio_set_error("not implemented");
-    return WUFFS_IMAGEIO_ERR_NOT_IMPLEMENTED;
+  int le;
+  if ((p[0] == 'I') && (p[1] == 'I')) {
+    le = 1;
+  } else if ((p[0] == 'M') && (p[1] == 'M')) {
+    le = 0;
+  } else {
+    return 1;
+  }
+#define WUFFS_IMAGEIO_U16(q) (le ? (uint32_t)((q)[0] | ((q)[1] << 8)) : (uint32_t)(((q)[0] << 8) | (q)[1]))
+#define WUFFS_IMAGEIO_U32(q) \
+  (le ? ((uint32_t)(q)[0] | ((uint32_t)(q)[1] << 8) | ((uint32_t)(q)[2] << 16) | ((uint32_t)(q)[3] << 24)) \
+      : (((uint32_t)(q)[0] << 24) | ((uint32_t)(q)[1] << 16) | ((uint32_t)(q)[2] << 8) | (uint32_t)(q)[3]))
+  uint32_t result = 1;
+  if (WUFFS_IMAGEIO_U16(p + 2) == 42) {
+    uint32_t ifd = WUFFS_IMAGEIO_U32(p + 4);
+    if ((ifd <= (n - 2)) && (ifd >= 8)) {
+      uint32_t count = WUFFS_IMAGEIO_U16(p + ifd);
+      for (uint32_t k = 0; k < count; k++) {
+        size_t at = (size_t)ifd + 2 + (size_t)k * 12;
+        if ((at + 12) > n) {
+          break;
+        }
+        // SHORT (type 3) with a count of 1 keeps its value in the first two bytes.
+        if ((WUFFS_IMAGEIO_U16(p + at) == 0x0112) && (WUFFS_IMAGEIO_U16(p + at + 2) == 3)) {
+          uint32_t v = WUFFS_IMAGEIO_U16(p + at + 8);
+          result = ((v >= 1) && (v <= 8)) ? v : 1;
+          break;
+        }
+      }
+    }
   }
+#undef WUFFS_IMAGEIO_U16
+#undef WUFFS_IMAGEIO_U32
+  return result;
+}
 
-  wuffs_base__image_config image_config = wuffs_base__null_image_config();
-  wuffs_base__io_buffer src =
-      wuffs_base__ptr_u8__reader((uint8_t*)data, len, true);
-  wuffs_base__status status =
-      wuffs_base__image_decoder__decode_image_config(decoder, &image_config, &src);
-  if (!wuffs_base__status__is_ok(&status)) {
-    free(decoder);
-    return wuffs_imageio_fail_wuffs(status);
+// Finds the EXIF orientation of a JPEG (APP1) or PNG (eXIf before IDAT).
+static uint32_t wuffs_imageio_orientation(int32_t fourcc, const uint8_t* data, size_t len) {
+  const uint8_t* p = NULL;
+  size_t n = 0;
+  if (fourcc == WUFFS_BASE__FOURCC__JPEG) {
+    size_t pos = 0;
+    uint8_t marker = 0;
+    while (wuffs_imageio_jpeg_next_segment(data, len, &pos, &marker, &p, &n)) {
+      if ((marker == 0xE1) && (n >= sizeof(wuffs_imageio_exif_prefix)) &&
+          (memcmp(p, wuffs_imageio_exif_prefix, sizeof(wuffs_imageio_exif_prefix)) == 0)) {
+        return wuffs_imageio_exif_orientation(
+            p + sizeof(wuffs_imageio_exif_prefix), n - sizeof(wuffs_imageio_exif_prefix));
+      }
+    }
+  } else if ((fourcc == WUFFS_BASE__FOURCC__PNG) && wuffs_imageio_png_find_chunk(data, len, "eXIf", &p, &n)) {
+    return wuffs_imageio_exif_orientation(p, n);
   }
+  return 1;
+}
 
-  uint32_t w = wuffs_base__pixel_config__width(&image_config.pixcfg);
-  uint32_t h = wuffs_base__pixel_config__height(&image_config.pixcfg);
-  if ((w == 0) || (h == 0)) {
-    free(decoder);
-    return wuffs_imageio_fail_wuffs(wuffs_base__make_status(wuffs_base__error__bad_argument));
+// ---- Color metadata and conversion to sRGB ----
+//
+// Color chunks are collected from wuffs_base__note__metadata_reported notes.
+// iCCP arrives as a raw transform (the zlib-decompressed profile); gAMA, cHRM
+// and sRGB arrive parsed. ICC bytes are kept only when `keep_icc` is set and
+// are always counted.
+
+#define WUFFS_IMAGEIO_MAX_ICC_BYTES (8u * 1024u * 1024u)
+
+// ---- Descriptive metadata records ----
+//
+// wuffs_read_metadata writes records into a caller-owned buffer. Lengths are
+// always counted so the caller can size a retry; bytes past `cap` are dropped.
+// A single record is capped so that a zTXt bomb cannot grow without bound.
+
+#define WUFFS_IMAGEIO_MAX_RECORD_BYTES (16u * 1024u * 1024u)
+
+typedef struct {
+  uint8_t* dst;
+  size_t cap;
+  size_t len;
+  // Offset of the open record's header, valid while `open` is set.
+  size_t open_at;
+  uint32_t open_type;
+  int open;
+} wuffs_imageio_records;
+
+static void wuffs_imageio_records_put_u32(wuffs_imageio_records* r, size_t at, uint32_t v) {
+  if (r->dst && (at + 4 <= r->cap)) {
+    r->dst[at + 0] = (uint8_t)(v);
+    r->dst[at + 1] = (uint8_t)(v >> 8);
+    r->dst[at + 2] = (uint8_t)(v >> 16);
+    r->dst[at + 3] = (uint8_t)(v >> 24);
   }
+}
 
-  uint64_t row_bytes = ((uint64_t)w) * 4;
-  if ((row_bytes == 0) || (h == 0) || (row_bytes > (UINT64_MAX / (uint64_t)h))) {
-    free(decoder);
-    wuffs_imageio_set_error("invalid argument");
-    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+static void wuffs_imageio_records_end(wuffs_imageio_records* r) {
+  if (!r->open) {
+    return;
   }
-  uint64_t expected = row_bytes * ((uint64_t)h);
-  if (expected > UINT32_MAX) {
-    free(decoder);
-    wuffs_imageio_set_error("invalid argument");
-    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+  wuffs_imageio_records_put_u32(r, r->open_at + 4, (uint32_t)(r->len - r->open_at - 8));
+  r->open = 0;
+}
+
+static void wuffs_imageio_records_begin(wuffs_imageio_records* r, uint32_t type) {
+  wuffs_imageio_records_end(r);
+  wuffs_imageio_records_put_u32(r, r->len, type);
+  wuffs_imageio_records_put_u32(r, r->len + 4, 0);
+  r->open_at = r->len;
+  r->open_type = type;
+  r->open = 1;
+  r->len += 8;
+}
+
+static void wuffs_imageio_records_append(wuffs_imageio_records* r, const uint8_t* ptr, size_t n) {
+  size_t used = r->len - r->open_at - 8;
+  if (!r->open || (used >= WUFFS_IMAGEIO_MAX_RECORD_BYTES)) {
+    return;
   }
-  if ((uint64_t)dst_len < expected) {
-    free(decoder);
-    wuffs_imageio_set_error("invalid argument");
-    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+  if (n > (WUFFS_IMAGEIO_MAX_RECORD_BYTES - used)) {
+    n = WUFFS_IMAGEIO_MAX_RECORD_BYTES - used;
   }
+  if (r->dst && (r->len < r->cap)) {
+    size_t room = r->cap - r->len;
+    memcpy(r->dst + r->len, ptr, (n < room) ? n : room);
+  }
+  r->len += n;
+}
 
-  wuffs_base__frame_config frame_config = wuffs_base__null_frame_config();
-  status = wuffs_base__image_decoder__decode_frame_config(decoder, &frame_config, &src);
-  if (!wuffs_base__status__is_ok(&status)) {
-    free(decoder);
-    return wuffs_imageio_fail_wuffs(status);
+static void wuffs_imageio_records_add(wuffs_imageio_records* r, uint32_t type, const uint8_t* ptr, size_t n) {
+  wuffs_imageio_records_begin(r, type);
+  wuffs_imageio_records_append(r, ptr, n);
+  wuffs_imageio_records_end(r);
+}
+
+typedef struct {
+  wuffs_color_info color;
+  wuffs_memory_slab* slab;
+  int keep_icc;
+  uint8_t* icc;
+  size_t icc_cap;
+  // Caller-owned buffer for wuffs_read_icc_profile, filled as far as it goes.
+  uint8_t* icc_dst;
+  size_t icc_dst_cap;
+  // Descriptive metadata sink for wuffs_read_metadata; NULL otherwise.
+  wuffs_imageio_records* records;
+  // The item being drained, remembered across tell_me_more calls.
+  uint32_t fourcc;
+  uint32_t flavor;
+} wuffs_imageio_metadata;
+
+static void wuffs_imageio_metadata_free(wuffs_imageio_metadata* md) {
+  wuffs_imageio_free(md->slab, md->icc);
+  md->icc = NULL;
+  md->icc_cap = 0;
+}
+
+static void wuffs_imageio_report_color_metadata(wuffs_base__image_decoder* decoder) {
+  wuffs_base__image_decoder__set_report_metadata(decoder, WUFFS_BASE__FOURCC__ICCP, true);
+  wuffs_base__image_decoder__set_report_metadata(decoder, WUFFS_BASE__FOURCC__GAMA, true);
+  wuffs_base__image_decoder__set_report_metadata(decoder, WUFFS_BASE__FOURCC__CHRM, true);
+  wuffs_base__image_decoder__set_report_metadata(decoder, WUFFS_BASE__FOURCC__SRGB, true);
+}
+
+static int wuffs_imageio_append_icc(wuffs_imageio_metadata* md, const uint8_t* ptr, size_t n) {
+  size_t at = md->color.icc_len;
+  if ((n == 0) || (at >= WUFFS_IMAGEIO_MAX_ICC_BYTES) || (n > (WUFFS_IMAGEIO_MAX_ICC_BYTES - at))) {
+    // Oversized profiles are counted up to the cap and otherwise ignored.
+    md->color.icc_len = (n == 0) ? md->color.icc_len : WUFFS_IMAGEIO_MAX_ICC_BYTES;
+    return WUFFS_IMAGEIO_OK;
+  }
+  if (md->icc_dst && (at < md->icc_dst_cap)) {
+    size_t room = md->icc_dst_cap - at;
+    memcpy(md->icc_dst + at, ptr, (n < room) ? n : room);
+  }
+  if (md->keep_icc) {
+    if ((at + n) > md->icc_cap) {
+      size_t cap = md->icc_cap ? md->icc_cap : 4096;
+      while (cap < (at + n)) {
+        cap *= 2;
+      }
+      uint8_t* grown = (uint8_t*)wuffs_imageio_alloc(md->slab, cap);
+      if (!grown) {
+        return WUFFS_IMAGEIO_ERR_OUT_OF_MEMORY;
+      }
+      if (at) {
+        memcpy(grown, md->icc, at);
+      }
+      wuffs_imageio_free(md->slab, md->icc);
+      md->icc = grown;
+      md->icc_cap = cap;
+    }
+    memcpy(md->icc + at, ptr, n);
   }
+  md->color.icc_len = (uint32_t)(at + n);
+  return WUFFS_IMAGEIO_OK;
+}
 
-  wuffs_base__pixel_config pixcfg = wuffs_base__null_pixel_config();
-  wuffs_base__pixel_config__set(&pixcfg, dst_pixfmt,
-                                WUFFS_BASE__PIXEL_SUBSAMPLING__NONE, w, h);
+// Drains the metadata item announced by the last metadata_reported note.
+// Returns WUFFS_IMAGEIO_SUSPENDED if `src` ran out before the item ended.
+static int wuffs_imageio_drain_metadata(
+    wuffs_base__image_decoder* decoder, wuffs_imageio_metadata* md, wuffs_base__io_buffer* src) {
+  uint8_t scratch[4096];
+  while (true) {
+    wuffs_base__io_buffer dst = wuffs_base__ptr_u8__writer(scratch, sizeof(scratch));
+    wuffs_base__more_information minfo = wuffs_base__empty_more_information();
+    wuffs_base__status status = wuffs_base__image_decoder__tell_me_more(decoder, &dst, &minfo, src);
+    if (minfo.flavor != 0) {
+      md->flavor = minfo.flavor;
+      md->fourcc = wuffs_base__more_information__metadata__fourcc(&minfo);
+    }
 
-  wuffs_base__pixel_buffer pb;
-  status = wuffs_base__pixel_buffer__set_from_slice(
-      &pb, &pixcfg, wuffs_base__make_slice_u8(dst_pixels, dst_len));
-  if (!wuffs_base__status__is_ok(&status)) {
-    free(decoder);
-    wuffs_imageio_set_error("invalid argument");
-    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+    if (md->records && (md->flavor == WUFFS_BASE__MORE_INFORMATION__FLAVOR__METADATA_RAW_PASSTHROUGH)) {
+      if (minfo.flavor != 0) {
+        // The item is a byte range of the source; the caller skips past it.
+        wuffs_base__range_ie_u64 r = wuffs_base__more_information__metadata_raw_passthrough__range(&minfo);
+        uint64_t lo = src->meta.pos;
+        uint64_t hi = src->meta.pos + src->meta.wi;
+        if ((r.min_incl < lo) || (r.min_incl > r.max_excl) || (r.max_excl > hi)) {
+          return wuffs_imageio_fail_wuffs(wuffs_base__make_status(wuffs_base__suspension__short_read));
+        }
+        wuffs_imageio_records_add(md->records, md->fourcc,
+            src->data.ptr + (size_t)(r.min_incl - lo), (size_t)(r.max_excl - r.min_incl));
+        src->meta.ri = (size_t)(r.max_excl - lo);
+      }
+    } else if (md->records && (md->flavor == WUFFS_BASE__MORE_INFORMATION__FLAVOR__METADATA_RAW_TRANSFORM) &&
+               (md->fourcc != WUFFS_BASE__FOURCC__ICCP)) {
+      // Text arrives as a KVPK item (the keyword) followed by a KVPV item.
+      if (!md->records->open || (md->records->open_type != md->fourcc)) {
+        wuffs_imageio_records_begin(md->records, md->fourcc);
+      }
+      wuffs_imageio_records_append(md->records, scratch, dst.meta.wi);
+    }
+
+    if (md->flavor == WUFFS_BASE__MORE_INFORMATION__FLAVOR__METADATA_PARSED) {
+      switch (md->fourcc) {
+        case WUFFS_BASE__FOURCC__GAMA:
+          md->color.flags |= WUFFS_IMAGEIO_COLOR_HAS_GAMA;
+          md->color.gamma = wuffs_base__more_information__metadata_parsed__gama(&minfo);
+          break;
+        case WUFFS_BASE__FOURCC__CHRM:
+          md->color.flags |= WUFFS_IMAGEIO_COLOR_HAS_CHRM;
+          md->color.white_x = (uint32_t)wuffs_base__more_information__metadata_parsed__chrm(&minfo, 0);
+          md->color.white_y = (uint32_t)wuffs_base__more_information__metadata_parsed__chrm(&minfo, 1);
+          md->color.red_x = (uint32_t)wuffs_base__more_information__metadata_parsed__chrm(&minfo, 2);
+          md->color.red_y = (uint32_t)wuffs_base__more_information__metadata_parsed__chrm(&minfo, 3);
+          md->color.green_x = (uint32_t)wuffs_base__more_information__metadata_parsed__chrm(&minfo, 4);
+          md->color.green_y = (uint32_t)wuffs_base__more_information__metadata_parsed__chrm(&minfo, 5);
+          md->color.blue_x = (uint32_t)wuffs_base__more_information__metadata_parsed__chrm(&minfo, 6);
+          md->color.blue_y = (uint32_t)wuffs_base__more_information__metadata_parsed__chrm(&minfo, 7);
+          break;
+        case WUFFS_BASE__FOURCC__SRGB:
+          md->color.flags |= WUFFS_IMAGEIO_COLOR_HAS_SRGB;
+          md->color.srgb_intent = wuffs_base__more_information__metadata_parsed__srgb(&minfo);
+          break;
+        default:
+          break;
+      }
+    } else if ((md->flavor == WUFFS_BASE__MORE_INFORMATION__FLAVOR__METADATA_RAW_TRANSFORM) &&
+               (md->fourcc == WUFFS_BASE__FOURCC__ICCP)) {
+      md->color.flags |= WUFFS_IMAGEIO_COLOR_HAS_ICCP;
+      int rc = wuffs_imageio_append_icc(md, scratch, dst.meta.wi);
+      if (rc != WUFFS_IMAGEIO_OK) {
+        return rc;
+      }
+    }
+
+    if (wuffs_base__status__is_ok(&status)) {
+      md->flavor = 0;
+      md->fourcc = 0;
+      if (md->records) {
+        wuffs_imageio_records_end(md->records);
+      }
+      return WUFFS_IMAGEIO_OK;
+    }
+    if ((status.repr == wuffs_base__suspension__short_write) ||
+        (status.repr == wuffs_base__suspension__even_more_information)) {
+      continue;
+    }
+    if (wuffs_imageio_needs_more_input(status, src)) {
+      return WUFFS_IMAGEIO_SUSPENDED;
+    }
+    return wuffs_imageio_fail_wuffs(status);
   }
+}
 
-  wuffs_base__range_ii_u64 workbuf_range =
-      wuffs_base__image_decoder__workbuf_len(decoder);
-  uint64_t workbuf_len_u64 = workbuf_range.max_incl;
-  if (workbuf_len_u64 > (uint64_t)SIZE_MAX) {
-    free(decoder);
-    wuffs_imageio_set_error("invalid argument");
-    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+// Parses the whole image config of a fully buffered input, collecting color
+// metadata on the way if `report_color` is set. Otherwise ancillary chunks are
+// skipped by the decoder, as for a session that does not convert to sRGB.
+static int wuffs_imageio_decode_image_config_with_color(
+    wuffs_base__image_decoder* decoder, wuffs_base__image_config* image_config,
+    wuffs_base__io_buffer* src, wuffs_imageio_metadata* md, int report_color) {
+  if (report_color) {
+    wuffs_imageio_report_color_metadata(decoder);
   }
-  size_t workbuf_len = (size_t)workbuf_len_u64;
-  uint8_t* workbuf_ptr = NULL;
-  if (workbuf_len) {
-    workbuf_ptr = (uint8_t*)malloc(workbuf_len);
-    if (!workbuf_ptr) {
-      free(decoder);
-      wuffs_imageio_set_error("out of memory");
-      return WUFFS_IMAGEIO_ERR_WUFFS;
+  while (true) {
+    wuffs_base__status status = wuffs_base__image_decoder__decode_image_config(decoder, image_config, src);
+    if (status.repr != wuffs_base__note__metadata_reported) {
+      return wuffs_base__status__is_ok(&status) ? WUFFS_IMAGEIO_OK : wuffs_imageio_fail_wuffs(status);
+    }
+    int rc = wuffs_imageio_drain_metadata(decoder, md, src);
+    if (rc == WUFFS_IMAGEIO_SUSPENDED) {
+      return wuffs_imageio_fail_wuffs(wuffs_base__make_status(wuffs_base__suspension__short_read));
+    }
+    if (rc != WUFFS_IMAGEIO_OK) {
+      return rc;
     }
   }
-  wuffs_base__slice_u8 workbuf = wuffs_base__make_slice_u8(workbuf_ptr, workbuf_len);
+}
+
+// A tone curve in the ICC parametric form (type 4):
+//   y = (a*x + b)^g + e  for x >= d,  y = c*x + f  otherwise.
+// A non-NULL table (uniformly sampled, 16-bit) takes precedence.
+typedef struct {
+  float g, a, b, c, d, e, f;
+  const uint8_t* table;
+  uint32_t table_len;
+} wuffs_imageio_curve;
+
+static void wuffs_imageio_curve_gamma(wuffs_imageio_curve* curve, float g) {
+  memset(curve, 0, sizeof(*curve));
+  curve->g = g;
+  curve->a = 1.0f;
+}
 
-  status = wuffs_base__image_decoder__decode_frame(
-      decoder, &pb, &src, WUFFS_BASE__PIXEL_BLEND__SRC, workbuf, NULL);
-  if (workbuf_ptr) {
-    free(workbuf_ptr);
+static void wuffs_imageio_curve_srgb(wuffs_imageio_curve* curve) {
+  memset(curve, 0, sizeof(*curve));
+  curve->g = 2.4f;
+  curve->a = 1.0f / 1.055f;
+  curve->b = 0.055f / 1.055f;
+  curve->c = 1.0f / 12.92f;
+  curve->d = 0.04045f;
+}
+
+static float wuffs_imageio_curve_eval(const wuffs_imageio_curve* curve, float x) {
+  if (curve->table) {
+    float pos = x * (float)(curve->table_len - 1);
+    uint32_t i = (pos <= 0.0f) ? 0 : (uint32_t)pos;
+    if (i >= (curve->table_len - 1)) {
+      const uint8_t* p = curve->table + 2 * (curve->table_len - 1);
+      return (float)((p[0] << 8) | p[1]) / 65535.0f;
+    }
+    const uint8_t* p = curve->table + 2 * i;
+    float y0 = (float)((p[0] << 8) | p[1]) / 65535.0f;
+    float y1 = (float)((p[2] << 8) | p[3]) / 65535.0f;
+    return y0 + (y1 - y0) * (pos - (float)i);
   }
-  if (!wuffs_base__status__is_ok(&status)) {
-    free(decoder);
-    return wuffs_imageio_fail_wuffs(status);
+  if (x >= curve->d) {
+    float base = curve->a * x + curve->b;
+    return ((base > 0.0f) ? powf(base, curve->g) : 0.0f) + curve->e;
   }
+  return curve->c * x + curve->f;
+}
 
-  out->width = w;
-  out->height = h;
-  out->stride_bytes = w * 4;
-  out->bytes_written = (uint32_t)expected;
-  free(decoder);
-  return WUFFS_IMAGEIO_OK;
+static uint32_t wuffs_imageio_be32(const uint8_t* p) {
+  return ((uint32_t)p[0] << 24) | ((uint32_t)p[1] << 16) | ((uint32_t)p[2] << 8) | (uint32_t)p[3];
 }
 
-WUFFS_IMAGEIO_API int wuffs_cpu_supports_avx2(void) {
-#if defined(__x86_64__) || defined(_M_X64) || defined(__i386__) || defined(_M_IX86)
-  // AVX2 requires:
-  //  - CPU support (CPUID.(EAX=7,ECX=0):EBX.AVX2[bit 5])
-  //  - OS support for XSAVE/XRESTORE + XMM/YMM state enabled (CPUID.(EAX=1):ECX.OSXSAVE + XGETBV)
-  uint32_t eax = 0, ebx = 0, ecx = 0, edx = 0;
+static float wuffs_imageio_s15f16(const uint8_t* p) {
+  return (float)(int32_t)wuffs_imageio_be32(p) / 65536.0f;
+}
 
-  // CPUID leaf 1: check OSXSAVE + AVX.
-#if defined(_MSC_VER)
-  int info1[4] = {0};
-  __cpuidex(info1, 1, 0);
-  ecx = (uint32_t)info1[2];
-#else
-  unsigned int a = 0, b = 0, c = 0, d = 0;
-  if (!__get_cpuid(1, &a, &b, &c, &d)) {
+// Finds tag `sig` in an ICC profile; returns its data or NULL.
+static const uint8_t* wuffs_imageio_icc_tag(const uint8_t* icc, size_t len, uint32_t sig, uint32_t* out_size) {
+  if (len < 132) {
+    return NULL;
+  }
+  uint32_t count = wuffs_imageio_be32(icc + 128);
+  if (count > ((len - 132) / 12)) {
+    return NULL;
+  }
+  for (uint32_t i = 0; i < count; i++) {
+    const uint8_t* entry = icc + 132 + (12 * (size_t)i);
+    if (wuffs_imageio_be32(entry) != sig) {
+      continue;
+    }
+    uint32_t offset = wuffs_imageio_be32(entry + 4);
+    uint32_t size = wuffs_imageio_be32(entry + 8);
+    if ((offset > len) || (size > (len - offset)) || (size < 8)) {
+      return NULL;
+    }
+    *out_size = size;
+    return icc + offset;
+  }
+  return NULL;
+}
+
+static int wuffs_imageio_icc_xyz(const uint8_t* icc, size_t len, uint32_t sig, float out[3]) {
+  uint32_t size = 0;
+  const uint8_t* tag = wuffs_imageio_icc_tag(icc, len, sig, &size);
+  if (!tag || (size < 20) || (wuffs_imageio_be32(tag) != 0x58595A20u)) {  // 'XYZ '
     return 0;
   }
-  ecx = (uint32_t)c;
-#endif
+  out[0] = wuffs_imageio_s15f16(tag + 8);
+  out[1] = wuffs_imageio_s15f16(tag + 12);
+  out[2] = wuffs_imageio_s15f16(tag + 16);
+  return 1;
+}
 
-  const uint32_t ecx_osxsave = (1u << 27);
-  const uint32_t ecx_avx = (1u << 28);
-  if (((ecx & ecx_osxsave) == 0) || ((ecx & ecx_avx) == 0)) {
+// Reads a 'curv' or 'para' tone curve.
+static int wuffs_imageio_icc_curve(const uint8_t* icc, size_t len, uint32_t sig, wuffs_imageio_curve* curve) {
+  uint32_t size = 0;
+  const uint8_t* tag = wuffs_imageio_icc_tag(icc, len, sig, &size);
+  if (!tag || (size < 12)) {
     return 0;
   }
+  uint32_t type = wuffs_imageio_be32(tag);
+  if (type == 0x63757276u) {  // 'curv'
+    uint32_t n = wuffs_imageio_be32(tag + 8);
+    if (n == 0) {
+      wuffs_imageio_curve_gamma(curve, 1.0f);
+      return 1;
+    }
+    if (n == 1) {
+      if (size < 14) {
+        return 0;
+      }
+      wuffs_imageio_curve_gamma(curve, (float)((tag[12] << 8) | tag[13]) / 256.0f);
+      return 1;
+    }
+    if (n > ((size - 12) / 2)) {
+      return 0;
+    }
+    memset(curve, 0, sizeof(*curve));
+    curve->table = tag + 12;
+    curve->table_len = n;
+    return 1;
+  }
+  if (type == 0x70617261u) {  // 'para'
+    static const uint32_t param_counts[5] = {1, 3, 4, 5, 7};
+    uint32_t function = ((uint32_t)tag[8] << 8) | tag[9];
+    if ((function > 4) || (size < (12 + 4 * param_counts[function]))) {
+      return 0;
+    }
+    float p[7] = {0};
+    for (uint32_t i = 0; i < param_counts[function]; i++) {
+      p[i] = wuffs_imageio_s15f16(tag + 12 + 4 * i);
+    }
+    memset(curve, 0, sizeof(*curve));
+    curve->g = p[0];
+    curve->a = 1.0f;
+    switch (function) {
+      case 1:
+        curve->a = p[1];
+        curve->b = p[2];
+        curve->d = (p[1] != 0.0f) ? (-p[2] / p[1]) : 0.0f;
+        break;
+      case 2:
+        curve->a = p[1];
+        curve->b = p[2];
+        curve->d = (p[1] != 0.0f) ? (-p[2] / p[1]) : 0.0f;
+        curve->e = p[3];
+        curve->f = p[3];
+        break;
+      case 3:
+        curve->a = p[1];
+        curve->b = p[2];
+        curve->c = p[3];
+        curve->d = p[4];
+        break;
+      case 4:
+        curve->a = p[1];
+        curve->b = p[2];
+        curve->c = p[3];
+        curve->d = p[4];
+        curve->e = p[5];
+        curve->f = p[6];
+        break;
+      default:
+        break;
+    }
+    return 1;
+  }
+  return 0;
+}
 
-  // XGETBV(0): ensure XMM (bit 1) and YMM (bit 2) state enabled by OS.
-  uint64_t xcr0 = 0;
-#if defined(_MSC_VER)
-  xcr0 = _xgetbv(0);
-#else
-  uint32_t xcr0_lo = 0, xcr0_hi = 0;
-  __asm__ volatile("xgetbv" : "=a"(xcr0_lo), "=d"(xcr0_hi) : "c"(0));
-  xcr0 = ((uint64_t)xcr0_hi << 32) | (uint64_t)xcr0_lo;
-#endif
-  if ((xcr0 & 0x6u) != 0x6u) {
+static void wuffs_imageio_mat3_mul(const float a[9], const float b[9], float out[9]) {
+  float r[9];
+  for (int i = 0; i < 3; i++) {
+    for (int j = 0; j < 3; j++) {
+      r[3 * i + j] = a[3 * i] * b[j] + a[3 * i + 1] * b[3 + j] + a[3 * i + 2] * b[6 + j];
+    }
+  }
+  memcpy(out, r, sizeof(r));
+}
+
+static int wuffs_imageio_mat3_invert(const float m[9], float out[9]) {
+  float det = m[0] * (m[4] * m[8] - m[5] * m[7]) - m[1] * (m[3] * m[8] - m[5] * m[6]) +
+              m[2] * (m[3] * m[7] - m[4] * m[6]);
+  if ((det > -1e-9f) && (det < 1e-9f)) {
     return 0;
   }
+  float inv = 1.0f / det;
+  out[0] = (m[4] * m[8] - m[5] * m[7]) * inv;
+  out[1] = (m[2] * m[7] - m[1] * m[8]) * inv;
+  out[2] = (m[1] * m[5] - m[2] * m[4]) * inv;
+  out[3] = (m[5] * m[6] - m[3] * m[8]) * inv;
+  out[4] = (m[0] * m[8] - m[2] * m[6]) * inv;
+  out[5] = (m[2] * m[3] - m[0] * m[5]) * inv;
+  out[6] = (m[3] * m[7] - m[4] * m[6]) * inv;
+  out[7] = (m[1] * m[6] - m[0] * m[7]) * inv;
+  out[8] = (m[0] * m[4] - m[1] * m[3]) * inv;
+  return 1;
+}
 
-  // CPUID leaf 7 subleaf 0: check AVX2.
-#if defined(_MSC_VER)
-  int info7[4] = {0};
-  __cpuidex(info7, 7, 0);
-  ebx = (uint32_t)info7[1];
-#else
-  __cpuid_count(7, 0, eax, ebx, ecx, edx);
-#endif
-  const uint32_t ebx_avx2 = (1u << 5);
-  return ((ebx & ebx_avx2) != 0) ? 1 : 0;
-#else
-  return 0;
+// XYZ (D50, Bradford-adapted, as in ICC profiles) to linear sRGB.
+static const float wuffs_imageio_xyz_d50_to_srgb[9] = {
+    3.1338561f, -1.6168667f, -0.4906146f,
+    -0.9787684f, 1.9161415f, 0.0334540f,
+    0.0719453f, -0.2289914f, 1.4052427f,
+};
+
+// XYZ (D65) to linear sRGB.
+static const float wuffs_imageio_xyz_d65_to_srgb[9] = {
+    3.2404542f, -1.5371385f, -0.4985314f,
+    -0.9692660f, 1.8760108f, 0.0415560f,
+    0.0556434f, -0.2040259f, 1.0572252f,
+};
+
+static const float wuffs_imageio_bradford[9] = {
+    0.8951f, 0.2664f, -0.1614f,
+    -0.7502f, 1.7135f, 0.0367f,
+    0.0389f, -0.0685f, 1.0296f,
+};
+
+// Builds the linear RGB to linear sRGB matrix for cHRM primaries, adapting the
+// white point to D65 with the Bradford transform.
+static int wuffs_imageio_chrm_matrix(const wuffs_color_info* color, float out[9]) {
+  float xy[8] = {
+      color->white_x / 100000.0f, color->white_y / 100000.0f,
+      color->red_x / 100000.0f, color->red_y / 100000.0f,
+      color->green_x / 100000.0f, color->green_y / 100000.0f,
+      color->blue_x / 100000.0f, color->blue_y / 100000.0f,
+  };
+  for (int i = 1; i < 8; i += 2) {
+    if (xy[i] <= 0.0f) {
+      return 0;
+    }
+  }
+  // Columns are the primaries' XYZ with Y = 1.
+  float primaries[9];
+  for (int c = 0; c < 3; c++) {
+    float x = xy[2 + 2 * c];
+    float y = xy[3 + 2 * c];
+    primaries[c] = x / y;
+    primaries[3 + c] = 1.0f;
+    primaries[6 + c] = (1.0f - x - y) / y;
+  }
+  float white[3] = {xy[0] / xy[1], 1.0f, (1.0f - xy[0] - xy[1]) / xy[1]};
+  float inv[9];
+  if (!wuffs_imageio_mat3_invert(primaries, inv)) {
+    return 0;
+  }
+  float scale[9] = {0};
+  for (int i = 0; i < 3; i++) {
+    scale[4 * i] = inv[3 * i] * white[0] + inv[3 * i + 1] * white[1] + inv[3 * i + 2] * white[2];
+  }
+  float rgb_to_xyz[9];
+  wuffs_imageio_mat3_mul(primaries, scale, rgb_to_xyz);
+
+  static const float d65[3] = {0.95047f, 1.0f, 1.08883f};
+  float src_cone[3];
+  float dst_cone[3];
+  for (int i = 0; i < 3; i++) {
+    const float* row = wuffs_imageio_bradford + 3 * i;
+    src_cone[i] = row[0] * white[0] + row[1] * white[1] + row[2] * white[2];
+    dst_cone[i] = row[0] * d65[0] + row[1] * d65[1] + row[2] * d65[2];
+    if (src_cone[i] == 0.0f) {
+      return 0;
+    }
+  }
+  float cone_scale[9] = {0};
+  for (int i = 0; i < 3; i++) {
+    cone_scale[4 * i] = dst_cone[i] / src_cone[i];
+  }
+  float bradford_inv[9];
+  if (!wuffs_imageio_mat3_invert(wuffs_imageio_bradford, bradford_inv)) {
+    return 0;
+  }
+  float adapt[9];
+  wuffs_imageio_mat3_mul(cone_scale, wuffs_imageio_bradford, adapt);
+  wuffs_imageio_mat3_mul(bradford_inv, adapt, adapt);
+  wuffs_imageio_mat3_mul(adapt, rgb_to_xyz, out);
+  wuffs_imageio_mat3_mul(wuffs_imageio_xyz_d65_to_srgb, out, out);
+  return 1;
+}
+
+// Lookup tables for source RGB -> linear -> matrix -> sRGB. 8-bit sources
+// index to_linear8 directly; 16-bit sources interpolate in to_linear16.
+#define WUFFS_IMAGEIO_LUT_SIZE 4096
+
+typedef struct {
+  float matrix[9];
+  int identity_matrix;
+  float to_linear8[3][256];
+  float to_linear16[3][WUFFS_IMAGEIO_LUT_SIZE + 1];
+  uint8_t from_linear8[WUFFS_IMAGEIO_LUT_SIZE + 1];
+  float from_linear16[WUFFS_IMAGEIO_LUT_SIZE + 1];
+} wuffs_imageio_color_transform;
+
+static float wuffs_imageio_srgb_encode(float x) {
+  if (x <= 0.0031308f) {
+    return (x <= 0.0f) ? 0.0f : (12.92f * x);
+  }
+  return (x >= 1.0f) ? 1.0f : (1.055f * powf(x, 1.0f / 2.4f) - 0.055f);
+}
+
+static inline uint32_t wuffs_imageio_lut_index(float x) {
+  if (!(x > 0.0f)) {
+    return 0;
+  }
+  if (x >= 1.0f) {
+    return WUFFS_IMAGEIO_LUT_SIZE;
+  }
+  return (uint32_t)(x * (float)WUFFS_IMAGEIO_LUT_SIZE + 0.5f);
+}
+
+// Chooses curves and matrix from the collected metadata. Returns NULL when no
+// conversion is needed or possible: sRGB-tagged or untagged images, ICC
+// profiles without matrix/TRC tags, and profiles equivalent to sRGB.
+static wuffs_imageio_color_transform* wuffs_imageio_new_color_transform(
+    const wuffs_imageio_metadata* md, wuffs_memory_slab* slab, int* out_rc) {
+  *out_rc = WUFFS_IMAGEIO_OK;
+  const wuffs_color_info* color = &md->color;
+  wuffs_imageio_curve curves[3];
+  float matrix[9] = {1, 0, 0, 0, 1, 0, 0, 0, 1};
+
+  int have = 0;
+  if ((color->flags & WUFFS_IMAGEIO_COLOR_HAS_ICCP) && md->icc && (color->icc_len <= md->icc_cap)) {
+    const uint8_t* icc = md->icc;
+    size_t len = color->icc_len;
+    float r[3], g[3], b[3];
+    if ((len >= 132) && (wuffs_imageio_be32(icc + 16) == 0x52474220u) &&  // 'RGB '
+        wuffs_imageio_icc_xyz(icc, len, 0x7258595Au, r) &&                 // 'rXYZ'
+        wuffs_imageio_icc_xyz(icc, len, 0x6758595Au, g) &&                 // 'gXYZ'
+        wuffs_imageio_icc_xyz(icc, len, 0x6258595Au, b) &&                 // 'bXYZ'
+        wuffs_imageio_icc_curve(icc, len, 0x72545243u, &curves[0]) &&      // 'rTRC'
+        wuffs_imageio_icc_curve(icc, len, 0x67545243u, &curves[1]) &&      // 'gTRC'
+        wuffs_imageio_icc_curve(icc, len, 0x62545243u, &curves[2])) {      // 'bTRC'
+      float to_xyz[9] = {r[0], g[0], b[0], r[1], g[1], b[1], r[2], g[2], b[2]};
+      wuffs_imageio_mat3_mul(wuffs_imageio_xyz_d50_to_srgb, to_xyz, matrix);
+      have = 1;
+    }
+  }
+  if (!have && (color->flags & WUFFS_IMAGEIO_COLOR_HAS_SRGB)) {
+    return NULL;
+  }
+  if (!have && (color->flags & (WUFFS_IMAGEIO_COLOR_HAS_GAMA | WUFFS_IMAGEIO_COLOR_HAS_CHRM))) {
+    if ((color->flags & WUFFS_IMAGEIO_COLOR_HAS_GAMA) && (color->gamma != 0)) {
+      wuffs_imageio_curve_gamma(&curves[0], 100000.0f / (float)color->gamma);
+    } else {
+      wuffs_imageio_curve_srgb(&curves[0]);
+    }
+    curves[1] = curves[0];
+    curves[2] = curves[0];
+    if ((color->flags & WUFFS_IMAGEIO_COLOR_HAS_CHRM) && !wuffs_imageio_chrm_matrix(color, matrix)) {
+      return NULL;
+    }
+    have = 1;
+  }
+  if (!have) {
+    return NULL;
+  }
+
+  wuffs_imageio_color_transform* t =
+      (wuffs_imageio_color_transform*)wuffs_imageio_alloc(slab, sizeof(wuffs_imageio_color_transform));
+  if (!t) {
+    *out_rc = WUFFS_IMAGEIO_ERR_OUT_OF_MEMORY;
+    return NULL;
+  }
+  memcpy(t->matrix, matrix, sizeof(matrix));
+  t->identity_matrix = 1;
+  for (int i = 0; i < 9; i++) {
+    float expected = ((i % 4) == 0) ? 1.0f : 0.0f;
+    float diff = matrix[i] - expected;
+    if ((diff > 0.002f) || (diff < -0.002f)) {
+      t->identity_matrix = 0;
+    }
+  }
+  for (uint32_t i = 0; i <= WUFFS_IMAGEIO_LUT_SIZE; i++) {
+    float x = (float)i / (float)WUFFS_IMAGEIO_LUT_SIZE;
+    float y = wuffs_imageio_srgb_encode(x);
+    t->from_linear16[i] = y;
+    t->from_linear8[i] = (uint8_t)(y * 255.0f + 0.5f);
+  }
+  int round_trips = t->identity_matrix;
+  for (int c = 0; c < 3; c++) {
+    for (uint32_t i = 0; i < 256; i++) {
+      float v = wuffs_imageio_curve_eval(&curves[c], (float)i / 255.0f);
+      t->to_linear8[c][i] = v;
+      if (t->from_linear8[wuffs_imageio_lut_index(v)] != i) {
+        round_trips = 0;
+      }
+    }
+    for (uint32_t i = 0; i <= WUFFS_IMAGEIO_LUT_SIZE; i++) {
+      t->to_linear16[c][i] = wuffs_imageio_curve_eval(&curves[c], (float)i / (float)WUFFS_IMAGEIO_LUT_SIZE);
+    }
+  }
+  if (round_trips) {
+    // Already sRGB (e.g. an embedded "sRGB IEC61966-2.1" profile).
+    wuffs_imageio_free(slab, t);
+    return NULL;
+  }
+  return t;
+}
+
+static inline void wuffs_imageio_apply_matrix(const wuffs_imageio_color_transform* t, float rgb[3]) {
+  if (t->identity_matrix) {
+    return;
+  }
+  const float* m = t->matrix;
+  float r = m[0] * rgb[0] + m[1] * rgb[1] + m[2] * rgb[2];
+  float g = m[3] * rgb[0] + m[4] * rgb[1] + m[5] * rgb[2];
+  float b = m[6] * rgb[0] + m[7] * rgb[1] + m[8] * rgb[2];
+  rgb[0] = r;
+  rgb[1] = g;
+  rgb[2] = b;
+}
+
+static inline float wuffs_imageio_lerp_lut(const float* lut, uint32_t sample16) {
+  // 65535 maps to LUT_SIZE; 16 input steps per LUT step.
+  uint32_t scaled = sample16 * WUFFS_IMAGEIO_LUT_SIZE;
+  uint32_t i = scaled / 65535u;
+  float frac = (float)(scaled % 65535u) / 65535.0f;
+  if (i >= WUFFS_IMAGEIO_LUT_SIZE) {
+    return lut[WUFFS_IMAGEIO_LUT_SIZE];
+  }
+  return lut[i] + (lut[i + 1] - lut[i]) * frac;
+}
+
+static inline float wuffs_imageio_encode16(const wuffs_imageio_color_transform* t, float x) {
+  if (!(x > 0.0f)) {
+    return 0.0f;
+  }
+  if (x >= 1.0f) {
+    return 1.0f;
+  }
+  float pos = x * (float)WUFFS_IMAGEIO_LUT_SIZE;
+  uint32_t i = (uint32_t)pos;
+  return t->from_linear16[i] + (t->from_linear16[i + 1] - t->from_linear16[i]) * (pos - (float)i);
+}
+
+// Converts decoded pixels in place. Alpha is untouched (the output is not
+// premultiplied). Gray outputs are left as decoded.
+static void wuffs_imageio_convert_to_srgb(
+    const wuffs_imageio_color_transform* t, uint32_t pixfmt, uint8_t* pixels, uint64_t num_pixels) {
+  if (pixfmt == WUFFS_BASE__PIXEL_FORMAT__BGRA_NONPREMUL) {
+    for (uint64_t i = 0; i < num_pixels; i++) {
+      uint8_t* p = pixels + 4 * i;
+      float rgb[3] = {t->to_linear8[0][p[2]], t->to_linear8[1][p[1]], t->to_linear8[2][p[0]]};
+      wuffs_imageio_apply_matrix(t, rgb);
+      p[2] = t->from_linear8[wuffs_imageio_lut_index(rgb[0])];
+      p[1] = t->from_linear8[wuffs_imageio_lut_index(rgb[1])];
+      p[0] = t->from_linear8[wuffs_imageio_lut_index(rgb[2])];
+    }
+  } else if (pixfmt == WUFFS_BASE__PIXEL_FORMAT__RGBA_NONPREMUL_4X16LE) {
+    for (uint64_t i = 0; i < num_pixels; i++) {
+      uint8_t* p = pixels + 8 * i;
+      float rgb[3];
+      for (int c = 0; c < 3; c++) {
+        rgb[c] = wuffs_imageio_lerp_lut(t->to_linear16[c], (uint32_t)p[2 * c] | ((uint32_t)p[2 * c + 1] << 8));
+      }
+      wuffs_imageio_apply_matrix(t, rgb);
+      for (int c = 0; c < 3; c++) {
+        uint32_t v = (uint32_t)(wuffs_imageio_encode16(t, rgb[c]) * 65535.0f + 0.5f);
+        p[2 * c] = (uint8_t)v;
+        p[2 * c + 1] = (uint8_t)(v >> 8);
+      }
+    }
+  }
+}
+
+// Returns the bytes per pixel of a destination format the ABI accepts, or 0.
+static uint32_t wuffs_imageio_dst_bytes_per_pixel(uint32_t pixfmt) {
+  switch (pixfmt) {
+    case WUFFS_BASE__PIXEL_FORMAT__BGRA_NONPREMUL:
+      return 4;
+    case WUFFS_BASE__PIXEL_FORMAT__RGBA_NONPREMUL_4X16LE:
+      return 8;
+    case WUFFS_BASE__PIXEL_FORMAT__Y_16LE:
+      return 2;
+    default:
+      return 0;
+  }
+}
+
+// Returns the widest channel of `pixfmt` in bits, capped at 16. The low 16
+// bits of a Wuffs pixel format hold one 4-bit depth code per channel: 1..8
+// mean 1..8 bits, 0x9 10, 0xA 12 and 0xB or more 16 bits and up.
+static uint32_t wuffs_imageio_bit_depth(uint32_t pixfmt) {
+  uint32_t max_code = 0;
+  for (int i = 0; i < 4; i++) {
+    uint32_t code = (pixfmt >> (4 * i)) & 0xFu;
+    if (code > max_code) {
+      max_code = code;
+    }
+  }
+  return (max_code > 8) ? 16 : 8;
+}
+
+// Picks the destination format that keeps the source's precision.
+static uint32_t wuffs_imageio_full_depth_pixel_format(uint32_t src_pixfmt) {
+  if (wuffs_imageio_bit_depth(src_pixfmt) <= 8) {
+    return WUFFS_BASE__PIXEL_FORMAT__BGRA_NONPREMUL;
+  }
+  if ((src_pixfmt == WUFFS_BASE__PIXEL_FORMAT__Y_16BE) || (src_pixfmt == WUFFS_BASE__PIXEL_FORMAT__Y_16LE)) {
+    return WUFFS_BASE__PIXEL_FORMAT__Y_16LE;
+  }
+  return WUFFS_BASE__PIXEL_FORMAT__RGBA_NONPREMUL_4X16LE;
+}
+
+WUFFS_IMAGEIO_API void wuffs_memory_get_stats(wuffs_memory_stats* out) {
+  if (!out) {
+    return;
+  }
+  out->current_bytes = WUFFS_IMAGEIO_ATOMIC_LOAD(&wuffs_imageio_mem_current);
+  out->peak_bytes = WUFFS_IMAGEIO_ATOMIC_LOAD(&wuffs_imageio_mem_peak);
+  out->alloc_count = WUFFS_IMAGEIO_ATOMIC_LOAD(&wuffs_imageio_mem_allocs);
+  out->free_count = WUFFS_IMAGEIO_ATOMIC_LOAD(&wuffs_imageio_mem_frees);
+  out->failed_count = WUFFS_IMAGEIO_ATOMIC_LOAD(&wuffs_imageio_mem_failed);
+  out->limit_bytes = WUFFS_IMAGEIO_ATOMIC_LOAD(&wuffs_imageio_mem_limit);
+}
+
+WUFFS_IMAGEIO_API void wuffs_memory_reset_peak(void) {
+  WUFFS_IMAGEIO_ATOMIC_STORE(&wuffs_imageio_mem_peak, WUFFS_IMAGEIO_ATOMIC_LOAD(&wuffs_imageio_mem_current));
+}
+
+WUFFS_IMAGEIO_API void wuffs_memory_set_limit(uint64_t limit_bytes) {
+  WUFFS_IMAGEIO_ATOMIC_STORE(&wuffs_imageio_mem_limit, limit_bytes);
+}
+
+WUFFS_IMAGEIO_API int wuffs_probe_image(const uint8_t* data, size_t len, wuffs_probe_result* out) {
+  return wuffs_probe_image_with_flags(data, len, 0, out);
+}
+
+WUFFS_IMAGEIO_API int wuffs_probe_image_with_flags(
+    const uint8_t* data, size_t len, uint32_t flags, wuffs_probe_result* out) {
+  wuffs_imageio_set_error(NULL);
+  if (!data || !out) {
+    wuffs_imageio_set_error("invalid argument");
+    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+  }
+  if (len == 0) {
+    wuffs_imageio_set_error("invalid argument");
+    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+  }
+
+  wuffs_base__slice_u8 prefix = wuffs_base__make_slice_u8((uint8_t*)data, len);
+  int32_t fourcc = wuffs_base__magic_number_guess_fourcc(prefix, true);
+
+  wuffs_base__image_decoder* decoder = NULL;
+  void* decoder_mem = NULL;
+  int rc = wuffs_imageio_new_decoder(fourcc, NULL, &decoder, &decoder_mem);
+  if (rc != WUFFS_IMAGEIO_OK) {
+    return rc;
+  }
+
+  wuffs_base__image_config image_config = wuffs_base__null_image_config();
+  wuffs_base__io_buffer src =
+      wuffs_base__ptr_u8__reader((uint8_t*)data, len, true);
+  wuffs_imageio_metadata md;
+  memset(&md, 0, sizeof(md));
+  int report_color = !(flags & WUFFS_IMAGEIO_FLAG_IGNORE_ANCILLARY_CHUNKS);
+  rc = wuffs_imageio_decode_image_config_with_color(decoder, &image_config, &src, &md, report_color);
+  if (rc != WUFFS_IMAGEIO_OK) {
+    wuffs_imageio_free(NULL, decoder_mem);
+    return rc;
+  }
+
+  uint32_t w = wuffs_base__pixel_config__width(&image_config.pixcfg);
+  uint32_t h = wuffs_base__pixel_config__height(&image_config.pixcfg);
+  if ((w == 0) || (h == 0)) {
+    wuffs_imageio_free(NULL, decoder_mem);
+    return wuffs_imageio_fail_wuffs(wuffs_base__make_status(wuffs_base__error__bad_argument));
+  }
+
+  uint32_t src_pixfmt = wuffs_base__pixel_config__pixel_format(&image_config.pixcfg).repr;
+  out->width = w;
+  out->height = h;
+  out->frame_count = 1;
+  out->bytes_per_pixel = 4;
+  out->stride_bytes = w * 4;
+  out->bit_depth = wuffs_imageio_bit_depth(src_pixfmt);
+  out->pixel_format = wuffs_imageio_full_depth_pixel_format(src_pixfmt);
+  out->color = md.color;
+  out->orientation = wuffs_imageio_orientation(fourcc, data, len);
+  wuffs_imageio_free(NULL, decoder_mem);
+  return WUFFS_IMAGEIO_OK;
+}
+
+// ---- EXIF orientation ----
+
+// Moves the pixels of a decoded w x h image (tightly packed, `bpp` bytes per
+// pixel) to their oriented position. Orientations 2-4 are done in place in
+// `dst`; 5-8 transpose, so they read from `src` (a separate buffer holding the
+// decoded image) into `dst`, which is then h pixels wide.
+static void wuffs_imageio_orient(
+    uint32_t orientation, const uint8_t* src, uint8_t* dst, uint32_t w, uint32_t h, uint32_t bpp) {
+  size_t row = (size_t)w * bpp;
+  uint8_t tmp[8];
+  switch (orientation) {
+    case 2:  // Mirror horizontally.
+    case 3:  // Rotate 180: mirror horizontally, then vertically.
+      for (uint32_t y = 0; y < h; y++) {
+        uint8_t* r = dst + (size_t)y * row;
+        for (uint32_t x = 0, xr = w - 1; x < xr; x++, xr--) {
+          memcpy(tmp, r + (size_t)x * bpp, bpp);
+          memcpy(r + (size_t)x * bpp, r + (size_t)xr * bpp, bpp);
+          memcpy(r + (size_t)xr * bpp, tmp, bpp);
+        }
+      }
+      if (orientation == 2) {
+        return;
+      }
+      // Fall through.
+    case 4:  // Mirror vertically.
+      for (uint32_t y = 0, yr = h - 1; y < yr; y++, yr--) {
+        uint8_t* a = dst + (size_t)y * row;
+        uint8_t* b = dst + (size_t)yr * row;
+        for (size_t i = 0; i < row; i += sizeof(tmp)) {
+          size_t k = ((row - i) < sizeof(tmp)) ? (row - i) : sizeof(tmp);
+          memcpy(tmp, a + i, k);
+          memcpy(a + i, b + i, k);
+          memcpy(b + i, tmp, k);
+        }
+      }
+      return;
+    case 5:
+    case 6:
+    case 7:
+    case 8: {
+      // Source (x, y) goes to output (ox, oy) in an h-wide image:
+      //   5 transpose (y, x), 6 rotate 90 CW (h-1-y, x),
+      //   7 transverse (h-1-y, w-1-x), 8 rotate 90 CCW (y, w-1-x).
+      // Tiles keep both the reads and the column-wise writes cache-resident.
+      const uint32_t tile = 32;
+      size_t out_row = (size_t)h * bpp;
+      int flip_x = (orientation == 6) || (orientation == 7);
+      int flip_y = (orientation == 7) || (orientation == 8);
+      for (uint32_t ty = 0; ty < h; ty += tile) {
+        uint32_t ey = ((h - ty) < tile) ? h : (ty + tile);
+        for (uint32_t tx = 0; tx < w; tx += tile) {
+          uint32_t ex = ((w - tx) < tile) ? w : (tx + tile);
+          for (uint32_t y = ty; y < ey; y++) {
+            const uint8_t* s = src + (size_t)y * row;
+            uint32_t ox = flip_x ? (h - 1 - y) : y;
+            for (uint32_t x = tx; x < ex; x++) {
+              uint32_t oy = flip_y ? (w - 1 - x) : x;
+              memcpy(dst + (size_t)oy * out_row + (size_t)ox * bpp, s + (size_t)x * bpp, bpp);
+            }
+          }
+        }
+      }
+      return;
+    }
+    default:
+      return;
+  }
+}
+
+enum {
+  WUFFS_IMAGEIO_STAGE_IMAGE_CONFIG = 0,
+  WUFFS_IMAGEIO_STAGE_FRAME_CONFIG = 1,
+  WUFFS_IMAGEIO_STAGE_FRAME = 2,
+  WUFFS_IMAGEIO_STAGE_DONE = 3,
+};
+
+struct wuffs_imageio_session {
+  wuffs_memory_slab* slab;
+  uint32_t flags;
+  int32_t fourcc;
+  wuffs_base__image_decoder* decoder;
+  void* decoder_mem;
+  uint32_t stage;
+  uint32_t dst_pixfmt;
+  uint32_t dst_bytes_per_pixel;
+  uint32_t width;
+  uint32_t height;
+  uint64_t expected;
+  uint64_t consumed;
+  uint64_t config_ns;
+  uint64_t decode_ns;
+  wuffs_base__image_config image_config;
+  wuffs_base__frame_config frame_config;
+  uint8_t* workbuf_ptr;
+  size_t workbuf_len;
+  // The allocated size of workbuf_ptr, kept across wuffs_session_reset.
+  size_t workbuf_cap;
+  // Color metadata is collected (and converted to sRGB after the frame) only
+  // with WUFFS_IMAGEIO_FLAG_CONVERT_TO_SRGB.
+  wuffs_imageio_metadata metadata;
+  int metadata_pending;
+  wuffs_imageio_color_transform* color_transform;
+  // With WUFFS_IMAGEIO_FLAG_APPLY_ORIENTATION: the EXIF orientation, the
+  // stored dimensions (width/height above are the oriented ones) and, for
+  // orientations 5-8, the buffer Wuffs decodes into before the transpose.
+  uint32_t orientation;
+  uint32_t src_width;
+  uint32_t src_height;
+  uint8_t* staging;
+  // Whether the PNG's IHDR selects Adam7 interlacing.
+  int png_interlaced;
+  // wuffs_session_feed: input the decoder left unconsumed at the end of the
+  // previous chunk (it starts at stream position `consumed`). The allocation
+  // is kept across wuffs_session_reset.
+  uint8_t* carry;
+  size_t carry_len;
+  size_t carry_cap;
+};
+
+#ifndef WUFFS_IMAGEIO_NO_PNG_PASS_PROGRESS
+// In wuffs_imageio_wuffs.c, where the decoder struct is defined.
+uint32_t wuffs_imageio_png_interlace_pass(const wuffs_png__decoder* decoder);
+#endif
+
+// Wuffs has no public per-pass hook, so this reads the PNG decoder's current
+// interlace pass (1-7; the earlier passes are in the destination). Builds
+// against a Wuffs without that field can configure with
+// -DWUFFS_IMAGEIO_PNG_PASS_PROGRESS=OFF to report all passes at the end only.
+static uint32_t wuffs_imageio_png_passes_done(const wuffs_imageio_session* s) {
+#ifndef WUFFS_IMAGEIO_NO_PNG_PASS_PROGRESS
+  uint32_t pass = wuffs_imageio_png_interlace_pass((const wuffs_png__decoder*)s->decoder_mem);
+  return (pass > 0) ? (pass - 1) : 0;
+#else
+  (void)s;
+  return 0;
+#endif
+}
+
+static void wuffs_imageio_fill_step_result(const wuffs_imageio_session* s, wuffs_step_result* out) {
+  out->width = s->width;
+  out->height = s->height;
+  out->stride_bytes = s->width * s->dst_bytes_per_pixel;
+  out->bytes_written = (s->stage == WUFFS_IMAGEIO_STAGE_DONE) ? (uint32_t)s->expected : 0;
+  out->consumed = s->consumed;
+  out->done = (s->stage == WUFFS_IMAGEIO_STAGE_DONE) ? 1 : 0;
+  out->config_ns = s->config_ns;
+  out->decode_ns = s->decode_ns;
+  out->workbuf_len = (uint64_t)s->workbuf_len;
+  out->passes_done = 0;
+  out->passes_total = 0;
+  out->chunk_used = 0;
+  if (s->png_interlaced && (s->orientation == 1) && !s->color_transform &&
+      !(s->flags & WUFFS_IMAGEIO_FLAG_CONVERT_TO_SRGB)) {
+    out->passes_total = 7;
+    if (s->stage == WUFFS_IMAGEIO_STAGE_DONE) {
+      out->passes_done = 7;
+    } else if (s->stage == WUFFS_IMAGEIO_STAGE_FRAME) {
+      out->passes_done = wuffs_imageio_png_passes_done(s);
+    }
+  }
+}
+
+WUFFS_IMAGEIO_API int wuffs_session_open(
+    const uint8_t* data, size_t len,
+    const wuffs_decode_params* params,
+    wuffs_imageio_session** out_session) {
+  return wuffs_session_open_in(data, len, params, NULL, out_session);
+}
+
+// Sets the session up to decode `data`: picks (or re-initializes) the
+// decoder and clears all per-image state. The work buffer is kept.
+static int wuffs_imageio_session_start(
+    wuffs_imageio_session* s, const uint8_t* data, size_t len, const wuffs_decode_params* params) {
+  uint32_t dst_pixfmt = WUFFS_BASE__PIXEL_FORMAT__BGRA_NONPREMUL;
+  if (params && params->pixel_format) {
+    dst_pixfmt = params->pixel_format;
+  }
+  uint32_t dst_bytes_per_pixel = wuffs_imageio_dst_bytes_per_pixel(dst_pixfmt);
+  if (dst_bytes_per_pixel == 0) {
+    wuffs_imageio_set_error("not implemented");
+    return WUFFS_IMAGEIO_ERR_NOT_IMPLEMENTED;
+  }
+
+  wuffs_base__slice_u8 prefix = wuffs_base__make_slice_u8((uint8_t*)data, len);
+  int32_t fourcc = wuffs_base__magic_number_guess_fourcc(prefix, true);
+
+  int rc;
+  s->decoder = NULL;
+  if (s->decoder_mem && (s->fourcc == fourcc)) {
+    rc = wuffs_imageio_init_decoder(fourcc, s->decoder_mem, &s->decoder);
+  } else {
+    wuffs_imageio_free(s->slab, s->decoder_mem);
+    s->decoder_mem = NULL;
+    rc = wuffs_imageio_new_decoder(fourcc, s->slab, &s->decoder, &s->decoder_mem);
+  }
+  if (rc != WUFFS_IMAGEIO_OK) {
+    return rc;
+  }
+  uint32_t flags = params ? params->flags : 0;
+  wuffs_imageio_apply_quirks(s->decoder, fourcc, flags);
+
+  wuffs_imageio_free(s->slab, s->staging);
+  wuffs_imageio_free(s->slab, s->color_transform);
+  wuffs_imageio_metadata_free(&s->metadata);
+  s->flags = flags;
+  s->fourcc = fourcc;
+  s->stage = WUFFS_IMAGEIO_STAGE_IMAGE_CONFIG;
+  s->dst_pixfmt = dst_pixfmt;
+  s->dst_bytes_per_pixel = dst_bytes_per_pixel;
+  s->width = 0;
+  s->height = 0;
+  s->expected = 0;
+  s->consumed = 0;
+  s->config_ns = 0;
+  s->decode_ns = 0;
+  s->image_config = wuffs_base__null_image_config();
+  s->frame_config = wuffs_base__null_frame_config();
+  s->workbuf_len = 0;
+  memset(&s->metadata, 0, sizeof(s->metadata));
+  s->metadata.slab = s->slab;
+  s->metadata.keep_icc = 1;
+  s->metadata_pending = 0;
+  s->color_transform = NULL;
+  s->orientation = (flags & WUFFS_IMAGEIO_FLAG_APPLY_ORIENTATION) ? wuffs_imageio_orientation(fourcc, data, len) : 1;
+  s->src_width = 0;
+  s->src_height = 0;
+  s->staging = NULL;
+  // IHDR is the first chunk; its interlace method byte is at offset 28.
+  s->png_interlaced = (fourcc == WUFFS_BASE__FOURCC__PNG) && (len > 28) && (data[28] == 1);
+  s->carry_len = 0;
+  if ((flags & WUFFS_IMAGEIO_FLAG_CONVERT_TO_SRGB) && !(flags & WUFFS_IMAGEIO_FLAG_IGNORE_ANCILLARY_CHUNKS)) {
+    wuffs_imageio_report_color_metadata(s->decoder);
+  }
+  return WUFFS_IMAGEIO_OK;
+}
+
+WUFFS_IMAGEIO_API int wuffs_session_open_in(
+    const uint8_t* data, size_t len,
+    const wuffs_decode_params* params,
+    wuffs_memory_slab* slab,
+    wuffs_imageio_session** out_session) {
+  wuffs_imageio_set_error(NULL);
+  if (!data || !out_session) {
+    wuffs_imageio_set_error("invalid argument");
+    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+  }
+  *out_session = NULL;
+  if (len == 0) {
+    wuffs_imageio_set_error("invalid argument");
+    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+  }
+
+  wuffs_imageio_session* s = (wuffs_imageio_session*)wuffs_imageio_alloc(slab, sizeof(wuffs_imageio_session));
+  if (!s) {
+    return WUFFS_IMAGEIO_ERR_OUT_OF_MEMORY;
+  }
+  memset(s, 0, sizeof(*s));
+  s->slab = slab;
+  int rc = wuffs_imageio_session_start(s, data, len, params);
+  if (rc != WUFFS_IMAGEIO_OK) {
+    wuffs_session_close(s);
+    return rc;
+  }
+  *out_session = s;
+  return WUFFS_IMAGEIO_OK;
+}
+
+WUFFS_IMAGEIO_API int wuffs_session_reset(
+    wuffs_imageio_session* session,
+    const uint8_t* data, size_t len,
+    const wuffs_decode_params* params) {
+  wuffs_imageio_set_error(NULL);
+  if (!session || !data || (len == 0) || session->slab) {
+    wuffs_imageio_set_error("invalid argument");
+    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+  }
+  return wuffs_imageio_session_start(session, data, len, params);
+}
+
+WUFFS_IMAGEIO_API void wuffs_session_close(wuffs_imageio_session* session) {
+  if (!session) {
+    return;
+  }
+  wuffs_memory_slab* slab = session->slab;
+  wuffs_imageio_free(slab, session->staging);
+  wuffs_imageio_free(slab, session->color_transform);
+  wuffs_imageio_metadata_free(&session->metadata);
+  wuffs_imageio_free(slab, session->workbuf_ptr);
+  wuffs_imageio_free(slab, session->carry);
+  wuffs_imageio_free(slab, session->decoder_mem);
+  wuffs_imageio_free(slab, session);
+}
+
+// Validates the image config and allocates the work buffer, reusing the one
+// from a previous image when it is large enough. Runs once per image, when the
+// session moves past the image config stage.
+static int wuffs_imageio_session_prepare(wuffs_imageio_session* s) {
+  uint32_t w = wuffs_base__pixel_config__width(&s->image_config.pixcfg);
+  uint32_t h = wuffs_base__pixel_config__height(&s->image_config.pixcfg);
+  if ((w == 0) || (h == 0)) {
+    return wuffs_imageio_fail_wuffs(wuffs_base__make_status(wuffs_base__error__bad_argument));
+  }
+
+  uint64_t row_bytes = ((uint64_t)w) * s->dst_bytes_per_pixel;
+  if ((row_bytes == 0) || (row_bytes > (UINT64_MAX / (uint64_t)h))) {
+    wuffs_imageio_set_error("invalid argument");
+    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+  }
+  uint64_t expected = row_bytes * ((uint64_t)h);
+  if (expected > UINT32_MAX) {
+    wuffs_imageio_set_error("invalid argument");
+    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+  }
+  wuffs_base__range_ii_u64 workbuf_range =
+      wuffs_base__image_decoder__workbuf_len(s->decoder);
+  uint64_t workbuf_len_u64 = workbuf_range.max_incl;
+  if (workbuf_len_u64 > (uint64_t)SIZE_MAX) {
+    wuffs_imageio_set_error("invalid argument");
+    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+  }
+  size_t workbuf_len = (size_t)workbuf_len_u64;
+  if (workbuf_len > s->workbuf_cap) {
+    wuffs_imageio_free(s->slab, s->workbuf_ptr);
+    s->workbuf_cap = 0;
+    s->workbuf_ptr = (uint8_t*)wuffs_imageio_alloc(s->slab, workbuf_len);
+    if (!s->workbuf_ptr) {
+      return WUFFS_IMAGEIO_ERR_OUT_OF_MEMORY;
+    }
+    s->workbuf_cap = workbuf_len;
+  }
+  if (s->orientation >= 5) {
+    s->staging = (uint8_t*)wuffs_imageio_alloc(s->slab, (size_t)expected);
+    if (!s->staging) {
+      return WUFFS_IMAGEIO_ERR_OUT_OF_MEMORY;
+    }
+  }
+  s->workbuf_len = workbuf_len;
+  s->src_width = w;
+  s->src_height = h;
+  s->width = (s->orientation >= 5) ? h : w;
+  s->height = (s->orientation >= 5) ? w : h;
+  s->expected = expected;
+  return WUFFS_IMAGEIO_OK;
+}
+
+// Step timings cost two clock reads per stage, so they are only taken when
+// the caller asked for them.
+static uint64_t wuffs_imageio_session_clock(const wuffs_imageio_session* s) {
+  return (s->flags & WUFFS_IMAGEIO_FLAG_COLLECT_TIMINGS) ? wuffs_imageio_now_ns() : 0;
+}
+
+static uint64_t wuffs_imageio_session_elapsed_ns(const wuffs_imageio_session* s, uint64_t since) {
+  return (s->flags & WUFFS_IMAGEIO_FLAG_COLLECT_TIMINGS) ? wuffs_imageio_elapsed_ns(since) : 0;
+}
+
+// Runs the session's stages over `src` until the frame is done (or, with a
+// NULL `dst_pixels`, until the image configuration is known), the input runs
+// out or an error occurs. Callers track consumption via src->meta.ri and fill
+// the step result.
+static int wuffs_imageio_session_run(
+    wuffs_imageio_session* s, wuffs_base__io_buffer* src, uint8_t* dst_pixels, size_t dst_len) {
+  wuffs_base__status status;
+
+  uint64_t t0 = wuffs_imageio_session_clock(s);
+  if (s->stage == WUFFS_IMAGEIO_STAGE_IMAGE_CONFIG) {
+    while (true) {
+      if (s->metadata_pending) {
+        int rc = wuffs_imageio_drain_metadata(s->decoder, &s->metadata, src);
+        if (rc == WUFFS_IMAGEIO_SUSPENDED) {
+          s->config_ns += wuffs_imageio_session_elapsed_ns(s, t0);
+          return WUFFS_IMAGEIO_SUSPENDED;
+        }
+        if (rc != WUFFS_IMAGEIO_OK) {
+          return rc;
+        }
+        s->metadata_pending = 0;
+      }
+      status = wuffs_base__image_decoder__decode_image_config(s->decoder, &s->image_config, src);
+      if (status.repr != wuffs_base__note__metadata_reported) {
+        break;
+      }
+      s->metadata_pending = 1;
+    }
+    s->config_ns += wuffs_imageio_session_elapsed_ns(s, t0);
+    if (wuffs_imageio_needs_more_input(status, src)) {
+      return WUFFS_IMAGEIO_SUSPENDED;
+    }
+    if (!wuffs_base__status__is_ok(&status)) {
+      return wuffs_imageio_fail_wuffs(status);
+    }
+    int rc = wuffs_imageio_session_prepare(s);
+    if (rc != WUFFS_IMAGEIO_OK) {
+      return rc;
+    }
+    if (dst_pixels && ((uint64_t)dst_len < s->expected)) {
+      wuffs_imageio_set_error("invalid argument");
+      return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+    }
+    if (s->flags & WUFFS_IMAGEIO_FLAG_CONVERT_TO_SRGB) {
+      s->color_transform = wuffs_imageio_new_color_transform(&s->metadata, s->slab, &rc);
+      if (rc != WUFFS_IMAGEIO_OK) {
+        return rc;
+      }
+      // The profile is no longer needed once the tables are built.
+      wuffs_imageio_metadata_free(&s->metadata);
+    }
+    s->stage = WUFFS_IMAGEIO_STAGE_FRAME_CONFIG;
+  }
+
+  // Without a destination the caller only wants the (oriented) dimensions.
+  if (!dst_pixels) {
+    return WUFFS_IMAGEIO_OK;
+  }
+
+  if (s->stage == WUFFS_IMAGEIO_STAGE_FRAME_CONFIG) {
+    t0 = wuffs_imageio_session_clock(s);
+    while (true) {
+      if (s->metadata_pending) {
+        int rc = wuffs_imageio_drain_metadata(s->decoder, &s->metadata, src);
+        if (rc == WUFFS_IMAGEIO_SUSPENDED) {
+          s->config_ns += wuffs_imageio_session_elapsed_ns(s, t0);
+          return WUFFS_IMAGEIO_SUSPENDED;
+        }
+        if (rc != WUFFS_IMAGEIO_OK) {
+          return rc;
+        }
+        s->metadata_pending = 0;
+      }
+      status = wuffs_base__image_decoder__decode_frame_config(s->decoder, &s->frame_config, src);
+      if (status.repr != wuffs_base__note__metadata_reported) {
+        break;
+      }
+      // Chunks reported this late do not affect the color transform.
+      s->metadata_pending = 1;
+    }
+    s->config_ns += wuffs_imageio_session_elapsed_ns(s, t0);
+    if (wuffs_imageio_needs_more_input(status, src)) {
+      return WUFFS_IMAGEIO_SUSPENDED;
+    }
+    if (!wuffs_base__status__is_ok(&status)) {
+      return wuffs_imageio_fail_wuffs(status);
+    }
+    s->stage = WUFFS_IMAGEIO_STAGE_FRAME;
+  }
+
+  if (s->stage == WUFFS_IMAGEIO_STAGE_FRAME) {
+    if ((uint64_t)dst_len < s->expected) {
+      wuffs_imageio_set_error("invalid argument");
+      return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+    }
+
+    wuffs_base__pixel_config pixcfg = wuffs_base__null_pixel_config();
+    wuffs_base__pixel_config__set(&pixcfg, s->dst_pixfmt,
+                                  WUFFS_BASE__PIXEL_SUBSAMPLING__NONE, s->src_width, s->src_height);
+
+    // Transposing orientations decode into the staging buffer first.
+    uint8_t* decoded = s->staging ? s->staging : dst_pixels;
+    size_t decoded_len = s->staging ? (size_t)s->expected : dst_len;
+    wuffs_base__pixel_buffer pb;
+    status = wuffs_base__pixel_buffer__set_from_slice(
+        &pb, &pixcfg, wuffs_base__make_slice_u8(decoded, decoded_len));
+    if (!wuffs_base__status__is_ok(&status)) {
+      wuffs_imageio_set_error("invalid argument");
+      return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+    }
+
+    wuffs_base__slice_u8 workbuf = wuffs_base__make_slice_u8(s->workbuf_ptr, s->workbuf_len);
+    t0 = wuffs_imageio_session_clock(s);
+    status = wuffs_base__image_decoder__decode_frame(
+        s->decoder, &pb, src, WUFFS_BASE__PIXEL_BLEND__SRC, workbuf, NULL);
+    s->decode_ns += wuffs_imageio_session_elapsed_ns(s, t0);
+    if (wuffs_imageio_needs_more_input(status, src)) {
+      return WUFFS_IMAGEIO_SUSPENDED;
+    }
+    if (!wuffs_base__status__is_ok(&status)) {
+      return wuffs_imageio_fail_wuffs(status);
+    }
+    if (s->color_transform) {
+      t0 = wuffs_imageio_session_clock(s);
+      wuffs_imageio_convert_to_srgb(s->color_transform, s->dst_pixfmt, decoded,
+                                    (uint64_t)s->width * (uint64_t)s->height);
+      s->decode_ns += wuffs_imageio_session_elapsed_ns(s, t0);
+    }
+    if (s->orientation != 1) {
+      t0 = wuffs_imageio_session_clock(s);
+      wuffs_imageio_orient(s->orientation, decoded, dst_pixels, s->src_width, s->src_height, s->dst_bytes_per_pixel);
+      s->decode_ns += wuffs_imageio_session_elapsed_ns(s, t0);
+      wuffs_imageio_free(s->slab, s->staging);
+      s->staging = NULL;
+    }
+    s->stage = WUFFS_IMAGEIO_STAGE_DONE;
+  }
+
+  return WUFFS_IMAGEIO_OK;
+}
+
+WUFFS_IMAGEIO_API int wuffs_session_step(
+    wuffs_imageio_session* session,
+    const uint8_t* data, size_t len, size_t avail,
+    uint8_t* dst_pixels, size_t dst_len,
+    wuffs_step_result* out) {
+  wuffs_imageio_set_error(NULL);
+  // A session whose reset failed has no decoder until the next successful one.
+  if (!session || !session->decoder || !data || !out) {
+    wuffs_imageio_set_error("invalid argument");
+    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+  }
+  if ((len == 0) || (avail > len) || (avail < session->consumed)) {
+    wuffs_imageio_set_error("invalid argument");
+    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+  }
+
+  wuffs_base__io_buffer src =
+      wuffs_base__ptr_u8__reader((uint8_t*)data, avail, avail == len);
+  src.meta.ri = (size_t)session->consumed;
+  int rc = wuffs_imageio_session_run(session, &src, dst_pixels, dst_len);
+  session->consumed = src.meta.ri;
+  if (rc < 0) {
+    return rc;
+  }
+  wuffs_imageio_fill_step_result(session, out);
+  return rc;
+}
+
+// ---- Scatter-gather input ----
+
+// The first slice of a chunk that wuffs_session_feed joins to the carried
+// bytes; it doubles while the decoder still cannot get past them.
+#define WUFFS_IMAGEIO_CARRY_MIN_BYTES 4096u
+
+// Appends `n` bytes to the session's carry buffer, growing it as needed.
+static int wuffs_imageio_carry_append(wuffs_imageio_session* s, const uint8_t* p, size_t n) {
+  if (n > (s->carry_cap - s->carry_len)) {
+    size_t cap = s->carry_cap ? s->carry_cap : WUFFS_IMAGEIO_CARRY_MIN_BYTES;
+    while ((cap - s->carry_len) < n) {
+      if (cap > (SIZE_MAX / 2)) {
+        wuffs_imageio_set_error("out of memory");
+        return WUFFS_IMAGEIO_ERR_OUT_OF_MEMORY;
+      }
+      cap *= 2;
+    }
+    uint8_t* grown = (uint8_t*)wuffs_imageio_alloc(s->slab, cap);
+    if (!grown) {
+      return WUFFS_IMAGEIO_ERR_OUT_OF_MEMORY;
+    }
+    if (s->carry_len > 0) {
+      memcpy(grown, s->carry, s->carry_len);
+    }
+    wuffs_imageio_free(s->slab, s->carry);
+    s->carry = grown;
+    s->carry_cap = cap;
+  }
+  if (n > 0) {
+    memcpy(s->carry + s->carry_len, p, n);
+    s->carry_len += n;
+  }
+  return WUFFS_IMAGEIO_OK;
+}
+
+WUFFS_IMAGEIO_API int wuffs_session_feed(
+    wuffs_imageio_session* session,
+    const uint8_t* chunk, size_t len, size_t offset, uint32_t final,
+    uint8_t* dst_pixels, size_t dst_len,
+    wuffs_step_result* out) {
+  wuffs_imageio_set_error(NULL);
+  if (!session || !session->decoder || !chunk || !out || (len == 0) || (offset > len)) {
+    wuffs_imageio_set_error("invalid argument");
+    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+  }
+
+  wuffs_imageio_session* s = session;
+  int closed = (final != 0);
+  // Bytes of this chunk that have been consumed or moved to the carry buffer.
+  size_t pos = offset;
+  int rc;
+
+  // Bytes left over from the previous chunk come first: a header field or a
+  // compressed code that straddles the boundary. They are joined with just
+  // enough of this chunk's head for the decoder to get past them.
+  size_t take = WUFFS_IMAGEIO_CARRY_MIN_BYTES;
+  while (s->carry_len > 0) {
+    size_t old = s->carry_len;
+    size_t n = (take < (len - pos)) ? take : (len - pos);
+    rc = wuffs_imageio_carry_append(s, chunk + pos, n);
+    if (rc != WUFFS_IMAGEIO_OK) {
+      return rc;
+    }
+    pos += n;
+
+    wuffs_base__io_buffer src =
+        wuffs_base__ptr_u8__reader(s->carry, s->carry_len, closed && (pos == len));
+    // Decoders compare stream positions across calls (frame config restarts).
+    src.meta.pos = s->consumed;
+    rc = wuffs_imageio_session_run(s, &src, dst_pixels, dst_len);
+    size_t ri = src.meta.ri;
+    s->consumed += ri;
+    if (rc < 0) {
+      return rc;
+    }
+    if (ri >= old) {
+      // Past the carried bytes: the rest of the carry buffer is this chunk's,
+      // so continue reading the chunk in place.
+      pos -= s->carry_len - ri;
+      s->carry_len = 0;
+      if (rc == WUFFS_IMAGEIO_OK) {
+        wuffs_imageio_fill_step_result(s, out);
+        out->chunk_used = pos;
+        return rc;
+      }
+      break;
+    }
+    memmove(s->carry, s->carry + ri, s->carry_len - ri);
+    s->carry_len -= ri;
+    if ((rc == WUFFS_IMAGEIO_OK) || (pos == len)) {
+      wuffs_imageio_fill_step_result(s, out);
+      out->chunk_used = pos;
+      return rc;
+    }
+    if (take <= (SIZE_MAX / 2)) {
+      take *= 2;
+    }
+  }
+
+  wuffs_base__io_buffer src = wuffs_base__ptr_u8__reader((uint8_t*)chunk, len, closed);
+  src.meta.ri = pos;
+  src.meta.pos = s->consumed - pos;
+  rc = wuffs_imageio_session_run(s, &src, dst_pixels, dst_len);
+  s->consumed += src.meta.ri - pos;
+  if (rc < 0) {
+    return rc;
+  }
+  pos = src.meta.ri;
+  if (rc == WUFFS_IMAGEIO_SUSPENDED) {
+    // Keep what the decoder could not use yet for the next chunk.
+    int carry_rc = wuffs_imageio_carry_append(s, chunk + pos, len - pos);
+    if (carry_rc != WUFFS_IMAGEIO_OK) {
+      return carry_rc;
+    }
+    pos = len;
+  }
+  wuffs_imageio_fill_step_result(s, out);
+  out->chunk_used = pos;
+  return rc;
+}
+
+WUFFS_IMAGEIO_API int wuffs_read_icc_profile(
+    const uint8_t* data, size_t len,
+    uint8_t* dst, size_t dst_cap,
+    uint64_t* out_len) {
+  wuffs_imageio_set_error(NULL);
+  if (!data || (len == 0) || !out_len || (!dst && (dst_cap != 0))) {
+    wuffs_imageio_set_error("invalid argument");
+    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+  }
+  *out_len = 0;
+
+  wuffs_base__slice_u8 prefix = wuffs_base__make_slice_u8((uint8_t*)data, len);
+  int32_t fourcc = wuffs_base__magic_number_guess_fourcc(prefix, true);
+  wuffs_base__image_decoder* decoder = NULL;
+  void* decoder_mem = NULL;
+  int rc = wuffs_imageio_new_decoder(fourcc, NULL, &decoder, &decoder_mem);
+  if (rc != WUFFS_IMAGEIO_OK) {
+    return rc;
+  }
+
+  wuffs_base__image_config image_config = wuffs_base__null_image_config();
+  wuffs_base__io_buffer src = wuffs_base__ptr_u8__reader((uint8_t*)data, len, true);
+  wuffs_imageio_metadata md;
+  memset(&md, 0, sizeof(md));
+  md.icc_dst = dst;
+  md.icc_dst_cap = dst_cap;
+  rc = wuffs_imageio_decode_image_config_with_color(decoder, &image_config, &src, &md, 1);
+  wuffs_imageio_free(NULL, decoder_mem);
+  if (rc != WUFFS_IMAGEIO_OK) {
+    return rc;
+  }
+  *out_len = md.color.icc_len;
+  return WUFFS_IMAGEIO_OK;
+}
+
+// JPEG carries EXIF and XMP in APP1 segments, which Wuffs does not report.
+static void wuffs_imageio_read_jpeg_metadata(const uint8_t* data, size_t len, wuffs_imageio_records* records) {
+  static const uint8_t comment[] = {'C', 'o', 'm', 'm', 'e', 'n', 't'};
+  size_t pos = 0;
+  uint8_t marker = 0;
+  const uint8_t* p = NULL;
+  size_t n = 0;
+  while (wuffs_imageio_jpeg_next_segment(data, len, &pos, &marker, &p, &n)) {
+    if ((marker == 0xE1) && (n >= sizeof(wuffs_imageio_exif_prefix)) &&
+        (memcmp(p, wuffs_imageio_exif_prefix, sizeof(wuffs_imageio_exif_prefix)) == 0)) {
+      wuffs_imageio_records_add(records, WUFFS_IMAGEIO_RECORD_EXIF,
+          p + sizeof(wuffs_imageio_exif_prefix), n - sizeof(wuffs_imageio_exif_prefix));
+    } else if ((marker == 0xE1) && (n >= sizeof(wuffs_imageio_xmp_prefix)) &&
+               (memcmp(p, wuffs_imageio_xmp_prefix, sizeof(wuffs_imageio_xmp_prefix)) == 0)) {
+      // The namespace is NUL-terminated; sizeof includes the NUL.
+      wuffs_imageio_records_add(records, WUFFS_IMAGEIO_RECORD_XMP,
+          p + sizeof(wuffs_imageio_xmp_prefix), n - sizeof(wuffs_imageio_xmp_prefix));
+    } else if ((marker == 0xE0) && (n >= 12) && (memcmp(p, "JFIF", 5) == 0) && (p[7] <= 2)) {
+      // JFIF density: unit 0 is an aspect ratio, 1 dots per inch, 2 dots per cm.
+      uint32_t x = ((uint32_t)p[8] << 8) | p[9];
+      uint32_t y = ((uint32_t)p[10] << 8) | p[11];
+      uint8_t unit = (p[7] == 0) ? 0 : 1;
+      if (p[7] == 1) {
+        x = (uint32_t)(x / 0.0254 + 0.5);
+        y = (uint32_t)(y / 0.0254 + 0.5);
+      } else if (p[7] == 2) {
+        x *= 100;
+        y *= 100;
+      }
+      uint8_t phys[9] = {
+          (uint8_t)(x >> 24), (uint8_t)(x >> 16), (uint8_t)(x >> 8), (uint8_t)x,
+          (uint8_t)(y >> 24), (uint8_t)(y >> 16), (uint8_t)(y >> 8), (uint8_t)y, unit};
+      wuffs_imageio_records_add(records, WUFFS_IMAGEIO_RECORD_PHYS, phys, sizeof(phys));
+    } else if (marker == 0xFE) {
+      wuffs_imageio_records_add(records, WUFFS_IMAGEIO_RECORD_TEXT_KEY, comment, sizeof(comment));
+      wuffs_imageio_records_add(records, WUFFS_IMAGEIO_RECORD_TEXT_VALUE, p, n);
+    }
+  }
+}
+
+// Reports text, EXIF and XMP items from the image config and, by skipping
+// frames without decoding them, from the chunks after the image data.
+static int wuffs_imageio_read_png_metadata(const uint8_t* data, size_t len, wuffs_imageio_records* records) {
+  wuffs_base__image_decoder* decoder = NULL;
+  void* decoder_mem = NULL;
+  int rc = wuffs_imageio_new_decoder(WUFFS_BASE__FOURCC__PNG, NULL, &decoder, &decoder_mem);
+  if (rc != WUFFS_IMAGEIO_OK) {
+    return rc;
+  }
+  wuffs_base__image_decoder__set_report_metadata(decoder, WUFFS_BASE__FOURCC__KVP, true);
+  wuffs_base__image_decoder__set_report_metadata(decoder, WUFFS_BASE__FOURCC__EXIF, true);
+  wuffs_base__image_decoder__set_report_metadata(decoder, WUFFS_BASE__FOURCC__XMP, true);
+
+  wuffs_base__io_buffer src = wuffs_base__ptr_u8__reader((uint8_t*)data, len, true);
+  wuffs_imageio_metadata md;
+  memset(&md, 0, sizeof(md));
+  md.records = records;
+
+  wuffs_base__image_config image_config = wuffs_base__null_image_config();
+  int in_frames = 0;
+  while (true) {
+    wuffs_base__status status;
+    if (!in_frames) {
+      status = wuffs_base__image_decoder__decode_image_config(decoder, &image_config, &src);
+    } else {
+      wuffs_base__frame_config frame_config = wuffs_base__null_frame_config();
+      status = wuffs_base__image_decoder__decode_frame_config(decoder, &frame_config, &src);
+    }
+    if (status.repr == wuffs_base__note__metadata_reported) {
+      rc = wuffs_imageio_drain_metadata(decoder, &md, &src);
+      if (rc == WUFFS_IMAGEIO_SUSPENDED) {
+        rc = wuffs_imageio_fail_wuffs(wuffs_base__make_status(wuffs_base__suspension__short_read));
+      }
+      if (rc != WUFFS_IMAGEIO_OK) {
+        break;
+      }
+      continue;
+    }
+    if (status.repr == wuffs_base__note__end_of_data) {
+      rc = WUFFS_IMAGEIO_OK;
+      break;
+    }
+    if (!wuffs_base__status__is_ok(&status)) {
+      rc = wuffs_imageio_fail_wuffs(status);
+      break;
+    }
+    in_frames = 1;
+  }
+  wuffs_imageio_records_end(records);
+  wuffs_imageio_free(NULL, decoder_mem);
+  return rc;
+}
+
+WUFFS_IMAGEIO_API int wuffs_read_metadata(
+    const uint8_t* data, size_t len,
+    uint8_t* dst, size_t dst_cap,
+    uint64_t* out_len) {
+  wuffs_imageio_set_error(NULL);
+  if (!data || (len == 0) || !out_len || (!dst && (dst_cap != 0))) {
+    wuffs_imageio_set_error("invalid argument");
+    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+  }
+  *out_len = 0;
+
+  wuffs_imageio_records records;
+  memset(&records, 0, sizeof(records));
+  records.dst = dst;
+  records.cap = dst_cap;
+
+  wuffs_base__slice_u8 prefix = wuffs_base__make_slice_u8((uint8_t*)data, len);
+  int32_t fourcc = wuffs_base__magic_number_guess_fourcc(prefix, true);
+  if (fourcc == WUFFS_BASE__FOURCC__JPEG) {
+    wuffs_imageio_read_jpeg_metadata(data, len, &records);
+  } else if (fourcc == WUFFS_BASE__FOURCC__PNG) {
+    // Wuffs does not report pHYs.
+    const uint8_t* phys = NULL;
+    size_t phys_len = 0;
+    if (wuffs_imageio_png_find_chunk(data, len, "pHYs", &phys, &phys_len) && (phys_len == 9)) {
+      wuffs_imageio_records_add(&records, WUFFS_IMAGEIO_RECORD_PHYS, phys, phys_len);
+    }
+    int rc = wuffs_imageio_read_png_metadata(data, len, &records);
+    if (rc != WUFFS_IMAGEIO_OK) {
+      return rc;
+    }
+  } else {
+    wuffs_imageio_set_error("unsupported format");
+    return WUFFS_IMAGEIO_ERR_UNSUPPORTED_FORMAT;
+  }
+  *out_len = records.len;
+  return WUFFS_IMAGEIO_OK;
+}
+
+WUFFS_IMAGEIO_API int wuffs_decode_frame_into(
+    const uint8_t* data, size_t len,
+    uint32_t frame_index,
+    const wuffs_decode_params* params,
+    uint8_t* dst_pixels, size_t dst_len,
+    wuffs_frame_result* out) {
+  wuffs_imageio_set_error(NULL);
+  if (!data || !dst_pixels || !out) {
+    wuffs_imageio_set_error("invalid argument");
+    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+  }
+  if (len == 0) {
+    wuffs_imageio_set_error("invalid argument");
+    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+  }
+  if (frame_index != 0) {
+    wuffs_imageio_set_error("not implemented");
+    return WUFFS_IMAGEIO_ERR_NOT_IMPLEMENTED;
+  }
+
+  wuffs_imageio_session* session = NULL;
+  int rc = wuffs_session_open(data, len, params, &session);
+  if (rc != WUFFS_IMAGEIO_OK) {
+    return rc;
+  }
+
+  // With the whole input exposed, a single step runs the decode to completion.
+  wuffs_step_result step;
+  rc = wuffs_session_step(session, data, len, len, dst_pixels, dst_len, &step);
+  wuffs_session_close(session);
+  if (rc != WUFFS_IMAGEIO_OK) {
+    return rc;
+  }
+
+  out->width = step.width;
+  out->height = step.height;
+  out->stride_bytes = step.stride_bytes;
+  out->bytes_written = step.bytes_written;
+  return WUFFS_IMAGEIO_OK;
+}
+
+// ---- PNG encoding ----
+//
+// Wuffs only decodes, so the encoder is self-contained: per-row PNG filtering
+// followed by a deflate compressor (hash-chain LZ77 and per-block choice of
+// stored, fixed or dynamic Huffman coding). Rows are encoded in independent
+// bands so callers can compress bands in parallel and concatenate the output.
+
+#define WUFFS_IMAGEIO_DEFLATE_WINDOW 32768
+#define WUFFS_IMAGEIO_DEFLATE_WMASK (WUFFS_IMAGEIO_DEFLATE_WINDOW - 1)
+#define WUFFS_IMAGEIO_DEFLATE_HASH_BITS 15
+#define WUFFS_IMAGEIO_DEFLATE_MIN_MATCH 3
+#define WUFFS_IMAGEIO_DEFLATE_MAX_MATCH 258
+#define WUFFS_IMAGEIO_DEFLATE_BLOCK_SYMBOLS 32768
+#define WUFFS_IMAGEIO_DEFLATE_MAX_STORED 65535
+
+static const uint16_t wuffs_imageio_len_base[29] = {
+    3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+static const uint8_t wuffs_imageio_len_extra[29] = {
+    0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+static const uint16_t wuffs_imageio_dist_base[30] = {
+    1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097,
+    6145, 8193, 12289, 16385, 24577};
+static const uint8_t wuffs_imageio_dist_extra[30] = {
+    0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+// Order in which code length code lengths are stored (RFC 1951 3.2.7).
+static const uint8_t wuffs_imageio_clen_order[19] = {
+    16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+
+// Per-level LZ77 effort: hash chain length, lazy matching, the length at which
+// a match is taken without searching further, and the longest match whose
+// positions are still inserted into the hash chains.
+typedef struct {
+  uint16_t max_chain;
+  uint8_t lazy;
+  uint16_t nice_len;
+  uint16_t max_insert;
+} wuffs_imageio_deflate_level;
+
+static const wuffs_imageio_deflate_level wuffs_imageio_deflate_levels[10] = {
+    {0, 0, 0, 0},
+    {1, 0, 8, 4},
+    {4, 0, 16, 8},
+    {8, 0, 32, 16},
+    {16, 1, 16, 258},
+    {32, 1, 32, 258},
+    {128, 1, 128, 258},
+    {256, 1, 128, 258},
+    {1024, 1, 258, 258},
+    {4096, 1, 258, 258},
+};
+
+typedef struct {
+  uint8_t* dst;
+  size_t cap;
+  size_t pos;
+  uint64_t bits;
+  uint32_t nbits;
+  int overflow;
+} wuffs_imageio_bitwriter;
+
+static void wuffs_imageio_bw_flush32(wuffs_imageio_bitwriter* bw) {
+  while (bw->nbits >= 8) {
+    if (bw->pos < bw->cap) {
+      bw->dst[bw->pos] = (uint8_t)bw->bits;
+    } else {
+      bw->overflow = 1;
+    }
+    bw->pos++;
+    bw->bits >>= 8;
+    bw->nbits -= 8;
+  }
+}
+
+// Appends the low `n` (<= 16) bits of `value`, least significant first.
+static inline void wuffs_imageio_bw_put(wuffs_imageio_bitwriter* bw, uint32_t value, uint32_t n) {
+  bw->bits |= ((uint64_t)value) << bw->nbits;
+  bw->nbits += n;
+  if (bw->nbits >= 32) {
+    wuffs_imageio_bw_flush32(bw);
+  }
+}
+
+// Pads to a byte boundary and writes out everything buffered.
+static void wuffs_imageio_bw_align(wuffs_imageio_bitwriter* bw) {
+  bw->nbits = (bw->nbits + 7) & ~7u;
+  wuffs_imageio_bw_flush32(bw);
+}
+
+static void wuffs_imageio_bw_bytes(wuffs_imageio_bitwriter* bw, const uint8_t* p, size_t n) {
+  if ((bw->pos > bw->cap) || (n > (bw->cap - bw->pos))) {
+    bw->overflow = 1;
+    bw->pos += n;
+    return;
+  }
+  memcpy(bw->dst + bw->pos, p, n);
+  bw->pos += n;
+}
+
+static uint32_t wuffs_imageio_reverse_bits(uint32_t code, uint32_t n) {
+  uint32_t r = 0;
+  for (uint32_t i = 0; i < n; i++) {
+    r = (r << 1) | (code & 1);
+    code >>= 1;
+  }
+  return r;
+}
+
+// In-place minimum-redundancy code lengths (Moffat and Katajainen). `a` holds
+// `n` frequencies in ascending order on entry and their code lengths on exit.
+static void wuffs_imageio_min_redundancy(uint32_t* a, int n) {
+  if (n == 0) {
+    return;
+  }
+  if (n == 1) {
+    a[0] = 1;
+    return;
+  }
+  a[0] += a[1];
+  int root = 0;
+  int leaf = 2;
+  for (int next = 1; next < n - 1; next++) {
+    if ((leaf >= n) || (a[root] < a[leaf])) {
+      a[next] = a[root];
+      a[root++] = (uint32_t)next;
+    } else {
+      a[next] = a[leaf++];
+    }
+    if ((leaf >= n) || ((root < next) && (a[root] < a[leaf]))) {
+      a[next] += a[root];
+      a[root++] = (uint32_t)next;
+    } else {
+      a[next] += a[leaf++];
+    }
+  }
+  a[n - 2] = 0;
+  for (int next = n - 3; next >= 0; next--) {
+    a[next] = a[a[next]] + 1;
+  }
+  int avbl = 1;
+  int used = 0;
+  uint32_t depth = 0;
+  root = n - 2;
+  int next = n - 1;
+  while (avbl > 0) {
+    while ((root >= 0) && (a[root] == depth)) {
+      used++;
+      root--;
+    }
+    while (avbl > used) {
+      a[next--] = depth;
+      avbl--;
+    }
+    avbl = 2 * used;
+    depth++;
+    used = 0;
+  }
+}
+
+// Builds code lengths of at most `limit` bits for `n` symbols and the
+// matching bit-reversed canonical codes. Fewer than two used symbols get a
+// dummy partner so every tree is complete.
+static void wuffs_imageio_huffman_build(
+    const uint32_t* freq, int n, uint32_t limit, uint8_t* lengths, uint16_t* codes) {
+  uint32_t f[288];
+  uint16_t sym[288];
+  int used = 0;
+  for (int i = 0; i < n; i++) {
+    lengths[i] = 0;
+    if (freq[i]) {
+      sym[used++] = (uint16_t)i;
+    }
+  }
+  for (int i = 0; (used < 2) && (i < n); i++) {
+    if (!freq[i] && ((used == 0) || (sym[0] != i))) {
+      sym[used++] = (uint16_t)i;
+    }
+  }
+  // Insertion sort by frequency; alphabets are at most 288 symbols.
+  for (int i = 1; i < used; i++) {
+    uint16_t s = sym[i];
+    uint32_t fs = freq[s] ? freq[s] : 1;
+    int j = i - 1;
+    while ((j >= 0) && ((freq[sym[j]] ? freq[sym[j]] : 1) > fs)) {
+      sym[j + 1] = sym[j];
+      j--;
+    }
+    sym[j + 1] = s;
+  }
+  for (int i = 0; i < used; i++) {
+    f[i] = freq[sym[i]] ? freq[sym[i]] : 1;
+  }
+  wuffs_imageio_min_redundancy(f, used);
+
+  // Clamp to `limit` bits, then repair the Kraft sum by lengthening the
+  // shortest codes that can give up a slot.
+  uint32_t count[33] = {0};
+  for (int i = 0; i < used; i++) {
+    count[(f[i] > limit) ? limit : f[i]]++;
+  }
+  uint32_t total = 0;
+  for (uint32_t i = limit; i > 0; i--) {
+    total += count[i] << (limit - i);
+  }
+  while (total > (1u << limit)) {
+    count[limit]--;
+    for (uint32_t i = limit - 1; i > 0; i--) {
+      if (count[i]) {
+        count[i]--;
+        count[i + 1] += 2;
+        break;
+      }
+    }
+    total--;
+  }
+  // The most frequent symbols (at the end of `sym`) get the shortest codes.
+  int j = used;
+  for (uint32_t len = 1; len <= limit; len++) {
+    for (uint32_t k = count[len]; k > 0; k--) {
+      lengths[sym[--j]] = (uint8_t)len;
+    }
+  }
+
+  uint32_t bl_count[16] = {0};
+  for (int i = 0; i < n; i++) {
+    bl_count[lengths[i]]++;
+  }
+  bl_count[0] = 0;
+  uint32_t next_code[16] = {0};
+  uint32_t code = 0;
+  for (uint32_t bits = 1; bits <= 15; bits++) {
+    code = (code + bl_count[bits - 1]) << 1;
+    next_code[bits] = code;
+  }
+  for (int i = 0; i < n; i++) {
+    if (lengths[i]) {
+      codes[i] = (uint16_t)wuffs_imageio_reverse_bits(next_code[lengths[i]]++, lengths[i]);
+    }
+  }
+}
+
+typedef struct {
+  const wuffs_imageio_deflate_level* level;
+  const uint8_t* in;
+  int32_t n;
+  int32_t* head;
+  int32_t* prev;
+  // Pending block: literals are < 256; matches are 0x80000000 | len << 16 | dist.
+  uint32_t* syms;
+  uint32_t nsyms;
+  int32_t block_start;
+  uint8_t len_code[WUFFS_IMAGEIO_DEFLATE_MAX_MATCH + 1];
+  uint8_t dist_code[512];
+  wuffs_imageio_bitwriter bw;
+} wuffs_imageio_deflater;
+
+static void wuffs_imageio_deflater_tables(wuffs_imageio_deflater* d) {
+  for (int c = 0; c < 29; c++) {
+    uint32_t end = (c == 28) ? 259 : wuffs_imageio_len_base[c + 1];
+    for (uint32_t len = wuffs_imageio_len_base[c]; len < end; len++) {
+      d->len_code[len] = (uint8_t)c;
+    }
+  }
+  d->len_code[258] = 28;
+  // Distances up to 256 index the first half directly, larger ones by (dist - 1) >> 7.
+  for (int c = 0; c < 30; c++) {
+    uint32_t lo = wuffs_imageio_dist_base[c];
+    uint32_t hi = lo + (1u << wuffs_imageio_dist_extra[c]);
+    for (uint32_t dist = lo; dist < hi; dist++) {
+      if (dist <= 256) {
+        d->dist_code[dist - 1] = (uint8_t)c;
+      } else {
+        d->dist_code[256 + ((dist - 1) >> 7)] = (uint8_t)c;
+      }
+    }
+  }
+}
+
+static inline uint32_t wuffs_imageio_dist_code(const wuffs_imageio_deflater* d, uint32_t dist) {
+  return (dist <= 256) ? d->dist_code[dist - 1] : d->dist_code[256 + ((dist - 1) >> 7)];
+}
+
+static void wuffs_imageio_emit_stored(wuffs_imageio_bitwriter* bw, const uint8_t* p, size_t n, int final) {
+  do {
+    size_t chunk = (n > WUFFS_IMAGEIO_DEFLATE_MAX_STORED) ? WUFFS_IMAGEIO_DEFLATE_MAX_STORED : n;
+    n -= chunk;
+    wuffs_imageio_bw_put(bw, (final && (n == 0)) ? 1 : 0, 3);
+    wuffs_imageio_bw_align(bw);
+    uint8_t header[4] = {(uint8_t)chunk, (uint8_t)(chunk >> 8), (uint8_t)~chunk, (uint8_t)(~chunk >> 8)};
+    wuffs_imageio_bw_bytes(bw, header, 4);
+    wuffs_imageio_bw_bytes(bw, p, chunk);
+    p += chunk;
+  } while (n > 0);
+}
+
+static void wuffs_imageio_emit_symbols(
+    wuffs_imageio_deflater* d,
+    const uint8_t* lit_len, const uint16_t* lit_code, const uint8_t* dist_len, const uint16_t* dist_code) {
+  wuffs_imageio_bitwriter* bw = &d->bw;
+  for (uint32_t i = 0; i < d->nsyms; i++) {
+    uint32_t s = d->syms[i];
+    if (!(s & 0x80000000u)) {
+      wuffs_imageio_bw_put(bw, lit_code[s], lit_len[s]);
+      continue;
+    }
+    uint32_t len = (s >> 16) & 0x1FF;
+    uint32_t dist = s & 0xFFFF;
+    if (dist == 0) {
+      dist = WUFFS_IMAGEIO_DEFLATE_WINDOW;
+    }
+    uint32_t lc = d->len_code[len];
+    wuffs_imageio_bw_put(bw, lit_code[257 + lc], lit_len[257 + lc]);
+    if (wuffs_imageio_len_extra[lc]) {
+      wuffs_imageio_bw_put(bw, len - wuffs_imageio_len_base[lc], wuffs_imageio_len_extra[lc]);
+    }
+    uint32_t dc = wuffs_imageio_dist_code(d, dist);
+    wuffs_imageio_bw_put(bw, dist_code[dc], dist_len[dc]);
+    if (wuffs_imageio_dist_extra[dc]) {
+      wuffs_imageio_bw_put(bw, dist - wuffs_imageio_dist_base[dc], wuffs_imageio_dist_extra[dc]);
+    }
+  }
+  wuffs_imageio_bw_put(bw, lit_code[256], lit_len[256]);
+}
+
+// Writes the pending symbols, covering in[block_start, end), as the cheapest
+// of a stored, fixed Huffman or dynamic Huffman block.
+static void wuffs_imageio_flush_block(wuffs_imageio_deflater* d, int32_t end, int final) {
+  uint32_t lit_freq[286] = {0};
+  uint32_t dist_freq[30] = {0};
+  uint64_t extra_bits = 0;
+  for (uint32_t i = 0; i < d->nsyms; i++) {
+    uint32_t s = d->syms[i];
+    if (!(s & 0x80000000u)) {
+      lit_freq[s]++;
+      continue;
+    }
+    uint32_t len = (s >> 16) & 0x1FF;
+    uint32_t dist = s & 0xFFFF;
+    if (dist == 0) {
+      dist = WUFFS_IMAGEIO_DEFLATE_WINDOW;
+    }
+    uint32_t lc = d->len_code[len];
+    uint32_t dc = wuffs_imageio_dist_code(d, dist);
+    lit_freq[257 + lc]++;
+    dist_freq[dc]++;
+    extra_bits += wuffs_imageio_len_extra[lc] + wuffs_imageio_dist_extra[dc];
+  }
+  lit_freq[256] = 1;
+
+  uint8_t lit_len[286];
+  uint16_t lit_code[286];
+  uint8_t dist_len[30];
+  uint16_t dist_code[30];
+  wuffs_imageio_huffman_build(lit_freq, 286, 15, lit_len, lit_code);
+  wuffs_imageio_huffman_build(dist_freq, 30, 15, dist_len, dist_code);
+
+  int hlit = 286;
+  while ((hlit > 257) && !lit_len[hlit - 1]) {
+    hlit--;
+  }
+  int hdist = 30;
+  while ((hdist > 1) && !dist_len[hdist - 1]) {
+    hdist--;
+  }
+
+  // Run-length encode the concatenated code lengths with symbols 16-18.
+  uint8_t all[286 + 30];
+  memcpy(all, lit_len, (size_t)hlit);
+  memcpy(all + hlit, dist_len, (size_t)hdist);
+  int total = hlit + hdist;
+  uint8_t rle_sym[286 + 30];
+  uint8_t rle_extra[286 + 30];
+  int nrle = 0;
+  for (int i = 0; i < total;) {
+    uint8_t v = all[i];
+    int run = 1;
+    while ((i + run < total) && (all[i + run] == v)) {
+      run++;
+    }
+    if (v == 0 && run >= 3) {
+      int r = (run > 138) ? 138 : run;
+      rle_sym[nrle] = (r <= 10) ? 17 : 18;
+      rle_extra[nrle++] = (uint8_t)((r <= 10) ? (r - 3) : (r - 11));
+      i += r;
+    } else if (v != 0 && run >= 4) {
+      rle_sym[nrle] = v;
+      rle_extra[nrle++] = 0;
+      int r = (run - 1 > 6) ? 6 : (run - 1);
+      rle_sym[nrle] = 16;
+      rle_extra[nrle++] = (uint8_t)(r - 3);
+      i += 1 + r;
+    } else {
+      rle_sym[nrle] = v;
+      rle_extra[nrle++] = 0;
+      i++;
+    }
+  }
+  uint32_t clen_freq[19] = {0};
+  for (int i = 0; i < nrle; i++) {
+    clen_freq[rle_sym[i]]++;
+  }
+  uint8_t clen_len[19];
+  uint16_t clen_code[19];
+  wuffs_imageio_huffman_build(clen_freq, 19, 7, clen_len, clen_code);
+  int hclen = 19;
+  while ((hclen > 4) && !clen_len[wuffs_imageio_clen_order[hclen - 1]]) {
+    hclen--;
+  }
+
+  uint64_t dynamic_bits = 3 + 5 + 5 + 4 + 3 * (uint64_t)hclen + extra_bits;
+  for (int i = 0; i < nrle; i++) {
+    uint8_t s = rle_sym[i];
+    dynamic_bits += clen_len[s] + ((s == 16) ? 2 : (s == 17) ? 3 : (s == 18) ? 7 : 0);
+  }
+  uint64_t fixed_bits = 3 + extra_bits;
+  for (int i = 0; i < 286; i++) {
+    dynamic_bits += (uint64_t)lit_freq[i] * lit_len[i];
+    fixed_bits += (uint64_t)lit_freq[i] * ((i < 144) ? 8 : (i < 256) ? 9 : (i < 280) ? 7 : 8);
+  }
+  for (int i = 0; i < 30; i++) {
+    dynamic_bits += (uint64_t)dist_freq[i] * dist_len[i];
+    fixed_bits += (uint64_t)dist_freq[i] * 5;
+  }
+  size_t raw_len = (size_t)(end - d->block_start);
+  uint64_t stored_bits = ((uint64_t)raw_len + 5 * (raw_len / WUFFS_IMAGEIO_DEFLATE_MAX_STORED + 1)) * 8 + 7;
+
+  wuffs_imageio_bitwriter* bw = &d->bw;
+  if ((stored_bits <= fixed_bits) && (stored_bits <= dynamic_bits)) {
+    wuffs_imageio_emit_stored(bw, d->in + d->block_start, raw_len, final);
+  } else if (fixed_bits <= dynamic_bits) {
+    uint8_t fl[288];
+    uint16_t fc[288];
+    uint8_t fdl[30];
+    uint16_t fdc[30];
+    uint32_t bl_next[10] = {0};
+    // Canonical fixed codes: 7-bit 256-279, 8-bit 0-143 and 280-287, 9-bit 144-255.
+    for (int i = 0; i < 288; i++) {
+      fl[i] = (uint8_t)((i < 144) ? 8 : (i < 256) ? 9 : (i < 280) ? 7 : 8);
+    }
+    bl_next[7] = 0;
+    bl_next[8] = 0x30;
+    bl_next[9] = 0x190;
+    for (int i = 256; i < 280; i++) fc[i] = (uint16_t)wuffs_imageio_reverse_bits(bl_next[7]++, 7);
+    for (int i = 0; i < 144; i++) fc[i] = (uint16_t)wuffs_imageio_reverse_bits(bl_next[8]++, 8);
+    for (int i = 280; i < 288; i++) fc[i] = (uint16_t)wuffs_imageio_reverse_bits(bl_next[8]++, 8);
+    for (int i = 144; i < 256; i++) fc[i] = (uint16_t)wuffs_imageio_reverse_bits(bl_next[9]++, 9);
+    for (int i = 0; i < 30; i++) {
+      fdl[i] = 5;
+      fdc[i] = (uint16_t)wuffs_imageio_reverse_bits((uint32_t)i, 5);
+    }
+    wuffs_imageio_bw_put(bw, final ? 1 : 0, 1);
+    wuffs_imageio_bw_put(bw, 1, 2);
+    wuffs_imageio_emit_symbols(d, fl, fc, fdl, fdc);
+  } else {
+    wuffs_imageio_bw_put(bw, final ? 1 : 0, 1);
+    wuffs_imageio_bw_put(bw, 2, 2);
+    wuffs_imageio_bw_put(bw, (uint32_t)(hlit - 257), 5);
+    wuffs_imageio_bw_put(bw, (uint32_t)(hdist - 1), 5);
+    wuffs_imageio_bw_put(bw, (uint32_t)(hclen - 4), 4);
+    for (int i = 0; i < hclen; i++) {
+      wuffs_imageio_bw_put(bw, clen_len[wuffs_imageio_clen_order[i]], 3);
+    }
+    for (int i = 0; i < nrle; i++) {
+      uint8_t s = rle_sym[i];
+      wuffs_imageio_bw_put(bw, clen_code[s], clen_len[s]);
+      if (s == 16) {
+        wuffs_imageio_bw_put(bw, rle_extra[i], 2);
+      } else if (s == 17) {
+        wuffs_imageio_bw_put(bw, rle_extra[i], 3);
+      } else if (s == 18) {
+        wuffs_imageio_bw_put(bw, rle_extra[i], 7);
+      }
+    }
+    wuffs_imageio_emit_symbols(d, lit_len, lit_code, dist_len, dist_code);
+  }
+  d->nsyms = 0;
+  d->block_start = end;
+}
+
+static inline uint32_t wuffs_imageio_hash3(const uint8_t* p) {
+  uint32_t v = (uint32_t)p[0] | ((uint32_t)p[1] << 8) | ((uint32_t)p[2] << 16);
+  return (v * 2654435761u) >> (32 - WUFFS_IMAGEIO_DEFLATE_HASH_BITS);
+}
+
+static inline void wuffs_imageio_insert(wuffs_imageio_deflater* d, int32_t pos) {
+  if (pos + WUFFS_IMAGEIO_DEFLATE_MIN_MATCH <= d->n) {
+    uint32_t h = wuffs_imageio_hash3(d->in + pos);
+    d->prev[pos & WUFFS_IMAGEIO_DEFLATE_WMASK] = d->head[h];
+    d->head[h] = pos;
+  }
+}
+
+static inline uint32_t wuffs_imageio_match_len(const uint8_t* a, const uint8_t* b, uint32_t limit) {
+  uint32_t len = 0;
+#if defined(__GNUC__) || defined(__clang__)
+  while (len + 8 <= limit) {
+    uint64_t x;
+    uint64_t y;
+    memcpy(&x, a + len, 8);
+    memcpy(&y, b + len, 8);
+    uint64_t diff = x ^ y;
+    if (diff) {
+      // Little-endian loads: the lowest differing byte is the first mismatch.
+      return len + (uint32_t)(__builtin_ctzll(diff) >> 3);
+    }
+    len += 8;
+  }
 #endif
+  while ((len < limit) && (a[len] == b[len])) {
+    len++;
+  }
+  return len;
+}
+
+// Inserts `pos` and returns the longest earlier match (0 if shorter than 3).
+static uint32_t wuffs_imageio_find_match(wuffs_imageio_deflater* d, int32_t pos, uint32_t* out_dist) {
+  if (pos + WUFFS_IMAGEIO_DEFLATE_MIN_MATCH > d->n) {
+    return 0;
+  }
+  uint32_t h = wuffs_imageio_hash3(d->in + pos);
+  int32_t cand = d->head[h];
+  d->prev[pos & WUFFS_IMAGEIO_DEFLATE_WMASK] = cand;
+  d->head[h] = pos;
+
+  uint32_t limit = (uint32_t)(d->n - pos);
+  if (limit > WUFFS_IMAGEIO_DEFLATE_MAX_MATCH) {
+    limit = WUFFS_IMAGEIO_DEFLATE_MAX_MATCH;
+  }
+  uint32_t best = WUFFS_IMAGEIO_DEFLATE_MIN_MATCH - 1;
+  uint32_t chain = d->level->max_chain;
+  const uint8_t* cur = d->in + pos;
+  while ((cand >= 0) && ((pos - cand) <= WUFFS_IMAGEIO_DEFLATE_WINDOW) && (chain-- > 0)) {
+    const uint8_t* m = d->in + cand;
+    if ((m[best] == cur[best]) && (m[0] == cur[0])) {
+      uint32_t len = wuffs_imageio_match_len(m, cur, limit);
+      if (len > best) {
+        best = len;
+        *out_dist = (uint32_t)(pos - cand);
+        if ((len >= d->level->nice_len) || (len == limit)) {
+          break;
+        }
+      }
+    }
+    int32_t next = d->prev[cand & WUFFS_IMAGEIO_DEFLATE_WMASK];
+    if (next >= cand) {
+      break;  // Overwritten by a newer position: the chain ends here.
+    }
+    cand = next;
+  }
+  return (best >= WUFFS_IMAGEIO_DEFLATE_MIN_MATCH) ? best : 0;
+}
+
+static inline void wuffs_imageio_push_literal(wuffs_imageio_deflater* d, int32_t pos) {
+  d->syms[d->nsyms++] = d->in[pos];
+}
+
+static inline void wuffs_imageio_push_match(wuffs_imageio_deflater* d, uint32_t len, uint32_t dist) {
+  // A distance of 32768 is stored as 0 to fit 16 bits.
+  d->syms[d->nsyms++] = 0x80000000u | (len << 16) | (dist & 0xFFFF);
+}
+
+// Deflates in[0, n) as raw deflate blocks. Unless `final`, the output ends
+// with an empty non-final stored block, leaving it byte-aligned so the next
+// band's blocks can be appended.
+static int wuffs_imageio_deflate(
+    const uint8_t* in, size_t n, uint32_t level, int final, wuffs_imageio_bitwriter* out) {
+  if (n > (size_t)INT32_MAX) {
+    wuffs_imageio_set_error("invalid argument");
+    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+  }
+  if (level == 0) {
+    wuffs_imageio_emit_stored(out, in, n, final);
+  } else {
+    wuffs_imageio_deflater* d = (wuffs_imageio_deflater*)wuffs_imageio_alloc(NULL, sizeof(wuffs_imageio_deflater));
+    if (!d) {
+      return WUFFS_IMAGEIO_ERR_OUT_OF_MEMORY;
+    }
+    memset(d, 0, sizeof(*d));
+    d->head = (int32_t*)wuffs_imageio_alloc(NULL, sizeof(int32_t) << WUFFS_IMAGEIO_DEFLATE_HASH_BITS);
+    d->prev = (int32_t*)wuffs_imageio_alloc(NULL, sizeof(int32_t) * WUFFS_IMAGEIO_DEFLATE_WINDOW);
+    d->syms = (uint32_t*)wuffs_imageio_alloc(NULL, sizeof(uint32_t) * WUFFS_IMAGEIO_DEFLATE_BLOCK_SYMBOLS);
+    if (!d->head || !d->prev || !d->syms) {
+      wuffs_imageio_free(NULL, d->head);
+      wuffs_imageio_free(NULL, d->prev);
+      wuffs_imageio_free(NULL, d->syms);
+      wuffs_imageio_free(NULL, d);
+      return WUFFS_IMAGEIO_ERR_OUT_OF_MEMORY;
+    }
+    memset(d->head, 0xFF, sizeof(int32_t) << WUFFS_IMAGEIO_DEFLATE_HASH_BITS);
+    d->level = &wuffs_imageio_deflate_levels[level];
+    d->in = in;
+    d->n = (int32_t)n;
+    d->bw = *out;
+    wuffs_imageio_deflater_tables(d);
+
+    int32_t pos = 0;
+    if (!d->level->lazy) {
+      while (pos < d->n) {
+        if (d->nsyms == WUFFS_IMAGEIO_DEFLATE_BLOCK_SYMBOLS) {
+          wuffs_imageio_flush_block(d, pos, 0);
+        }
+        uint32_t dist = 0;
+        uint32_t len = wuffs_imageio_find_match(d, pos, &dist);
+        if (len) {
+          wuffs_imageio_push_match(d, len, dist);
+          if (len <= d->level->max_insert) {
+            for (int32_t p = pos + 1; p < pos + (int32_t)len; p++) {
+              wuffs_imageio_insert(d, p);
+            }
+          }
+          pos += (int32_t)len;
+        } else {
+          wuffs_imageio_push_literal(d, pos);
+          pos++;
+        }
+      }
+    } else {
+      // Lazy matching: a match is emitted only if the next position does not
+      // start a longer one.
+      uint32_t prev_len = 0;
+      uint32_t prev_dist = 0;
+      int pending = 0;
+      while (pos < d->n) {
+        if (d->nsyms >= WUFFS_IMAGEIO_DEFLATE_BLOCK_SYMBOLS - 1) {
+          // A pending literal belongs to this block's input range.
+          if (pending) {
+            wuffs_imageio_push_literal(d, pos - 1);
+            pending = 0;
+            prev_len = 0;
+          }
+          wuffs_imageio_flush_block(d, pos, 0);
+        }
+        uint32_t dist = 0;
+        uint32_t len = (prev_len < d->level->nice_len) ? wuffs_imageio_find_match(d, pos, &dist) : 0;
+        if (len == 0 && prev_len >= d->level->nice_len) {
+          wuffs_imageio_insert(d, pos);
+        }
+        if (pending && (prev_len >= WUFFS_IMAGEIO_DEFLATE_MIN_MATCH) && (len <= prev_len)) {
+          // The match from pos - 1 wins; positions pos - 1 and pos are already inserted.
+          wuffs_imageio_push_match(d, prev_len, prev_dist);
+          int32_t end = pos - 1 + (int32_t)prev_len;
+          for (int32_t p = pos + 1; p < end; p++) {
+            wuffs_imageio_insert(d, p);
+          }
+          pos = end;
+          pending = 0;
+          prev_len = 0;
+          continue;
+        }
+        if (pending) {
+          wuffs_imageio_push_literal(d, pos - 1);
+        }
+        prev_len = len;
+        prev_dist = dist;
+        pending = 1;
+        pos++;
+      }
+      if (pending) {
+        wuffs_imageio_push_literal(d, d->n - 1);
+      }
+    }
+    wuffs_imageio_flush_block(d, d->n, final);
+    *out = d->bw;
+    wuffs_imageio_free(NULL, d->head);
+    wuffs_imageio_free(NULL, d->prev);
+    wuffs_imageio_free(NULL, d->syms);
+    wuffs_imageio_free(NULL, d);
+  }
+  if (!final) {
+    wuffs_imageio_emit_stored(out, in, 0, 0);
+  }
+  wuffs_imageio_bw_align(out);
+  return WUFFS_IMAGEIO_OK;
+}
+
+static uint32_t wuffs_imageio_adler32(const uint8_t* p, size_t n) {
+  uint32_t a = 1;
+  uint32_t b = 0;
+  while (n > 0) {
+    // 5552 is the largest run for which b cannot overflow 32 bits.
+    size_t run = (n > 5552) ? 5552 : n;
+    n -= run;
+    for (size_t i = 0; i < run; i++) {
+      a += p[i];
+      b += a;
+    }
+    p += run;
+    a %= 65521;
+    b %= 65521;
+  }
+  return (b << 16) | a;
+}
+
+static uint32_t wuffs_imageio_png_channels(uint32_t color_type) {
+  switch (color_type) {
+    case 0:
+      return 1;
+    case 2:
+      return 3;
+    case 6:
+      return 4;
+    default:
+      return 0;
+  }
+}
+
+static uint32_t wuffs_imageio_src_bytes_per_pixel(uint32_t layout) {
+  switch (layout) {
+    case WUFFS_IMAGEIO_ENCODE_SRC_BGRA:
+    case WUFFS_IMAGEIO_ENCODE_SRC_RGBA:
+    case WUFFS_IMAGEIO_ENCODE_SRC_ABGR:
+      return 4;
+    case WUFFS_IMAGEIO_ENCODE_SRC_BGR:
+    case WUFFS_IMAGEIO_ENCODE_SRC_RGB:
+      return 3;
+    case WUFFS_IMAGEIO_ENCODE_SRC_GRAY:
+      return 1;
+    default:
+      return 0;
+  }
+}
+
+// Converts one source row to PNG sample order (gray, RGB or RGBA).
+static void wuffs_imageio_encode_convert_row(
+    uint32_t layout, uint32_t channels, const uint8_t* src, uint8_t* dst, uint32_t width) {
+  if (channels == 1) {
+    memcpy(dst, src, width);
+    return;
+  }
+  // Byte offsets of R, G, B and A within a source pixel.
+  uint32_t r = 0, g = 1, b = 2, a = 3;
+  switch (layout) {
+    case WUFFS_IMAGEIO_ENCODE_SRC_BGRA:
+    case WUFFS_IMAGEIO_ENCODE_SRC_BGR:
+      r = 2;
+      b = 0;
+      break;
+    case WUFFS_IMAGEIO_ENCODE_SRC_ABGR:
+      r = 3;
+      g = 2;
+      b = 1;
+      a = 0;
+      break;
+    default:
+      break;
+  }
+  uint32_t bpp = wuffs_imageio_src_bytes_per_pixel(layout);
+  if (channels == 4) {
+    for (uint32_t x = 0; x < width; x++) {
+      dst[4 * x + 0] = src[bpp * x + r];
+      dst[4 * x + 1] = src[bpp * x + g];
+      dst[4 * x + 2] = src[bpp * x + b];
+      dst[4 * x + 3] = src[bpp * x + a];
+    }
+  } else {
+    for (uint32_t x = 0; x < width; x++) {
+      dst[3 * x + 0] = src[bpp * x + r];
+      dst[3 * x + 1] = src[bpp * x + g];
+      dst[3 * x + 2] = src[bpp * x + b];
+    }
+  }
+}
+
+static inline uint8_t wuffs_imageio_paeth(uint8_t a, uint8_t b, uint8_t c) {
+  int p = (int)a + (int)b - (int)c;
+  int pa = abs(p - (int)a);
+  int pb = abs(p - (int)b);
+  int pc = abs(p - (int)c);
+  // Branch-free selection so the filter loops vectorize.
+  uint8_t bc = (pb <= pc) ? b : c;
+  return ((pa <= pb) && (pa <= pc)) ? a : bc;
+}
+
+// Applies PNG filter `type` to `cur` (with `prev` the row above, all zeros at
+// the top) into `out`, and returns the sum of the outputs as signed bytes.
+static uint64_t wuffs_imageio_filter_row(
+    uint32_t type, const uint8_t* cur, const uint8_t* prev, uint32_t n, uint32_t bpp, uint8_t* out) {
+  switch (type) {
+    case 1:
+      for (uint32_t i = 0; i < bpp; i++) out[i] = cur[i];
+      for (uint32_t i = bpp; i < n; i++) out[i] = (uint8_t)(cur[i] - cur[i - bpp]);
+      break;
+    case 2:
+      for (uint32_t i = 0; i < n; i++) out[i] = (uint8_t)(cur[i] - prev[i]);
+      break;
+    case 3:
+      for (uint32_t i = 0; i < bpp; i++) out[i] = (uint8_t)(cur[i] - (prev[i] >> 1));
+      for (uint32_t i = bpp; i < n; i++) {
+        out[i] = (uint8_t)(cur[i] - (uint8_t)(((uint32_t)cur[i - bpp] + (uint32_t)prev[i]) >> 1));
+      }
+      break;
+    case 4:
+      for (uint32_t i = 0; i < bpp; i++) out[i] = (uint8_t)(cur[i] - prev[i]);
+      for (uint32_t i = bpp; i < n; i++) {
+        out[i] = (uint8_t)(cur[i] - wuffs_imageio_paeth(cur[i - bpp], prev[i], prev[i - bpp]));
+      }
+      break;
+    default:
+      memcpy(out, cur, n);
+      break;
+  }
+  uint64_t sum = 0;
+  for (uint32_t i = 0; i < n; i++) {
+    sum += (out[i] < 128) ? out[i] : (256u - out[i]);
+  }
+  return sum;
+}
+
+WUFFS_IMAGEIO_API uint64_t wuffs_png_encode_bound(uint32_t width, uint32_t rows, uint32_t color_type) {
+  uint64_t filtered = ((uint64_t)width * wuffs_imageio_png_channels(color_type) + 1) * rows;
+  // No block is larger than storing its input, which costs at most 6 bytes per
+  // block (each but the last covers at least 16K input bytes) and 5 per 64K.
+  return filtered + 6 * (filtered / 16384 + 2) + 5 * (filtered / WUFFS_IMAGEIO_DEFLATE_MAX_STORED + 1) + 16;
+}
+
+WUFFS_IMAGEIO_API int wuffs_png_encode_rows(
+    const uint8_t* src, const uint8_t* prev_row, uint32_t rows, uint32_t last,
+    const wuffs_png_encode_params* params,
+    uint8_t* dst, size_t dst_cap,
+    wuffs_png_encode_result* out) {
+  wuffs_imageio_set_error(NULL);
+  if (!src || !params || !dst || !out || (rows == 0) || (params->width == 0) || (params->level > 9) ||
+      (params->filter < -1) || (params->filter > 4)) {
+    wuffs_imageio_set_error("invalid argument");
+    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+  }
+  uint32_t channels = wuffs_imageio_png_channels(params->color_type);
+  uint32_t src_bpp = wuffs_imageio_src_bytes_per_pixel(params->src_layout);
+  if ((channels == 0) || (src_bpp == 0) || ((channels == 1) != (src_bpp == 1)) ||
+      ((uint64_t)params->src_stride < (uint64_t)params->width * src_bpp)) {
+    wuffs_imageio_set_error("invalid argument");
+    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+  }
+  uint64_t row_bytes = (uint64_t)params->width * channels;
+  uint64_t filtered_len = (row_bytes + 1) * rows;
+  if ((row_bytes > UINT32_MAX) || (filtered_len > (uint64_t)INT32_MAX)) {
+    wuffs_imageio_set_error("invalid argument");
+    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+  }
+  uint32_t n = (uint32_t)row_bytes;
+
+  // Scratch: previous and current converted rows plus one output per filter type.
+  uint8_t* filtered = (uint8_t*)wuffs_imageio_alloc(NULL, (size_t)filtered_len);
+  uint8_t* scratch = (uint8_t*)wuffs_imageio_alloc(NULL, (size_t)n * 7);
+  if (!filtered || !scratch) {
+    wuffs_imageio_free(NULL, filtered);
+    wuffs_imageio_free(NULL, scratch);
+    return WUFFS_IMAGEIO_ERR_OUT_OF_MEMORY;
+  }
+  uint8_t* prev = scratch;
+  uint8_t* cur = scratch + n;
+  uint8_t* candidates = scratch + 2 * (size_t)n;
+  if (prev_row) {
+    wuffs_imageio_encode_convert_row(params->src_layout, channels, prev_row, prev, params->width);
+  } else {
+    memset(prev, 0, n);
+  }
+  // With 8-bit samples, filters look back one pixel of `channels` bytes.
+  uint32_t bpp = channels;
+  int32_t fixed = params->filter;
+  if (fixed < 0 && params->level == 0) {
+    fixed = 0;
+  }
+  uint8_t* row_out = filtered;
+  for (uint32_t y = 0; y < rows; y++) {
+    wuffs_imageio_encode_convert_row(
+        params->src_layout, channels, src + (size_t)y * params->src_stride, cur, params->width);
+    if (fixed >= 0) {
+      row_out[0] = (uint8_t)fixed;
+      wuffs_imageio_filter_row((uint32_t)fixed, cur, prev, n, bpp, row_out + 1);
+    } else {
+      // Minimum sum of absolute differences, as recommended by the PNG spec.
+      uint64_t best_sum = UINT64_MAX;
+      uint32_t best = 0;
+      for (uint32_t type = 0; type < 5; type++) {
+        uint64_t sum = wuffs_imageio_filter_row(type, cur, prev, n, bpp, candidates + (size_t)type * n);
+        if (sum < best_sum) {
+          best_sum = sum;
+          best = type;
+        }
+      }
+      row_out[0] = (uint8_t)best;
+      memcpy(row_out + 1, candidates + (size_t)best * n, n);
+    }
+    row_out += n + 1;
+    uint8_t* t = prev;
+    prev = cur;
+    cur = t;
+  }
+  wuffs_imageio_free(NULL, scratch);
+
+  wuffs_imageio_bitwriter bw;
+  memset(&bw, 0, sizeof(bw));
+  bw.dst = dst;
+  bw.cap = dst_cap;
+  int rc = wuffs_imageio_deflate(filtered, (size_t)filtered_len, params->level, last ? 1 : 0, &bw);
+  uint32_t adler = (rc == WUFFS_IMAGEIO_OK) ? wuffs_imageio_adler32(filtered, (size_t)filtered_len) : 0;
+  wuffs_imageio_free(NULL, filtered);
+  if (rc != WUFFS_IMAGEIO_OK) {
+    return rc;
+  }
+  if (bw.overflow) {
+    wuffs_imageio_set_error("encode buffer too small");
+    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+  }
+  out->bytes_written = bw.pos;
+  out->filtered_len = filtered_len;
+  out->adler32 = adler;
+  out->reserved = 0;
+  return WUFFS_IMAGEIO_OK;
+}
+
+// ---- Decompression ----
+//
+// Wuffs' deflate, zlib and gzip decoders as resumable io_transformers. Each
+// step decodes as much of the exposed input as fits in the destination; the
+// decoders keep their own 32 KiB history, so destinations can be any size.
+
+struct wuffs_imageio_inflater {
+  uint32_t format;
+  uint32_t flags;
+  void* decoder_mem;
+  wuffs_base__io_transformer* transformer;
+  uint8_t* workbuf_ptr;
+  size_t workbuf_len;
+  int done;
+};
+
+static size_t wuffs_imageio_inflater_decoder_size(uint32_t format) {
+  switch (format) {
+    case WUFFS_IMAGEIO_INFLATE_DEFLATE:
+      return sizeof__wuffs_deflate__decoder();
+    case WUFFS_IMAGEIO_INFLATE_ZLIB:
+      return sizeof__wuffs_zlib__decoder();
+    case WUFFS_IMAGEIO_INFLATE_GZIP:
+      return sizeof__wuffs_gzip__decoder();
+    default:
+      return 0;
+  }
+}
+
+// (Re-)initializes the decoder in place. Its history buffer is written before
+// it is read, so it is left uninitialized.
+static int wuffs_imageio_inflater_init(wuffs_imageio_inflater* inf) {
+  wuffs_base__status status = wuffs_base__make_status(NULL);
+  uint32_t options = WUFFS_INITIALIZE__LEAVE_INTERNAL_BUFFERS_UNINITIALIZED;
+  switch (inf->format) {
+    case WUFFS_IMAGEIO_INFLATE_DEFLATE:
+      status = wuffs_deflate__decoder__initialize(
+          (wuffs_deflate__decoder*)inf->decoder_mem, sizeof__wuffs_deflate__decoder(), WUFFS_VERSION, options);
+      inf->transformer = wuffs_deflate__decoder__upcast_as__wuffs_base__io_transformer(
+          (wuffs_deflate__decoder*)inf->decoder_mem);
+      break;
+    case WUFFS_IMAGEIO_INFLATE_ZLIB:
+      status = wuffs_zlib__decoder__initialize(
+          (wuffs_zlib__decoder*)inf->decoder_mem, sizeof__wuffs_zlib__decoder(), WUFFS_VERSION, options);
+      inf->transformer = wuffs_zlib__decoder__upcast_as__wuffs_base__io_transformer(
+          (wuffs_zlib__decoder*)inf->decoder_mem);
+      break;
+    case WUFFS_IMAGEIO_INFLATE_GZIP:
+      status = wuffs_gzip__decoder__initialize(
+          (wuffs_gzip__decoder*)inf->decoder_mem, sizeof__wuffs_gzip__decoder(), WUFFS_VERSION, options);
+      inf->transformer = wuffs_gzip__decoder__upcast_as__wuffs_base__io_transformer(
+          (wuffs_gzip__decoder*)inf->decoder_mem);
+      break;
+    default:
+      wuffs_imageio_set_error("unsupported format");
+      return WUFFS_IMAGEIO_ERR_UNSUPPORTED_FORMAT;
+  }
+  if (!wuffs_base__status__is_ok(&status)) {
+    return wuffs_imageio_fail_wuffs(status);
+  }
+  if ((inf->flags & WUFFS_IMAGEIO_INFLATE_FLAG_IGNORE_CHECKSUM) && (inf->format != WUFFS_IMAGEIO_INFLATE_DEFLATE)) {
+    status = wuffs_base__io_transformer__set_quirk(inf->transformer, WUFFS_BASE__QUIRK_IGNORE_CHECKSUM, 1);
+    if (!wuffs_base__status__is_ok(&status)) {
+      return wuffs_imageio_fail_wuffs(status);
+    }
+  }
+  inf->done = 0;
+  return WUFFS_IMAGEIO_OK;
+}
+
+WUFFS_IMAGEIO_API uint32_t wuffs_inflate_formats(void) {
+  return (1u << WUFFS_IMAGEIO_INFLATE_DEFLATE) | (1u << WUFFS_IMAGEIO_INFLATE_ZLIB) |
+         (1u << WUFFS_IMAGEIO_INFLATE_GZIP);
+}
+
+WUFFS_IMAGEIO_API int wuffs_inflater_open(uint32_t format, uint32_t flags, wuffs_imageio_inflater** out_inflater) {
+  wuffs_imageio_set_error(NULL);
+  if (!out_inflater) {
+    wuffs_imageio_set_error("invalid argument");
+    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+  }
+  *out_inflater = NULL;
+  size_t size = wuffs_imageio_inflater_decoder_size(format);
+  if (size == 0) {
+    wuffs_imageio_set_error("unsupported format");
+    return WUFFS_IMAGEIO_ERR_UNSUPPORTED_FORMAT;
+  }
+  wuffs_imageio_inflater* inf = (wuffs_imageio_inflater*)wuffs_imageio_alloc(NULL, sizeof(wuffs_imageio_inflater));
+  if (!inf) {
+    return WUFFS_IMAGEIO_ERR_OUT_OF_MEMORY;
+  }
+  memset(inf, 0, sizeof(*inf));
+  inf->format = format;
+  inf->flags = flags;
+  inf->decoder_mem = wuffs_imageio_alloc(NULL, size);
+  if (!inf->decoder_mem) {
+    wuffs_inflater_close(inf);
+    return WUFFS_IMAGEIO_ERR_OUT_OF_MEMORY;
+  }
+  int rc = wuffs_imageio_inflater_init(inf);
+  if (rc != WUFFS_IMAGEIO_OK) {
+    wuffs_inflater_close(inf);
+    return rc;
+  }
+  wuffs_base__range_ii_u64 workbuf = wuffs_base__io_transformer__workbuf_len(inf->transformer);
+  if (workbuf.max_incl > 0) {
+    if (workbuf.max_incl > (uint64_t)SIZE_MAX) {
+      wuffs_inflater_close(inf);
+      wuffs_imageio_set_error("workbuf too large");
+      return WUFFS_IMAGEIO_ERR_OUT_OF_MEMORY;
+    }
+    inf->workbuf_len = (size_t)workbuf.max_incl;
+    inf->workbuf_ptr = (uint8_t*)wuffs_imageio_alloc(NULL, inf->workbuf_len);
+    if (!inf->workbuf_ptr) {
+      wuffs_inflater_close(inf);
+      return WUFFS_IMAGEIO_ERR_OUT_OF_MEMORY;
+    }
+  }
+  *out_inflater = inf;
+  return WUFFS_IMAGEIO_OK;
+}
+
+WUFFS_IMAGEIO_API int wuffs_inflater_reset(wuffs_imageio_inflater* inflater) {
+  wuffs_imageio_set_error(NULL);
+  if (!inflater) {
+    wuffs_imageio_set_error("invalid argument");
+    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+  }
+  return wuffs_imageio_inflater_init(inflater);
+}
+
+WUFFS_IMAGEIO_API int wuffs_inflater_step(
+    wuffs_imageio_inflater* inflater,
+    const uint8_t* src, size_t src_len, uint32_t src_final,
+    uint8_t* dst, size_t dst_len,
+    wuffs_inflate_result* out) {
+  wuffs_imageio_set_error(NULL);
+  if (!inflater || !out || (!src && src_len) || (!dst && dst_len)) {
+    wuffs_imageio_set_error("invalid argument");
+    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+  }
+  memset(out, 0, sizeof(*out));
+  if (inflater->done) {
+    out->done = 1;
+    return WUFFS_IMAGEIO_OK;
+  }
+
+  wuffs_base__io_buffer src_buf = wuffs_base__ptr_u8__reader((uint8_t*)src, src_len, src_final != 0);
+  wuffs_base__io_buffer dst_buf = wuffs_base__ptr_u8__writer(dst, dst_len);
+  wuffs_base__status status = wuffs_base__io_transformer__transform_io(
+      inflater->transformer, &dst_buf, &src_buf,
+      wuffs_base__make_slice_u8(inflater->workbuf_ptr, inflater->workbuf_len));
+  out->consumed = (uint64_t)src_buf.meta.ri;
+  out->produced = (uint64_t)dst_buf.meta.wi;
+
+  if (wuffs_base__status__is_ok(&status)) {
+    inflater->done = 1;
+    out->done = 1;
+    return WUFFS_IMAGEIO_OK;
+  }
+  if (status.repr == wuffs_base__suspension__short_write) {
+    return WUFFS_IMAGEIO_SUSPENDED;
+  }
+  if (status.repr == wuffs_base__suspension__short_read) {
+    if (src_final) {
+      wuffs_imageio_set_error(wuffs_base__error__truncated_input);
+      return WUFFS_IMAGEIO_ERR_WUFFS;
+    }
+    out->need_input = 1;
+    return WUFFS_IMAGEIO_SUSPENDED;
+  }
+  // Errors leave the decoder unusable until wuffs_inflater_reset.
+  return wuffs_imageio_fail_wuffs(status);
+}
+
+WUFFS_IMAGEIO_API void wuffs_inflater_close(wuffs_imageio_inflater* inflater) {
+  if (!inflater) {
+    return;
+  }
+  wuffs_imageio_free(NULL, inflater->workbuf_ptr);
+  wuffs_imageio_free(NULL, inflater->decoder_mem);
+  wuffs_imageio_free(NULL, inflater);
+}
+
+// ---- Resampling ----
+//
+// Separable BGRA resampling for decode-and-scale. Each source row a window
+// needs is converted to premultiplied float and filtered horizontally once,
+// into a ring holding just the rows of one vertical window; the vertical pass
+// then combines ring rows into each output row.
+
+typedef struct {
+  uint32_t* start;  // First source index per output index.
+  uint32_t* count;  // Taps per output index.
+  float* weights;   // max_taps weights per output index, summing to 1.
+  uint32_t max_taps;
+} wuffs_imageio_resample_axis;
+
+static double wuffs_imageio_resample_support(uint32_t filter) {
+  switch (filter) {
+    case WUFFS_IMAGEIO_RESIZE_BOX:
+      return 0.5;
+    case WUFFS_IMAGEIO_RESIZE_BILINEAR:
+      return 1.0;
+    default:
+      return 3.0;
+  }
+}
+
+static double wuffs_imageio_resample_kernel(uint32_t filter, double x) {
+  switch (filter) {
+    case WUFFS_IMAGEIO_RESIZE_BOX:
+      // Half-open, so a sample on a pixel edge belongs to one pixel only.
+      return (x >= -0.5 && x < 0.5) ? 1.0 : 0.0;
+    case WUFFS_IMAGEIO_RESIZE_BILINEAR:
+      x = fabs(x);
+      return x < 1.0 ? 1.0 - x : 0.0;
+    default: {
+      x = fabs(x);
+      if (x < 1e-9) {
+        return 1.0;
+      }
+      if (x >= 3.0) {
+        return 0.0;
+      }
+      const double pi = 3.14159265358979323846;
+      double px = pi * x;
+      return 3.0 * sin(px) * sin(px / 3.0) / (px * px);
+    }
+  }
+}
+
+static void wuffs_imageio_resample_axis_free(wuffs_imageio_resample_axis* axis) {
+  wuffs_imageio_free(NULL, axis->start);
+  wuffs_imageio_free(NULL, axis->count);
+  wuffs_imageio_free(NULL, axis->weights);
+}
+
+// Samples are at pixel centers: output pixel i covers source coordinates
+// [i * scale, (i + 1) * scale). Downscaling stretches the kernel by the scale
+// factor so every source pixel contributes.
+static int wuffs_imageio_resample_axis_init(
+    wuffs_imageio_resample_axis* axis, uint32_t src_len, uint32_t dst_len, uint32_t filter) {
+  double scale = (double)src_len / (double)dst_len;
+  double stretch = scale > 1.0 ? scale : 1.0;
+  double support = wuffs_imageio_resample_support(filter) * stretch;
+  uint64_t max_taps = (uint64_t)ceil(2.0 * support) + 2;
+  if (max_taps > (uint64_t)src_len) {
+    max_taps = src_len;
+  }
+  axis->max_taps = (uint32_t)max_taps;
+  axis->start = (uint32_t*)wuffs_imageio_alloc(NULL, (size_t)dst_len * sizeof(uint32_t));
+  axis->count = (uint32_t*)wuffs_imageio_alloc(NULL, (size_t)dst_len * sizeof(uint32_t));
+  axis->weights = (float*)wuffs_imageio_alloc(NULL, (size_t)dst_len * (size_t)max_taps * sizeof(float));
+  if (!axis->start || !axis->count || !axis->weights) {
+    wuffs_imageio_resample_axis_free(axis);
+    return WUFFS_IMAGEIO_ERR_OUT_OF_MEMORY;
+  }
+
+  for (uint32_t i = 0; i < dst_len; i++) {
+    double center = ((double)i + 0.5) * scale;
+    int64_t lo = (int64_t)floor(center - support);
+    int64_t hi = (int64_t)ceil(center + support);
+    if (lo < 0) {
+      lo = 0;
+    }
+    if (hi > (int64_t)src_len) {
+      hi = (int64_t)src_len;
+    }
+    float* w = axis->weights + (size_t)i * max_taps;
+    uint32_t n = 0;
+    uint32_t first = 0;
+    double sum = 0.0;
+    for (int64_t j = lo; j < hi; j++) {
+      double k = wuffs_imageio_resample_kernel(filter, ((double)j + 0.5 - center) / stretch);
+      if (n == 0 && k == 0.0) {
+        continue;
+      }
+      if (n == 0) {
+        first = (uint32_t)j;
+      }
+      if (n < max_taps) {
+        w[n++] = (float)k;
+        sum += k;
+      }
+    }
+    while (n > 0 && w[n - 1] == 0.0f) {
+      n--;
+    }
+    if (n == 0 || sum == 0.0) {
+      // Cannot happen for in-range centers; fall back to the nearest pixel.
+      int64_t nearest = (int64_t)center;
+      first = (uint32_t)(nearest >= (int64_t)src_len ? src_len - 1 : nearest);
+      w[0] = 1.0f;
+      n = 1;
+      sum = 1.0;
+    }
+    for (uint32_t t = 0; t < n; t++) {
+      w[t] = (float)(w[t] / sum);
+    }
+    axis->start[i] = first;
+    axis->count[i] = n;
+  }
+  return WUFFS_IMAGEIO_OK;
+}
+
+static void wuffs_imageio_resample_row(
+    const uint8_t* src, uint32_t src_width, const wuffs_imageio_resample_axis* x_axis, uint32_t dst_width,
+    float* premul, float* out) {
+  for (uint32_t x = 0; x < src_width; x++) {
+    const uint8_t* p = src + (size_t)x * 4;
+    float a = (float)p[3];
+    float f = a * (1.0f / 255.0f);
+    premul[4 * x + 0] = (float)p[0] * f;
+    premul[4 * x + 1] = (float)p[1] * f;
+    premul[4 * x + 2] = (float)p[2] * f;
+    premul[4 * x + 3] = a;
+  }
+  for (uint32_t x = 0; x < dst_width; x++) {
+    const float* w = x_axis->weights + (size_t)x * x_axis->max_taps;
+    const float* s = premul + (size_t)x_axis->start[x] * 4;
+    float b = 0.0f, g = 0.0f, r = 0.0f, a = 0.0f;
+    for (uint32_t t = 0; t < x_axis->count[x]; t++) {
+      b += w[t] * s[4 * t + 0];
+      g += w[t] * s[4 * t + 1];
+      r += w[t] * s[4 * t + 2];
+      a += w[t] * s[4 * t + 3];
+    }
+    out[4 * x + 0] = b;
+    out[4 * x + 1] = g;
+    out[4 * x + 2] = r;
+    out[4 * x + 3] = a;
+  }
+}
+
+static inline uint8_t wuffs_imageio_resample_clamp(float v) {
+  if (!(v > 0.0f)) {
+    return 0;
+  }
+  if (v >= 255.0f) {
+    return 255;
+  }
+  return (uint8_t)(v + 0.5f);
+}
+
+static void wuffs_imageio_resample_unpremul(const float* acc, uint32_t width, uint8_t* dst) {
+  for (uint32_t x = 0; x < width; x++) {
+    const float* p = acc + (size_t)x * 4;
+    uint8_t* d = dst + (size_t)x * 4;
+    uint8_t a = wuffs_imageio_resample_clamp(p[3]);
+    if (a == 0) {
+      memset(d, 0, 4);
+      continue;
+    }
+    float unpremul = 255.0f / p[3];
+    d[0] = wuffs_imageio_resample_clamp(p[0] * unpremul);
+    d[1] = wuffs_imageio_resample_clamp(p[1] * unpremul);
+    d[2] = wuffs_imageio_resample_clamp(p[2] * unpremul);
+    d[3] = a;
+  }
+}
+
+WUFFS_IMAGEIO_API int wuffs_resize_bgra(
+    const uint8_t* src, uint32_t src_width, uint32_t src_height, size_t src_stride,
+    uint8_t* dst, uint32_t dst_width, uint32_t dst_height, size_t dst_stride,
+    uint32_t filter) {
+  wuffs_imageio_set_error(NULL);
+  if (!src || !dst || src_width == 0 || src_height == 0 || dst_width == 0 || dst_height == 0 ||
+      src_stride < (size_t)src_width * 4 || dst_stride < (size_t)dst_width * 4 ||
+      filter > WUFFS_IMAGEIO_RESIZE_LANCZOS3) {
+    wuffs_imageio_set_error("invalid argument");
+    return WUFFS_IMAGEIO_ERR_INVALID_ARGUMENT;
+  }
+
+  wuffs_imageio_resample_axis x_axis = {0};
+  wuffs_imageio_resample_axis y_axis = {0};
+  int rc = wuffs_imageio_resample_axis_init(&x_axis, src_width, dst_width, filter);
+  if (rc != WUFFS_IMAGEIO_OK) {
+    return rc;
+  }
+  rc = wuffs_imageio_resample_axis_init(&y_axis, src_height, dst_height, filter);
+  if (rc != WUFFS_IMAGEIO_OK) {
+    wuffs_imageio_resample_axis_free(&x_axis);
+    return rc;
+  }
+
+  uint32_t ring_rows = y_axis.max_taps;
+  size_t row_floats = (size_t)dst_width * 4;
+  float* premul = (float*)wuffs_imageio_alloc(NULL, (size_t)src_width * 4 * sizeof(float));
+  float* ring = (float*)wuffs_imageio_alloc(NULL, (size_t)ring_rows * row_floats * sizeof(float));
+  float* acc = (float*)wuffs_imageio_alloc(NULL, row_floats * sizeof(float));
+  int64_t* ring_tags = (int64_t*)wuffs_imageio_alloc(NULL, (size_t)ring_rows * sizeof(int64_t));
+  if (premul && ring && acc && ring_tags) {
+    for (uint32_t i = 0; i < ring_rows; i++) {
+      ring_tags[i] = -1;
+    }
+    for (uint32_t y = 0; y < dst_height; y++) {
+      const float* w = y_axis.weights + (size_t)y * y_axis.max_taps;
+      memset(acc, 0, row_floats * sizeof(float));
+      for (uint32_t t = 0; t < y_axis.count[y]; t++) {
+        uint32_t sy = y_axis.start[y] + t;
+        // A window spans at most ring_rows consecutive rows, so its slots are distinct.
+        float* row = ring + (size_t)(sy % ring_rows) * row_floats;
+        if (ring_tags[sy % ring_rows] != (int64_t)sy) {
+          wuffs_imageio_resample_row(src + (size_t)sy * src_stride, src_width, &x_axis, dst_width, premul, row);
+          ring_tags[sy % ring_rows] = (int64_t)sy;
+        }
+        for (size_t i = 0; i < row_floats; i++) {
+          acc[i] += w[t] * row[i];
+        }
+      }
+      wuffs_imageio_resample_unpremul(acc, dst_width, dst + (size_t)y * dst_stride);
+    }
+  } else {
+    rc = WUFFS_IMAGEIO_ERR_OUT_OF_MEMORY;
+  }
+
+  wuffs_imageio_free(NULL, premul);
+  wuffs_imageio_free(NULL, ring);
+  wuffs_imageio_free(NULL, acc);
+  wuffs_imageio_free(NULL, ring_tags);
+  wuffs_imageio_resample_axis_free(&x_axis);
+  wuffs_imageio_resample_axis_free(&y_axis);
+  return rc;
+}
+
+enum {
+  WUFFS_IMAGEIO_CPU_AVX2 = 1u << 0,
+  WUFFS_IMAGEIO_CPU_FMA = 1u << 1,
+  WUFFS_IMAGEIO_CPU_BMI1 = 1u << 2,
+  WUFFS_IMAGEIO_CPU_BMI2 = 1u << 3,
+  WUFFS_IMAGEIO_CPU_F16C = 1u << 4,
+  WUFFS_IMAGEIO_CPU_LZCNT = 1u << 5,
+  WUFFS_IMAGEIO_CPU_MOVBE = 1u << 6,
+  WUFFS_IMAGEIO_CPU_AVX512 = 1u << 7,  // F + BW + CD + DQ + VL, with ZMM state enabled
+};
+
+#define WUFFS_IMAGEIO_CPU_X86_64_V3                                                      \
+  (WUFFS_IMAGEIO_CPU_AVX2 | WUFFS_IMAGEIO_CPU_FMA | WUFFS_IMAGEIO_CPU_BMI1 |           \
+   WUFFS_IMAGEIO_CPU_BMI2 | WUFFS_IMAGEIO_CPU_F16C | WUFFS_IMAGEIO_CPU_LZCNT |         \
+   WUFFS_IMAGEIO_CPU_MOVBE)
+
+#if defined(__x86_64__) || defined(_M_X64) || defined(__i386__) || defined(_M_IX86)
+static void wuffs_imageio_cpuid(uint32_t leaf, uint32_t subleaf, uint32_t regs[4]) {
+#if defined(_MSC_VER)
+  int info[4] = {0};
+  __cpuidex(info, (int)leaf, (int)subleaf);
+  for (int i = 0; i < 4; i++) {
+    regs[i] = (uint32_t)info[i];
+  }
+#else
+  unsigned int a = 0, b = 0, c = 0, d = 0;
+  __cpuid_count(leaf, subleaf, a, b, c, d);
+  regs[0] = a;
+  regs[1] = b;
+  regs[2] = c;
+  regs[3] = d;
+#endif
+}
+#endif
+
+// Returns the WUFFS_IMAGEIO_CPU_* features this CPU+OS can execute. AVX
+// features require the OS to save the YMM (and, for AVX-512, opmask/ZMM) state.
+static uint32_t wuffs_imageio_cpu_features(void) {
+#if defined(__x86_64__) || defined(_M_X64) || defined(__i386__) || defined(_M_IX86)
+  uint32_t regs[4] = {0};
+  wuffs_imageio_cpuid(0, 0, regs);
+  uint32_t max_leaf = regs[0];
+  if (max_leaf < 7) {
+    return 0;
+  }
+
+  // CPUID leaf 1: OSXSAVE, AVX, FMA, MOVBE, F16C.
+  wuffs_imageio_cpuid(1, 0, regs);
+  uint32_t ecx1 = regs[2];
+  const uint32_t ecx_fma = (1u << 12);
+  const uint32_t ecx_movbe = (1u << 22);
+  const uint32_t ecx_osxsave = (1u << 27);
+  const uint32_t ecx_avx = (1u << 28);
+  const uint32_t ecx_f16c = (1u << 29);
+  if (((ecx1 & ecx_osxsave) == 0) || ((ecx1 & ecx_avx) == 0)) {
+    return 0;
+  }
+
+  // XGETBV(0): XMM (bit 1) and YMM (bit 2) state; opmask/ZMM (bits 5-7) for AVX-512.
+  uint64_t xcr0 = 0;
+#if defined(_MSC_VER)
+  xcr0 = _xgetbv(0);
+#else
+  uint32_t xcr0_lo = 0, xcr0_hi = 0;
+  __asm__ volatile("xgetbv" : "=a"(xcr0_lo), "=d"(xcr0_hi) : "c"(0));
+  xcr0 = ((uint64_t)xcr0_hi << 32) | (uint64_t)xcr0_lo;
+#endif
+  if ((xcr0 & 0x6u) != 0x6u) {
+    return 0;
+  }
+
+  // CPUID leaf 7 subleaf 0: BMI1, AVX2, BMI2, AVX-512 F/DQ/CD/BW/VL.
+  wuffs_imageio_cpuid(7, 0, regs);
+  uint32_t ebx7 = regs[1];
+
+  // CPUID leaf 0x80000001: LZCNT (ABM).
+  uint32_t ecx_ext = 0;
+  wuffs_imageio_cpuid(0x80000000u, 0, regs);
+  if (regs[0] >= 0x80000001u) {
+    wuffs_imageio_cpuid(0x80000001u, 0, regs);
+    ecx_ext = regs[2];
+  }
+
+  uint32_t features = 0;
+  if (ebx7 & (1u << 5)) features |= WUFFS_IMAGEIO_CPU_AVX2;
+  if (ecx1 & ecx_fma) features |= WUFFS_IMAGEIO_CPU_FMA;
+  if (ebx7 & (1u << 3)) features |= WUFFS_IMAGEIO_CPU_BMI1;
+  if (ebx7 & (1u << 8)) features |= WUFFS_IMAGEIO_CPU_BMI2;
+  if (ecx1 & ecx_f16c) features |= WUFFS_IMAGEIO_CPU_F16C;
+  if (ecx_ext & (1u << 5)) features |= WUFFS_IMAGEIO_CPU_LZCNT;
+  if (ecx1 & ecx_movbe) features |= WUFFS_IMAGEIO_CPU_MOVBE;
+
+  const uint32_t ebx_avx512 = (1u << 16) | (1u << 17) | (1u << 28) | (1u << 30) | (1u << 31);
+  if (((ebx7 & ebx_avx512) == ebx_avx512) && ((xcr0 & 0xE6u) == 0xE6u)) {
+    features |= WUFFS_IMAGEIO_CPU_AVX512;
+  }
+  return features;
+#else
+  return 0;
+#endif
+}
+
+WUFFS_IMAGEIO_API int wuffs_cpu_supports_avx2(void) {
+  return (wuffs_imageio_cpu_features() & WUFFS_IMAGEIO_CPU_AVX2) ? 1 : 0;
+}
+
+WUFFS_IMAGEIO_API int wuffs_cpu_supports_v3(void) {
+  uint32_t f = wuffs_imageio_cpu_features();
+  return ((f & WUFFS_IMAGEIO_CPU_X86_64_V3) == WUFFS_IMAGEIO_CPU_X86_64_V3) ? 1 : 0;
+}
+
+WUFFS_IMAGEIO_API int wuffs_cpu_supports_v4(void) {
+  uint32_t f = wuffs_imageio_cpu_features();
+  uint32_t v4 = WUFFS_IMAGEIO_CPU_X86_64_V3 | WUFFS_IMAGEIO_CPU_AVX512;
+  return ((f & v4) == v4) ? 1 : 0;
 }
 
 WUFFS_IMAGEIO_API const char* wuffs_error_message(int code) {
@@ -309,6 +3568,10 @@ WUFFS_IMAGEIO_API const char* wuffs_error_message(int code) {
       return wuffs_imageio_last_error ? wuffs_imageio_last_error : "wuffs error";
     case WUFFS_IMAGEIO_ERR_NOT_IMPLEMENTED:
       return "not implemented";
+    case WUFFS_IMAGEIO_ERR_OUT_OF_MEMORY:
+      return "out of memory";
+    case WUFFS_IMAGEIO_SUSPENDED:
+      return "suspended";
     default:
       return "unknown error";
   }
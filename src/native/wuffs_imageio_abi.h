@@ -15,14 +15,72 @@
 extern "C" {
 #endif
 
+// Color metadata (PNG gAMA, cHRM, sRGB and iCCP chunks). Values are as stored
+// in the file: gamma and chromaticities are scaled by 100000.
+#define WUFFS_IMAGEIO_COLOR_HAS_GAMA 0x1u
+#define WUFFS_IMAGEIO_COLOR_HAS_CHRM 0x2u
+#define WUFFS_IMAGEIO_COLOR_HAS_SRGB 0x4u
+#define WUFFS_IMAGEIO_COLOR_HAS_ICCP 0x8u
+
+typedef struct {
+  uint32_t flags;
+  uint32_t gamma;
+  uint32_t white_x;
+  uint32_t white_y;
+  uint32_t red_x;
+  uint32_t red_y;
+  uint32_t green_x;
+  uint32_t green_y;
+  uint32_t blue_x;
+  uint32_t blue_y;
+  uint32_t srgb_intent;
+  // Decompressed ICC profile size in bytes.
+  uint32_t icc_len;
+} wuffs_color_info;
+
+// bytes_per_pixel and stride_bytes describe the default 8-bit BGRA output.
+// bit_depth is the source's bits per channel (8 or 16) and pixel_format the
+// Wuffs pixel format that keeps it: BGRA_NONPREMUL for 8-bit sources,
+// RGBA_NONPREMUL_4X16LE or Y_16LE for 16-bit ones. orientation is the EXIF
+// Orientation (1-8, 1 if absent); width and height are as stored.
 typedef struct {
   uint32_t width;
   uint32_t height;
   uint32_t frame_count;
   uint32_t bytes_per_pixel;
   uint32_t stride_bytes;
+  uint32_t bit_depth;
+  uint32_t pixel_format;
+  wuffs_color_info color;
+  uint32_t orientation;
 } wuffs_probe_result;
 
+// wuffs_decode_params.flags bits.
+//
+// IGNORE_CHECKSUM: skip CRC-32/Adler-32 (PNG) verification. Only for trusted input.
+// REJECT_PROGRESSIVE_JPEG: fail progressive JPEGs during config parsing.
+// IGNORE_ANCILLARY_CHUNKS: never report PNG ancillary chunks (metadata).
+// QUALITY_LOWER / QUALITY_HIGHER: WUFFS_BASE__QUIRK_QUALITY, e.g. JPEG chroma
+//   upsampling. Neither bit keeps the decoder's default.
+#define WUFFS_IMAGEIO_FLAG_IGNORE_CHECKSUM 0x1u
+#define WUFFS_IMAGEIO_FLAG_REJECT_PROGRESSIVE_JPEG 0x2u
+#define WUFFS_IMAGEIO_FLAG_IGNORE_ANCILLARY_CHUNKS 0x4u
+#define WUFFS_IMAGEIO_FLAG_QUALITY_LOWER 0x8u
+#define WUFFS_IMAGEIO_FLAG_QUALITY_HIGHER 0x10u
+// CONVERT_TO_SRGB: convert RGB output to sRGB natively using the iCCP
+//   (matrix/TRC profiles), or else gAMA/cHRM, chunks. Images tagged sRGB, or
+//   without color chunks, are left as decoded.
+#define WUFFS_IMAGEIO_FLAG_CONVERT_TO_SRGB 0x20u
+// APPLY_ORIENTATION: write pixels in their EXIF-oriented position. For
+//   orientations 5-8 the output is height x width and the step result reports
+//   the swapped dimensions.
+#define WUFFS_IMAGEIO_FLAG_APPLY_ORIENTATION 0x40u
+// COLLECT_TIMINGS: fill the step result's config_ns and decode_ns; without it
+//   both stay 0 and no clock is read.
+#define WUFFS_IMAGEIO_FLAG_COLLECT_TIMINGS 0x80u
+
+// pixel_format: destination Wuffs pixel format. 0 means BGRA_NONPREMUL; the
+// 16-bit RGBA_NONPREMUL_4X16LE and Y_16LE formats are also accepted.
 typedef struct {
   uint32_t pixel_format;
   uint32_t flags;
@@ -35,7 +93,88 @@ typedef struct {
   uint32_t bytes_written;
 } wuffs_frame_result;
 
+typedef struct {
+  uint32_t width;
+  uint32_t height;
+  uint32_t stride_bytes;
+  uint32_t bytes_written;
+  uint64_t consumed;
+  uint32_t done;
+  // Cumulative nanoseconds spent parsing image/frame config and decoding
+  // pixels (Wuffs swizzles rows as it decodes, so swizzling is included).
+  // Only collected with WUFFS_IMAGEIO_FLAG_COLLECT_TIMINGS.
+  uint64_t config_ns;
+  uint64_t decode_ns;
+  uint64_t workbuf_len;
+  // Progressive passes whose pixels are in the destination, out of
+  // passes_total: the 7 Adam7 passes of an interlaced PNG, or 0 when the
+  // image is not progressive or its pixels are only final after the frame
+  // (orientation, sRGB conversion).
+  uint32_t passes_done;
+  uint32_t passes_total;
+  // wuffs_session_feed only: how much of the chunk has been used (consumed or
+  // carried over); the next call for the same chunk passes it as `offset`.
+  uint64_t chunk_used;
+} wuffs_step_result;
+
+// Process-wide accounting for memory the library allocates itself (decoders,
+// work buffers, sessions). Slab allocations are not included.
+typedef struct {
+  uint64_t current_bytes;
+  uint64_t peak_bytes;
+  uint64_t alloc_count;
+  uint64_t free_count;
+  uint64_t failed_count;
+  uint64_t limit_bytes;
+} wuffs_memory_stats;
+
+// Caller-owned memory for one session at a time. The caller sets `base` and
+// `capacity` (and resets `used` to reuse the slab); the library bump-allocates
+// from it and updates the other fields. Frees are no-ops.
+typedef struct {
+  uint8_t* base;
+  uint64_t capacity;
+  uint64_t used;
+  uint64_t peak;
+  uint64_t alloc_count;
+  uint64_t free_count;
+  uint64_t failed_count;
+} wuffs_memory_slab;
+
+// Opaque resumable decode state (see wuffs_session_*).
+typedef struct wuffs_imageio_session wuffs_imageio_session;
+
 WUFFS_IMAGEIO_API int wuffs_probe_image(const uint8_t* data, size_t len, wuffs_probe_result* out);
+// As wuffs_probe_image, taking wuffs_decode_params.flags bits. With
+// IGNORE_ANCILLARY_CHUNKS the color metadata (out->color) is not collected and
+// reads as all zeros.
+WUFFS_IMAGEIO_API int wuffs_probe_image_with_flags(
+    const uint8_t* data, size_t len, uint32_t flags, wuffs_probe_result* out);
+
+// Copies up to `dst_cap` bytes of the image's decompressed ICC profile to
+// `dst` (which may be NULL) and stores the full profile size in `*out_len`
+// (0 if there is none).
+WUFFS_IMAGEIO_API int wuffs_read_icc_profile(
+    const uint8_t* data, size_t len,
+    uint8_t* dst, size_t dst_cap,
+    uint64_t* out_len);
+
+// Descriptive metadata record types (big-endian FourCCs, as in Wuffs).
+#define WUFFS_IMAGEIO_RECORD_TEXT_KEY 0x4B56504Bu    // 'KVPK': UTF-8 keyword
+#define WUFFS_IMAGEIO_RECORD_TEXT_VALUE 0x4B565056u  // 'KVPV': UTF-8 text for the preceding keyword
+#define WUFFS_IMAGEIO_RECORD_EXIF 0x45584946u        // 'EXIF': TIFF-structured EXIF block
+#define WUFFS_IMAGEIO_RECORD_XMP 0x584D5020u         // 'XMP ': XMP packet
+#define WUFFS_IMAGEIO_RECORD_PHYS 0x50485944u        // 'PHYD': PNG pHYs layout (u32 x, u32 y, u8 unit)
+
+// Collects descriptive metadata (PNG tEXt/zTXt/iTXt, eXIf and pHYs; JPEG
+// APP1 EXIF/XMP, JFIF density and COM) into `dst` as a sequence of records,
+// each a little-endian u32 record type, a little-endian u32 length and
+// `length` bytes. Stores the total size in `*out_len`; when it exceeds
+// `dst_cap` the contents of `dst` are unspecified and the caller retries.
+WUFFS_IMAGEIO_API int wuffs_read_metadata(
+    const uint8_t* data, size_t len,
+    uint8_t* dst, size_t dst_cap,
+    uint64_t* out_len);
 
 WUFFS_IMAGEIO_API int wuffs_decode_frame_into(
     const uint8_t* data, size_t len,
@@ -44,9 +183,188 @@ WUFFS_IMAGEIO_API int wuffs_decode_frame_into(
     uint8_t* dst_pixels, size_t dst_len,
     wuffs_frame_result* out);
 
+// Resumable decoding. The caller passes the full input on every step but only
+// exposes `avail` bytes of it; the decoder consumes what it can and returns
+// WUFFS_IMAGEIO_SUSPENDED (1) until the frame is complete (0). Input and
+// destination pointers may differ between steps (e.g. heap arrays that moved)
+// as long as their contents are preserved. A step with a NULL `dst_pixels`
+// stops once the image configuration is parsed and returns 0 with `done` unset
+// and the (oriented) width, height and stride filled in, so the caller can size
+// the destination before the next step.
+WUFFS_IMAGEIO_API int wuffs_session_open(
+    const uint8_t* data, size_t len,
+    const wuffs_decode_params* params,
+    wuffs_imageio_session** out_session);
+
+// Like wuffs_session_open, but all of the session's native allocations come
+// from `slab` (or the accounted heap when NULL). The slab must outlive the
+// session.
+WUFFS_IMAGEIO_API int wuffs_session_open_in(
+    const uint8_t* data, size_t len,
+    const wuffs_decode_params* params,
+    wuffs_memory_slab* slab,
+    wuffs_imageio_session** out_session);
+
+// Restarts `session` on new input, as if it had been closed and reopened with
+// the same arguments. The decoder state is re-initialized in place when the
+// format is unchanged and the work buffer is kept for the next image, so a
+// pooled session decodes without per-image allocations once warmed up. Slab
+// sessions cannot be reset.
+WUFFS_IMAGEIO_API int wuffs_session_reset(
+    wuffs_imageio_session* session,
+    const uint8_t* data, size_t len,
+    const wuffs_decode_params* params);
+
+WUFFS_IMAGEIO_API int wuffs_session_step(
+    wuffs_imageio_session* session,
+    const uint8_t* data, size_t len, size_t avail,
+    uint8_t* dst_pixels, size_t dst_len,
+    wuffs_step_result* out);
+
+// Scatter-gather resumable decoding: instead of one contiguous input, the
+// caller feeds the image as a sequence of chunks, each in its own memory, with
+// `final` set on the last. A session opened (or reset) on a prefix of the
+// image (enough to identify the format) is fed each chunk from `offset` until
+// it returns WUFFS_IMAGEIO_SUSPENDED (1), meaning the chunk is used up and the
+// next one is needed; chunks need not outlive the call. Bytes the decoder
+// cannot use at the end of a chunk (a field that straddles the boundary) are
+// copied to a small session buffer and joined with the head of the next chunk;
+// the chunks themselves are never concatenated. As with wuffs_session_step, a
+// NULL `dst_pixels` stops once the image configuration is parsed and returns 0
+// with `out->chunk_used` telling where to resume in the same chunk.
+// `out->consumed` counts bytes across all chunks.
+WUFFS_IMAGEIO_API int wuffs_session_feed(
+    wuffs_imageio_session* session,
+    const uint8_t* chunk, size_t len, size_t offset, uint32_t final,
+    uint8_t* dst_pixels, size_t dst_len,
+    wuffs_step_result* out);
+
+WUFFS_IMAGEIO_API void wuffs_session_close(wuffs_imageio_session* session);
+
+WUFFS_IMAGEIO_API void wuffs_memory_get_stats(wuffs_memory_stats* out);
+
+// Restarts peak tracking from the current usage.
+WUFFS_IMAGEIO_API void wuffs_memory_reset_peak(void);
+
+// Caps accounted heap usage; allocations beyond it fail with an out of memory
+// error. 0 means unlimited.
+WUFFS_IMAGEIO_API void wuffs_memory_set_limit(uint64_t limit_bytes);
+
+// PNG encoding. wuffs_png_encode_params.src_layout: byte order of the source
+// pixels. Java's TYPE_INT_ARGB and TYPE_INT_RGB rasters are BGRA on the
+// little-endian platforms jwuff supports.
+#define WUFFS_IMAGEIO_ENCODE_SRC_BGRA 0u
+#define WUFFS_IMAGEIO_ENCODE_SRC_RGBA 1u
+#define WUFFS_IMAGEIO_ENCODE_SRC_ABGR 2u
+#define WUFFS_IMAGEIO_ENCODE_SRC_BGR 3u
+#define WUFFS_IMAGEIO_ENCODE_SRC_RGB 4u
+#define WUFFS_IMAGEIO_ENCODE_SRC_GRAY 5u
+
+// color_type is the 8-bit PNG color type written: 0 (gray), 2 (RGB) or 6
+// (RGBA); 4-byte sources may be written as RGB, dropping alpha. level is the
+// deflate level 0-9. filter is a PNG filter type 0-4 applied to every row, or
+// -1 to pick one per row (none at level 0).
+typedef struct {
+  uint32_t src_layout;
+  uint32_t width;
+  uint32_t src_stride;
+  uint32_t color_type;
+  uint32_t level;
+  int32_t filter;
+} wuffs_png_encode_params;
+
+// adler32 covers the band's filtered bytes, of which there are filtered_len;
+// the caller combines band checksums into the zlib trailer.
+typedef struct {
+  uint64_t bytes_written;
+  uint32_t adler32;
+  uint32_t reserved;
+  uint64_t filtered_len;
+} wuffs_png_encode_result;
+
+// Returns a dst_cap that always suffices for wuffs_png_encode_rows.
+WUFFS_IMAGEIO_API uint64_t wuffs_png_encode_bound(uint32_t width, uint32_t rows, uint32_t color_type);
+
+// Filters and deflates a band of `rows` rows into raw deflate data (no zlib
+// header or trailer). `prev_row` is the source row above the band, or NULL for
+// the first band. Bands are independent, so they can be encoded concurrently:
+// unless `last`, the output ends byte-aligned after an empty stored block and
+// the next band's output can be appended directly; the last band ends the
+// stream.
+WUFFS_IMAGEIO_API int wuffs_png_encode_rows(
+    const uint8_t* src, const uint8_t* prev_row, uint32_t rows, uint32_t last,
+    const wuffs_png_encode_params* params,
+    uint8_t* dst, size_t dst_cap,
+    wuffs_png_encode_result* out);
+
+// Decompression formats for wuffs_inflater_open; wuffs_inflate_formats
+// reports the compiled-in ones as a bit mask of (1 << format).
+#define WUFFS_IMAGEIO_INFLATE_DEFLATE 0u
+#define WUFFS_IMAGEIO_INFLATE_ZLIB 1u
+#define WUFFS_IMAGEIO_INFLATE_GZIP 2u
+// IGNORE_CHECKSUM: skip the zlib Adler-32 / gzip CRC-32 check.
+#define WUFFS_IMAGEIO_INFLATE_FLAG_IGNORE_CHECKSUM 0x1u
+
+typedef struct wuffs_imageio_inflater wuffs_imageio_inflater;
+
+// consumed and produced count this step's input and output bytes. done is set
+// once the stream's end has been decoded; need_input is set when the step
+// suspended for more input rather than for more output space.
+typedef struct {
+  uint64_t consumed;
+  uint64_t produced;
+  uint32_t done;
+  uint32_t need_input;
+} wuffs_inflate_result;
+
+WUFFS_IMAGEIO_API uint32_t wuffs_inflate_formats(void);
+
+WUFFS_IMAGEIO_API int wuffs_inflater_open(uint32_t format, uint32_t flags, wuffs_imageio_inflater** out_inflater);
+
+// Restarts `inflater` for a new stream, reusing its allocations. Also clears
+// a previous error.
+WUFFS_IMAGEIO_API int wuffs_inflater_reset(wuffs_imageio_inflater* inflater);
+
+// Decompresses src[0, src_len) into dst[0, dst_len). Returns 0 once the end of
+// the stream is reached (later steps return 0 without consuming anything),
+// WUFFS_IMAGEIO_SUSPENDED (1) when more input or output space is needed (see
+// wuffs_inflate_result.need_input), or a negative error. Unconsumed input must
+// be passed again. With `src_final` set, running out of input is a truncated
+// input error.
+WUFFS_IMAGEIO_API int wuffs_inflater_step(
+    wuffs_imageio_inflater* inflater,
+    const uint8_t* src, size_t src_len, uint32_t src_final,
+    uint8_t* dst, size_t dst_len,
+    wuffs_inflate_result* out);
+
+WUFFS_IMAGEIO_API void wuffs_inflater_close(wuffs_imageio_inflater* inflater);
+
+// Resampling filters for wuffs_resize_bgra.
+#define WUFFS_IMAGEIO_RESIZE_BOX 0u
+#define WUFFS_IMAGEIO_RESIZE_BILINEAR 1u
+#define WUFFS_IMAGEIO_RESIZE_LANCZOS3 2u
+
+// Resamples 8-bit non-premultiplied BGRA `src` to `dst_width` x `dst_height`
+// in the same format. Filtering is separable and done on premultiplied
+// values, so transparent pixels do not bleed color; when downscaling, the
+// kernels widen with the scale factor (box becomes an area average). Scratch
+// memory is a few dst-width rows, independent of the source height.
+WUFFS_IMAGEIO_API int wuffs_resize_bgra(
+    const uint8_t* src, uint32_t src_width, uint32_t src_height, size_t src_stride,
+    uint8_t* dst, uint32_t dst_width, uint32_t dst_height, size_t dst_stride,
+    uint32_t filter);
+
 // Returns 1 if this CPU+OS can execute AVX2 instructions safely, otherwise 0.
 WUFFS_IMAGEIO_API int wuffs_cpu_supports_avx2(void);
 
+// Returns 1 if this CPU+OS can execute x86-64-v3 code (AVX2, FMA, BMI1/2,
+// F16C, LZCNT, MOVBE), otherwise 0.
+WUFFS_IMAGEIO_API int wuffs_cpu_supports_v3(void);
+
+// Returns 1 if this CPU+OS can execute x86-64-v4 code (v3 plus AVX-512
+// F/BW/CD/DQ/VL), otherwise 0.
+WUFFS_IMAGEIO_API int wuffs_cpu_supports_v4(void);
+
 WUFFS_IMAGEIO_API const char* wuffs_error_message(int code);
 
 #ifdef __cplusplus
@@ -0,0 +1,22 @@
+// The Wuffs implementation, compiled as its own translation unit with the
+// WUFFS_CONFIG__* definitions from CMakeLists.txt. Wuffs only defines its
+// structs' fields with WUFFS_IMPLEMENTATION, so the few reads of decoder
+// internals that jwuff needs live here rather than in wuffs_imageio_abi.c.
+#include "third_party/wuffs/release/c/wuffs-unsupported-snapshot.c"
+
+#ifndef WUFFS_IMAGEIO_NO_PNG_PASS_PROGRESS
+
+// private_impl has no compatibility guarantee. Updating Wuffs to a version that
+// drops, renames or widens the field stops the build here instead of reading
+// the wrong bytes; check wuffs_imageio_png_passes_done, or configure with
+// -DWUFFS_IMAGEIO_PNG_PASS_PROGRESS=OFF.
+_Static_assert(sizeof(((wuffs_png__decoder*)0)->private_impl.f_interlace_pass) == 1,
+               "wuffs_png__decoder.private_impl.f_interlace_pass changed");
+
+// Returns the PNG decoder's current interlace pass: 0 before the first, 1-7
+// while decoding Adam7 passes.
+uint32_t wuffs_imageio_png_interlace_pass(const wuffs_png__decoder* decoder) {
+  return decoder->private_impl.f_interlace_pass;
+}
+
+#endif
@@ -0,0 +1,117 @@
+package com.agulev.jwuff.smoke;
+
+import com.agulev.jwuff.DecodedImage;
+import com.agulev.jwuff.JwuffDecodeOptions;
+import com.agulev.jwuff.JwuffDecoder;
+import com.agulev.jwuff.JwuffImageIO;
+import com.agulev.jwuff.nativelib.DecodeCallMode;
+import com.agulev.jwuff.nativelib.WuffsDecodeSession;
+import com.agulev.jwuff.nativelib.WuffsFFI;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Decodes a PNG and a JPEG through ImageIO and {@link JwuffDecoder}; built as a GraalVM native image by
+ * {@code ./gradlew nativeSmokeTest} to check the reachability metadata.
+ *
+ * <p>Usage: {@code NativeImageSmoke <png> <jpeg>}. Exits with status 1 and a message on the first failed check.</p>
+ */
+public final class NativeImageSmoke {
+    private NativeImageSmoke() {}
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: NativeImageSmoke <png> <jpeg>");
+            System.exit(2);
+        }
+        try {
+            run(Path.of(args[0]), Path.of(args[1]));
+        } catch (AssertionError e) {
+            System.err.println("FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void run(Path pngFile, Path jpegFile) throws Exception {
+        // Found through META-INF/services, without JwuffImageIO.register().
+        for (String format : new String[]{"png", "jpeg"}) {
+            Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName(format);
+            boolean found = false;
+            while (readers.hasNext()) {
+                ImageReader reader = readers.next();
+                found |= reader.getClass().getName().startsWith("com.agulev.jwuff.");
+                reader.dispose();
+            }
+            check(found, "no jwuff " + format + " reader registered");
+        }
+        JwuffImageIO.register();
+
+        byte[] png = Files.readAllBytes(pngFile);
+        byte[] jpeg = Files.readAllBytes(jpegFile);
+        BufferedImage pngImage = ImageIO.read(new ByteArrayInputStream(png));
+        BufferedImage jpegImage = JwuffImageIO.read(jpeg);
+        check(pngImage != null && jpegImage != null, "ImageIO returned null");
+        check(isRed(jpegImage.getRGB(jpegImage.getWidth() / 2, jpegImage.getHeight() / 2)), "JPEG pixel is not red");
+
+        try (JwuffDecoder decoder = new JwuffDecoder(1)) {
+            DecodedImage decodedPng = decoder.decode(png);
+            check(decodedPng.width() == pngImage.getWidth() && decodedPng.height() == pngImage.getHeight(),
+                    "JwuffDecoder PNG size differs from ImageIO");
+            check(decodedPng.toBufferedImage().getRGB(0, 0) == pngImage.getRGB(0, 0), "PNG pixels differ");
+
+            DecodedImage decodedJpeg = decoder.decode(jpeg);
+            DecodedImage chunked = decoder.decode(split(jpeg, 100), JwuffDecodeOptions.DEFAULT);
+            check(Arrays.equals(decodedJpeg.bytes(), chunked.bytes()), "chunked JPEG decode differs");
+
+            // Native input and output take the regular (non-critical) downcalls, which have their own metadata entries.
+            try (Arena arena = Arena.ofConfined()) {
+                MemorySegment nativeJpeg = arena.allocate(jpeg.length).copyFrom(MemorySegment.ofArray(jpeg));
+                DecodedImage whole = decoder.decode(nativeJpeg, JwuffDecodeOptions.DEFAULT, arena);
+                check(Arrays.equals(decodedJpeg.bytes(), whole.bytes()), "native JPEG decode differs");
+                MemorySegment[] nativeChunks = new MemorySegment[(jpeg.length + 99) / 100];
+                for (int i = 0; i < nativeChunks.length; i++) {
+                    nativeChunks[i] = nativeJpeg.asSlice(i * 100L, Math.min(100, jpeg.length - i * 100));
+                }
+                DecodedImage nativeChunked = decoder.decode(nativeChunks, JwuffDecodeOptions.DEFAULT, arena);
+                check(Arrays.equals(decodedJpeg.bytes(), nativeChunked.bytes()), "native chunked JPEG decode differs");
+            }
+            byte[] staged = new byte[decodedPng.bytes().length];
+            try (WuffsDecodeSession session =
+                         WuffsFFI.openSession(png, 0, png.length, staged, DecodeCallMode.OFF_HEAP)) {
+                check(session.step(png.length), "off-heap PNG session did not finish");
+            }
+            check(Arrays.equals(decodedPng.bytes(), staged), "off-heap PNG decode differs");
+        }
+        System.out.printf("OK: png %dx%d, jpeg %dx%d, native variant %s%n",
+                pngImage.getWidth(), pngImage.getHeight(), jpegImage.getWidth(), jpegImage.getHeight(),
+                JwuffImageIO.nativeVariant());
+    }
+
+    private static List<ByteBuffer> split(byte[] data, int size) {
+        List<ByteBuffer> chunks = new ArrayList<>();
+        for (int at = 0; at < data.length; at += size) {
+            chunks.add(ByteBuffer.wrap(data, at, Math.min(size, data.length - at)).slice());
+        }
+        return chunks;
+    }
+
+    private static boolean isRed(int argb) {
+        return ((argb >>> 16) & 0xFF) > 200 && ((argb >>> 8) & 0xFF) < 60 && (argb & 0xFF) < 60;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}
@@ -0,0 +1,109 @@
+package com.agulev.jwuff;
+
+import com.agulev.jwuff.spi.WuffsPngImageReaderSpi;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AbortAndProgressTest {
+    @Test
+    void readFiresStartedProgressAndComplete() throws Exception {
+        byte[] png = readResourceBytes("/images/test_perf_always.png");
+        ImageReader reader = new WuffsPngImageReaderSpi().createReaderInstance();
+        RecordingListener listener = new RecordingListener(null);
+        reader.addIIOReadProgressListener(listener);
+        try (ImageInputStream iis = JwuffImageIO.createImageInputStream(png)) {
+            reader.setInput(iis, false, true);
+            BufferedImage img = reader.read(0);
+            assertNotNull(img);
+        } finally {
+            reader.dispose();
+        }
+
+        assertEquals("started", listener.events.get(0));
+        assertEquals("complete", listener.events.get(listener.events.size() - 1));
+        assertTrue(listener.events.contains("progress"), "expected progress events for a multi-slice input");
+    }
+
+    @Test
+    void abortStopsDecodeBetweenSlices() throws Exception {
+        byte[] png = readResourceBytes("/images/test_perf_always.png");
+        ImageReader reader = new WuffsPngImageReaderSpi().createReaderInstance();
+        RecordingListener listener = new RecordingListener(reader);
+        reader.addIIOReadProgressListener(listener);
+        try (ImageInputStream iis = JwuffImageIO.createImageInputStream(png)) {
+            reader.setInput(iis, false, true);
+            reader.read(0);
+        } finally {
+            reader.dispose();
+        }
+
+        assertTrue(listener.events.contains("aborted"), "expected readAborted; got " + listener.events);
+        assertTrue(!listener.events.contains("complete"), "aborted read must not complete; got " + listener.events);
+        assertEquals(1, listener.events.stream().filter("progress"::equals).count());
+    }
+
+    private static byte[] readResourceBytes(String path) throws Exception {
+        try (InputStream in = AbortAndProgressTest.class.getResourceAsStream(path)) {
+            assertNotNull(in, "Missing test resource: " + path);
+            return in.readAllBytes();
+        }
+    }
+
+    private static final class RecordingListener implements IIOReadProgressListener {
+        private final ImageReader abortOnProgress;
+        private final List<String> events = new ArrayList<>();
+
+        RecordingListener(ImageReader abortOnProgress) {
+            this.abortOnProgress = abortOnProgress;
+        }
+
+        @Override
+        public void imageStarted(ImageReader source, int imageIndex) {
+            events.add("started");
+        }
+
+        @Override
+        public void imageProgress(ImageReader source, float percentageDone) {
+            events.add("progress");
+            if (abortOnProgress != null) {
+                abortOnProgress.abort();
+            }
+        }
+
+        @Override
+        public void imageComplete(ImageReader source) {
+            events.add("complete");
+        }
+
+        @Override
+        public void readAborted(ImageReader source) {
+            events.add("aborted");
+        }
+
+        @Override
+        public void sequenceStarted(ImageReader source, int minIndex) {}
+
+        @Override
+        public void sequenceComplete(ImageReader source) {}
+
+        @Override
+        public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {}
+
+        @Override
+        public void thumbnailProgress(ImageReader source, float percentageDone) {}
+
+        @Override
+        public void thumbnailComplete(ImageReader source) {}
+    }
+}
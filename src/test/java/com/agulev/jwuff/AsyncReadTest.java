@@ -0,0 +1,173 @@
+package com.agulev.jwuff;
+
+import com.agulev.jwuff.reader.AbstractWuffsImageReader;
+import com.agulev.jwuff.spi.WuffsPngImageReaderSpi;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AsyncReadTest {
+    @Test
+    void readAsyncDecodesOnDefaultExecutor() throws Exception {
+        byte[] png = readResourceBytes("/images/onepx.png");
+        BufferedImage img = JwuffImageIO.readAsync(png).get(30, TimeUnit.SECONDS);
+
+        assertNotNull(img);
+        assertEquals(1, img.getWidth());
+        assertEquals(0xFFFF0000, img.getRGB(0, 0));
+        assertEquals(0, JwuffImageIO.asyncQueueDepth(), "nothing else is queued on the default pool");
+    }
+
+    @Test
+    void readAsyncHonorsExecutorOverride() throws Exception {
+        byte[] jpeg = readResourceBytes("/images/red16.jpg");
+        ExecutorService exec = Executors.newSingleThreadExecutor(r -> new Thread(r, "custom-decode"));
+        try {
+            String[] threadName = new String[1];
+            BufferedImage img = JwuffImageIO.readAsync(jpeg, r -> exec.execute(() -> {
+                threadName[0] = Thread.currentThread().getName();
+                r.run();
+            })).get(30, TimeUnit.SECONDS);
+
+            assertNotNull(img);
+            assertEquals(16, img.getWidth());
+            assertEquals("custom-decode", threadName[0]);
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    @Test
+    void cancellingAQueuedDecodeSkipsIt() throws Exception {
+        byte[] png = readResourceBytes("/images/test_perf_always.png");
+        List<Runnable> queued = new ArrayList<>();
+        CompletableFuture<BufferedImage> future = JwuffImageIO.readAsync(png, queued::add);
+
+        assertTrue(future.cancel(true));
+        assertEquals(1, queued.size());
+        queued.get(0).run(); // the pool gets to it after the cancel
+
+        assertTrue(future.isCancelled());
+    }
+
+    @Test
+    void cancellingAJustStartedDecodeAbortsIt() throws Exception {
+        byte[] png = readResourceBytes("/images/test_perf_always.png");
+        ImageReader reader = new WuffsPngImageReaderSpi().createReaderInstance();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        List<String> events = new ArrayList<>();
+        ((AbstractWuffsImageReader) reader).setCancellation(cancelled::get);
+        reader.addIIOReadProgressListener(new EventListener(events) {
+            @Override
+            public void imageStarted(ImageReader source, int imageIndex) {
+                // Lands after read() has cleared abort requests, as a cancel racing a just-started decode does.
+                cancelled.set(true);
+                super.imageStarted(source, imageIndex);
+            }
+        });
+        try (ImageInputStream iis = JwuffImageIO.createImageInputStream(png)) {
+            reader.setInput(iis, false, true);
+            reader.read(0);
+        } finally {
+            reader.dispose();
+        }
+
+        assertEquals(List.of("started", "aborted"), events);
+    }
+
+    @Test
+    void cancelBeforeStartIsNotLostToClearAbortRequest() throws Exception {
+        byte[] png = readResourceBytes("/images/test_perf_always.png");
+        ImageReader reader = new WuffsPngImageReaderSpi().createReaderInstance();
+        List<String> events = new ArrayList<>();
+        ((AbstractWuffsImageReader) reader).setCancellation(() -> true);
+        reader.abort(); // cleared by read(); the cancellation is not
+        reader.addIIOReadProgressListener(new EventListener(events));
+        try (ImageInputStream iis = JwuffImageIO.createImageInputStream(png)) {
+            reader.setInput(iis, false, true);
+            reader.read(0);
+        } finally {
+            reader.dispose();
+        }
+
+        assertEquals(List.of("started", "aborted"), events);
+    }
+
+    @Test
+    void rejectedSubmissionCompletesTheFutureExceptionally() throws Exception {
+        byte[] png = readResourceBytes("/images/onepx.png");
+        RejectedExecutionException rejection = new RejectedExecutionException("queue full");
+        CompletableFuture<BufferedImage> future = JwuffImageIO.readAsync(png, r -> {
+            throw rejection;
+        });
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(30, TimeUnit.SECONDS));
+        assertEquals(rejection, e.getCause());
+    }
+
+    private static byte[] readResourceBytes(String path) throws Exception {
+        try (InputStream in = AsyncReadTest.class.getResourceAsStream(path)) {
+            assertNotNull(in, "Missing test resource: " + path);
+            return in.readAllBytes();
+        }
+    }
+
+    private static class EventListener implements IIOReadProgressListener {
+        private final List<String> events;
+
+        EventListener(List<String> events) {
+            this.events = events;
+        }
+
+        @Override
+        public void imageStarted(ImageReader source, int imageIndex) {
+            events.add("started");
+        }
+
+        @Override
+        public void imageComplete(ImageReader source) {
+            events.add("complete");
+        }
+
+        @Override
+        public void readAborted(ImageReader source) {
+            events.add("aborted");
+        }
+
+        @Override
+        public void imageProgress(ImageReader source, float percentageDone) {}
+
+        @Override
+        public void sequenceStarted(ImageReader source, int minIndex) {}
+
+        @Override
+        public void sequenceComplete(ImageReader source) {}
+
+        @Override
+        public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {}
+
+        @Override
+        public void thumbnailProgress(ImageReader source, float percentageDone) {}
+
+        @Override
+        public void thumbnailComplete(ImageReader source) {}
+    }
+}
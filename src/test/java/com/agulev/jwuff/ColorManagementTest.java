@@ -0,0 +1,208 @@
+package com.agulev.jwuff;
+
+import com.agulev.jwuff.metadata.BasicImageMetadata;
+import com.agulev.jwuff.model.ColorInfo;
+import com.agulev.jwuff.model.ProbeResult;
+import com.agulev.jwuff.nativelib.WuffsDecodeFlags;
+import com.agulev.jwuff.nativelib.WuffsFFI;
+import com.agulev.jwuff.reader.JwuffImageReadParam;
+import com.agulev.jwuff.spi.WuffsPngImageReaderSpi;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Node;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.color.ColorSpace;
+import java.awt.color.ICC_Profile;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.lang.foreign.MemorySegment;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ColorManagementTest {
+    private static final String PNG_FORMAT = "javax_imageio_png_1.0";
+    private static final int GRAY_128 = 0xFF808080;
+
+    @Test
+    void probeReportsGammaAndChromaticities() throws Exception {
+        ProbeResult p = WuffsFFI.probe(encode(gray128(), linearGamma(), chromaticities()));
+        ColorInfo color = p.color();
+        assertEquals(1.0, color.gamma(), 1e-6);
+        assertNotNull(color.chromaticities());
+        assertEquals(0.3127, color.chromaticities().whiteX(), 1e-6);
+        assertEquals(0.64, color.chromaticities().redX(), 1e-6);
+        assertEquals(0.06, color.chromaticities().blueY(), 1e-6);
+        assertFalse(color.isSrgb());
+    }
+
+    @Test
+    void probeReportsSrgbAndUntaggedImages() throws Exception {
+        assertTrue(WuffsFFI.probe(encode(gray128(), srgb())).color().isSrgb());
+        assertTrue(WuffsFFI.probe(encode(gray128())).color().isEmpty());
+    }
+
+    @Test
+    void probeSkipsColorChunksWhenAncillaryChunksAreIgnored() throws Exception {
+        byte[] png = encode(gray128(), linearGamma(), chromaticities());
+        ProbeResult p = WuffsFFI.probe(MemorySegment.ofArray(png), WuffsDecodeFlags.IGNORE_ANCILLARY_CHUNKS);
+        assertEquals(ColorInfo.NONE, p.color());
+        assertEquals(1.0, WuffsFFI.probe(png).color().gamma(), 1e-6);
+
+        ImageReader reader = new WuffsPngImageReaderSpi().createReaderInstance();
+        try (ImageInputStream iis = JwuffImageIO.createImageInputStream(png)) {
+            reader.setInput(iis, false, true);
+            IIOMetadataNode root =
+                    (IIOMetadataNode) reader.getImageMetadata(0).getAsTree(BasicImageMetadata.NATIVE_FORMAT);
+            assertEquals(0, root.getElementsByTagName("Gamma").getLength());
+            assertEquals(0, root.getElementsByTagName("Chromaticities").getLength());
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void iccProfileIsExposedThroughProbeAndMetadata() throws Exception {
+        byte[] profile = ICC_Profile.getInstance(ColorSpace.CS_LINEAR_RGB).getData();
+        byte[] png = encode(gray128(), iccp(profile));
+
+        assertEquals(profile.length, WuffsFFI.probe(png).color().iccProfileLength());
+        assertArrayEquals(profile, WuffsFFI.iccProfile(png, 0, png.length));
+        byte[] untagged = encode(gray128());
+        assertNull(WuffsFFI.iccProfile(untagged, 0, untagged.length));
+
+        ImageReader reader = new WuffsPngImageReaderSpi().createReaderInstance();
+        try (ImageInputStream iis = JwuffImageIO.createImageInputStream(png)) {
+            reader.setInput(iis, false, false);
+            Node root = reader.getImageMetadata(0).getAsTree(BasicImageMetadata.STANDARD_FORMAT);
+            IIOMetadataNode icc = (IIOMetadataNode) ((IIOMetadataNode) root).getElementsByTagName("ICCProfile").item(0);
+            assertNotNull(icc);
+            assertArrayEquals(profile, (byte[]) icc.getUserObject());
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void linearGammaIsConvertedToSrgbOnlyWhenRequested() throws Exception {
+        byte[] png = encode(gray128(), linearGamma());
+
+        assertEquals(GRAY_128, read(png, new JwuffImageReadParam()).getRGB(3, 2));
+
+        int argb = read(png, convert()).getRGB(3, 2);
+        assertEquals(0xFF, argb >>> 24);
+        assertNear(188, (argb >>> 16) & 0xFF);
+        assertNear(188, (argb >>> 8) & 0xFF);
+        assertNear(188, argb & 0xFF);
+    }
+
+    @Test
+    void linearIccProfileIsConvertedToSrgb() throws Exception {
+        byte[] profile = ICC_Profile.getInstance(ColorSpace.CS_LINEAR_RGB).getData();
+        int argb = read(encode(gray128(), iccp(profile)), convert()).getRGB(3, 2);
+        assertNear(188, (argb >>> 16) & 0xFF);
+        assertNear(188, argb & 0xFF);
+    }
+
+    @Test
+    void srgbAndUntaggedImagesAreUnchanged() throws Exception {
+        byte[] srgbProfile = ICC_Profile.getInstance(ColorSpace.CS_sRGB).getData();
+        assertEquals(GRAY_128, read(encode(gray128()), convert()).getRGB(3, 2));
+        assertEquals(GRAY_128, read(encode(gray128(), srgb()), convert()).getRGB(3, 2));
+        assertEquals(GRAY_128, read(encode(gray128(), iccp(srgbProfile)), convert()).getRGB(3, 2));
+    }
+
+    private static JwuffImageReadParam convert() {
+        return new JwuffImageReadParam(JwuffDecodeOptions.DEFAULT.withConvertToSrgb(true));
+    }
+
+    private static void assertNear(int expected, int actual) {
+        assertTrue(Math.abs(expected - actual) <= 2, "expected ~" + expected + " but was " + actual);
+    }
+
+    private static BufferedImage read(byte[] png, ImageReadParam param) throws Exception {
+        ImageReader reader = new WuffsPngImageReaderSpi().createReaderInstance();
+        try (ImageInputStream iis = JwuffImageIO.createImageInputStream(png)) {
+            reader.setInput(iis, false, true);
+            return reader.read(0, param);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private static BufferedImage gray128() {
+        BufferedImage image = new BufferedImage(8, 4, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 8; x++) image.setRGB(x, y, GRAY_128);
+        }
+        return image;
+    }
+
+    private static IIOMetadataNode linearGamma() {
+        IIOMetadataNode gama = new IIOMetadataNode("gAMA");
+        gama.setAttribute("value", "100000");
+        return gama;
+    }
+
+    private static IIOMetadataNode chromaticities() {
+        IIOMetadataNode chrm = new IIOMetadataNode("cHRM");
+        chrm.setAttribute("whitePointX", "31270");
+        chrm.setAttribute("whitePointY", "32900");
+        chrm.setAttribute("redX", "64000");
+        chrm.setAttribute("redY", "33000");
+        chrm.setAttribute("greenX", "30000");
+        chrm.setAttribute("greenY", "60000");
+        chrm.setAttribute("blueX", "15000");
+        chrm.setAttribute("blueY", "6000");
+        return chrm;
+    }
+
+    private static IIOMetadataNode srgb() {
+        IIOMetadataNode srgb = new IIOMetadataNode("sRGB");
+        srgb.setAttribute("renderingIntent", "Perceptual");
+        return srgb;
+    }
+
+    private static IIOMetadataNode iccp(byte[] profile) throws Exception {
+        // The JDK writer stores the user object as-is, so it must already be zlib-compressed.
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (DeflaterOutputStream out = new DeflaterOutputStream(compressed)) {
+            out.write(profile);
+        }
+        IIOMetadataNode iccp = new IIOMetadataNode("iCCP");
+        iccp.setAttribute("profileName", "test");
+        iccp.setAttribute("compressionMethod", "deflate");
+        iccp.setUserObject(compressed.toByteArray());
+        return iccp;
+    }
+
+    private static byte[] encode(BufferedImage image, IIOMetadataNode... chunks) throws Exception {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image), null);
+            IIOMetadataNode root = new IIOMetadataNode(PNG_FORMAT);
+            for (IIOMetadataNode chunk : chunks) root.appendChild(chunk);
+            metadata.mergeTree(PNG_FORMAT, root);
+            writer.setOutput(ios);
+            writer.write(new IIOImage(image, null, metadata));
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+}
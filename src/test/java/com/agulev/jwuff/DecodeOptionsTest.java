@@ -0,0 +1,133 @@
+package com.agulev.jwuff;
+
+import com.agulev.jwuff.reader.JwuffImageReadParam;
+import com.agulev.jwuff.spi.WuffsJpegImageReaderSpi;
+import com.agulev.jwuff.spi.WuffsPngImageReaderSpi;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DecodeOptionsTest {
+    @Test
+    void defaultReadParamCarriesDecodeOptions() throws Exception {
+        ImageReader reader = new WuffsPngImageReaderSpi().createReaderInstance();
+        try {
+            ImageReadParam param = reader.getDefaultReadParam();
+            assertTrue(param instanceof JwuffImageReadParam);
+            assertEquals(JwuffDecodeOptions.DEFAULT, ((JwuffImageReadParam) param).getDecodeOptions());
+            assertEquals(0, JwuffDecodeOptions.DEFAULT.toDecodeFlags());
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void ignoreChecksumDecodesPngWithBadIdatCrc() throws Exception {
+        byte[] png = readResourceBytes("/images/onepx.png");
+        byte[] corrupt = Arrays.copyOf(png, png.length);
+        int idat = indexOf(corrupt, "IDAT".getBytes(StandardCharsets.US_ASCII));
+        assertTrue(idat > 0);
+        int length = ((corrupt[idat - 4] & 0xFF) << 24) | ((corrupt[idat - 3] & 0xFF) << 16)
+                | ((corrupt[idat - 2] & 0xFF) << 8) | (corrupt[idat - 1] & 0xFF);
+        corrupt[idat + 4 + length + 3] ^= 0x5A;
+
+        ImageReaderSpi spi = new WuffsPngImageReaderSpi();
+        assertThrows(IOException.class, () -> read(spi, corrupt, new JwuffImageReadParam()));
+
+        BufferedImage image = read(spi, corrupt,
+                new JwuffImageReadParam(JwuffDecodeOptions.DEFAULT.withIgnoreChecksum(true)));
+        assertEquals(0xFFFF0000, image.getRGB(0, 0));
+    }
+
+    @Test
+    void rejectProgressiveJpegFailsOnlyProgressiveInput() throws Exception {
+        BufferedImage source = new BufferedImage(32, 32, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 32; y++) {
+            for (int x = 0; x < 32; x++) source.setRGB(x, y, (x * 8) << 16 | (y * 8) << 8);
+        }
+        byte[] progressive = encodeJpeg(source, true);
+        byte[] baseline = encodeJpeg(source, false);
+
+        ImageReaderSpi spi = new WuffsJpegImageReaderSpi();
+        JwuffImageReadParam reject =
+                new JwuffImageReadParam(JwuffDecodeOptions.DEFAULT.withRejectProgressiveJpeg(true));
+
+        assertEquals(32, read(spi, progressive, new JwuffImageReadParam()).getWidth());
+        assertThrows(IOException.class, () -> read(spi, progressive, reject));
+        assertEquals(32, read(spi, baseline, reject).getWidth());
+    }
+
+    @Test
+    void qualityQuirkStillDecodesJpeg() throws Exception {
+        byte[] jpeg = readResourceBytes("/images/red16.jpg");
+        ImageReaderSpi spi = new WuffsJpegImageReaderSpi();
+        for (JwuffDecodeOptions.Quality quality : JwuffDecodeOptions.Quality.values()) {
+            BufferedImage image = read(spi, jpeg,
+                    new JwuffImageReadParam(JwuffDecodeOptions.DEFAULT.withQuality(quality)));
+            assertEquals(16, image.getWidth());
+            int argb = image.getRGB(8, 8);
+            assertTrue(((argb >>> 16) & 0xFF) >= 240, quality + ": " + Integer.toHexString(argb));
+        }
+    }
+
+    private static BufferedImage read(ImageReaderSpi spi, byte[] bytes, ImageReadParam param) throws IOException {
+        ImageReader reader = spi.createReaderInstance();
+        try (ImageInputStream iis = JwuffImageIO.createImageInputStream(bytes)) {
+            reader.setInput(iis, false, true);
+            return reader.read(0, param);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private static byte[] encodeJpeg(BufferedImage image, boolean progressive) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setProgressiveMode(progressive ? ImageWriteParam.MODE_DEFAULT : ImageWriteParam.MODE_DISABLED);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle) {
+        outer:
+        for (int i = 0; i + needle.length <= haystack.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private byte[] readResourceBytes(String path) throws IOException {
+        try (InputStream in = getClass().getResourceAsStream(path)) {
+            assertNotNull(in);
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.agulev.jwuff;
+
+import com.agulev.jwuff.model.ProbeResult;
+import com.agulev.jwuff.nativelib.DecodeCallMode;
+import com.agulev.jwuff.nativelib.WuffsDecodeSession;
+import com.agulev.jwuff.nativelib.WuffsFFI;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Measures how long decodes stall concurrently allocating threads, comparing {@link DecodeCallMode#CRITICAL} with
+ * {@link DecodeCallMode#OFF_HEAP}.
+ *
+ * <p>Allocator threads churn short-lived arrays and record the longest gap between consecutive iterations. A
+ * critical downcall that pins heap arrays can hold off the GC, which shows up as a large gap on every allocator.</p>
+ */
+class GcStallBenchmarkTest {
+    private static volatile long blackhole;
+
+    @Test
+    void allocatorStallsDuringLargeDecodes() throws Exception {
+        Assumptions.assumeTrue(Boolean.getBoolean("jwuff.gc"),
+                "Enable with -Djwuff.gc=true (benchmark; environment-dependent).");
+
+        byte[] png = readInput();
+        ProbeResult probe = WuffsFFI.probe(png);
+        byte[] dst = new byte[Math.multiplyExact(probe.height(), probe.strideBytes())];
+        int decodes = Integer.getInteger("jwuff.gc.decodes", 5);
+        int allocators = Math.max(2, Math.min(Runtime.getRuntime().availableProcessors() - 1, 4));
+
+        // Warm up both paths once so handle linking and page faults are not measured.
+        decode(png, dst, DecodeCallMode.CRITICAL);
+        decode(png, dst, DecodeCallMode.OFF_HEAP);
+
+        StallResult critical = measure("critical", png, dst, DecodeCallMode.CRITICAL, decodes, allocators);
+        StallResult offHeap = measure("off-heap", png, dst, DecodeCallMode.OFF_HEAP, decodes, allocators);
+
+        System.out.printf(Locale.ROOT, "GcStallBenchmarkTest: %dx%d, %d decodes, %d allocator threads%n",
+                probe.width(), probe.height(), decodes, allocators);
+        System.out.printf(Locale.ROOT, "%-10s %-14s %-16s %-16s %-12s %-12s%n",
+                "mode", "decode ms", "max stall ms", "p99 stall ms", "gc count", "gc ms");
+        for (StallResult r : new StallResult[]{critical, offHeap}) {
+            System.out.printf(Locale.ROOT, "%-10s %-14.2f %-16.2f %-16.2f %-12d %-12d%n",
+                    r.label, r.decodeMs, r.maxStallMs, r.p99StallMs, r.gcCount, r.gcMs);
+        }
+
+        if (Boolean.getBoolean("jwuff.gc.assert")) {
+            assertTrue(offHeap.maxStallMs <= critical.maxStallMs,
+                    "Expected off-heap mode to stall allocators no longer than critical mode");
+        }
+    }
+
+    private static StallResult measure(
+            String label,
+            byte[] png,
+            byte[] dst,
+            DecodeCallMode mode,
+            int decodes,
+            int allocators
+    ) throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch started = new CountDownLatch(allocators);
+        List<long[]> gaps = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < allocators; i++) {
+            long[] maxGapNs = new long[1 << 16];
+            gaps.add(maxGapNs);
+            Thread t = new Thread(() -> allocate(running, started, maxGapNs), "jwuff-gc-allocator-" + i);
+            t.setDaemon(true);
+            threads.add(t);
+            t.start();
+        }
+        started.await();
+
+        long gcCountBefore = gcCount();
+        long gcMsBefore = gcMillis();
+        long t0 = System.nanoTime();
+        for (int i = 0; i < decodes; i++) {
+            decode(png, dst, mode);
+        }
+        long elapsedNs = System.nanoTime() - t0;
+        running.set(false);
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        long[] all = gaps.stream().flatMapToLong(Arrays::stream).filter(g -> g > 0).sorted().toArray();
+        double max = all.length == 0 ? 0 : all[all.length - 1] / 1_000_000.0;
+        double p99 = all.length == 0 ? 0 : all[(int) Math.min(all.length - 1, Math.floor(all.length * 0.99))] / 1_000_000.0;
+        return new StallResult(label, (elapsedNs / 1_000_000.0) / decodes, max, p99,
+                gcCount() - gcCountBefore, gcMillis() - gcMsBefore);
+    }
+
+    /**
+     * Allocates short-lived arrays until stopped, recording the longest iteration gap per millisecond bucket.
+     */
+    private static void allocate(AtomicBoolean running, CountDownLatch started, long[] maxGapNs) {
+        started.countDown();
+        long sink = 0;
+        long last = System.nanoTime();
+        long origin = last;
+        while (running.get()) {
+            byte[] garbage = new byte[64 * 1024];
+            sink += garbage.length;
+            long now = System.nanoTime();
+            int bucket = (int) (((now - origin) / 1_000_000L) % maxGapNs.length);
+            long gap = now - last;
+            if (gap > maxGapNs[bucket]) maxGapNs[bucket] = gap;
+            last = now;
+        }
+        blackhole = sink;
+    }
+
+    private static void decode(byte[] png, byte[] dst, DecodeCallMode mode) {
+        try (WuffsDecodeSession session = WuffsFFI.openSession(png, 0, png.length, dst, mode)) {
+            assertTrue(session.step(png.length));
+        }
+    }
+
+    private static long gcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionCount());
+        }
+        return total;
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    private static byte[] readInput() throws Exception {
+        String path = System.getProperty("jwuff.perf.path");
+        if (path != null && !path.isBlank()) {
+            return Files.readAllBytes(Path.of(path));
+        }
+        try (InputStream in = GcStallBenchmarkTest.class.getResourceAsStream("/images/test_perf_always.png")) {
+            assertNotNull(in, "Missing test resource: /images/test_perf_always.png");
+            return in.readAllBytes();
+        }
+    }
+
+    private record StallResult(
+            String label,
+            double decodeMs,
+            double maxStallMs,
+            double p99StallMs,
+            long gcCount,
+            long gcMs
+    ) {}
+}
@@ -0,0 +1,223 @@
+package com.agulev.jwuff;
+
+import com.agulev.jwuff.nativelib.WuffsException;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.agulev.jwuff.TestImages.png;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImageCacheTest {
+    // 16 x 16 BGRA: 1 KiB of pixels per image.
+    private static final int SIZE = 16;
+    private static final long IMAGE_BYTES = SIZE * SIZE * 4;
+
+    @Test
+    void repeatedContentIsDecodedOnce() throws Exception {
+        byte[] png = encode(0);
+        try (JwuffImageCache cache = new JwuffImageCache(1 << 20)) {
+            DecodedImage first = cache.get(png);
+            assertSame(first, cache.get(png.clone()));
+            assertEquals(1, cache.misses());
+            assertEquals(1, cache.hits());
+            assertEquals(IMAGE_BYTES, cache.sizeBytes());
+            assertSame(first, cache.getIfPresent(JwuffImageCache.keyOf(png)));
+            assertNotEquals(JwuffImageCache.keyOf(png), JwuffImageCache.keyOf(encode(1)));
+        }
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedByPixelBytes() throws Exception {
+        byte[] a = encode(1);
+        byte[] b = encode(2);
+        byte[] c = encode(3);
+        try (JwuffImageCache cache = new JwuffImageCache(2 * IMAGE_BYTES)) {
+            cache.get(a);
+            cache.get(b);
+            cache.get(a);      // b is now least recently used
+            cache.get(c);
+            assertEquals(2, cache.size());
+            assertEquals(1, cache.evictions());
+            assertEquals(2 * IMAGE_BYTES, cache.sizeBytes());
+            assertNull(cache.getIfPresent(JwuffImageCache.keyOf(b)));
+            assertTrue(cache.getIfPresent(JwuffImageCache.keyOf(a)) != null);
+
+            cache.invalidate(JwuffImageCache.keyOf(a));
+            assertEquals(IMAGE_BYTES, cache.sizeBytes());
+            cache.invalidateAll();
+            assertEquals(0, cache.size());
+        }
+    }
+
+    @Test
+    void imagesLargerThanTheBudgetAreNotCached() throws Exception {
+        try (JwuffImageCache cache = new JwuffImageCache(IMAGE_BYTES - 1)) {
+            assertEquals(SIZE, cache.get(encode(4)).width());
+            assertEquals(0, cache.size());
+        }
+    }
+
+    @Test
+    void callerKeysFetchBytesOnlyOnAMiss() throws Exception {
+        byte[] png = encode(5);
+        AtomicInteger fetches = new AtomicInteger();
+        try (JwuffImageCache cache = new JwuffImageCache(1 << 20)) {
+            for (int i = 0; i < 3; i++) {
+                cache.get("asset:5", () -> {
+                    fetches.incrementAndGet();
+                    return png;
+                });
+            }
+            assertEquals(1, fetches.get());
+        }
+    }
+
+    @Test
+    void concurrentRequestsShareOneDecode() throws Exception {
+        byte[] png = encode(6);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger fetches = new AtomicInteger();
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (JwuffImageCache cache = new JwuffImageCache(1 << 20)) {
+            List<Future<DecodedImage>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(() -> cache.get("hot", () -> {
+                    fetches.incrementAndGet();
+                    try {
+                        // Hold the decode until the other requests have queued behind it.
+                        assertTrue(release.await(10, TimeUnit.SECONDS));
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return png;
+                })));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (cache.coalesced() < threads - 1 && System.nanoTime() < deadline) Thread.sleep(5);
+            release.countDown();
+
+            DecodedImage first = futures.get(0).get();
+            for (Future<DecodedImage> f : futures) assertSame(first, f.get());
+            assertEquals(1, fetches.get());
+            assertEquals(1, cache.misses());
+            assertEquals(threads - 1, cache.coalesced());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void invalidationDuringADecodeKeepsItsResultOutOfTheCache() throws Exception {
+        byte[] stale = encode(7);
+        byte[] fresh = encode(8);
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch invalidated = new CountDownLatch(1);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try (JwuffImageCache cache = new JwuffImageCache(1 << 20)) {
+            Future<DecodedImage> running = pool.submit(() -> cache.get("asset", () -> {
+                fetching.countDown();
+                try {
+                    // The asset changes after its old bytes were fetched but before they are decoded and stored.
+                    assertTrue(invalidated.await(10, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return stale;
+            }));
+            assertTrue(fetching.await(10, TimeUnit.SECONDS));
+            cache.invalidate("asset");
+            invalidated.countDown();
+
+            assertEquals(SIZE, running.get().width());
+            assertNull(cache.getIfPresent("asset"));
+            assertEquals(0, cache.size());
+            assertEquals(0, cache.sizeBytes());
+
+            DecodedImage current = cache.get("asset", () -> fresh);
+            assertSame(current, cache.getIfPresent("asset"));
+            assertEquals(2, cache.misses());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void failedDecodesAreNotCached() throws Exception {
+        byte[] garbage = {(byte) 0x89, 'P', 'N', 'G', 1, 2, 3, 4, 5, 6};
+        try (JwuffImageCache cache = new JwuffImageCache(1 << 20)) {
+            assertThrows(WuffsException.class, () -> cache.get(garbage));
+            assertThrows(WuffsException.class, () -> cache.get(garbage));
+            assertEquals(2, cache.misses());
+            assertEquals(0, cache.size());
+        }
+    }
+
+    @Test
+    void offHeapEntriesAndCopiedBufferedImages() throws Exception {
+        byte[] png = encode(7);
+        try (JwuffDecoder decoder = new JwuffDecoder();
+             JwuffImageCache cache = new JwuffImageCache(decoder, JwuffDecodeOptions.DEFAULT, 1 << 20, true)) {
+            DecodedImage image = cache.get(png);
+            assertTrue(image.isNative());
+            assertArrayEquals(decoder.decode(png).bytes(), image.bytes());
+
+            BufferedImage a = cache.read(png);
+            BufferedImage b = cache.read(png);
+            assertNotSame(a, b);
+            a.setRGB(0, 0, 0);
+            assertEquals(image.ints()[0], b.getRGB(0, 0));
+            assertEquals(1, cache.misses());
+        }
+    }
+
+    @Test
+    void offHeapPixelsAreFreedOnEvictionOnceLeasesClose() throws Exception {
+        byte[] a = encode(8);
+        byte[] b = encode(9);
+        try (JwuffDecoder decoder = new JwuffDecoder();
+             JwuffImageCache cache = new JwuffImageCache(decoder, JwuffDecodeOptions.DEFAULT, IMAGE_BYTES, true)) {
+            byte[] expected = decoder.decode(a).bytes();
+            JwuffImageCache.Lease lease = cache.acquire(a);
+            DecodedImage unleased = cache.get(a);
+            assertSame(lease.image(), unleased);
+
+            cache.get(b); // evicts a
+            assertEquals(1, cache.evictions());
+            assertArrayEquals(expected, lease.image().bytes());
+
+            lease.close();
+            lease.close(); // idempotent
+            assertThrows(IllegalStateException.class, lease::image);
+            assertThrows(IllegalStateException.class, unleased::bytes);
+
+            DecodedImage c = cache.get(b);
+            cache.close();
+            assertThrows(IllegalStateException.class, c::bytes);
+        }
+    }
+
+    private static byte[] encode(int seed) {
+        BufferedImage image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) image.setRGB(x, y, 0xFF000000 | seed * 0x10101 + x * 16 + y * 4096);
+        }
+        return png(image);
+    }
+}
@@ -0,0 +1,238 @@
+package com.agulev.jwuff;
+
+import com.agulev.jwuff.metadata.BasicImageMetadata;
+import com.agulev.jwuff.model.DescriptiveMetadata;
+import com.agulev.jwuff.nativelib.WuffsFFI;
+import com.agulev.jwuff.spi.WuffsPngImageReaderSpi;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataFormat;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.agulev.jwuff.TestImages.jdkWriter;
+import static com.agulev.jwuff.TestImages.png;
+import static com.agulev.jwuff.TestImages.withJpegExif;
+import static com.agulev.jwuff.TestImages.withPngExif;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImageMetadataTest {
+    private static final String PNG_FORMAT = "javax_imageio_png_1.0";
+    private static final String JPEG_FORMAT = "javax_imageio_jpeg_image_1.0";
+    private static final String XMP = "<x:xmpmeta xmlns:x=\"adobe:ns:meta/\"/>";
+    private static final byte[] EXIF = {'M', 'M', 0, 42, 0, 0, 0, 8, 0, 0};
+
+    @Test
+    void pngTextChunksExifXmpAndDensity() throws Exception {
+        byte[] png = withPngExif(encodePng(pngChunks()), EXIF);
+
+        DescriptiveMetadata md = WuffsFFI.readMetadata(png, 0, png.length);
+        assertEquals(List.of(
+                new DescriptiveMetadata.TextEntry("Title", "Plain"),
+                new DescriptiveMetadata.TextEntry("Author", "Ünïcødé"),
+                new DescriptiveMetadata.TextEntry("Comment", "Compressed text")
+        ), md.text());
+        assertEquals(XMP, md.xmp());
+        assertArrayEquals(EXIF, md.exif());
+        assertEquals(new DescriptiveMetadata.PhysicalDimensions(2835, 2835, true), md.physicalDimensions());
+    }
+
+    @Test
+    void jpegExifCommentAndDensity() throws Exception {
+        byte[] jpeg = withJpegExif(encodeJpeg(), EXIF);
+
+        DescriptiveMetadata md = WuffsFFI.readMetadata(jpeg, 0, jpeg.length);
+        assertArrayEquals(EXIF, md.exif());
+        assertEquals(List.of(new DescriptiveMetadata.TextEntry("Comment", "hello")), md.text());
+        assertEquals(new DescriptiveMetadata.PhysicalDimensions(11800, 11800, true), md.physicalDimensions());
+    }
+
+    @Test
+    void readerExposesNativeAndStandardTrees() throws Exception {
+        byte[] png = withPngExif(encodePng(pngChunks()), EXIF);
+        IIOMetadata metadata = imageMetadata(new WuffsPngImageReaderSpi(), png, false);
+        assertNotNull(metadata);
+
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(BasicImageMetadata.NATIVE_FORMAT);
+        assertEquals(3, root.getElementsByTagName("TextEntry").getLength());
+        assertArrayEquals(EXIF, (byte[]) ((IIOMetadataNode) root.getElementsByTagName("EXIF").item(0)).getUserObject());
+        assertEquals(XMP, ((IIOMetadataNode) root.getElementsByTagName("XMP").item(0)).getAttribute("value"));
+        assertEquals("meter",
+                ((IIOMetadataNode) root.getElementsByTagName("PhysicalDimensions").item(0)).getAttribute("unit"));
+
+        IIOMetadataNode standard = (IIOMetadataNode) metadata.getAsTree(BasicImageMetadata.STANDARD_FORMAT);
+        assertEquals(3, standard.getElementsByTagName("TextEntry").getLength());
+        assertEquals(0, standard.getElementsByTagName("ImageCreationTime").getLength());
+        String pixelSize = ((IIOMetadataNode) standard.getElementsByTagName("HorizontalPixelSize").item(0))
+                .getAttribute("value");
+        assertEquals(1000.0f / 2835, Float.parseFloat(pixelSize), 1e-6f);
+    }
+
+    @Test
+    void ignoreMetadataSkipsTheMetadataPass() throws Exception {
+        byte[] png = withPngExif(encodePng(pngChunks()), EXIF);
+        IIOMetadata metadata = imageMetadata(new WuffsPngImageReaderSpi(), png, true);
+        assertNotNull(metadata);
+
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(BasicImageMetadata.NATIVE_FORMAT);
+        assertEquals(0, root.getElementsByTagName("TextEntry").getLength());
+        assertEquals(0, root.getElementsByTagName("EXIF").getLength());
+        assertEquals(1, root.getElementsByTagName("Image").getLength());
+    }
+
+    @Test
+    void nativeFormatIsDescribed() throws Exception {
+        byte[] png = withPngExif(encodePng(pngChunks()), EXIF);
+        IIOMetadata metadata = imageMetadata(new WuffsPngImageReaderSpi(), png, false);
+
+        IIOMetadataFormat format = metadata.getMetadataFormat(BasicImageMetadata.NATIVE_FORMAT);
+        assertEquals(BasicImageMetadata.NATIVE_FORMAT, format.getRootName());
+        List<String> elements = List.of(format.getChildNames(BasicImageMetadata.NATIVE_FORMAT));
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(BasicImageMetadata.NATIVE_FORMAT);
+        for (Node child = root.getFirstChild(); child != null; child = child.getNextSibling()) {
+            assertTrue(elements.contains(child.getNodeName()), child.getNodeName());
+            NamedNodeMap attributes = child.getAttributes();
+            for (int i = 0; i < attributes.getLength(); i++) {
+                assertTrue(format.isAttributeRequired(child.getNodeName(), attributes.item(i).getNodeName()),
+                        child.getNodeName() + "/" + attributes.item(i).getNodeName());
+            }
+        }
+        assertEquals(IIOMetadataFormat.VALUE_LIST, format.getObjectValueType("EXIF"));
+        assertEquals(byte.class, format.getObjectClass("EXIF"));
+        assertNotNull(metadata.getMetadataFormat(BasicImageMetadata.STANDARD_FORMAT));
+    }
+
+    @Test
+    void malformedMetadataStillYieldsImageMetadata() throws Exception {
+        byte[] png = withPngExif(encodePng(pngChunks()), EXIF);
+        // Without IEND the metadata pass runs out of input, but the header still probes.
+        byte[] truncated = Arrays.copyOf(png, png.length - 12);
+        IIOMetadata metadata = imageMetadata(new WuffsPngImageReaderSpi(), truncated, false);
+        assertNotNull(metadata);
+
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(BasicImageMetadata.NATIVE_FORMAT);
+        assertEquals("4", ((IIOMetadataNode) root.getElementsByTagName("Image").item(0)).getAttribute("width"));
+    }
+
+    @Test
+    void untaggedImageHasNoDescriptiveMetadata() throws Exception {
+        byte[] png = png(new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB));
+
+        DescriptiveMetadata md = WuffsFFI.readMetadata(png, 0, png.length);
+        assertTrue(md.text().isEmpty());
+        assertNull(md.exif());
+        assertNull(md.xmp());
+        assertNull(md.physicalDimensions());
+    }
+
+    private static IIOMetadata imageMetadata(ImageReaderSpi spi, byte[] bytes, boolean ignoreMetadata)
+            throws Exception {
+        ImageReader reader = spi.createReaderInstance();
+        try (ImageInputStream iis = JwuffImageIO.createImageInputStream(bytes)) {
+            reader.setInput(iis, false, ignoreMetadata);
+            return reader.getImageMetadata(0);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private static IIOMetadataNode pngChunks() {
+        IIOMetadataNode root = new IIOMetadataNode(PNG_FORMAT);
+
+        IIOMetadataNode text = new IIOMetadataNode("tEXt");
+        text.appendChild(entry("tEXtEntry", "keyword", "Title", "value", "Plain"));
+        root.appendChild(text);
+
+        IIOMetadataNode ztxt = new IIOMetadataNode("zTXt");
+        IIOMetadataNode z = entry("zTXtEntry", "keyword", "Comment", "text", "Compressed text");
+        z.setAttribute("compressionMethod", "deflate");
+        ztxt.appendChild(z);
+        root.appendChild(ztxt);
+
+        IIOMetadataNode itxt = new IIOMetadataNode("iTXt");
+        itxt.appendChild(itxtEntry("Author", "Ünïcødé"));
+        itxt.appendChild(itxtEntry("XML:com.adobe.xmp", XMP));
+        root.appendChild(itxt);
+
+        IIOMetadataNode phys = new IIOMetadataNode("pHYs");
+        phys.setAttribute("pixelsPerUnitXAxis", "2835");
+        phys.setAttribute("pixelsPerUnitYAxis", "2835");
+        phys.setAttribute("unitSpecifier", "meter");
+        root.appendChild(phys);
+        return root;
+    }
+
+    private static IIOMetadataNode itxtEntry(String keyword, String text) {
+        IIOMetadataNode n = entry("iTXtEntry", "keyword", keyword, "text", text);
+        n.setAttribute("compressionFlag", "FALSE");
+        n.setAttribute("compressionMethod", "0");
+        n.setAttribute("languageTag", "");
+        n.setAttribute("translatedKeyword", "");
+        return n;
+    }
+
+    private static IIOMetadataNode entry(String name, String k1, String v1, String k2, String v2) {
+        IIOMetadataNode n = new IIOMetadataNode(name);
+        n.setAttribute(k1, v1);
+        n.setAttribute(k2, v2);
+        return n;
+    }
+
+    private static byte[] encodePng(IIOMetadataNode chunks) throws Exception {
+        BufferedImage image = new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB);
+        ImageTypeSpecifier type = ImageTypeSpecifier.createFromRenderedImage(image);
+        ImageWriter writer = jdkWriter(type, "png");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            IIOMetadata metadata = writer.getDefaultImageMetadata(type, null);
+            metadata.mergeTree(PNG_FORMAT, chunks);
+            writer.setOutput(ios);
+            writer.write(new IIOImage(image, null, metadata));
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] encodeJpeg() throws Exception {
+        BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB);
+        ImageTypeSpecifier type = ImageTypeSpecifier.createFromRenderedImage(image);
+        ImageWriter writer = jdkWriter(type, "jpeg");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            IIOMetadata metadata = writer.getDefaultImageMetadata(type, null);
+            IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(JPEG_FORMAT);
+            IIOMetadataNode jfif = (IIOMetadataNode) root.getElementsByTagName("app0JFIF").item(0);
+            jfif.setAttribute("resUnits", "2");
+            jfif.setAttribute("Xdensity", "118");
+            jfif.setAttribute("Ydensity", "118");
+            IIOMetadataNode com = new IIOMetadataNode("com");
+            com.setAttribute("comment", "hello");
+            root.getElementsByTagName("markerSequence").item(0).appendChild(com);
+            metadata.setFromTree(JPEG_FORMAT, root);
+            writer.setOutput(ios);
+            writer.write(new IIOImage(image, null, metadata));
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+}
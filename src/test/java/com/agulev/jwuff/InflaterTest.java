@@ -0,0 +1,217 @@
+package com.agulev.jwuff;
+
+import com.agulev.jwuff.JwuffInflater.Format;
+import com.agulev.jwuff.nativelib.WuffsException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.InputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InflaterTest {
+    private static final byte[] DATA = data(300_000);
+
+    @Test
+    void oneShotDecodesJdkOutputInEveryFormat() throws Exception {
+        for (Format format : Format.values()) {
+            assertTrue(JwuffInflater.isSupported(format), format.toString());
+            assertArrayEquals(DATA, JwuffInflater.inflate(compress(DATA, format), format), format.toString());
+            byte[] empty = compress(new byte[0], format);
+            assertArrayEquals(new byte[0], JwuffInflater.inflate(empty, format), format.toString());
+        }
+    }
+
+    @Test
+    void oneShotGrowsPastAMisleadingSizeHint() throws Exception {
+        byte[] zeros = new byte[1 << 20];
+        byte[] gz = compress(zeros, Format.GZIP);
+        gz[gz.length - 4] = 1;   // ISIZE says 1 byte
+        gz[gz.length - 3] = 0;
+        gz[gz.length - 2] = 0;
+        gz[gz.length - 1] = 0;
+        // The size trailer is not a checksum: decoding still succeeds.
+        assertArrayEquals(zeros, JwuffInflater.inflate(gz, Format.GZIP));
+    }
+
+    @Test
+    void largeSizeTrailersAreOnlyTrustedUpToACap() throws Exception {
+        byte[] zeros = new byte[8 << 20];
+        byte[] gz = compress(zeros, Format.GZIP);
+        assertTrue(gz.length * 1032L >= zeros.length, "ISIZE is within deflate's ratio");
+        assertTrue(JwuffInflater.initialCapacity(gz, 0, gz.length, Format.GZIP) <= 4 << 20);
+        assertArrayEquals(zeros, JwuffInflater.inflate(gz, Format.GZIP));
+
+        byte[] small = compress(DATA, Format.GZIP);
+        assertEquals(DATA.length, JwuffInflater.initialCapacity(small, 0, small.length, Format.GZIP));
+    }
+
+    @Test
+    void segmentAndBufferOneShots() throws Exception {
+        byte[] zlib = compress(DATA, Format.ZLIB);
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment in = arena.allocate(zlib.length);
+            in.copyFrom(MemorySegment.ofArray(zlib));
+            MemorySegment out = arena.allocate(DATA.length);
+            assertEquals(DATA.length, JwuffInflater.inflate(in, out, Format.ZLIB));
+            assertArrayEquals(DATA, out.toArray(ValueLayout.JAVA_BYTE));
+
+            assertThrows(IllegalArgumentException.class,
+                    () -> JwuffInflater.inflate(in, arena.allocate(DATA.length - 1), Format.ZLIB));
+        }
+
+        ByteBuffer in = ByteBuffer.allocateDirect(zlib.length + 3).put(new byte[3]).put(zlib).flip().position(3);
+        ByteBuffer out = ByteBuffer.allocate(DATA.length + 10);
+        assertEquals(DATA.length, JwuffInflater.inflate(in, out, Format.ZLIB));
+        assertFalse(in.hasRemaining());
+        assertEquals(DATA.length, out.position());
+        assertArrayEquals(DATA, Arrays.copyOf(out.array(), DATA.length));
+    }
+
+    @Test
+    void streamsWithSmallInputAndOutputChunks() throws Exception {
+        for (Format format : Format.values()) {
+            byte[] compressed = compress(DATA, format);
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            byte[] chunk = new byte[1000];
+            int fed = 0;
+            try (JwuffInflater inflater = new JwuffInflater(format)) {
+                while (!inflater.finished()) {
+                    if (inflater.needsInput()) {
+                        int n = Math.min(777, compressed.length - fed);
+                        assertTrue(n > 0, "stream ended early");
+                        inflater.setInput(compressed, fed, n);
+                        fed += n;
+                    }
+                    int produced = inflater.inflate(chunk);
+                    result.write(chunk, 0, produced);
+                }
+                assertEquals(compressed.length, inflater.getBytesRead(), format.toString());
+                assertEquals(DATA.length, inflater.getBytesWritten(), format.toString());
+                assertEquals(0, inflater.getRemaining());
+                assertEquals(0, inflater.inflate(chunk));
+            }
+            assertArrayEquals(DATA, result.toByteArray(), format.toString());
+        }
+    }
+
+    @Test
+    void tinyOutputBuffersDrainHeldBackOutputBeforeAskingForInput() throws Exception {
+        for (Format format : Format.values()) {
+            byte[] compressed = compress(DATA, format);
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            byte[] one = new byte[1];
+            try (JwuffInflater inflater = new JwuffInflater(format)) {
+                inflater.setInput(compressed);
+                while (!inflater.finished()) {
+                    assertFalse(inflater.needsInput(), format + " asked for input after " + result.size() + " bytes");
+                    result.write(one, 0, inflater.inflate(one));
+                }
+            }
+            assertArrayEquals(DATA, result.toByteArray(), format.toString());
+
+            try (InputStream in = JwuffInflater.newInputStream(new ByteArrayInputStream(compressed), format)) {
+                result.reset();
+                for (int b; (b = in.read()) >= 0; ) result.write(b);
+            }
+            assertArrayEquals(DATA, result.toByteArray(), format + " stream");
+        }
+    }
+
+    @Test
+    void resetReusesTheInflaterAndLeavesTrailingBytes() throws Exception {
+        byte[] raw = compress(DATA, Format.DEFLATE);
+        byte[] withTrailer = Arrays.copyOf(raw, raw.length + 5);
+        byte[] out = new byte[DATA.length];
+        try (JwuffInflater inflater = new JwuffInflater(Format.DEFLATE)) {
+            for (int round = 0; round < 2; round++) {
+                ByteBuffer in = ByteBuffer.wrap(withTrailer);
+                inflater.setInput(in);
+                assertEquals(DATA.length, inflater.inflate(ByteBuffer.wrap(out)));
+                assertTrue(inflater.finished());
+                assertEquals(5, inflater.getRemaining());
+                assertEquals(5, in.remaining());
+                assertArrayEquals(DATA, out);
+                inflater.reset();
+                Arrays.fill(out, (byte) 0);
+            }
+        }
+    }
+
+    @Test
+    void rejectsCorruptAndTruncatedInput() throws Exception {
+        byte[] zlib = compress(DATA, Format.ZLIB);
+        byte[] badChecksum = zlib.clone();
+        badChecksum[badChecksum.length - 1] ^= 1;
+        assertThrows(WuffsException.class, () -> JwuffInflater.inflate(badChecksum, Format.ZLIB));
+        assertThrows(WuffsException.class, () -> JwuffInflater.inflate(zlib, 0, zlib.length / 2, Format.ZLIB));
+        assertThrows(WuffsException.class, () -> JwuffInflater.inflate(DATA, 0, 100, Format.GZIP));
+
+        try (JwuffInflater inflater = new JwuffInflater(Format.ZLIB, true)) {
+            inflater.setInput(badChecksum);
+            byte[] out = new byte[DATA.length];
+            assertEquals(DATA.length, inflater.inflate(out));
+            assertTrue(inflater.finished());
+        }
+    }
+
+    @Test
+    void inputStreamMatchesAndReportsTruncation() throws Exception {
+        byte[] gz = compress(DATA, Format.GZIP);
+        try (InputStream in = JwuffInflater.newInputStream(new ByteArrayInputStream(gz), Format.GZIP)) {
+            assertArrayEquals(DATA, in.readAllBytes());
+            assertEquals(-1, in.read());
+        }
+        try (InputStream in = JwuffInflater.newInputStream(
+                new ByteArrayInputStream(gz, 0, gz.length - 10), Format.GZIP)) {
+            assertThrows(EOFException.class, in::readAllBytes);
+        }
+    }
+
+    private static byte[] compress(byte[] data, Format format) throws Exception {
+        if (format == Format.GZIP) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+                out.write(data);
+            }
+            return bytes.toByteArray();
+        }
+        Deflater deflater = new Deflater(6, format == Format.DEFLATE);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                bytes.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return bytes.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // Repetitive text with noise: both literals and matches, some beyond the 32 KiB window.
+    private static byte[] data(int length) {
+        byte[] data = new byte[length];
+        long seed = 7;
+        for (int i = 0; i < length; i++) {
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            data[i] = (seed >>> 60) == 0 ? (byte) (seed >>> 32) : (byte) ("jwuff inflate ".charAt(i % 14) + (i >> 16));
+        }
+        return data;
+    }
+}
@@ -0,0 +1,128 @@
+package com.agulev.jwuff;
+
+import com.agulev.jwuff.io.InputStreamImageInputStream;
+import com.agulev.jwuff.spi.WuffsPngImageReaderSpi;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.agulev.jwuff.TestImages.assertPixelsEqual;
+import static com.agulev.jwuff.TestImages.pattern;
+import static com.agulev.jwuff.TestImages.png;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InputStreamImageInputStreamTest {
+    @Test
+    void imageIoReadsInputStreamsInMemoryEvenWithCacheEnabled() throws Exception {
+        ImageIO.scanForPlugins();
+        JwuffImageIO.register(true);
+        boolean useCache = ImageIO.getUseCache();
+        ImageIO.setUseCache(true);
+        try {
+            byte[] png = png(pattern(31, 17));
+            try (ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(png))) {
+                assertTrue(iis instanceof InputStreamImageInputStream, "got: " + iis.getClass());
+                assertEquals(png.length, ((InputStreamImageInputStream) iis).segment().byteSize());
+                assertEquals(png.length, iis.length());
+            }
+            assertPixelsEqual(pattern(31, 17), ImageIO.read(new ByteArrayInputStream(png)));
+        } finally {
+            ImageIO.setUseCache(useCache);
+        }
+    }
+
+    @Test
+    void readsShortReadsWithAnyLengthHint() throws Exception {
+        byte[] png = png(pattern(300, 200));
+        for (long hint : new long[]{0, 1, png.length - 1, png.length, png.length + 1, 10L * png.length}) {
+            try (InputStreamImageInputStream iis = new InputStreamImageInputStream(trickle(png), hint)) {
+                assertEquals(-1, iis.length(), "hint " + hint);
+                assertEquals(png.length, iis.segment().byteSize(), "hint " + hint);
+                assertEquals(png.length, iis.length(), "hint " + hint);
+                assertPixelsEqual(pattern(300, 200), read(iis));
+            }
+        }
+        assertThrows(IllegalArgumentException.class, () -> new InputStreamImageInputStream(trickle(png), -1));
+    }
+
+    @Test
+    void closingRecyclesTheBufferAndFailsLaterReads() throws Exception {
+        byte[] png = png(pattern(20, 10));
+        InputStreamImageInputStream iis = new InputStreamImageInputStream(new ByteArrayInputStream(png));
+        ImageReader reader = new WuffsPngImageReaderSpi().createReaderInstance();
+        try {
+            reader.setInput(iis);
+            assertEquals(20, reader.getWidth(0));
+            assertFalse(iis.isClosed());
+            iis.close();
+            iis.close(); // idempotent
+            assertTrue(iis.isClosed());
+            assertThrows(IllegalStateException.class, () -> reader.read(0));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void readsOnlyWhatIsNeededFromANonTerminatingStream() throws Exception {
+        byte[] png = png(pattern(20, 10));
+        AtomicLong consumed = new AtomicLong();
+        // The image, then zeros forever: reading to the end would never return.
+        InputStream endless = new InputStream() {
+            @Override
+            public int read() {
+                long at = consumed.getAndIncrement();
+                return at < png.length ? png[(int) at] & 0xFF : 0;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                int n = Math.min(len, 1000);
+                for (int i = 0; i < n; i++) b[off + i] = (byte) read();
+                return n;
+            }
+        };
+        try (InputStreamImageInputStream iis = new InputStreamImageInputStream(endless)) {
+            assertEquals(0, consumed.get(), "the constructor must not read");
+            assertTrue(new WuffsPngImageReaderSpi().canDecodeInput(iis));
+            byte[] header = new byte[8];
+            iis.readFully(header);
+            assertEquals('P', header[1]);
+            iis.seek(png.length + 5000);
+            assertEquals(0, iis.read());
+            assertEquals(-1, iis.length());
+            assertTrue(consumed.get() < png.length + 10_000, "read " + consumed.get() + " bytes");
+        }
+    }
+
+    private static BufferedImage read(ImageInputStream iis) throws Exception {
+        ImageReader reader = new WuffsPngImageReaderSpi().createReaderInstance();
+        try {
+            reader.setInput(iis, false, true);
+            return reader.read(0);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    // Returns at most 1000 bytes per read, like a socket.
+    private static InputStream trickle(byte[] data) {
+        return new FilterInputStream(new ByteArrayInputStream(data)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 1000));
+            }
+        };
+    }
+}
@@ -8,10 +8,10 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
 
-final class JfrAllocations {
+public final class JfrAllocations {
     private JfrAllocations() {}
 
-    static long measureAllocatedBytesForCurrentThread(Runnable op) throws Exception {
+    public static long measureAllocatedBytesForCurrentThread(Runnable op) throws Exception {
         String threadName = "jwuff-jfr-" + System.nanoTime();
         long[] allocated = new long[1];
         long[] matchedEvents = new long[1];
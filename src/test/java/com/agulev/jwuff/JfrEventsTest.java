@@ -0,0 +1,139 @@
+package com.agulev.jwuff;
+
+import com.agulev.jwuff.nativelib.WuffsDecodeFlags;
+import com.agulev.jwuff.nativelib.WuffsDecodeSession;
+import com.agulev.jwuff.nativelib.WuffsFFI;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.agulev.jwuff.TestImages.assertPixelsEqual;
+import static com.agulev.jwuff.TestImages.pattern;
+import static com.agulev.jwuff.TestImages.png;
+import static com.agulev.jwuff.TestImages.split;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class JfrEventsTest {
+    @Test
+    void decodeEmitsProbeAndDecodeEvents() throws Exception {
+        byte[] png;
+        try (InputStream in = getClass().getResourceAsStream("/images/onepx.png")) {
+            assertNotNull(in);
+            png = in.readAllBytes();
+        }
+
+        Path jfr = Files.createTempFile("jwuff-events-", ".jfr");
+        jfr.toFile().deleteOnExit();
+        try (Recording recording = new Recording()) {
+            recording.enable("jwuff.Probe").withThreshold(Duration.ZERO);
+            recording.enable("jwuff.Decode").withThreshold(Duration.ZERO);
+            recording.start();
+            assertNotNull(JwuffImageIO.read(png));
+            recording.stop();
+            recording.dump(jfr);
+        }
+
+        List<RecordedEvent> probes = new ArrayList<>();
+        List<RecordedEvent> decodes = new ArrayList<>();
+        try (RecordingFile rf = new RecordingFile(jfr)) {
+            while (rf.hasMoreEvents()) {
+                RecordedEvent ev = rf.readEvent();
+                String name = ev.getEventType().getName();
+                if (name.equals("jwuff.Probe")) probes.add(ev);
+                if (name.equals("jwuff.Decode")) decodes.add(ev);
+            }
+        } finally {
+            Files.deleteIfExists(jfr);
+        }
+
+        assertEquals(1, probes.size());
+        assertEquals("png", probes.get(0).getString("format"));
+        assertEquals(1, decodes.size());
+        RecordedEvent decode = decodes.get(0);
+        assertEquals("png", decode.getString("format"));
+        assertEquals(1, decode.getInt("width"));
+        assertEquals(1, decode.getInt("height"));
+        assertEquals(png.length, decode.getLong("inputBytes"));
+        assertEquals(4L, decode.getLong("outputBytes"));
+        assertEquals(0, decode.getInt("errorCode"));
+        assertNotNull(decode.getString("nativeVariant"));
+        assertTrue(decode.getInt("steps") >= 1);
+        assertTrue(decode.getLong("configParseDuration") + decode.getLong("pixelDecodeDuration") > 0);
+    }
+
+    @Test
+    void stepTimingsAreOnlyCollectedOnRequest() throws Exception {
+        byte[] png;
+        try (InputStream in = getClass().getResourceAsStream("/images/onepx.png")) {
+            assertNotNull(in);
+            png = in.readAllBytes();
+        }
+        try (WuffsDecodeSession session = WuffsFFI.openSession(png, 0, png.length, new byte[4], 0)) {
+            assertTrue(session.step(png.length));
+            assertEquals(0, session.configNanos());
+            assertEquals(0, session.decodeNanos());
+        }
+        try (WuffsDecodeSession session =
+                     WuffsFFI.openSession(png, 0, png.length, new byte[4], WuffsDecodeFlags.COLLECT_TIMINGS)) {
+            assertTrue(session.step(png.length));
+            assertTrue(session.configNanos() + session.decodeNanos() > 0);
+        }
+    }
+
+    @Test
+    void largeDecoderDecodesFromHeapArraysAreStagedOffHeap() throws Exception {
+        assumeTrue(System.getProperty("jwuff.decode.callMode") == null, "call mode forced");
+        assumeTrue(System.getProperty("jwuff.decode.offHeapThresholdBytes") == null, "threshold overridden");
+        // 4096 x 4096 BGRA is exactly the default 64 MiB threshold.
+        BufferedImage large = pattern(4096, 4096);
+        byte[] largePng = png(large);
+        byte[] smallPng = png(pattern(64, 64));
+
+        Path jfr = Files.createTempFile("jwuff-events-", ".jfr");
+        jfr.toFile().deleteOnExit();
+        try (Recording recording = new Recording(); JwuffDecoder decoder = new JwuffDecoder()) {
+            recording.enable("jwuff.Decode").withThreshold(Duration.ZERO);
+            recording.start();
+            assertPixelsEqual(large, decoder.decode(largePng).toBufferedImage(), "byte[]");
+            assertPixelsEqual(large, decoder.decodeArgb(largePng, JwuffDecodeOptions.DEFAULT).toBufferedImage(),
+                    "int[]");
+            assertPixelsEqual(large, decoder.decode(split(largePng, 1 << 20), JwuffDecodeOptions.DEFAULT)
+                    .toBufferedImage(), "chunks");
+            decoder.decode(smallPng);
+            recording.stop();
+            recording.dump(jfr);
+        }
+
+        List<RecordedEvent> decodes = new ArrayList<>();
+        try (RecordingFile rf = new RecordingFile(jfr)) {
+            while (rf.hasMoreEvents()) {
+                RecordedEvent ev = rf.readEvent();
+                if (ev.getEventType().getName().equals("jwuff.Decode")) decodes.add(ev);
+            }
+        } finally {
+            Files.deleteIfExists(jfr);
+        }
+
+        assertEquals(4, decodes.size());
+        for (RecordedEvent decode : decodes.subList(0, 3)) {
+            assertEquals(4096, decode.getInt("width"));
+            assertEquals(4096L * 4096 * 4, decode.getLong("outputBytes"));
+            assertTrue(decode.getBoolean("offHeap"), "large decode used the critical handle");
+        }
+        assertEquals(64, decodes.get(3).getInt("width"));
+        assertFalse(decodes.get(3).getBoolean("offHeap"));
+    }
+}
@@ -0,0 +1,163 @@
+package com.agulev.jwuff;
+
+import com.agulev.jwuff.nativelib.WuffsException;
+import com.agulev.jwuff.nativelib.WuffsPixelFormat;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.agulev.jwuff.TestImages.assertPixelsEqual;
+import static com.agulev.jwuff.TestImages.encode;
+import static com.agulev.jwuff.TestImages.pattern;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JwuffDecoderTest {
+    private static final int W = 13;
+    private static final int H = 7;
+
+    @Test
+    void decodesPngToBgraBytes() throws Exception {
+        BufferedImage source = pattern(W, H);
+        try (JwuffDecoder decoder = new JwuffDecoder(2)) {
+            DecodedImage image = decoder.decode(encode(source, "png"));
+            assertEquals(W, image.width());
+            assertEquals(H, image.height());
+            assertEquals(W * 4, image.stride());
+            assertEquals(WuffsPixelFormat.BGRA_NONPREMUL, image.pixelFormat());
+            assertFalse(image.isNative());
+
+            byte[] bgra = image.bytes();
+            assertSame(bgra, image.bytes());
+            int at = (2 * W + 5) * 4;
+            int argb = source.getRGB(5, 2);
+            assertEquals(argb & 0xFF, bgra[at] & 0xFF);
+            assertEquals((argb >>> 16) & 0xFF, bgra[at + 2] & 0xFF);
+            assertEquals(0xFF, bgra[at + 3] & 0xFF);
+            assertPixelsEqual(source, image.toBufferedImage());
+        }
+    }
+
+    @Test
+    void argbAndNativeOutputsMatchTheByteOutput() throws Exception {
+        byte[] png = encode(pattern(W, H), "png");
+        try (JwuffDecoder decoder = new JwuffDecoder(); Arena arena = Arena.ofConfined()) {
+            DecodedImage bytes = decoder.decode(png, JwuffDecodeOptions.DEFAULT);
+
+            DecodedImage ints = decoder.decodeArgb(png, JwuffDecodeOptions.DEFAULT);
+            assertSame(ints.ints(), ints.ints());
+            assertArrayEquals(bytes.ints(), ints.ints());
+            assertArrayEquals(bytes.bytes(), ints.bytes());
+            assertPixelsEqual(bytes.toBufferedImage(), ints.toBufferedImage());
+
+            MemorySegment input = arena.allocate(png.length);
+            MemorySegment.copy(png, 0, input, ValueLayout.JAVA_BYTE, 0L, png.length);
+            DecodedImage off = decoder.decode(input, JwuffDecodeOptions.DEFAULT, arena);
+            assertTrue(off.isNative());
+            assertArrayEquals(bytes.bytes(), off.segment().toArray(ValueLayout.JAVA_BYTE));
+            assertArrayEquals(bytes.ints(), off.ints());
+        }
+    }
+
+    @Test
+    void decodesAnArraySlice() throws Exception {
+        byte[] png = encode(pattern(W, H), "png");
+        byte[] padded = new byte[png.length + 10];
+        System.arraycopy(png, 0, padded, 3, png.length);
+        try (JwuffDecoder decoder = new JwuffDecoder()) {
+            assertArrayEquals(decoder.decode(png).bytes(),
+                    decoder.decode(padded, 3, png.length, JwuffDecodeOptions.DEFAULT).bytes());
+        }
+    }
+
+    @Test
+    void sessionsAreReusedAcrossFormatsAndOptions() throws Exception {
+        byte[] png = encode(pattern(W, H), "png");
+        byte[] jpeg = encode(pattern(W, H), "jpeg");
+        try (JwuffDecoder decoder = new JwuffDecoder(1)) {
+            byte[] first = decoder.decode(png).bytes();
+            assertEquals(1, decoder.pooledSessions());
+            for (int i = 0; i < 3; i++) {
+                DecodedImage j = decoder.decode(jpeg);
+                assertEquals(W, j.width());
+                assertArrayEquals(first, decoder.decode(png).bytes());
+                assertEquals(1, decoder.pooledSessions());
+            }
+            DecodedImage lower =
+                    decoder.decode(jpeg, JwuffDecodeOptions.DEFAULT.withQuality(JwuffDecodeOptions.Quality.LOWER));
+            assertEquals(H, lower.height());
+        }
+    }
+
+    @Test
+    void appliesOrientationOption() throws Exception {
+        byte[] png = encode(pattern(W, H), "png");
+        try (JwuffDecoder decoder = new JwuffDecoder()) {
+            // Without EXIF the option has no effect.
+            DecodedImage image = decoder.decode(png, JwuffDecodeOptions.DEFAULT.withApplyOrientation(true));
+            assertEquals(W, image.width());
+            assertEquals(H, image.height());
+        }
+    }
+
+    @Test
+    void failedDecodeLeavesTheSessionUsable() throws Exception {
+        byte[] png = encode(pattern(W, H), "png");
+        byte[] truncated = Arrays.copyOf(png, png.length / 2);
+        try (JwuffDecoder decoder = new JwuffDecoder(1)) {
+            decoder.decode(png);
+            assertThrows(WuffsException.class, () -> decoder.decode(truncated));
+            assertThrows(WuffsException.class, () -> decoder.decode(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}));
+            assertEquals(W, decoder.decode(png).width());
+        }
+    }
+
+    @Test
+    void concurrentDecodesAgree() throws Exception {
+        byte[] png = encode(pattern(W, H), "png");
+        byte[] jpeg = encode(pattern(W, H), "jpeg");
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try (JwuffDecoder decoder = new JwuffDecoder(2)) {
+            byte[] expectedPng = decoder.decode(png).bytes();
+            byte[] expectedJpeg = decoder.decode(jpeg).bytes();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < 50; i++) {
+                        assertArrayEquals(expectedPng, decoder.decode(png).bytes());
+                        assertArrayEquals(expectedJpeg, decoder.decode(jpeg).bytes());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) f.get();
+            assertTrue(decoder.pooledSessions() <= 2);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void closedDecoderRejectsDecodes() throws Exception {
+        byte[] png = encode(pattern(W, H), "png");
+        JwuffDecoder decoder = new JwuffDecoder();
+        decoder.decode(png);
+        decoder.close();
+        assertEquals(0, decoder.pooledSessions());
+        assertThrows(IllegalStateException.class, () -> decoder.decode(png));
+        assertThrows(IllegalArgumentException.class, () -> new JwuffDecoder(0));
+    }
+}
@@ -0,0 +1,130 @@
+package com.agulev.jwuff;
+
+import com.agulev.jwuff.io.ByteBufferImageInputStream;
+import com.agulev.jwuff.io.MemorySegmentImageInputStream;
+import com.agulev.jwuff.spi.WuffsPngImageReaderSpi;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.InputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static com.agulev.jwuff.TestImages.assertPixelsEqual;
+import static com.agulev.jwuff.TestImages.pattern;
+import static com.agulev.jwuff.TestImages.png;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MemorySegmentImageInputStreamTest {
+    @Test
+    void imageIoCreatesJwuffStreamsForBuffersAndSegments() throws Exception {
+        ImageIO.scanForPlugins();
+        JwuffImageIO.register(true);
+        try (ImageInputStream iis = ImageIO.createImageInputStream(ByteBuffer.allocateDirect(4))) {
+            assertTrue(iis instanceof ByteBufferImageInputStream, "got: " + iis.getClass());
+        }
+        try (Arena arena = Arena.ofConfined();
+             ImageInputStream iis = ImageIO.createImageInputStream(arena.allocate(4))) {
+            assertTrue(iis instanceof MemorySegmentImageInputStream, "got: " + iis.getClass());
+        }
+    }
+
+    @Test
+    void decodesDirectBufferFromItsPositionWithoutMovingIt() throws Exception {
+        byte[] png = png(pattern(23, 17));
+        ByteBuffer buffer = ByteBuffer.allocateDirect(png.length + 9).position(5);
+        buffer.put(png).flip().position(5);
+
+        BufferedImage image = read(new ByteBufferImageInputStream(buffer));
+        assertPixelsEqual(pattern(23, 17), image);
+        assertEquals(5, buffer.position());
+        assertEquals(5 + png.length, buffer.limit());
+    }
+
+    @Test
+    void decodesNativeSegmentAndReadsMetadata() throws Exception {
+        byte[] png = png(pattern(40, 30));
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment segment = arena.allocate(png.length);
+            segment.copyFrom(MemorySegment.ofArray(png));
+            try (ImageInputStream iis = new MemorySegmentImageInputStream(segment)) {
+                ImageReader reader = new WuffsPngImageReaderSpi().createReaderInstance();
+                try {
+                    reader.setInput(iis);
+                    assertEquals(40, reader.getWidth(0));
+                    assertNotNull(reader.getImageMetadata(0));
+                    assertPixelsEqual(pattern(40, 30), reader.read(0));
+                } finally {
+                    reader.dispose();
+                }
+            }
+        }
+    }
+
+    @Test
+    void decodesReadOnlyMappedFile() throws Exception {
+        byte[] jpeg = readResource("/images/red16.jpg");
+        Path file = Files.createTempFile("jwuff", ".jpg");
+        try {
+            Files.write(file, jpeg);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                BufferedImage image = ImageIO.read(new ByteBufferImageInputStream(mapped));
+                assertEquals(16, image.getWidth());
+                assertEquals(16, image.getHeight());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void readsAndSeeksLikeAnImageInputStream() throws Exception {
+        byte[] data = {1, 2, 3, 4, 5, 6};
+        try (MemorySegmentImageInputStream iis = new MemorySegmentImageInputStream(MemorySegment.ofArray(data))) {
+            assertEquals(6, iis.length());
+            assertEquals(1, iis.read());
+            byte[] buf = new byte[8];
+            assertEquals(5, iis.read(buf, 1, 7));
+            assertArrayEquals(new byte[]{0, 2, 3, 4, 5, 6, 0, 0}, buf);
+            assertEquals(-1, iis.read());
+            iis.seek(4);
+            assertEquals(0x0506, iis.readShort());
+            assertThrows(IndexOutOfBoundsException.class, () -> iis.seek(7));
+            iis.close();
+            iis.close(); // idempotent
+        }
+    }
+
+    private static BufferedImage read(ImageInputStream iis) throws Exception {
+        try (iis) {
+            ImageReader reader = new WuffsPngImageReaderSpi().createReaderInstance();
+            try {
+                reader.setInput(iis, false, true);
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static byte[] readResource(String path) throws Exception {
+        try (InputStream in = MemorySegmentImageInputStreamTest.class.getResourceAsStream(path)) {
+            assertNotNull(in, "Missing resource: " + path);
+            return in.readAllBytes();
+        }
+    }
+}
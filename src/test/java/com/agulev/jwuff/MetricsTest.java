@@ -0,0 +1,69 @@
+package com.agulev.jwuff;
+
+import com.agulev.jwuff.metrics.JwuffMetrics;
+import com.agulev.jwuff.metrics.LatencyHistogram;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricsTest {
+    @Test
+    void decodesAndFailuresAreCounted() throws Exception {
+        byte[] png;
+        try (InputStream in = getClass().getResourceAsStream("/images/onepx.png")) {
+            assertNotNull(in);
+            png = in.readAllBytes();
+        }
+
+        JwuffMetrics.Snapshot before = JwuffMetrics.snapshot();
+        assertNotNull(JwuffImageIO.read(png));
+        byte[] truncated = Arrays.copyOf(png, png.length / 2);
+        assertThrows(Exception.class, () -> JwuffImageIO.read(truncated));
+        JwuffMetrics.Snapshot after = JwuffMetrics.snapshot();
+
+        JwuffMetrics.FormatSnapshot pngAfter = after.formats().get("png");
+        assertNotNull(pngAfter);
+        JwuffMetrics.FormatSnapshot pngBefore = before.formats().get("png");
+        long decodesBefore = pngBefore == null ? 0 : pngBefore.decodes();
+        long failuresBefore = pngBefore == null ? 0 : pngBefore.failures();
+        long outBefore = pngBefore == null ? 0 : pngBefore.outputBytes();
+        assertTrue(pngAfter.decodes() >= decodesBefore + 1);
+        assertTrue(pngAfter.failures() >= failuresBefore + 1);
+        assertTrue(pngAfter.outputBytes() >= outBefore + 4);
+        assertTrue(after.failuresByCode().values().stream().mapToLong(Long::longValue).sum()
+                > before.failuresByCode().values().stream().mapToLong(Long::longValue).sum());
+        assertTrue(after.peakPixelBytes() >= 4);
+        assertEquals(0, after.inFlightDecodes());
+        assertTrue(pngAfter.latencyMillis(0.99) > 0);
+    }
+
+    @Test
+    void mbeanPublishesCounters() throws Exception {
+        ObjectName name = JwuffMetrics.registerMBean();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertTrue(server.isRegistered(name));
+        Object hits = server.getAttribute(name, "ProbeCacheHits");
+        assertTrue(hits instanceof Long);
+        assertNotNull(server.getAttribute(name, "DecodesByFormat"));
+    }
+
+    @Test
+    void histogramQuantilesAreBucketUpperBounds() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) h.record(1_000);
+        h.record(1_000_000);
+        long[] counts = h.counts();
+        assertEquals(1_023, LatencyHistogram.quantileNanos(counts, 0.50));
+        assertEquals(1_048_575, LatencyHistogram.quantileNanos(counts, 1.0));
+        assertEquals(0, LatencyHistogram.quantileNanos(new long[counts.length], 0.5));
+    }
+}
@@ -0,0 +1,57 @@
+package com.agulev.jwuff;
+
+import com.agulev.jwuff.nativelib.NativeLibrary;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class NativeCacheTest {
+    @Test
+    void loadedLibraryComesFromContentHashedCacheDirectory() {
+        Path loaded = NativeLibrary.loadedLibraryPath();
+        assertNotNull(loaded);
+        assertTrue(Files.isRegularFile(loaded), "loaded library should exist: " + loaded);
+
+        Path cache = NativeLibrary.cacheDirectory().toAbsolutePath();
+        assumeTrue(loaded.toAbsolutePath().startsWith(cache),
+                "cache directory not usable here; the temp-dir fallback was used: " + loaded);
+        String hashDir = loaded.getParent().getFileName().toString();
+        assertEquals(32, hashDir.length());
+        assertTrue(hashDir.chars().allMatch(c -> Character.digit(c, 16) >= 0), hashDir);
+
+        String expected = NativeLibrary.loadedVariant().equals("baseline") ? "wuffs_imageio." : "wuffs_imageio_";
+        assertTrue(loaded.getFileName().toString().contains(expected), loaded.toString());
+    }
+
+    @Test
+    void buildPublishesTheHashTheCacheIsKeyedOn() throws Exception {
+        String resource = NativeLibrary.resourcePathForCurrentPlatform(NativeLibrary.loadedVariant());
+        assumeTrue(resource != null, "library not extracted from resources");
+        byte[] library;
+        String published;
+        try (InputStream in = NativeCacheTest.class.getResourceAsStream(resource);
+             InputStream hash = NativeCacheTest.class.getResourceAsStream(resource + ".sha256")) {
+            assertNotNull(in, resource);
+            assertNotNull(hash, resource + ".sha256");
+            library = in.readAllBytes();
+            published = new String(hash.readAllBytes(), StandardCharsets.US_ASCII).trim();
+        }
+        String actual = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(library));
+        assertEquals(actual, published);
+
+        Path loaded = NativeLibrary.loadedLibraryPath();
+        if (loaded.toAbsolutePath().startsWith(NativeLibrary.cacheDirectory().toAbsolutePath())) {
+            assertTrue(published.startsWith(loaded.getParent().getFileName().toString()), loaded.toString());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.agulev.jwuff;
+
+import com.agulev.jwuff.nativelib.WuffsFFI;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.StringJoiner;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Keeps the GraalVM reachability metadata in step with the code: native images can only make downcalls whose
+ * signatures were registered at build time, and only instantiate service providers registered for reflection.
+ */
+class NativeImageMetadataTest {
+    private static final String METADATA = "/META-INF/native-image/com.agulev.jwuff/jwuff/reachability-metadata.json";
+    private static final String CRITICAL = ", \"options\": {\"critical\": {\"allowHeapAccess\": true}}}";
+    // Handles linked with Linker.Option.critical(true); a native image needs the option in their entries too.
+    private static final Set<String> CRITICAL_HANDLES = Set.of(
+            "probeMethodHandle", "decodeMethodHandle", "sessionOpenMethodHandle", "sessionStepMethodHandle",
+            "sessionFeedMethodHandle", "sessionResetMethodHandle", "readIccProfileMethodHandle",
+            "readMetadataMethodHandle", "inflaterStepMethodHandle");
+
+    @Test
+    void everyWuffsDowncallSignatureIsRegistered() throws Exception {
+        String metadata = read(METADATA);
+        int handles = 0;
+        Set<String> criticalSeen = new HashSet<>();
+        for (Method method : WuffsFFI.class.getDeclaredMethods()) {
+            if (!Modifier.isStatic(method.getModifiers()) || method.getParameterCount() != 0
+                    || method.getReturnType() != MethodHandle.class) {
+                continue;
+            }
+            method.setAccessible(true);
+            MethodType type = ((MethodHandle) method.invoke(null)).type();
+            String downcall = downcall(type);
+            if (CRITICAL_HANDLES.contains(method.getName())) {
+                assertTrue(metadata.contains(downcall + CRITICAL),
+                        method.getName() + " needs a critical entry: " + downcall);
+                criticalSeen.add(method.getName());
+            } else {
+                assertTrue(metadata.contains(downcall + "}"),
+                        method.getName() + " needs a non-critical entry: " + downcall);
+            }
+            handles++;
+        }
+        assertTrue(handles > 20, "found " + handles + " handles");
+        assertEquals(CRITICAL_HANDLES, criticalSeen, "stale CRITICAL_HANDLES");
+    }
+
+    @Test
+    void everyServiceProviderIsRegisteredForReflection() throws Exception {
+        String metadata = read(METADATA);
+        for (String service : new String[]{"ImageInputStreamSpi", "ImageReaderSpi", "ImageWriterSpi"}) {
+            for (String provider : lines("/META-INF/services/javax.imageio.spi." + service)) {
+                assertTrue(metadata.contains("{\"type\": \"" + provider + "\", \"methods\": [{\"name\": \"<init>\""),
+                        provider + " is not registered");
+            }
+        }
+    }
+
+    private static String downcall(MethodType type) {
+        StringJoiner params = new StringJoiner(", ", "[", "]");
+        for (Class<?> p : type.parameterList()) params.add("\"" + layout(p) + "\"");
+        return "{\"returnType\": \"" + layout(type.returnType()) + "\", \"parameterTypes\": " + params;
+    }
+
+    private static String layout(Class<?> carrier) {
+        if (carrier == int.class) return "jint";
+        if (carrier == long.class) return "jlong";
+        if (carrier == void.class) return "void";
+        if (carrier == MemorySegment.class) return "void*";
+        throw new AssertionError("unmapped carrier " + carrier);
+    }
+
+    private static String read(String resource) throws Exception {
+        return String.join("\n", lines(resource));
+    }
+
+    private static List<String> lines(String resource) throws Exception {
+        try (InputStream in = NativeImageMetadataTest.class.getResourceAsStream(resource)) {
+            assertNotNull(in, "Missing resource: " + resource);
+            List<String> lines = new ArrayList<>();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            for (String line; (line = reader.readLine()) != null; ) {
+                if (!line.isBlank()) lines.add(line.trim());
+            }
+            return lines;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.agulev.jwuff;
+
+import com.agulev.jwuff.model.NativeMemoryStats;
+import com.agulev.jwuff.nativelib.DecodeCallMode;
+import com.agulev.jwuff.nativelib.NativeMemorySlab;
+import com.agulev.jwuff.nativelib.WuffsDecodeSession;
+import com.agulev.jwuff.nativelib.WuffsException;
+import com.agulev.jwuff.nativelib.WuffsFFI;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.ValueLayout;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NativeMemoryTest {
+    @Test
+    void heapAllocationsAreAccountedAndReleased() throws Exception {
+        byte[] png = readResourceBytes("/images/onepx.png");
+        assertNotNull(JwuffImageIO.read(png));
+
+        NativeMemoryStats before = WuffsFFI.nativeMemoryStats();
+        WuffsFFI.resetNativeMemoryPeak();
+        assertNotNull(JwuffImageIO.read(png));
+        NativeMemoryStats after = WuffsFFI.nativeMemoryStats();
+
+        assertTrue(after.allocCount() > before.allocCount());
+        assertEquals(after.allocCount() - before.allocCount(), after.freeCount() - before.freeCount());
+        assertEquals(before.currentBytes(), after.currentBytes());
+        assertTrue(after.peakBytes() > before.currentBytes());
+    }
+
+    @Test
+    void limitFailsDecodesThatWouldExceedIt() throws Exception {
+        byte[] png = readResourceBytes("/images/onepx.png");
+        NativeMemoryStats before = WuffsFFI.nativeMemoryStats();
+        WuffsFFI.setNativeMemoryLimit(before.currentBytes() + 1);
+        try {
+            WuffsException e = assertThrows(WuffsException.class,
+                    () -> WuffsFFI.openSession(png, 0, png.length, new byte[4]).close());
+            assertEquals(-5, e.code());
+        } finally {
+            // The limit is process-wide; put back whatever -Djwuff.native.memoryLimitBytes set.
+            WuffsFFI.setNativeMemoryLimit(before.limitBytes());
+        }
+        assertTrue(WuffsFFI.nativeMemoryStats().failedCount() > before.failedCount());
+        assertNotNull(JwuffImageIO.read(png));
+    }
+
+    @Test
+    void slabAttributesAndCapsSessionMemory() throws Exception {
+        byte[] png = readResourceBytes("/images/onepx.png");
+        long heapAllocsBefore = WuffsFFI.nativeMemoryStats().allocCount();
+        try (Arena arena = Arena.ofConfined()) {
+            NativeMemorySlab slab = NativeMemorySlab.allocate(arena, 16L * 1024 * 1024);
+            byte[] pixels = new byte[4];
+            try (WuffsDecodeSession session =
+                         WuffsFFI.openSession(png, 0, png.length, pixels, DecodeCallMode.CRITICAL, slab)) {
+                assertTrue(session.step(png.length));
+            }
+            assertTrue(slab.used() > 0);
+            assertTrue(slab.allocCount() >= 2);
+            assertEquals((byte) 0xFF, pixels[2]);
+            assertEquals(heapAllocsBefore, WuffsFFI.nativeMemoryStats().allocCount());
+
+            NativeMemorySlab tiny = NativeMemorySlab.allocate(arena, 64);
+            WuffsException e = assertThrows(WuffsException.class,
+                    () -> WuffsFFI.openSession(png, 0, png.length, new byte[4], DecodeCallMode.CRITICAL, tiny).close());
+            assertEquals(-5, e.code());
+            assertEquals(1, tiny.failedCount());
+        }
+    }
+
+    @Test
+    void decoderAllocatesFromACallerSuppliedSlab() throws Exception {
+        byte[] png = readResourceBytes("/images/onepx.png");
+        try (JwuffDecoder decoder = new JwuffDecoder(1); Arena arena = Arena.ofConfined()) {
+            long heapAllocsBefore = WuffsFFI.nativeMemoryStats().allocCount();
+            NativeMemorySlab slab = NativeMemorySlab.allocate(arena, 16L * 1024 * 1024);
+            DecodedImage image = decoder.decode(png, JwuffDecodeOptions.DEFAULT, slab);
+            assertEquals(1, image.width());
+            assertTrue(slab.used() > 0);
+            assertEquals(heapAllocsBefore, WuffsFFI.nativeMemoryStats().allocCount());
+            assertEquals(0, decoder.pooledSessions(), "slab sessions must not be pooled");
+
+            slab.reset();
+            DecodedImage copy = decoder.decode(arena.allocateFrom(ValueLayout.JAVA_BYTE, png),
+                    JwuffDecodeOptions.DEFAULT, arena, slab);
+            assertArrayEquals(image.bytes(), copy.bytes());
+
+            NativeMemorySlab tiny = NativeMemorySlab.allocate(arena, 64);
+            WuffsException e = assertThrows(WuffsException.class,
+                    () -> decoder.decode(png, JwuffDecodeOptions.DEFAULT, tiny));
+            assertEquals(-5, e.code());
+        }
+    }
+
+    private static byte[] readResourceBytes(String path) throws Exception {
+        try (InputStream in = NativeMemoryTest.class.getResourceAsStream(path)) {
+            assertNotNull(in, "Missing resource: " + path);
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.agulev.jwuff;
+
+import com.agulev.jwuff.nativelib.WuffsFFI;
+import com.agulev.jwuff.reader.AbstractWuffsImageReader;
+import com.agulev.jwuff.reader.JwuffImageReadParam;
+import com.agulev.jwuff.spi.WuffsJpegImageReaderSpi;
+import com.agulev.jwuff.spi.WuffsPngImageReaderSpi;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+
+import static com.agulev.jwuff.TestImages.encode;
+import static com.agulev.jwuff.TestImages.exif;
+import static com.agulev.jwuff.TestImages.pattern;
+import static com.agulev.jwuff.TestImages.withJpegExif;
+import static com.agulev.jwuff.TestImages.withPngExif;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrientationTest {
+    private static final int W = 7;
+    private static final int H = 3;
+
+    @Test
+    void probeReportsOrientation() throws Exception {
+        BufferedImage source = pattern(W, H);
+        assertEquals(1, WuffsFFI.probe(encode(source, "png")).orientation());
+        for (int orientation = 1; orientation <= 8; orientation++) {
+            byte[] png = withPngExif(encode(source, "png"), exif(orientation));
+            assertEquals(orientation, WuffsFFI.probe(png).orientation());
+            assertEquals(W, WuffsFFI.probe(png).width());
+        }
+        byte[] jpeg = withJpegExif(encode(source, "jpeg"), exif(6));
+        assertEquals(6, WuffsFFI.probe(jpeg).orientation());
+    }
+
+    @Test
+    void appliesEveryOrientationToPng() throws Exception {
+        BufferedImage source = pattern(W, H);
+        for (int orientation = 1; orientation <= 8; orientation++) {
+            byte[] png = withPngExif(encode(source, "png"), exif(orientation));
+
+            BufferedImage stored = read(new WuffsPngImageReaderSpi(), png, new JwuffImageReadParam());
+            assertEquals(W, stored.getWidth(), "orientation " + orientation);
+
+            BufferedImage oriented = read(new WuffsPngImageReaderSpi(), png, orient());
+            boolean swapped = orientation >= 5;
+            assertEquals(swapped ? H : W, oriented.getWidth(), "orientation " + orientation);
+            assertEquals(swapped ? W : H, oriented.getHeight(), "orientation " + orientation);
+            for (int y = 0; y < H; y++) {
+                for (int x = 0; x < W; x++) {
+                    int[] o = target(orientation, x, y);
+                    assertEquals(source.getRGB(x, y), oriented.getRGB(o[0], o[1]),
+                            "orientation " + orientation + " at " + x + "," + y);
+                }
+            }
+        }
+    }
+
+    @Test
+    void appliesJpegApp1Orientation() throws Exception {
+        // Large flat blocks survive JPEG compression: left half red, right half blue.
+        BufferedImage source = new BufferedImage(32, 16, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 16; y++) {
+            for (int x = 0; x < 32; x++) source.setRGB(x, y, x < 16 ? 0xFF0000 : 0x0000FF);
+        }
+        byte[] jpeg = withJpegExif(encode(source, "jpeg"), exif(6));
+
+        BufferedImage oriented = read(new WuffsJpegImageReaderSpi(), jpeg, orient());
+        assertEquals(16, oriented.getWidth());
+        assertEquals(32, oriented.getHeight());
+        // Rotated 90 degrees clockwise, the red half ends up on top.
+        assertTrue(((oriented.getRGB(8, 4) >>> 16) & 0xFF) > 200);
+        assertTrue((oriented.getRGB(8, 28) & 0xFF) > 200);
+    }
+
+    @Test
+    void readerReportsTheOrientedSizeWhenOrientationIsApplied() throws Exception {
+        BufferedImage source = pattern(W, H);
+        for (int orientation = 1; orientation <= 8; orientation++) {
+            byte[] png = withPngExif(encode(source, "png"), exif(orientation));
+            AbstractWuffsImageReader reader =
+                    (AbstractWuffsImageReader) new WuffsPngImageReaderSpi().createReaderInstance();
+            try (ImageInputStream iis = JwuffImageIO.createImageInputStream(png)) {
+                reader.setInput(iis, false, true);
+                assertEquals(W, reader.getWidth(0), "orientation " + orientation);
+                assertEquals(H, reader.getHeight(0), "orientation " + orientation);
+
+                reader.setDecodeOptions(JwuffDecodeOptions.DEFAULT.withApplyOrientation(true));
+                boolean swapped = orientation >= 5;
+                assertEquals(swapped ? H : W, reader.getWidth(0), "orientation " + orientation);
+                assertEquals(swapped ? W : H, reader.getHeight(0), "orientation " + orientation);
+                // A param-less read, as ImageIO.read does, uses the reader's options.
+                BufferedImage oriented = reader.read(0);
+                assertEquals(reader.getWidth(0), oriented.getWidth(), "orientation " + orientation);
+                assertEquals(reader.getHeight(0), oriented.getHeight(), "orientation " + orientation);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // Where stored pixel (x, y) lands once the orientation is applied.
+    private static int[] target(int orientation, int x, int y) {
+        return switch (orientation) {
+            case 2 -> new int[]{W - 1 - x, y};
+            case 3 -> new int[]{W - 1 - x, H - 1 - y};
+            case 4 -> new int[]{x, H - 1 - y};
+            case 5 -> new int[]{y, x};
+            case 6 -> new int[]{H - 1 - y, x};
+            case 7 -> new int[]{H - 1 - y, W - 1 - x};
+            case 8 -> new int[]{y, W - 1 - x};
+            default -> new int[]{x, y};
+        };
+    }
+
+    private static JwuffImageReadParam orient() {
+        return new JwuffImageReadParam(JwuffDecodeOptions.DEFAULT.withApplyOrientation(true));
+    }
+
+    private static BufferedImage read(ImageReaderSpi spi, byte[] bytes, ImageReadParam param) throws Exception {
+        ImageReader reader = spi.createReaderInstance();
+        try (ImageInputStream iis = JwuffImageIO.createImageInputStream(bytes)) {
+            reader.setInput(iis, false, true);
+            return reader.read(0, param);
+        } finally {
+            reader.dispose();
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package com.agulev.jwuff;
 
+import com.agulev.jwuff.nativelib.NativeLibrary;
 import com.agulev.jwuff.nativelib.WuffsFFI;
 import com.agulev.jwuff.nativelib.WuffsTypes;
+import com.agulev.jwuff.model.ColorInfo;
 import com.agulev.jwuff.model.FrameResult;
 import com.agulev.jwuff.model.ProbeResult;
 import com.agulev.jwuff.spi.WuffsPngImageReaderSpi;
@@ -23,8 +25,10 @@ import java.lang.foreign.SymbolLookup;
 import java.lang.foreign.ValueLayout;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.zip.CRC32;
 
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -32,6 +36,10 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class PerformanceComparisonAlwaysTest {
+    // Packaged x86_64 variants, best first; MSVC builds have no v3.
+    private static final List<String> X86_64_VARIANTS = List.of("v4", "v3", "avx2");
+    private static final List<String> WIN32_X86_64_VARIANTS = List.of("v4", "avx2");
+
     @Test
     void jwuffIsFasterThanStandardImageIo_onTestPerfAlwaysPng() throws Exception {
         byte[] png = readResourceBytes("/images/test_perf_always.png");
@@ -45,19 +53,17 @@ class PerformanceComparisonAlwaysTest {
             double standardMs = medianDecodeMs(5, () -> readStandardImageIo(png));
             double jwuffMs = medianDecodeMs(5, () -> readWuffsPng(png));
 
-            // Variant-level checks (baseline vs AVX2 where available). This avoids forcing AVX2 globally, which would
-            // break compatibility on older x86_64 CPUs.
-            VariantResults variants = runNativeVariantChecks(png);
+            // Variant-level checks (baseline vs avx2/v3/v4 where available). This avoids forcing a SIMD variant
+            // globally, which would break compatibility on older x86_64 CPUs.
+            Map<String, Double> variants = runNativeVariantChecks(png);
 
             System.out.printf("test_perf_always.png performance (median ms)%n");
             System.out.printf("%-20s %-12s %-12s %-12s%n", "reader", "standard", "jwuff", "native");
             System.out.printf("%-20s %-12.2f %-12.2f %-12s%n", "all platforms", standardMs, jwuffMs, "-");
-            if (variants.baselineMs != null) {
-                System.out.printf("%-20s %-12s %-12s %-12.2f%n", "baseline native", "-", "-", variants.baselineMs);
-            }
-            if (variants.avx2Ms != null) {
-                System.out.printf("%-20s %-12s %-12s %-12.2f%n", "avx2 native", "-", "-", variants.avx2Ms);
+            for (Map.Entry<String, Double> e : variants.entrySet()) {
+                System.out.printf("%-20s %-12s %-12s %-12.2f%n", e.getKey() + " native", "-", "-", e.getValue());
             }
+            System.out.printf("loaded variant: %s%n", NativeLibrary.loadedVariant());
 
             assertTrue(jwuffMs * 1.10 <= standardMs,
                     "Expected jwuff to be faster; standard=" + standardMs + "ms, jwuff=" + jwuffMs + "ms");
@@ -66,51 +72,58 @@ class PerformanceComparisonAlwaysTest {
         }
     }
 
-    private static VariantResults runNativeVariantChecks(byte[] png) throws Exception {
+    private static Map<String, Double> runNativeVariantChecks(byte[] png) throws Exception {
+        Map<String, Double> results = new LinkedHashMap<>();
         String baseResource = baseNativeResourcePathForCurrentPlatform();
         if (baseResource == null) {
-            return new VariantResults(null, null);
+            return results;
         }
 
         boolean isX64 = isX86_64();
-        String avx2Resource = isX64 ? avx2NativeResourcePath(baseResource) : null;
 
         try (Arena arena = Arena.ofConfined()) {
             NativeApi baseline = new NativeApi(extractResourceToTemp(baseResource), arena);
             ProbeResult probe = baseline.probe(png);
             byte[] dst = new byte[Math.multiplyExact(probe.height(), probe.strideBytes())];
 
-            long baselineNs = measureNs(5, () -> {
+            long baselineMedianNs = measureNs(5, () -> {
                 baseline.decodeFrameInto(png, dst);
                 return null;
-            });
-            long baselineMedianNs = baselineNs; // `measureNs` already returns median across samples.
+            }); // `measureNs` already returns median across samples.
             long baselineCrc = crc32(dst);
+            results.put("baseline", baselineMedianNs / 1_000_000.0);
+
+            if (!isX64) {
+                return results;
+            }
 
-            Double baselineMs = baselineMedianNs / 1_000_000.0;
-            Double avx2Ms = null;
-
-            if (avx2Resource != null) {
-                boolean hasAvx2Resource = resourceExists(avx2Resource);
-                if (hasAvx2Resource) {
-                    boolean supportsAvx2 = baseline.cpuSupportsAvx2();
-                    if (supportsAvx2) {
-                        NativeApi avx2 = new NativeApi(extractResourceToTemp(avx2Resource), arena);
-                        Arrays.fill(dst, (byte) 0);
-                        long avx2MedianNs = measureNs(5, () -> {
-                            avx2.decodeFrameInto(png, dst);
-                            return null;
-                        });
-                        avx2Ms = avx2MedianNs / 1_000_000.0;
-                        long avx2Crc = crc32(dst);
-                        assertEquals(baselineCrc, avx2Crc, "baseline and avx2 must decode identical pixels");
-                    }
-                } else {
-                    assertTrue(!isX64, "expected AVX2 native resource to be packaged on x86_64: " + avx2Resource);
+            List<String> packaged = baseResource.contains("-win32/") ? WIN32_X86_64_VARIANTS : X86_64_VARIANTS;
+            for (String variant : packaged) {
+                String resource = variantNativeResourcePath(baseResource, variant);
+                assertTrue(resourceExists(resource),
+                        "expected " + variant + " native resource to be packaged on x86_64: " + resource);
+                // Ask the baseline library: a variant's own code may not be safe to run on this CPU.
+                if (!baseline.cpuSupports(variant)) {
+                    assertTrue(!NativeLibrary.supportedVariants().contains(variant),
+                            "Java-side CPU detection selected " + variant + " but CPUID does not support it");
+                    continue;
                 }
+                NativeApi api = new NativeApi(extractResourceToTemp(resource), arena);
+                Arrays.fill(dst, (byte) 0);
+                long medianNs = measureNs(5, () -> {
+                    api.decodeFrameInto(png, dst);
+                    return null;
+                });
+                results.put(variant, medianNs / 1_000_000.0);
+                assertEquals(baselineCrc, crc32(dst), "baseline and " + variant + " must decode identical pixels");
             }
 
-            return new VariantResults(baselineMs, avx2Ms);
+            // The loader must pick the best variant this CPU supports (unless overridden).
+            if (System.getProperty("jwuff.native.variant") == null) {
+                String best = packaged.stream().filter(results::containsKey).findFirst().orElse("baseline");
+                assertEquals(best, NativeLibrary.loadedVariant());
+            }
+            return results;
         }
     }
 
@@ -147,11 +160,9 @@ class PerformanceComparisonAlwaysTest {
         return null;
     }
 
-    private static String avx2NativeResourcePath(String baseResourcePath) {
-        if (baseResourcePath.endsWith(".so")) return baseResourcePath.replace("libwuffs_imageio.so", "libwuffs_imageio_avx2.so");
-        if (baseResourcePath.endsWith(".dylib")) return baseResourcePath.replace("libwuffs_imageio.dylib", "libwuffs_imageio_avx2.dylib");
-        if (baseResourcePath.endsWith(".dll")) return baseResourcePath.replace("wuffs_imageio.dll", "wuffs_imageio_avx2.dll");
-        return null;
+    private static String variantNativeResourcePath(String baseResourcePath, String variant) {
+        int dot = baseResourcePath.lastIndexOf('.');
+        return baseResourcePath.substring(0, dot) + "_" + variant + baseResourcePath.substring(dot);
     }
 
     private static java.nio.file.Path extractResourceToTemp(String resourcePath) throws Exception {
@@ -263,15 +274,12 @@ class PerformanceComparisonAlwaysTest {
         T get() throws Exception;
     }
 
-    private record VariantResults(Double baselineMs, Double avx2Ms) {}
-
     private static final class NativeApi {
         private final Arena arena;
         private final Linker linker = Linker.nativeLinker();
         private final SymbolLookup symbols;
         private final java.lang.invoke.MethodHandle probe;
         private final java.lang.invoke.MethodHandle decode;
-        private final java.lang.invoke.MethodHandle supportsAvx2;
         private final java.lang.invoke.MethodHandle errorMessage;
 
         NativeApi(java.nio.file.Path libraryPath, Arena arena) {
@@ -299,10 +307,6 @@ class PerformanceComparisonAlwaysTest {
                     Linker.Option.critical(true)
             );
 
-            this.supportsAvx2 = symbols.find("wuffs_cpu_supports_avx2")
-                    .map(s -> linker.downcallHandle(s, FunctionDescriptor.of(ValueLayout.JAVA_INT)))
-                    .orElse(null);
-
             this.errorMessage = linker.downcallHandle(
                     symbols.find("wuffs_error_message").orElseThrow(),
                     FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.JAVA_INT)
@@ -323,7 +327,11 @@ class PerformanceComparisonAlwaysTest {
             int frameCount = (int) WuffsTypes.PROBE_FRAME_COUNT.get(out, 0L);
             int bytesPerPixel = (int) WuffsTypes.PROBE_BYTES_PER_PIXEL.get(out, 0L);
             int strideBytes = (int) WuffsTypes.PROBE_STRIDE_BYTES.get(out, 0L);
-            return new ProbeResult(width, height, frameCount, bytesPerPixel, strideBytes);
+            int bitDepth = (int) WuffsTypes.PROBE_BIT_DEPTH.get(out, 0L);
+            int pixelFormat = (int) WuffsTypes.PROBE_PIXEL_FORMAT.get(out, 0L);
+            // Color metadata is not needed to size the destination.
+            return new ProbeResult(
+                    width, height, frameCount, bytesPerPixel, strideBytes, bitDepth, pixelFormat, ColorInfo.NONE, 1);
         }
 
         FrameResult decodeFrameInto(byte[] data, byte[] dst) throws Exception {
@@ -350,11 +358,12 @@ class PerformanceComparisonAlwaysTest {
             return new FrameResult(width, height, strideBytes, bytesWritten);
         }
 
-        boolean cpuSupportsAvx2() throws Exception {
-            if (supportsAvx2 == null) return false;
+        boolean cpuSupports(String variant) throws Exception {
+            var symbol = symbols.find("wuffs_cpu_supports_" + variant);
+            if (symbol.isEmpty()) return false;
             int res;
             try {
-                res = (int) supportsAvx2.invokeExact();
+                res = (int) linker.downcallHandle(symbol.get(), FunctionDescriptor.of(ValueLayout.JAVA_INT)).invokeExact();
             } catch (Throwable t) {
                 throw new RuntimeException(t);
             }
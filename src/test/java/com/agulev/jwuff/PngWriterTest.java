@@ -0,0 +1,273 @@
+package com.agulev.jwuff;
+
+import com.agulev.jwuff.reader.WuffsPngImageReader;
+import com.agulev.jwuff.spi.WuffsPngImageReaderSpi;
+import com.agulev.jwuff.spi.WuffsPngImageWriterSpi;
+import com.agulev.jwuff.writer.JwuffPngWriteParam;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.event.IIOWriteProgressListener;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.agulev.jwuff.TestImages.assertPixelsEqual;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PngWriterTest {
+    private static final String PNG_FORMAT = "javax_imageio_png_1.0";
+    private static final int[] TYPES = {
+            BufferedImage.TYPE_INT_ARGB,
+            BufferedImage.TYPE_INT_RGB,
+            BufferedImage.TYPE_4BYTE_ABGR,
+            BufferedImage.TYPE_3BYTE_BGR,
+            BufferedImage.TYPE_BYTE_GRAY,
+            BufferedImage.TYPE_INT_BGR,
+            BufferedImage.TYPE_USHORT_565_RGB,
+            BufferedImage.TYPE_INT_ARGB_PRE,
+    };
+
+    @Test
+    void roundTripsImageTypesThroughTheJdkReader() throws Exception {
+        for (int type : TYPES) {
+            BufferedImage source = pattern(61, 37, type);
+            BufferedImage decoded = jdkRead(write(source, null));
+            assertPixelsEqual(source, decoded, "type " + type);
+            assertEquals(source.getColorModel().hasAlpha(), decoded.getColorModel().hasAlpha(), "type " + type);
+        }
+    }
+
+    @Test
+    void roundTripsEveryLevelAndFilter() throws Exception {
+        BufferedImage source = pattern(97, 53, BufferedImage.TYPE_INT_ARGB);
+        for (int level = 0; level <= 9; level++) {
+            for (int filter = JwuffPngWriteParam.FILTER_ADAPTIVE; filter <= JwuffPngWriteParam.FILTER_PAETH; filter++) {
+                JwuffPngWriteParam param = new JwuffPngWriteParam();
+                param.setDeflateLevel(level);
+                param.setFilter(filter);
+                assertPixelsEqual(source, jdkRead(write(source, param)), "level " + level + " filter " + filter);
+            }
+        }
+    }
+
+    @Test
+    void jwuffReaderDecodesTheOutput() throws Exception {
+        BufferedImage source = pattern(200, 120, BufferedImage.TYPE_4BYTE_ABGR);
+        byte[] png = write(source, null);
+        WuffsPngImageReader reader = (WuffsPngImageReader) new WuffsPngImageReaderSpi().createReaderInstance();
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(png))) {
+            reader.setInput(in);
+            assertPixelsEqual(source, reader.read(0), "jwuff reader");
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    void largeImagesAreSplitIntoConcurrentBands() throws Exception {
+        // About 4 MiB of filtered RGBA rows: several bands.
+        BufferedImage source = pattern(1024, 1100, BufferedImage.TYPE_INT_ARGB);
+        JwuffPngWriteParam parallel = new JwuffPngWriteParam();
+        parallel.setEncodeThreads(4);
+        JwuffPngWriteParam serial = new JwuffPngWriteParam();
+        serial.setEncodeThreads(1);
+
+        byte[] a = write(source, parallel);
+        byte[] b = write(source, serial);
+        assertArrayEquals(a, b);
+        assertTrue(countChunks(a, "IDAT") > 1);
+        assertPixelsEqual(source, jdkRead(a), "banded");
+    }
+
+    @Test
+    void standardCompressionQualityMapsToLevel() throws Exception {
+        BufferedImage source = pattern(128, 64, BufferedImage.TYPE_INT_RGB);
+        ImageWriteParam stored = new JwuffPngWriteParam();
+        stored.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        stored.setCompressionQuality(1.0f);
+        assertEquals(0, ((JwuffPngWriteParam) stored).getEffectiveDeflateLevel());
+        ImageWriteParam best = new JwuffPngWriteParam();
+        best.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        best.setCompressionQuality(0.0f);
+        assertEquals(9, ((JwuffPngWriteParam) best).getEffectiveDeflateLevel());
+
+        byte[] large = write(source, stored);
+        byte[] small = write(source, best);
+        assertTrue(large.length > 128 * 64 * 3, "stored output is at least the raw size");
+        assertTrue(small.length < large.length / 2);
+        assertPixelsEqual(source, jdkRead(small), "level 9");
+    }
+
+    @Test
+    void honorsSourceRegionAndSubsampling() throws Exception {
+        for (int type : TYPES) {
+            for (int periodX : new int[]{1, 3}) {
+                BufferedImage source = pattern(50, 40, type);
+                JwuffPngWriteParam param = new JwuffPngWriteParam();
+                param.setSourceRegion(new Rectangle(5, 3, 30, 20));
+                int offsetX = periodX == 1 ? 0 : 1;
+                param.setSourceSubsampling(periodX, 2, offsetX, 0);
+
+                byte[] png = write(source, param);
+                BufferedImage decoded = jdkRead(png);
+                String what = "type " + type + " periodX " + periodX;
+                assertEquals((30 - offsetX + periodX - 1) / periodX, decoded.getWidth(), what);
+                assertEquals(10, decoded.getHeight(), what);
+                if (type == BufferedImage.TYPE_BYTE_GRAY) assertEquals(0, png[25], "gray color type");
+                for (int y = 0; y < decoded.getHeight(); y++) {
+                    for (int x = 0; x < decoded.getWidth(); x++) {
+                        assertEquals(source.getRGB(5 + offsetX + periodX * x, 3 + 2 * y), decoded.getRGB(x, y),
+                                what + " at " + x + "," + y);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void imageMetadataIsWrittenByTheJdkWriter() throws Exception {
+        BufferedImage source = pattern(40, 30, BufferedImage.TYPE_INT_RGB);
+        ImageWriter writer = new WuffsPngImageWriterSpi().createWriterInstance();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(bytes)) {
+            IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(source), null);
+            assertNotNull(metadata);
+            IIOMetadataNode text = new IIOMetadataNode("tEXt");
+            IIOMetadataNode entry = new IIOMetadataNode("tEXtEntry");
+            entry.setAttribute("keyword", "Title");
+            entry.setAttribute("value", "jwuff");
+            text.appendChild(entry);
+            IIOMetadataNode root = new IIOMetadataNode(PNG_FORMAT);
+            root.appendChild(text);
+            metadata.mergeTree(PNG_FORMAT, root);
+            writer.setOutput(out);
+            writer.write(new IIOImage(source, null, metadata));
+        } finally {
+            writer.dispose();
+        }
+
+        byte[] png = bytes.toByteArray();
+        assertEquals(1, countChunks(png, "tEXt"));
+        assertPixelsEqual(source, jdkRead(png), "with metadata");
+    }
+
+    @Test
+    void abortStopsBetweenBands() throws Exception {
+        BufferedImage source = pattern(1024, 1100, BufferedImage.TYPE_INT_ARGB);
+        ImageWriter writer = new WuffsPngImageWriterSpi().createWriterInstance();
+        AtomicBoolean aborted = new AtomicBoolean();
+        AtomicInteger progress = new AtomicInteger();
+        writer.addIIOWriteProgressListener(new IIOWriteProgressListener() {
+            @Override public void imageStarted(ImageWriter source, int imageIndex) {}
+            @Override public void imageProgress(ImageWriter source, float percentageDone) {
+                progress.incrementAndGet();
+                source.abort();
+            }
+            @Override public void imageComplete(ImageWriter source) {}
+            @Override public void thumbnailStarted(ImageWriter source, int imageIndex, int thumbnailIndex) {}
+            @Override public void thumbnailProgress(ImageWriter source, float percentageDone) {}
+            @Override public void thumbnailComplete(ImageWriter source) {}
+            @Override public void writeAborted(ImageWriter source) {
+                aborted.set(true);
+            }
+        });
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(source, null, null), null);
+        } finally {
+            writer.dispose();
+        }
+        assertTrue(aborted.get());
+        assertEquals(1, progress.get());
+    }
+
+    @Test
+    void rejectsSamplesDeeperThanEightBits() {
+        WuffsPngImageWriterSpi spi = new WuffsPngImageWriterSpi();
+        assertTrue(spi.canEncodeImage(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_ARGB)));
+        assertFalse(spi.canEncodeImage(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_USHORT_GRAY)));
+    }
+
+    @Test
+    void leavesPaletteImagesToOtherWriters() {
+        WuffsPngImageWriterSpi spi = new WuffsPngImageWriterSpi();
+        assertFalse(spi.canEncodeImage(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_BYTE_INDEXED)));
+        assertFalse(spi.canEncodeImage(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_BYTE_BINARY)));
+    }
+
+    private static byte[] write(BufferedImage image, ImageWriteParam param) throws Exception {
+        ImageWriter writer = new WuffsPngImageWriterSpi().createWriterInstance();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static BufferedImage jdkRead(byte[] png) throws Exception {
+        for (Iterator<ImageReader> it = ImageIO.getImageReadersByFormatName("png"); it.hasNext(); ) {
+            ImageReader reader = it.next();
+            if (reader.getClass().getName().startsWith("com.agulev.jwuff.")) continue;
+            try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(png))) {
+                reader.setInput(in);
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+        throw new AssertionError("no JDK PNG reader");
+    }
+
+    private static int countChunks(byte[] png, String type) {
+        int count = 0;
+        int at = 8;
+        while (at + 8 <= png.length) {
+            int length = ((png[at] & 0xFF) << 24) | ((png[at + 1] & 0xFF) << 16) | ((png[at + 2] & 0xFF) << 8)
+                    | (png[at + 3] & 0xFF);
+            if (new String(png, at + 4, 4, StandardCharsets.US_ASCII).equals(type)) count++;
+            at += 12 + length;
+        }
+        return count;
+    }
+
+    // Gradients with noise and translucency: exercises every filter and both literal and match coding.
+    private static BufferedImage pattern(int w, int h, int type) {
+        BufferedImage image = new BufferedImage(w, h, type);
+        long seed = 42;
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                seed = seed * 6364136223846793005L + 1442695040888963407L;
+                int noise = (int) (seed >>> 61);
+                int a = ((x + y) % 5 == 0) ? 0x80 : 0xFF;
+                int r = (x * 255 / w + noise) & 0xFF;
+                int g = (y * 255 / h) & 0xFF;
+                int b = ((x / 8 + y / 8) % 2) * 0xC0;
+                image.setRGB(x, y, a << 24 | r << 16 | g << 8 | b);
+            }
+        }
+        return image;
+    }
+}
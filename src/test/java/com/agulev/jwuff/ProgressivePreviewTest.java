@@ -0,0 +1,161 @@
+package com.agulev.jwuff;
+
+import com.agulev.jwuff.spi.WuffsPngImageReaderSpi;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static com.agulev.jwuff.TestImages.assertPixelsEqual;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProgressivePreviewTest {
+    @Test
+    void interlacedPngReportsEachAdam7Pass() throws Exception {
+        BufferedImage source = noise(37, 29);
+        Recorder recorder = new Recorder();
+        BufferedImage decoded = read(write(source, true), recorder);
+
+        assertEquals(List.of(
+                "pass 0 [0,0] 8x8 of 0-6", "update 0,0 33x25 8x8",
+                "pass 1 [4,0] 8x8 of 0-6", "update 4,0 33x25 8x8",
+                "pass 2 [0,4] 4x8 of 0-6", "update 0,4 37x25 4x8",
+                "pass 3 [2,0] 4x4 of 0-6", "update 2,0 33x29 4x4",
+                "pass 4 [0,2] 2x4 of 0-6", "update 0,2 37x25 2x4",
+                "pass 5 [1,0] 2x2 of 0-6", "update 1,0 35x29 2x2",
+                "pass 6 [0,1] 1x2 of 0-6", "update 0,1 37x27 1x2"
+        ), recorder.events);
+        assertEquals(7, recorder.completed);
+        for (BufferedImage image : recorder.images) assertSame(decoded, image);
+        assertPixelsEqual(source, decoded);
+    }
+
+    @Test
+    void earlyPassesArePublishedBeforeLaterOnesAreDecoded() throws Exception {
+        // Incompressible pixels: many 64 KiB input slices, so the first passes finish well before the last.
+        BufferedImage source = noise(640, 480);
+        List<Integer> alphaAtPassSevenPixel = new ArrayList<>();
+        Recorder recorder = new Recorder() {
+            @Override
+            public void passComplete(ImageReader source, BufferedImage theImage) {
+                super.passComplete(source, theImage);
+                alphaAtPassSevenPixel.add(theImage.getRGB(1, 1) >>> 24);
+            }
+        };
+        BufferedImage decoded = read(write(source, true), recorder);
+
+        assertEquals(7, alphaAtPassSevenPixel.size());
+        assertEquals(0, (int) alphaAtPassSevenPixel.get(0), "pass 7 pixel not yet decoded after pass 1");
+        assertEquals(0xFF, (int) alphaAtPassSevenPixel.get(6));
+        assertPixelsEqual(source, decoded);
+    }
+
+    @Test
+    void nonInterlacedImagesAreReportedAsOnePass() throws Exception {
+        BufferedImage source = noise(20, 10);
+        Recorder recorder = new Recorder();
+        read(write(source, false), recorder);
+        assertEquals(List.of("pass 0 [0,0] 1x1 of 0-0", "update 0,0 20x10 1x1"), recorder.events);
+        assertEquals(1, recorder.completed);
+    }
+
+    private static BufferedImage read(byte[] png, Recorder recorder) throws Exception {
+        ImageReader reader = new WuffsPngImageReaderSpi().createReaderInstance();
+        reader.addIIOReadUpdateListener(recorder);
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(png))) {
+            reader.setInput(in);
+            return reader.read(0);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private static byte[] write(BufferedImage image, boolean interlaced) throws Exception {
+        ImageWriter writer = jdkPngWriter();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setProgressiveMode(interlaced ? ImageWriteParam.MODE_DEFAULT : ImageWriteParam.MODE_DISABLED);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        byte[] png = bytes.toByteArray();
+        assertEquals(interlaced ? 1 : 0, png[28], "IHDR interlace method");
+        return png;
+    }
+
+    private static ImageWriter jdkPngWriter() {
+        Iterator<ImageWriter> it = ImageIO.getImageWritersByFormatName("png");
+        while (it.hasNext()) {
+            ImageWriter writer = it.next();
+            if (!writer.getClass().getName().startsWith("com.agulev.jwuff.")) return writer;
+            writer.dispose();
+        }
+        throw new AssertionError("no JDK PNG writer");
+    }
+
+    private static BufferedImage noise(int w, int h) {
+        BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        long seed = 3;
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                seed = seed * 6364136223846793005L + 1442695040888963407L;
+                image.setRGB(x, y, (int) (seed >>> 40));
+            }
+        }
+        return image;
+    }
+
+    private static class Recorder implements IIOReadUpdateListener {
+        final List<String> events = new ArrayList<>();
+        final List<BufferedImage> images = new ArrayList<>();
+        int completed;
+
+        @Override
+        public void passStarted(ImageReader source, BufferedImage theImage, int pass, int minPass, int maxPass,
+                                int minX, int minY, int periodX, int periodY, int[] bands) {
+            assertTrue(bands.length >= 3);
+            images.add(theImage);
+            events.add("pass " + pass + " [" + minX + "," + minY + "] " + periodX + "x" + periodY
+                    + " of " + minPass + "-" + maxPass);
+        }
+
+        @Override
+        public void imageUpdate(ImageReader source, BufferedImage theImage, int minX, int minY, int width,
+                                int height, int periodX, int periodY, int[] bands) {
+            events.add("update " + minX + "," + minY + " " + width + "x" + height + " " + periodX + "x" + periodY);
+        }
+
+        @Override
+        public void passComplete(ImageReader source, BufferedImage theImage) {
+            completed++;
+        }
+
+        @Override
+        public void thumbnailPassStarted(ImageReader source, BufferedImage theThumbnail, int pass, int minPass,
+                                         int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {}
+
+        @Override
+        public void thumbnailUpdate(ImageReader source, BufferedImage theThumbnail, int minX, int minY, int width,
+                                    int height, int periodX, int periodY, int[] bands) {}
+
+        @Override
+        public void thumbnailPassComplete(ImageReader source, BufferedImage theThumbnail) {}
+    }
+}
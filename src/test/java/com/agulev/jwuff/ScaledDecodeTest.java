@@ -0,0 +1,114 @@
+package com.agulev.jwuff;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.List;
+
+import static com.agulev.jwuff.TestImages.pattern;
+import static com.agulev.jwuff.TestImages.png;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScaledDecodeTest {
+    @Test
+    void fullSizeTargetReproducesTheDecode() throws Exception {
+        byte[] png = png(pattern(41, 29));
+        try (JwuffDecoder decoder = new JwuffDecoder()) {
+            byte[] expected = decoder.decode(png).bytes();
+            for (ResizeFilter filter : ResizeFilter.values()) {
+                assertArrayEquals(expected, decoder.decodeScaled(png, 41, 29, filter).bytes(), filter.toString());
+            }
+        }
+    }
+
+    @Test
+    void halvingWithBoxAveragesTwoByTwoBlocks() throws Exception {
+        BufferedImage source = pattern(40, 26);
+        try (JwuffDecoder decoder = new JwuffDecoder()) {
+            DecodedImage half = decoder.decodeScaled(png(source), 20, 13, ResizeFilter.BOX);
+            assertEquals(20, half.width());
+            assertEquals(13, half.height());
+            assertEquals(80, half.stride());
+            BufferedImage scaled = half.toBufferedImage();
+            for (int y = 0; y < 13; y++) {
+                for (int x = 0; x < 20; x++) {
+                    for (int shift = 0; shift < 24; shift += 8) {
+                        int sum = 0;
+                        for (int dy = 0; dy < 2; dy++) {
+                            for (int dx = 0; dx < 2; dx++) {
+                                sum += (source.getRGB(2 * x + dx, 2 * y + dy) >> shift) & 0xFF;
+                            }
+                        }
+                        int actual = (scaled.getRGB(x, y) >> shift) & 0xFF;
+                        assertTrue(Math.abs(actual - (sum + 2) / 4) <= 1, "at " + x + "," + y);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void oneDecodeProducesSeveralFittedSizes() throws Exception {
+        byte[] png = png(pattern(300, 200));
+        List<ScaleTarget> targets = List.of(ScaleTarget.fit(64), ScaleTarget.fit(150), ScaleTarget.fit(1024),
+                ScaleTarget.exact(10, 40));
+        try (JwuffDecoder decoder = new JwuffDecoder(); Arena arena = Arena.ofConfined()) {
+            for (ResizeFilter filter : ResizeFilter.values()) {
+                List<DecodedImage> images = decoder.decodeScaled(png, targets, filter, JwuffDecodeOptions.DEFAULT);
+                assertEquals(4, images.size());
+                assertSize(64, 43, images.get(0));
+                assertSize(150, 100, images.get(1));
+                assertSize(300, 200, images.get(2));  // fit never enlarges
+                assertSize(10, 40, images.get(3));
+
+                MemorySegment input = arena.allocate(png.length);
+                input.copyFrom(MemorySegment.ofArray(png));
+                List<DecodedImage> offHeap =
+                        decoder.decodeScaled(input, targets, filter, JwuffDecodeOptions.DEFAULT, arena);
+                for (int i = 0; i < targets.size(); i++) {
+                    assertTrue(offHeap.get(i).isNative());
+                    assertArrayEquals(images.get(i).bytes(), offHeap.get(i).bytes());
+                }
+            }
+        }
+    }
+
+    @Test
+    void transparentPixelsDoNotBleedColor() throws Exception {
+        BufferedImage source = new BufferedImage(32, 32, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < 32; y++) {
+            for (int x = 0; x < 32; x++) source.setRGB(x, y, ((x + y) & 1) == 0 ? 0xFFFF0000 : 0x0000FF00);
+        }
+        try (JwuffDecoder decoder = new JwuffDecoder()) {
+            for (ResizeFilter filter : ResizeFilter.values()) {
+                BufferedImage small = decoder.decodeScaled(png(source), 5, 5, filter).toBufferedImage();
+                int argb = small.getRGB(2, 2);
+                assertTrue(Math.abs((argb >>> 24) - 0x80) <= 2, filter + " alpha " + Integer.toHexString(argb));
+                assertTrue(((argb >> 8) & 0xFF) <= 2, filter + " green " + Integer.toHexString(argb));
+                assertTrue(((argb >> 16) & 0xFF) >= 0xFD, filter + " red " + Integer.toHexString(argb));
+            }
+        }
+    }
+
+    @Test
+    void rejectsInvalidArguments() throws Exception {
+        byte[] png = png(pattern(8, 8));
+        try (JwuffDecoder decoder = new JwuffDecoder()) {
+            assertThrows(IllegalArgumentException.class, () -> decoder.decodeScaled(png, 0, 4, ResizeFilter.BOX));
+            assertThrows(IllegalArgumentException.class, () -> decoder.decodeScaled(png, 4, 4, null));
+            assertThrows(IllegalArgumentException.class,
+                    () -> decoder.decodeScaled(png, List.of(), ResizeFilter.BOX, JwuffDecodeOptions.DEFAULT));
+        }
+    }
+
+    private static void assertSize(int width, int height, DecodedImage image) {
+        assertEquals(width, image.width());
+        assertEquals(height, image.height());
+        assertEquals(4L * width * height, image.segment().byteSize());
+    }
+}
@@ -0,0 +1,122 @@
+package com.agulev.jwuff;
+
+import com.agulev.jwuff.nativelib.WuffsException;
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static com.agulev.jwuff.TestImages.concat;
+import static com.agulev.jwuff.TestImages.encode;
+import static com.agulev.jwuff.TestImages.exif;
+import static com.agulev.jwuff.TestImages.jpegExifSegment;
+import static com.agulev.jwuff.TestImages.jpegSegment;
+import static com.agulev.jwuff.TestImages.pattern;
+import static com.agulev.jwuff.TestImages.pngChunk;
+import static com.agulev.jwuff.TestImages.splice;
+import static com.agulev.jwuff.TestImages.split;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScatterGatherDecodeTest {
+    @Test
+    void oneByteChunksMatchTheContiguousDecode() throws Exception {
+        for (String format : new String[]{"png", "jpeg"}) {
+            byte[] encoded = encode(pattern(40, 30), format);
+            try (JwuffDecoder decoder = new JwuffDecoder(1)) {
+                byte[] expected = decoder.decode(encoded).bytes();
+                DecodedImage image = decoder.decode(split(encoded, 1), JwuffDecodeOptions.DEFAULT);
+                assertEquals(40, image.width(), format);
+                assertArrayEquals(expected, image.bytes(), format);
+            }
+        }
+    }
+
+    @Test
+    void randomSplitsOfHeapAndDirectBuffersMatch() throws Exception {
+        Random random = new Random(42);
+        for (String format : new String[]{"png", "jpeg"}) {
+            byte[] encoded = encode(pattern(300, 200), format);
+            try (JwuffDecoder decoder = new JwuffDecoder(1)) {
+                byte[] expected = decoder.decode(encoded).bytes();
+                for (int round = 0; round < 20; round++) {
+                    List<ByteBuffer> chunks = new ArrayList<>();
+                    for (int at = 0; at < encoded.length; ) {
+                        int n = Math.min(encoded.length - at, random.nextInt(round % 2 == 0 ? 64 : 8192) + 1);
+                        ByteBuffer chunk = random.nextBoolean() ? ByteBuffer.allocateDirect(n) : ByteBuffer.allocate(n);
+                        chunk.put(encoded, at, n).flip();
+                        chunks.add(chunk);
+                        if (random.nextInt(8) == 0) chunks.add(ByteBuffer.allocate(0));
+                        at += n;
+                    }
+                    assertArrayEquals(expected, decoder.decode(chunks, JwuffDecodeOptions.DEFAULT).bytes(),
+                            format + " round " + round);
+                    assertEquals(0, chunks.get(0).position());
+                }
+            }
+        }
+    }
+
+    @Test
+    void decodesNativeChunksIntoNativeMemory() throws Exception {
+        byte[] png = encode(pattern(64, 48), "png");
+        try (JwuffDecoder decoder = new JwuffDecoder(); Arena arena = Arena.ofConfined()) {
+            byte[] expected = decoder.decode(png).bytes();
+            int half = png.length / 2;
+            MemorySegment first = arena.allocate(half);
+            MemorySegment second = arena.allocate(png.length - half);
+            MemorySegment.copy(png, 0, first, ValueLayout.JAVA_BYTE, 0L, half);
+            MemorySegment.copy(png, half, second, ValueLayout.JAVA_BYTE, 0L, png.length - half);
+
+            DecodedImage image = decoder.decode(new MemorySegment[]{first, second}, JwuffDecodeOptions.DEFAULT, arena);
+            assertTrue(image.isNative());
+            assertArrayEquals(expected, image.segment().toArray(ValueLayout.JAVA_BYTE));
+        }
+    }
+
+    @Test
+    void truncatedChunksFailAndLeaveTheSessionUsable() throws Exception {
+        byte[] png = encode(pattern(40, 30), "png");
+        try (JwuffDecoder decoder = new JwuffDecoder(1)) {
+            List<ByteBuffer> truncated = split(Arrays.copyOf(png, png.length / 2), 7);
+            assertThrows(WuffsException.class, () -> decoder.decode(truncated, JwuffDecodeOptions.DEFAULT));
+            assertEquals(40, decoder.decode(split(png, 7), JwuffDecodeOptions.DEFAULT).width());
+            assertThrows(IllegalArgumentException.class,
+                    () -> decoder.decode(List.of(ByteBuffer.allocate(0)), JwuffDecodeOptions.DEFAULT));
+        }
+    }
+
+    @Test
+    void orientationBehindLargeHeadersIsApplied() throws Exception {
+        // The EXIF data sits more than 64 KiB in, behind a large text chunk or comment segments.
+        byte[] text = new byte[100_000];
+        Arrays.fill(text, (byte) 'x');
+        System.arraycopy("Comment\0".getBytes(StandardCharsets.ISO_8859_1), 0, text, 0, 8);
+        byte[] png = splice(encode(pattern(40, 30), "png"), TestImages.PNG_AFTER_IHDR,
+                concat(pngChunk("tEXt", text), pngChunk("eXIf", exif(6))));
+        byte[] comment = Arrays.copyOf(text, 60_000);
+        byte[] jpeg = splice(encode(pattern(40, 30), "jpeg"), TestImages.JPEG_AFTER_SOI,
+                concat(jpegSegment(0xFE, comment), jpegSegment(0xFE, comment), jpegExifSegment(exif(6))));
+
+        JwuffDecodeOptions oriented = JwuffDecodeOptions.DEFAULT.withApplyOrientation(true);
+        try (JwuffDecoder decoder = new JwuffDecoder(1)) {
+            for (byte[] encoded : new byte[][]{png, jpeg}) {
+                DecodedImage whole = decoder.decode(encoded, oriented);
+                assertEquals(30, whole.width());
+                DecodedImage chunked = decoder.decode(split(encoded, 4096), oriented);
+                assertEquals(30, chunked.width());
+                assertEquals(40, chunked.height());
+                assertArrayEquals(whole.bytes(), chunked.bytes());
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.agulev.jwuff;
+
+import com.agulev.jwuff.model.ProbeResult;
+import com.agulev.jwuff.nativelib.WuffsFFI;
+import com.agulev.jwuff.nativelib.WuffsPixelFormat;
+import com.agulev.jwuff.spi.WuffsPngImageReaderSpi;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SixteenBitPngTest {
+    private static final int W = 37;
+    private static final int H = 11;
+
+    @Test
+    void probeReportsBitDepth() throws Exception {
+        ProbeResult eight;
+        try (InputStream in = getClass().getResourceAsStream("/images/onepx.png")) {
+            assertNotNull(in);
+            eight = WuffsFFI.probe(in.readAllBytes());
+        }
+        assertEquals(8, eight.bitDepth());
+        assertEquals(WuffsPixelFormat.BGRA_NONPREMUL, eight.pixelFormat());
+
+        ProbeResult rgba = WuffsFFI.probe(encode(rgba16()));
+        assertEquals(16, rgba.bitDepth());
+        assertEquals(WuffsPixelFormat.RGBA_NONPREMUL_4X16LE, rgba.pixelFormat());
+
+        ProbeResult gray = WuffsFFI.probe(encode(gray16()));
+        assertEquals(16, gray.bitDepth());
+        assertEquals(WuffsPixelFormat.Y_16LE, gray.pixelFormat());
+    }
+
+    @Test
+    void decodesRgba16WithoutPrecisionLoss() throws Exception {
+        BufferedImage source = rgba16();
+        BufferedImage decoded = read(encode(source), null);
+
+        assertTrue(decoded.getRaster().getDataBuffer() instanceof DataBufferUShort);
+        assertEquals(DataBuffer.TYPE_USHORT, decoded.getColorModel().getTransferType());
+        assertTrue(decoded.getColorModel().hasAlpha());
+        assertArrayEquals(samples(source), samples(decoded));
+    }
+
+    @Test
+    void decodesGray16WithoutPrecisionLoss() throws Exception {
+        BufferedImage source = gray16();
+        BufferedImage decoded = read(encode(source), null);
+
+        assertTrue(decoded.getRaster().getDataBuffer() instanceof DataBufferUShort);
+        assertEquals(1, decoded.getRaster().getNumBands());
+        assertEquals(ColorSpace.TYPE_GRAY, decoded.getColorModel().getColorSpace().getType());
+        assertArrayEquals(samples(source), samples(decoded));
+    }
+
+    @Test
+    void eightBitDestinationTypeKeepsBgraPath() throws Exception {
+        BufferedImage source = rgba16();
+        byte[] png = encode(source);
+
+        ImageReadParam param = new ImageReadParam();
+        param.setDestinationType(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_4BYTE_ABGR));
+        BufferedImage decoded = read(png, param);
+
+        assertEquals(DataBuffer.TYPE_BYTE, decoded.getRaster().getDataBuffer().getDataType());
+        int[] px = source.getRaster().getPixel(5, 3, (int[]) null);
+        int argb = decoded.getRGB(5, 3);
+        assertEquals(px[0] >>> 8, (argb >>> 16) & 0xFF);
+        assertEquals(px[3] >>> 8, argb >>> 24);
+    }
+
+    private static BufferedImage read(byte[] png, ImageReadParam param) throws Exception {
+        ImageReader reader = new WuffsPngImageReaderSpi().createReaderInstance();
+        try (ImageInputStream iis = JwuffImageIO.createImageInputStream(png)) {
+            reader.setInput(iis, false, true);
+            return reader.read(0, param);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private static BufferedImage rgba16() {
+        ComponentColorModel cm = new ComponentColorModel(
+                ColorSpace.getInstance(ColorSpace.CS_sRGB), true, false, Transparency.TRANSLUCENT, DataBuffer.TYPE_USHORT);
+        WritableRaster raster = cm.createCompatibleWritableRaster(W, H);
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                // Low bytes differ between neighbours, so an 8-bit round trip would not match.
+                raster.setPixel(x, y, new int[]{x * 1771 + 3, y * 5953 + 1, (x * y * 257 + 11) & 0xFFFF, 0xFFFF - x * 13});
+            }
+        }
+        return new BufferedImage(cm, raster, false, null);
+    }
+
+    private static BufferedImage gray16() {
+        BufferedImage image = new BufferedImage(W, H, BufferedImage.TYPE_USHORT_GRAY);
+        WritableRaster raster = image.getRaster();
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) raster.setSample(x, y, 0, (x * 1499 + y * 173) & 0xFFFF);
+        }
+        return image;
+    }
+
+    private static int[] samples(BufferedImage image) {
+        Raster raster = image.getRaster();
+        return raster.getPixels(0, 0, raster.getWidth(), raster.getHeight(), (int[]) null);
+    }
+
+    private static byte[] encode(BufferedImage image) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(ImageIO.write(image, "png", out));
+        return out.toByteArray();
+    }
+}
@@ -3,11 +3,14 @@ package com.agulev.jwuff;
 import org.junit.jupiter.api.Test;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
 import javax.imageio.spi.IIORegistry;
 import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.spi.ImageWriterSpi;
 import java.util.HashSet;
 import java.util.Set;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class SpiRegistrationTest {
@@ -22,4 +25,19 @@ class SpiRegistrationTest {
         assertTrue(providers.contains("com.agulev.jwuff.spi.WuffsJpegImageReaderSpi"));
         assertTrue(providers.contains("com.agulev.jwuff.spi.WuffsPngImageReaderSpi"));
     }
+
+    @Test
+    void registersPngWriterSpiAheadOfTheJdkWriter() {
+        ImageIO.scanForPlugins();
+
+        IIORegistry registry = IIORegistry.getDefaultInstance();
+        Set<String> providers = new HashSet<>();
+        registry.getServiceProviders(ImageWriterSpi.class, false).forEachRemaining(p -> providers.add(p.getClass().getName()));
+        assertTrue(providers.contains("com.agulev.jwuff.spi.WuffsPngImageWriterSpi"));
+
+        JwuffImageIO.register();
+        ImageWriter first = ImageIO.getImageWritersByFormatName("png").next();
+        assertEquals("com.agulev.jwuff.writer.WuffsPngImageWriter", first.getClass().getName());
+        first.dispose();
+    }
 }
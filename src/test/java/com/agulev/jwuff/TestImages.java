@@ -0,0 +1,161 @@
+package com.agulev.jwuff;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Test images encoded with the JDK writers, and the PNG chunks and JPEG segments tests splice into them.
+ */
+public final class TestImages {
+    // The PNG signature and the IHDR chunk.
+    public static final int PNG_AFTER_IHDR = 8 + 12 + 13;
+    // The JPEG SOI marker.
+    public static final int JPEG_AFTER_SOI = 2;
+
+    private static final byte[] EXIF_APP1_PREFIX = {'E', 'x', 'i', 'f', 0, 0};
+
+    private TestImages() {}
+
+    /**
+     * Returns an opaque {@code TYPE_INT_RGB} gradient whose low bits vary from pixel to pixel.
+     */
+    public static BufferedImage pattern(int w, int h) {
+        return pattern(w, h, BufferedImage.TYPE_INT_RGB);
+    }
+
+    public static BufferedImage pattern(int w, int h, int type) {
+        BufferedImage image = new BufferedImage(w, h, type);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                image.setRGB(x, y, 0xFF000000 | (x * 7 & 0xFF) << 16 | (y * 11 & 0xFF) << 8 | (x ^ y) & 0xFF);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Encodes {@code image} with the JDK writer for {@code format}, even once {@link JwuffImageIO#register()} has
+     * ordered jwuff's PNG writer first.
+     */
+    public static byte[] encode(BufferedImage image, String format) {
+        ImageWriter writer = jdkWriter(ImageTypeSpecifier.createFromRenderedImage(image), format);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(ios);
+            writer.write(image);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns a JDK writer for {@code format} that can write {@code type}, skipping jwuff's own writers.
+     */
+    public static ImageWriter jdkWriter(ImageTypeSpecifier type, String format) {
+        for (Iterator<ImageWriter> it = ImageIO.getImageWriters(type, format); it.hasNext(); ) {
+            ImageWriter writer = it.next();
+            if (!writer.getClass().getName().startsWith("com.agulev.jwuff.")) return writer;
+        }
+        throw new AssertionError("no JDK " + format + " writer for " + type);
+    }
+
+    public static byte[] png(BufferedImage image) {
+        return encode(image, "png");
+    }
+
+    public static void assertPixelsEqual(BufferedImage expected, BufferedImage actual) {
+        assertPixelsEqual(expected, actual, "");
+    }
+
+    public static void assertPixelsEqual(BufferedImage expected, BufferedImage actual, String what) {
+        assertEquals(expected.getWidth(), actual.getWidth(), what);
+        assertEquals(expected.getHeight(), actual.getHeight(), what);
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(expected.getRGB(x, y), actual.getRGB(x, y), what + " at " + x + "," + y);
+            }
+        }
+    }
+
+    /**
+     * Returns a big-endian TIFF header with one IFD0 entry: Orientation (0x0112), SHORT, count 1.
+     */
+    public static byte[] exif(int orientation) {
+        return ByteBuffer.allocate(26)
+                .put(new byte[]{'M', 'M', 0, 42}).putInt(8)
+                .putShort((short) 1)
+                .putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) orientation).putShort((short) 0)
+                .putInt(0)
+                .array();
+    }
+
+    public static byte[] pngChunk(String type, byte[] data) {
+        ByteBuffer chunk = ByteBuffer.allocate(12 + data.length);
+        chunk.putInt(data.length).put(type.getBytes(StandardCharsets.US_ASCII)).put(data);
+        CRC32 crc = new CRC32();
+        crc.update(chunk.array(), 4, 4 + data.length);
+        return chunk.putInt((int) crc.getValue()).array();
+    }
+
+    public static byte[] jpegSegment(int marker, byte[] payload) {
+        return ByteBuffer.allocate(4 + payload.length)
+                .put((byte) 0xFF).put((byte) marker).putShort((short) (2 + payload.length)).put(payload)
+                .array();
+    }
+
+    /**
+     * Inserts an eXIf chunk after IHDR. The JDK writer has no eXIf support.
+     */
+    public static byte[] withPngExif(byte[] png, byte[] exif) {
+        return splice(png, PNG_AFTER_IHDR, pngChunk("eXIf", exif));
+    }
+
+    /**
+     * Inserts an APP1 Exif segment right after SOI.
+     */
+    public static byte[] withJpegExif(byte[] jpeg, byte[] exif) {
+        return splice(jpeg, JPEG_AFTER_SOI, jpegExifSegment(exif));
+    }
+
+    public static byte[] jpegExifSegment(byte[] exif) {
+        return jpegSegment(0xE1, concat(EXIF_APP1_PREFIX, exif));
+    }
+
+    public static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) out.writeBytes(part);
+        return out.toByteArray();
+    }
+
+    public static byte[] splice(byte[] bytes, int at, byte[] insert) {
+        return concat(Arrays.copyOf(bytes, at), insert, Arrays.copyOfRange(bytes, at, bytes.length));
+    }
+
+    /**
+     * Splits {@code data} into buffers of {@code size} bytes (the last may be shorter).
+     */
+    public static List<ByteBuffer> split(byte[] data, int size) {
+        List<ByteBuffer> chunks = new ArrayList<>();
+        for (int at = 0; at < data.length; at += size) {
+            chunks.add(ByteBuffer.wrap(data, at, Math.min(size, data.length - at)).slice());
+        }
+        return chunks;
+    }
+}
@@ -4,10 +4,10 @@ import com.sun.management.ThreadMXBean;
 
 import java.lang.management.ManagementFactory;
 
-final class ThreadAllocations {
+public final class ThreadAllocations {
     private ThreadAllocations() {}
 
-    static long measureAllocatedBytesForCurrentThread(Runnable op) {
+    public static long measureAllocatedBytesForCurrentThread(Runnable op) {
         ThreadMXBean mx = (ThreadMXBean) ManagementFactory.getThreadMXBean();
         if (!mx.isThreadAllocatedMemorySupported()) {
             return -1L;
@@ -22,7 +22,7 @@ final class ThreadAllocations {
         return Math.max(0L, after - before);
     }
 
-    static long measureAllocatedBytesForNewThread(Runnable op) throws Exception {
+    public static long measureAllocatedBytesForNewThread(Runnable op) throws Exception {
         ThreadMXBean mx = (ThreadMXBean) ManagementFactory.getThreadMXBean();
         if (!mx.isThreadAllocatedMemorySupported()) {
             return -1L;